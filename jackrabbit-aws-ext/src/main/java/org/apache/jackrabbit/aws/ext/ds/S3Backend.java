@@ -44,6 +44,8 @@ import org.apache.jackrabbit.core.data.AsyncUploadResult;
 import org.apache.jackrabbit.core.data.CachingDataStore;
 import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.data.DataStoreException;
+import org.apache.jackrabbit.core.data.MultipartBackend;
+import org.apache.jackrabbit.core.data.MultipartUpload;
 import org.apache.jackrabbit.core.data.util.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,25 +56,35 @@ import com.amazonaws.event.ProgressEvent;
 import com.amazonaws.event.ProgressListener;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListPartsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PartListing;
+import com.amazonaws.services.s3.model.PartSummary;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.Region;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.services.s3.transfer.Copy;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.Upload;
+import com.amazonaws.util.BinaryUtils;
 import com.amazonaws.util.StringUtils;
 
 /**
  * A data store backend that stores data on Amazon S3.
  */
-public class S3Backend extends AbstractBackend {
+public class S3Backend extends AbstractBackend implements MultipartBackend {
 
     /**
      * Logger instance.
@@ -696,6 +708,141 @@ public class S3Backend extends AbstractBackend {
                 (System.currentTimeMillis() - start) });
     }
 
+    /**
+     * Starts a multipart upload using the low level S3 API, or resumes the
+     * upload with the identifier kept in the manifest if S3 still knows it.
+     * Parts already uploaded are listed with their ETag, which S3 computes as
+     * the MD5 checksum of the part, so that corrupt parts are uploaded again.
+     */
+    @Override
+    public Set<Integer> startMultipartUpload(MultipartUpload upload)
+            throws DataStoreException {
+        String key = getKeyName(upload.getIdentifier());
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            Set<Integer> stored = new HashSet<Integer>();
+            if (upload.getUploadId() != null) {
+                try {
+                    ListPartsRequest req = new ListPartsRequest(bucket, key,
+                        upload.getUploadId());
+                    PartListing listing;
+                    do {
+                        listing = s3service.listParts(req);
+                        for (PartSummary summary : listing.getParts()) {
+                            int index = summary.getPartNumber() - 1;
+                            if (index < upload.getParts().size()
+                                && upload.getParts().get(index).getChecksum().equals(
+                                    summary.getETag().replace("\"", ""))) {
+                                stored.add(index);
+                            }
+                        }
+                        req.setPartNumberMarker(listing.getNextPartNumberMarker());
+                    } while (listing.isTruncated());
+                    LOG.debug("Resuming upload [{}] of [{}], [{}] parts stored",
+                        new Object[] { upload.getUploadId(), key, stored.size() });
+                    return stored;
+                } catch (AmazonServiceException ase) {
+                    if (ase.getStatusCode() != 404) {
+                        throw ase;
+                    }
+                    LOG.info("Upload [{}] of [{}] not found, restarting",
+                        upload.getUploadId(), key);
+                }
+            }
+            InitiateMultipartUploadResult result = s3service.initiateMultipartUpload(
+                s3ReqDecorator.decorate(new InitiateMultipartUploadRequest(
+                    bucket, key)));
+            upload.setUploadId(result.getUploadId());
+            return stored;
+        } catch (AmazonClientException e) {
+            throw new DataStoreException("Could not start upload of " + key, e);
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
+    @Override
+    public void writePart(MultipartUpload upload, MultipartUpload.Part part,
+            InputStream in) throws DataStoreException {
+        String key = getKeyName(upload.getIdentifier());
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            // S3 verifies the part against the Content-MD5 header
+            UploadPartRequest req = new UploadPartRequest()
+                .withBucketName(bucket).withKey(key)
+                .withUploadId(upload.getUploadId())
+                .withPartNumber(part.getIndex() + 1)
+                .withPartSize(part.getLength())
+                .withMD5Digest(BinaryUtils.toBase64(
+                    BinaryUtils.fromHex(part.getChecksum())))
+                .withInputStream(in);
+            s3service.uploadPart(req);
+        } catch (AmazonClientException e) {
+            throw new DataStoreException("Could not upload part [" + part
+                + "] of " + key, e);
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
+    @Override
+    public void completeMultipartUpload(MultipartUpload upload)
+            throws DataStoreException {
+        String key = getKeyName(upload.getIdentifier());
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            List<PartETag> etags = new ArrayList<PartETag>();
+            for (MultipartUpload.Part part : upload.getParts()) {
+                etags.add(new PartETag(part.getIndex() + 1, part.getChecksum()));
+            }
+            s3service.completeMultipartUpload(new CompleteMultipartUploadRequest(
+                bucket, key, upload.getUploadId(), etags));
+            LOG.debug("Upload [{}] of [{}] completed", upload.getUploadId(), key);
+        } catch (AmazonClientException e) {
+            throw new DataStoreException("Could not complete upload of " + key, e);
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
+    @Override
+    public void abortMultipartUpload(MultipartUpload upload)
+            throws DataStoreException {
+        if (upload.getUploadId() == null) {
+            return;
+        }
+        String key = getKeyName(upload.getIdentifier());
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            s3service.abortMultipartUpload(new AbortMultipartUploadRequest(
+                bucket, key, upload.getUploadId()));
+        } catch (AmazonServiceException ase) {
+            if (ase.getStatusCode() != 404) {
+                throw new DataStoreException("Could not abort upload of " + key, ase);
+            }
+        } catch (AmazonClientException e) {
+            throw new DataStoreException("Could not abort upload of " + key, e);
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
     /**
      * This method rename object keys in S3 concurrently. The number of
      * concurrent threads is defined by 'maxConnections' property in
@@ -18,6 +18,8 @@ package org.apache.jackrabbit.core;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 
 import javax.jcr.NoSuchWorkspaceException;
@@ -28,9 +30,11 @@ import org.apache.jackrabbit.core.cluster.ClusterNode;
 import org.apache.jackrabbit.core.config.RepositoryConfig;
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.fs.FileSystem;
+import org.apache.jackrabbit.core.gc.BinaryReferenceLog;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.NodeIdFactory;
 import org.apache.jackrabbit.core.nodetype.NodeTypeRegistry;
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.security.JackrabbitSecurityManager;
 import org.apache.jackrabbit.core.security.authorization.PrivilegeRegistry;
 import org.apache.jackrabbit.core.state.ItemStateCacheFactory;
@@ -130,6 +134,13 @@ public class RepositoryContext {
      */
     private volatile boolean gcRunning;
 
+    /**
+     * The binary reference logs of the persistence managers, used by the
+     * incremental data store garbage collection.
+     */
+    private final Map<PersistenceManager, BinaryReferenceLog> referenceLogs =
+        new ConcurrentHashMap<PersistenceManager, BinaryReferenceLog>();
+
     /**
      * Creates a component context for the given repository.
      *
@@ -470,6 +481,31 @@ public class RepositoryContext {
     public synchronized void setGcRunning(boolean gcRunning) {
         this.gcRunning = gcRunning;
     }
+
+    /**
+     * Returns the binary reference log of the given persistence manager.
+     *
+     * @param pm persistence manager
+     * @return binary reference log, or <code>null</code> if none is kept
+     */
+    public BinaryReferenceLog getBinaryReferenceLog(PersistenceManager pm) {
+        return referenceLogs.get(pm);
+    }
+
+    /**
+     * Sets the binary reference log of the given persistence manager.
+     *
+     * @param pm persistence manager
+     * @param log binary reference log, or <code>null</code> to remove it
+     */
+    public void setBinaryReferenceLog(
+            PersistenceManager pm, BinaryReferenceLog log) {
+        if (log != null) {
+            referenceLogs.put(pm, log);
+        } else {
+            referenceLogs.remove(pm);
+        }
+    }
     
     
 
@@ -76,9 +76,11 @@ import org.apache.jackrabbit.core.data.DataStoreException;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.fs.FileSystemException;
 import org.apache.jackrabbit.core.fs.FileSystemResource;
+import org.apache.jackrabbit.core.gc.BinaryReferenceLog;
 import org.apache.jackrabbit.core.gc.GarbageCollector;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.NodeIdFactory;
+import org.apache.jackrabbit.core.journal.Checkpoint;
 import org.apache.jackrabbit.core.lock.LockManager;
 import org.apache.jackrabbit.core.lock.LockManagerImpl;
 import org.apache.jackrabbit.core.nodetype.NodeTypeRegistry;
@@ -104,13 +106,13 @@ import org.apache.jackrabbit.core.state.ItemStateException;
 import org.apache.jackrabbit.core.state.ManagedMLRUItemStateCacheFactory;
 import org.apache.jackrabbit.core.state.SharedItemStateManager;
 import org.apache.jackrabbit.core.util.RepositoryLockMechanism;
-import org.apache.jackrabbit.core.version.InternalVersionManager;
 import org.apache.jackrabbit.core.version.InternalVersionManagerImpl;
 import org.apache.jackrabbit.core.xml.ClonedInputSource;
 import org.apache.jackrabbit.data.core.TransactionException;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 import org.apache.jackrabbit.spi.commons.namespace.RegistryNamespaceResolver;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 import org.apache.jackrabbit.value.ValueFactoryImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -317,6 +319,12 @@ public class RepositoryImpl extends AbstractRepository
             if (clusterNode != null) {
                 vMgr.setEventChannel(clusterNode.createUpdateChannel(null));
             }
+            BinaryReferenceLog versionLog = createBinaryReferenceLog("version");
+            if (versionLog != null) {
+                vMgr.setBinaryReferenceLog(versionLog);
+                context.setBinaryReferenceLog(
+                        vMgr.getPersistenceManager(), versionLog);
+            }
 
             // init virtual node type manager
             virtNTMgr = new VirtualNodeTypeStateManager(
@@ -1126,9 +1134,10 @@ public class RepositoryImpl extends AbstractRepository
         }
 
         try {
-            InternalVersionManager m = context.getInternalVersionManager();
+            InternalVersionManagerImpl m = context.getInternalVersionManager();
             if (m != null) {
                 m.close();
+                closeBinaryReferenceLog(m.getPersistenceManager());
             }
         } catch (Exception e) {
             log.error("Error while closing Version Manager.", e);
@@ -1404,6 +1413,55 @@ public class RepositoryImpl extends AbstractRepository
                 context.getNodeIdFactory());
     }
 
+    /**
+     * Opens the log of the binary references stored in a persistence manager,
+     * which is used by the incremental data store garbage collection. The
+     * log is only kept if enabled by the
+     * {@link BinaryReferenceLog#INCREMENTAL_PROPERTY} system property, if a
+     * data store is configured and if the repository is not clustered, as
+     * the changes of other cluster nodes are not seen.
+     *
+     * @param name <code>version</code> for the version storage, or the
+     *             workspace name
+     * @return the log, or <code>null</code> if none is kept
+     */
+    protected BinaryReferenceLog createBinaryReferenceLog(String name) {
+        File directory = new File(repConfig.getHomeDir(), "gc");
+        if (!"version".equals(name)) {
+            directory = new File(new File(directory, "workspaces"), name);
+        } else {
+            directory = new File(directory, name);
+        }
+        if (!BinaryReferenceLog.isEnabled()
+                || context.getDataStore() == null
+                || context.getClusterNode() != null) {
+            // the log is outdated if it is used again later on
+            BinaryReferenceLog.invalidate(directory);
+            return null;
+        }
+        try {
+            return new BinaryReferenceLog(directory);
+        } catch (IOException e) {
+            log.warn("Unable to open the binary reference log in " + directory
+                    + ", the data store garbage collection will scan all nodes", e);
+            return null;
+        }
+    }
+
+    /**
+     * Closes the binary reference log of the given persistence manager, if
+     * there is one.
+     *
+     * @param pm persistence manager
+     */
+    private void closeBinaryReferenceLog(PersistenceManager pm) {
+        BinaryReferenceLog referenceLog = context.getBinaryReferenceLog(pm);
+        if (referenceLog != null) {
+            context.setBinaryReferenceLog(pm, null);
+            referenceLog.close();
+        }
+    }
+
     /**
      * Creates a data store garbage collector for this repository.
      * <p>
@@ -2079,6 +2137,12 @@ public class RepositoryImpl extends AbstractRepository
                         ((ConsistencyChecker) persistMgr).setEventChannel(updateChannel);
                     }
                 }
+                BinaryReferenceLog referenceLog =
+                    createBinaryReferenceLog(getName());
+                if (referenceLog != null) {
+                    itemStateMgr.setBinaryReferenceLog(referenceLog);
+                    context.setBinaryReferenceLog(persistMgr, referenceLog);
+                }
             } catch (ItemStateException ise) {
                 String msg = "failed to instantiate shared item state manager";
                 log.debug(msg);
@@ -2248,6 +2312,8 @@ public class RepositoryImpl extends AbstractRepository
             itemStateMgr.dispose();
             itemStateMgr = null;
 
+            closeBinaryReferenceLog(persistMgr);
+
             // close persistence manager
             try {
                 persistMgr.close();
@@ -2452,6 +2518,34 @@ public class RepositoryImpl extends AbstractRepository
             getWorkspaceInfo(workspace).getLockManager();
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        public RepositoryStatisticsImpl getRepositoryStatistics() {
+            return context.getRepositoryStatistics();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void createIndexSnapshots(Checkpoint checkpoint)
+                throws RepositoryException {
+            try {
+                for (String name : getWorkspaceNames()) {
+                    SearchManager searchMgr = getWorkspaceInfo(name).getSearchManager();
+                    if (searchMgr != null) {
+                        searchMgr.createSnapshot(checkpoint.getIndexDirectory(name));
+                    }
+                }
+                if (systemSearchMgr != null) {
+                    systemSearchMgr.createSnapshot(checkpoint.getIndexDirectory(null));
+                }
+            } catch (IOException e) {
+                throw new RepositoryException(
+                        "Unable to create index snapshot in " + checkpoint, e);
+            }
+        }
+
     }
 
     /**
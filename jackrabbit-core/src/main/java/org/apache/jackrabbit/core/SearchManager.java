@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -44,6 +45,7 @@ import org.apache.jackrabbit.core.query.QueryHandler;
 import org.apache.jackrabbit.core.query.QueryHandlerContext;
 import org.apache.jackrabbit.core.query.QueryHandlerFactory;
 import org.apache.jackrabbit.core.query.QueryObjectModelImpl;
+import org.apache.jackrabbit.core.query.lucene.SearchIndex;
 import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.core.state.ItemStateException;
 import org.apache.jackrabbit.core.state.NodeState;
@@ -306,6 +308,21 @@ public class SearchManager implements SynchronousEventListener {
 
     //------------------------< for testing only >------------------------------
 
+    /**
+     * Writes a snapshot of the search index into the given directory. Does
+     * nothing if the query handler does not support snapshots.
+     *
+     * @param directory the directory where the snapshot is written
+     * @throws IOException if the snapshot can not be written
+     */
+    public void createSnapshot(File directory) throws IOException {
+        if (handler instanceof SearchIndex) {
+            ((SearchIndex) handler).createSnapshot(directory);
+        } else {
+            log.debug("Query handler does not support snapshots: {}", handler);
+        }
+    }
+
     /**
      * @return the query handler implementation.
      */
@@ -58,6 +58,14 @@ public class CacheManager implements CacheAccessListener {
     /** The default minimum stats logging interval (in ms). */
     private static final int DEFAULT_LOG_STATS_INTERVAL = 60 * 1000;
 
+    /**
+     * The cache implementation used by {@link #createCache(String)}: either
+     * "concurrent" (the default) for {@link ConcurrentCache} or "frequency"
+     * for {@link FrequencyCache}.
+     */
+    private static final String CACHE_TYPE = System.getProperty(
+            "org.apache.jackrabbit.cacheType", "concurrent");
+
     /** The size of a big object, to detect if a cache is full or not. */
     private static final int BIG_OBJECT_SIZE = 16 * 1024;
 
@@ -128,6 +136,21 @@ public class CacheManager implements CacheAccessListener {
         this.minResizeInterval = minResizeInterval;
     }
 
+    /**
+     * Creates a new cache of the implementation selected by the
+     * <code>org.apache.jackrabbit.cacheType</code> system property.
+     *
+     * @param name the name of the cache
+     * @return a new cache
+     */
+    public static <K, V> KeyValueCache<K, V> createCache(String name) {
+        if ("frequency".equals(CACHE_TYPE)) {
+            return new FrequencyCache<K, V>(name);
+        } else {
+            return new ConcurrentCache<K, V>(name);
+        }
+    }
+
     /**
      * After one of the caches is accessed a number of times, this method is called.
      * Resize the caches if required.
@@ -29,7 +29,8 @@ import java.util.Map;
  * eviction algorithm similar but not exactly the same as LRU. None of the
  * methods of this class are synchronized, but they are all thread-safe.
  */
-public class ConcurrentCache<K, V> extends AbstractCache {
+public class ConcurrentCache<K, V> extends AbstractCache
+        implements KeyValueCache<K, V> {
 
     /**
      * Default number of cache segments to use. Use the number of available
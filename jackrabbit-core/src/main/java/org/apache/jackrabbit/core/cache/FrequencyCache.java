@@ -0,0 +1,543 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent cache implementation with lock-free reads and a scan-resistant,
+ * frequency-aware eviction policy (W-TinyLFU). Entries are kept in a
+ * {@link ConcurrentHashMap}, so {@link #get(Object)} never blocks. Instead
+ * of updating the eviction order on every read, reads are recorded in small
+ * lossy ring buffers that are replayed in batches by the thread that holds
+ * the eviction lock. Writes take the eviction lock.
+ * <p>
+ * New entries are first added to a small LRU "window" that takes about one
+ * percent of the cache memory. Entries leaving the window are admitted to
+ * the main space only if they have been accessed more often than the entry
+ * that would be evicted in exchange, as estimated by a
+ * {@link FrequencySketch}. The main space is split in a probation and a
+ * protected LRU segment, and entries are promoted to the protected segment
+ * when they are accessed while on probation. This prevents a single large
+ * scan, like a traversal of the whole repository, from flushing the
+ * frequently used entries from the cache.
+ * <p>
+ * Like the other caches, the memory limit is controlled by the
+ * {@link CacheManager}, and the cache is shrunk as soon as the limit is
+ * lowered. The bundle and item state caches use this implementation if the
+ * system property <code>org.apache.jackrabbit.cacheType</code> is set to
+ * "frequency".
+ */
+public class FrequencyCache<K, V> extends AbstractCache
+        implements KeyValueCache<K, V> {
+
+    /** Percentage of the cache memory used by the window segment. */
+    private static final int WINDOW_PERCENT = 1;
+
+    /** Percentage of the main space used by the protected segment. */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /** Number of read buffers, a power of two. */
+    private static final int NUMBER_OF_READ_BUFFERS = Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+
+    /** Number of entries in each read buffer, a power of two. */
+    private static final int READ_BUFFER_SIZE = 32;
+
+    /** The segments an entry can be in. */
+    private static final int NONE = 0, WINDOW = 1, PROBATION = 2, PROTECTED = 3;
+
+    /**
+     * A cache entry. The links and the segment are only accessed while
+     * holding the eviction lock.
+     */
+    private static class Node<K, V> {
+
+        private final K key;
+
+        private final V value;
+
+        private final long size;
+
+        private Node<K, V> prev;
+
+        private Node<K, V> next;
+
+        private int segment = NONE;
+
+        Node(K key, V value, long size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+
+    }
+
+    /**
+     * A doubly linked list of entries in access order, from the least
+     * recently used (head) to the most recently used (tail) entry.
+     */
+    private static class Segment<K, V> {
+
+        private final int id;
+
+        private Node<K, V> head;
+
+        private Node<K, V> tail;
+
+        private long size;
+
+        Segment(int id) {
+            this.id = id;
+        }
+
+        void add(Node<K, V> node) {
+            node.segment = id;
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size += node.size;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.segment = NONE;
+            size -= node.size;
+        }
+
+        void moveToTail(Node<K, V> node) {
+            if (node != tail) {
+                remove(node);
+                add(node);
+            }
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+            size = 0;
+        }
+
+    }
+
+    /**
+     * A lossy buffer of recently read entries. Reads are dropped when the
+     * buffer is full, which only affects the accuracy of the eviction order.
+     */
+    private static class ReadBuffer<K, V> {
+
+        private final AtomicReferenceArray<Node<K, V>> nodes =
+            new AtomicReferenceArray<Node<K, V>>(READ_BUFFER_SIZE);
+
+        /** Index of the next entry to write. */
+        private final AtomicLong writeIndex = new AtomicLong();
+
+        /** Index of the next entry to drain, only updated under the lock. */
+        private volatile long readIndex;
+
+        /**
+         * Records a read of the given node.
+         *
+         * @return <code>true</code> if the buffer should be drained
+         */
+        boolean offer(Node<K, V> node) {
+            long w = writeIndex.get();
+            long pending = w - readIndex;
+            if (pending >= READ_BUFFER_SIZE) {
+                return true;
+            }
+            if (writeIndex.compareAndSet(w, w + 1)) {
+                nodes.lazySet((int) (w & (READ_BUFFER_SIZE - 1)), node);
+                return pending + 1 >= READ_BUFFER_SIZE / 2;
+            }
+            return false;
+        }
+
+        void drain(FrequencyCache<K, V> cache) {
+            long r = readIndex;
+            long w = writeIndex.get();
+            for (; r < w; r++) {
+                int index = (int) (r & (READ_BUFFER_SIZE - 1));
+                Node<K, V> node = nodes.get(index);
+                if (node == null) {
+                    // the writer has not yet published the entry
+                    break;
+                }
+                nodes.lazySet(index, null);
+                cache.onAccess(node);
+            }
+            readIndex = r;
+        }
+
+    }
+
+    private final String name;
+
+    private final ConcurrentHashMap<K, Node<K, V>> map =
+        new ConcurrentHashMap<K, Node<K, V>>();
+
+    private final ReadBuffer<K, V>[] readBuffers;
+
+    /** Guards the segments and the frequency sketch. */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final Segment<K, V> window = new Segment<K, V>(WINDOW);
+
+    private final Segment<K, V> probation = new Segment<K, V>(PROBATION);
+
+    private final Segment<K, V> protectedSegment = new Segment<K, V>(PROTECTED);
+
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    /** Number of keys the frequency sketch was last sized for. */
+    private int sketchCapacity = 16;
+
+    @SuppressWarnings("unchecked")
+    public FrequencyCache(String name) {
+        this.name = name;
+        this.readBuffers = new ReadBuffer[NUMBER_OF_READ_BUFFERS];
+        for (int i = 0; i < readBuffers.length; i++) {
+            readBuffers[i] = new ReadBuffer<K, V>();
+        }
+        sketch.ensureCapacity(sketchCapacity);
+    }
+
+    /**
+     * Checks if the identified entry is cached.
+     *
+     * @param key entry key
+     * @return <code>true</code> if the entry is cached,
+     *         <code>false</code> otherwise
+     */
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * Returns the identified cache entry. This method does not block.
+     *
+     * @param key entry key
+     * @return entry value, or <code>null</code> if not found
+     */
+    public V get(K key) {
+        recordCacheAccess();
+
+        Node<K, V> node = map.get(key);
+        if (node != null) {
+            recordRead(node);
+            return node.value;
+        }
+        recordCacheMiss();
+        return null;
+    }
+
+    /**
+     * Returns all values in the cache. The result only reflects concurrent
+     * modifications to the cache in part.
+     *
+     * @return cached values
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<V>(map.size());
+        for (Node<K, V> node : map.values()) {
+            values.add(node.value);
+        }
+        return values;
+    }
+
+    /**
+     * Adds the given entry to the cache. An entry that replaces an existing
+     * one stays in the segment of the replaced entry.
+     *
+     * @param key entry key
+     * @param value entry value
+     * @param size entry size
+     * @return the previous value, or <code>null</code>
+     */
+    public V put(K key, V value, long size) {
+        Node<K, V> node = new Node<K, V>(key, value, size);
+        Node<K, V> previous;
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            previous = map.put(key, node);
+            recordSizeChange(size);
+            if (previous != null) {
+                recordSizeChange(-previous.size);
+                Segment<K, V> segment = getSegment(previous);
+                if (segment != null) {
+                    segment.remove(previous);
+                    segment.add(node);
+                } else {
+                    window.add(node);
+                }
+            } else {
+                window.add(node);
+                if (map.size() > 2 * sketchCapacity) {
+                    sketchCapacity = 2 * map.size();
+                    sketch.ensureCapacity(sketchCapacity);
+                }
+            }
+            sketch.increment(key);
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+        if (previous != null) {
+            return previous.value;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Removes the identified entry from the cache.
+     *
+     * @param key entry key
+     * @return removed entry, or <code>null</code> if not found
+     */
+    public V remove(K key) {
+        evictionLock.lock();
+        try {
+            Node<K, V> node = map.remove(key);
+            if (node != null) {
+                unlink(node);
+                recordSizeChange(-node.size);
+                return node.value;
+            } else {
+                return null;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear() {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            for (Node<K, V> node : map.values()) {
+                node.segment = NONE;
+                recordSizeChange(-node.size);
+            }
+            map.clear();
+            window.clear();
+            probation.clear();
+            protectedSegment.clear();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Checks if the cache size is zero.
+     */
+    public boolean isEmpty() {
+        return getMemoryUsed() == 0;
+    }
+
+    /**
+     * Sets the maximum size of the cache and evicts any excess items until
+     * the current size falls within the given limit.
+     */
+    @Override
+    public void setMaxMemorySize(long size) {
+        super.setMaxMemorySize(size);
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long getElementCount() {
+        return map.size();
+    }
+
+    //-------------------------------------------------------------< private >
+
+    /**
+     * Records a read of the given entry in the read buffer of the current
+     * thread, and drains the read buffers if that buffer is getting full
+     * and no other thread is holding the eviction lock.
+     *
+     * @param node the entry that was read
+     */
+    private void recordRead(Node<K, V> node) {
+        int index = (int) Thread.currentThread().getId()
+                & (readBuffers.length - 1);
+        if (readBuffers[index].offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Replays the recorded reads. Must be called while holding the
+     * eviction lock.
+     */
+    private void drainReadBuffers() {
+        for (ReadBuffer<K, V> buffer : readBuffers) {
+            buffer.drain(this);
+        }
+    }
+
+    /**
+     * Updates the eviction order after the given entry was read. Must be
+     * called while holding the eviction lock.
+     *
+     * @param node the entry that was read
+     */
+    private void onAccess(Node<K, V> node) {
+        Segment<K, V> segment = getSegment(node);
+        if (segment == null) {
+            // the entry has been removed or replaced in the meantime
+            return;
+        }
+        sketch.increment(node.key);
+        if (segment == probation) {
+            probation.remove(node);
+            protectedSegment.add(node);
+            // demote the least recently used protected entries
+            long max = (getMaxMemorySize() - getWindowMax())
+                    * PROTECTED_PERCENT / 100;
+            while (protectedSegment.size > max
+                    && protectedSegment.head != node) {
+                Node<K, V> demoted = protectedSegment.head;
+                protectedSegment.remove(demoted);
+                probation.add(demoted);
+            }
+        } else {
+            segment.moveToTail(node);
+        }
+    }
+
+    /**
+     * Moves the excess entries of the window to the main space and evicts
+     * entries until the cache is small enough. Must be called while holding
+     * the eviction lock.
+     */
+    private void evict() {
+        // entries leaving the window become candidates at the probation tail
+        Node<K, V> candidate = null;
+        long windowMax = getWindowMax();
+        while (window.size > windowMax && window.head != null) {
+            Node<K, V> node = window.head;
+            window.remove(node);
+            probation.add(node);
+            if (candidate == null) {
+                candidate = node;
+            }
+        }
+
+        while (isTooBig()) {
+            Node<K, V> victim = probation.head;
+            if (victim == null) {
+                victim = protectedSegment.head;
+            }
+            if (victim == null) {
+                victim = window.head;
+            }
+            if (victim == null) {
+                break;
+            }
+            if (candidate != null && candidate != victim) {
+                // admit the candidate only if it is used more often
+                // than the entry it would replace
+                if (sketch.frequency(candidate.key)
+                        <= sketch.frequency(victim.key)) {
+                    Node<K, V> next = candidate.next;
+                    evict(candidate);
+                    candidate = next;
+                    continue;
+                }
+                evict(victim);
+            } else {
+                if (victim == candidate) {
+                    candidate = candidate.next;
+                }
+                evict(victim);
+            }
+        }
+    }
+
+    private void evict(Node<K, V> node) {
+        unlink(node);
+        map.remove(node.key, node);
+        recordSizeChange(-node.size);
+    }
+
+    private void unlink(Node<K, V> node) {
+        Segment<K, V> segment = getSegment(node);
+        if (segment != null) {
+            segment.remove(node);
+        }
+    }
+
+    private Segment<K, V> getSegment(Node<K, V> node) {
+        switch (node.segment) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            case PROTECTED:
+                return protectedSegment;
+            default:
+                return null;
+        }
+    }
+
+    private long getWindowMax() {
+        return Math.max(1, getMaxMemorySize() * WINDOW_PERCENT / 100);
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + getClass().getSimpleName() + "@"
+                + Integer.toHexString(hashCode()) + "]";
+    }
+
+}
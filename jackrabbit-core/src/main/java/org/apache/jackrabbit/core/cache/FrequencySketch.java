@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+/**
+ * A probabilistic estimate of how often keys have been accessed recently,
+ * used by the {@link FrequencyCache} to decide whether a new entry should
+ * replace an existing one. This is a count-min sketch with four-bit
+ * counters: every key is mapped to four counters, and its frequency is the
+ * minimum of them. When the number of recorded accesses reaches ten times
+ * the table size, all counters are halved, so that the estimates favor
+ * recent accesses.
+ * <p>
+ * This class is not thread-safe; the cache only uses it while holding its
+ * eviction lock.
+ */
+class FrequencySketch {
+
+    /** Seeds of the four hash functions. */
+    private static final long[] SEED = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+        0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    /** Mask of the upper three bits of each four-bit counter. */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /** Mask of the lowest bit of each four-bit counter. */
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /** Sixteen four-bit counters per element. */
+    private long[] table = new long[0];
+
+    /** Number of recorded accesses after which the counters are halved. */
+    private int sampleSize;
+
+    /** Number of accesses recorded since the counters were last halved. */
+    private int size;
+
+    /**
+     * Makes sure the sketch can estimate the frequency of the given number
+     * of keys with reasonable accuracy. Growing the sketch discards all
+     * recorded accesses.
+     *
+     * @param maximumSize expected number of distinct keys
+     */
+    void ensureCapacity(long maximumSize) {
+        int length = Integer.highestOneBit(
+                (int) Math.min(Math.max(maximumSize, 16), 1 << 30) - 1) << 1;
+        if (table.length < length) {
+            table = new long[length];
+            sampleSize = 10 * length;
+            size = 0;
+        }
+    }
+
+    /**
+     * Returns the estimated number of recent accesses of the given key,
+     * between 0 and 15.
+     *
+     * @param key the key
+     * @return estimated frequency
+     */
+    int frequency(Object key) {
+        if (table.length == 0) {
+            return 0;
+        }
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int offset = (start + i) << 2;
+            int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an access of the given key.
+     *
+     * @param key the key
+     */
+    void increment(Object key) {
+        if (table.length == 0) {
+            return;
+        }
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves all counters, so that old accesses count less than new ones.
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEED[i]) * SEED[i];
+        h += h >>> 32;
+        return ((int) h) & (table.length - 1);
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+}
@@ -28,6 +28,7 @@ import javax.jcr.Session;
 import javax.jcr.PropertyType;
 
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.core.journal.JournalException;
 import org.apache.jackrabbit.core.journal.Record;
@@ -70,6 +71,37 @@ public class ChangeLogRecord extends ClusterRecord {
      */
     static final char USER_DATA_IDENTIFIER = 'U';
 
+    /**
+     * Identifier: COMPACT. The rest of the record is written in the compact
+     * format, see {@link CompactRecordOutput}.
+     */
+    static final char COMPACT_IDENTIFIER = 'C';
+
+    /**
+     * Version of the compact format.
+     */
+    private static final int COMPACT_FORMAT_VERSION = 1;
+
+    /**
+     * Compact format flag: the body is compressed.
+     */
+    private static final int COMPACT_FLAG_DEFLATE = 1;
+
+    /**
+     * Bodies smaller than this number of bytes are not compressed.
+     */
+    private static final int MIN_COMPRESSION_SIZE = 512;
+
+    /**
+     * Item state flag in the compact format: the state is a property.
+     */
+    private static final int COMPACT_PROPERTY = 4;
+
+    /**
+     * Marks the end of the item states in the compact format.
+     */
+    private static final int END_OF_STATES = 0;
+
     /**
      * Operation type: added.
      */
@@ -115,6 +147,16 @@ public class ChangeLogRecord extends ClusterRecord {
      */
     private ClusterSession lastSession;
 
+    /**
+     * Flag indicating whether this record is written in the compact format.
+     */
+    private boolean compact;
+
+    /**
+     * Flag indicating whether the body of a compact record is compressed.
+     */
+    private boolean compress;
+
     /**
      * Create a new instance of this class. Used when serializing.
      *
@@ -151,6 +193,17 @@ public class ChangeLogRecord extends ClusterRecord {
         this.events = new ArrayList<EventState>();
     }
 
+    /**
+     * Write this record in the compact format, which cluster nodes running
+     * an older version can not read.
+     *
+     * @param compress whether to compress the body of the record
+     */
+    void useCompactFormat(boolean compress) {
+        this.compact = true;
+        this.compress = compress;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -175,6 +228,9 @@ public class ChangeLogRecord extends ClusterRecord {
             case EVENT_IDENTIFIER:
                 readEventRecord();
                 break;
+            case COMPACT_IDENTIFIER:
+                readCompactRecord();
+                break;
             default:
                 String msg = "Unknown identifier: " + identifier;
                 throw new JournalException(msg);
@@ -311,6 +367,88 @@ public class ChangeLogRecord extends ClusterRecord {
         events.add(es);
     }
 
+    /**
+     * Read a record written in the compact format.
+     *
+     * @throws JournalException if an error occurs
+     */
+    private void readCompactRecord() throws JournalException {
+        int version = record.readByte();
+        if (version != COMPACT_FORMAT_VERSION) {
+            String msg = "Unsupported compact record version: " + version;
+            throw new JournalException(msg);
+        }
+        int flags = record.readByte();
+        int length = record.readInt();
+        byte[] data = new byte[record.readInt()];
+        record.readFully(data);
+
+        CompactRecordInput in;
+        if ((flags & COMPACT_FLAG_DEFLATE) != 0) {
+            in = CompactRecordInput.decompress(data, length);
+        } else {
+            in = new CompactRecordInput(data);
+        }
+
+        timestamp = in.readSignedVarLong();
+        userData = in.readString();
+
+        for (int header = in.readByte(); header != END_OF_STATES;
+                header = in.readByte()) {
+            NodeId id = in.readNodeId();
+            ItemState state;
+            if ((header & COMPACT_PROPERTY) != 0) {
+                state = new PropertyState(new PropertyId(id, in.readName()),
+                        ItemState.STATUS_NEW, false);
+            } else {
+                state = new NodeState(id, null, null, ItemState.STATUS_NEW, false);
+            }
+            apply(header & ~COMPACT_PROPERTY, state);
+        }
+
+        int eventCount = in.readVarInt();
+        for (int i = 0; i < eventCount; i++) {
+            int type = in.readVarInt();
+            NodeId parentId = in.readNodeId();
+            Path parentPath = in.readPath();
+            NodeId childId = in.readNodeId();
+            Path childRelPath = in.readPath();
+            Name ntName = in.readName();
+
+            Set<Name> mixins = new HashSet<Name>();
+            int mixinCount = in.readVarInt();
+            for (int j = 0; j < mixinCount; j++) {
+                mixins.add(in.readName());
+            }
+            String userId = in.readSharedString();
+
+            Map<String, InternalValue> info = null;
+            if (type == Event.NODE_MOVED) {
+                info = new HashMap<String, InternalValue>();
+                int infoSize = in.readVarInt();
+                for (int j = 0; j < infoSize; j++) {
+                    String key = in.readSharedString();
+                    int propType = in.readVarInt();
+                    String value = in.readString();
+                    if (propType == PropertyType.UNDEFINED) {
+                        // indicates null value
+                        info.put(key, null);
+                    } else {
+                        info.put(key, InternalValue.valueOf(value, propType));
+                    }
+                }
+            }
+
+            EventState es = createEventState(type, parentId, parentPath,
+                    childId, childRelPath, ntName, mixins, userId);
+            if (info != null) {
+                es.setInfo(info);
+            }
+            events.add(es);
+        }
+        in.checkEnd();
+    }
+
     /**
      * Create an event state.
      *
@@ -370,6 +508,10 @@ public class ChangeLogRecord extends ClusterRecord {
      */
     @Override
     protected void doWrite() throws JournalException {
+        if (compact) {
+            writeCompactRecord();
+            return;
+        }
         writeTimestampRecord();
         writeUserDataRecord();
         for (ItemState state : changes.deletedStates()) {
@@ -399,6 +541,103 @@ public class ChangeLogRecord extends ClusterRecord {
         }
     }
 
+    /**
+     * Writes this record in the compact format.
+     *
+     * @throws JournalException if an error occurs
+     */
+    private void writeCompactRecord() throws JournalException {
+        CompactRecordOutput out = new CompactRecordOutput();
+        out.writeSignedVarLong(timestamp);
+        out.writeString(userData);
+
+        for (ItemState state : changes.deletedStates()) {
+            writeCompactState(out, DELETED, state);
+        }
+        for (ItemState state : changes.modifiedStates()) {
+            writeCompactState(out, MODIFIED, state);
+        }
+        for (ItemState state : changes.addedStates()) {
+            writeCompactState(out, ADDED, state);
+        }
+        out.writeByte(END_OF_STATES);
+
+        out.writeVarInt(events.size());
+        for (EventState event : events) {
+            out.writeVarInt(event.getType());
+            out.writeNodeId(event.getParentId());
+            out.writePath(event.getParentPath());
+            out.writeNodeId(event.getChildId());
+            out.writePath(event.getChildRelPath());
+            out.writeName(event.getNodeType());
+
+            Set<Name> mixins = event.getMixinNames();
+            out.writeVarInt(mixins.size());
+            for (Name mixin : mixins) {
+                out.writeName(mixin);
+            }
+            out.writeSharedString(event.getUserId());
+
+            if (event.getType() == Event.NODE_MOVED) {
+                Map<String, InternalValue> info = event.getInfo();
+                out.writeVarInt(info.size());
+                for (Map.Entry<String, InternalValue> entry : info.entrySet()) {
+                    out.writeSharedString(entry.getKey());
+                    InternalValue value = entry.getValue();
+                    if (value == null) {
+                        // use undefined for null value
+                        out.writeVarInt(PropertyType.UNDEFINED);
+                        out.writeString(null);
+                    } else {
+                        out.writeVarInt(value.getType());
+                        out.writeString(value.toString());
+                    }
+                }
+            }
+        }
+
+        int flags = 0;
+        byte[] data = null;
+        if (compress && out.size() >= MIN_COMPRESSION_SIZE) {
+            data = out.toCompressedByteArray();
+            if (data.length < out.size()) {
+                flags |= COMPACT_FLAG_DEFLATE;
+            } else {
+                data = null;
+            }
+        }
+        if (data == null) {
+            data = out.toByteArray();
+        }
+
+        record.writeChar(COMPACT_IDENTIFIER);
+        record.writeByte(COMPACT_FORMAT_VERSION);
+        record.writeByte(flags);
+        record.writeInt(out.size());
+        record.writeInt(data.length);
+        record.write(data);
+    }
+
+    /**
+     * Writes an item state in the compact format.
+     *
+     * @param out output
+     * @param operation operation
+     * @param state item state
+     */
+    private static void writeCompactState(CompactRecordOutput out,
+                                          int operation, ItemState state) {
+        if (state.isNode()) {
+            out.writeByte(operation);
+            out.writeNodeId(((NodeState) state).getNodeId());
+        } else {
+            PropertyId id = ((PropertyState) state).getPropertyId();
+            out.writeByte(operation | COMPACT_PROPERTY);
+            out.writeNodeId(id.getParentId());
+            out.writeName(id.getName());
+        }
+    }
+
     /**
      * Writes the timestamp record.
      *
@@ -19,7 +19,9 @@ package org.apache.jackrabbit.core.cluster;
 import java.io.File;
 
 import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.journal.Checkpoint;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 
 import javax.jcr.RepositoryException;
 
@@ -67,4 +69,27 @@ public interface ClusterContext {
      */
     void lockEventsReady(String workspace) throws RepositoryException;
 
+    /**
+     * Returns the repository statistics, used to publish the cluster
+     * metrics. The default implementation returns <code>null</code>, in
+     * which case the metrics are collected but not published.
+     *
+     * @return repository statistics, or <code>null</code>
+     */
+    default RepositoryStatisticsImpl getRepositoryStatistics() {
+        return null;
+    }
+
+    /**
+     * Writes snapshots of all search indexes into the given checkpoint.
+     * Called while no external updates are applied. The default
+     * implementation writes no snapshots.
+     *
+     * @param checkpoint the checkpoint being created
+     * @throws RepositoryException if a snapshot can not be written
+     */
+    default void createIndexSnapshots(Checkpoint checkpoint)
+            throws RepositoryException {
+    }
+
 }
@@ -16,31 +16,48 @@
  */
 package org.apache.jackrabbit.core.cluster;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.RepositoryException;
 
 import org.apache.jackrabbit.core.cluster.WorkspaceRecord.CreateWorkspaceAction;
 import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.journal.AbstractJournal;
+import org.apache.jackrabbit.core.journal.Checkpoint;
 import org.apache.jackrabbit.core.journal.InstanceRevision;
 import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.JournalException;
+import org.apache.jackrabbit.core.journal.JournalNotifier;
 import org.apache.jackrabbit.core.journal.Record;
 import org.apache.jackrabbit.core.journal.RecordConsumer;
 import org.apache.jackrabbit.core.journal.RecordProducer;
 import org.apache.jackrabbit.core.nodetype.InvalidNodeTypeDefException;
 import org.apache.jackrabbit.core.observation.EventState;
 import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.NodeReferences;
 import org.apache.jackrabbit.core.version.InternalVersionManagerImpl;
 import org.apache.jackrabbit.core.xml.ClonedInputSource;
 import org.apache.jackrabbit.spi.PrivilegeDefinition;
 import org.apache.jackrabbit.spi.QNodeTypeDefinition;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,6 +76,36 @@ public class ClusterNode implements Runnable,
      */
     public static final String SYSTEM_PROPERTY_NODE_ID = "org.apache.jackrabbit.core.cluster.node_id";
 
+    /**
+     * Name of the statistics counter holding the sum of the visibility
+     * latencies of the external updates, in milliseconds.
+     */
+    public static final String VISIBILITY_LATENCY_DURATION = "CLUSTER_VISIBILITY_LATENCY_DURATION";
+
+    /**
+     * Name of the statistics counter holding the number of external updates
+     * whose visibility latency was measured.
+     */
+    public static final String VISIBILITY_LATENCY_COUNTER = "CLUSTER_VISIBILITY_LATENCY_COUNTER";
+
+    /**
+     * Name of the statistics counter holding the number of notifications
+     * received from other cluster nodes.
+     */
+    public static final String SYNC_NOTIFICATION_COUNTER = "CLUSTER_SYNC_NOTIFICATION_COUNTER";
+
+    /**
+     * Name of the statistics counter holding the number of bytes of the
+     * change log records written to the journal.
+     */
+    public static final String JOURNAL_BYTES_COUNTER = "CLUSTER_JOURNAL_BYTES_COUNTER";
+
+    /**
+     * Name of the statistics counter holding the number of change log
+     * records written to the journal.
+     */
+    public static final String JOURNAL_REVISION_COUNTER = "CLUSTER_JOURNAL_REVISION_COUNTER";
+
     /**
      * Producer identifier.
      */
@@ -79,6 +126,18 @@ public class ClusterNode implements Runnable,
      */
     private static final int STOPPED = 2;
 
+    /**
+     * Maximum number of change log records applied with a single external
+     * update while catching up on startup.
+     */
+    private static final int CATCH_UP_BATCH_SIZE = 100;
+
+    /**
+     * Maximum time in milliseconds a checkpoint waits for local updates to
+     * be dispatched to the search indexes.
+     */
+    private static final long DISPATCH_TIMEOUT = 60 * 1000;
+
     /**
      * Audit logger.
      */
@@ -134,6 +193,95 @@ public class ClusterNode implements Runnable,
      */
     private final Latch stopLatch = new Latch();
 
+    /**
+     * Released when another cluster node notified us about a new revision
+     * or when this node is stopped, to wake up the synchronization thread
+     * before the sync delay elapsed.
+     */
+    private final Semaphore syncRequest = new Semaphore(0);
+
+    /**
+     * Journal notifier, <code>null</code> if changes are only propagated
+     * by periodic synchronization.
+     */
+    private JournalNotifier notifier;
+
+    /**
+     * Sum of the visibility latencies of external updates.
+     */
+    private AtomicLong visibilityLatencyDuration;
+
+    /**
+     * Number of external updates whose visibility latency was measured.
+     */
+    private AtomicLong visibilityLatencyCounter;
+
+    /**
+     * Number of notifications received from other cluster nodes.
+     */
+    private AtomicLong syncNotificationCounter;
+
+    /**
+     * The visibility latency of the last external update, in milliseconds,
+     * or -1 if no external update has been processed yet.
+     */
+    private volatile long lastVisibilityLatency = -1;
+
+    /**
+     * Number of bytes of the change log records written to the journal.
+     */
+    private AtomicLong journalBytesCounter;
+
+    /**
+     * Number of change log records written to the journal.
+     */
+    private AtomicLong journalRevisionCounter;
+
+    /**
+     * Flag indicating whether change log records are written in the compact
+     * format.
+     */
+    private boolean compactRecords;
+
+    /**
+     * Flag indicating whether the body of compact records is compressed.
+     */
+    private boolean compressRecords;
+
+    /**
+     * Directory where checkpoints are stored, <code>null</code> if no
+     * checkpoints are used.
+     */
+    private File checkpointDirectory;
+
+    /**
+     * Interval in milliseconds between two checkpoints created by this
+     * cluster node, zero if checkpoints are not created periodically.
+     */
+    private long checkpointInterval;
+
+    /**
+     * Number of checkpoints kept.
+     */
+    private int checkpointCount;
+
+    /**
+     * When the next checkpoint is due.
+     */
+    private long nextCheckpoint;
+
+    /**
+     * Checkpoint this cluster node starts from, <code>null</code> if it
+     * replays the journal from its own revision.
+     */
+    private Checkpoint bootstrapCheckpoint;
+
+    /**
+     * Workspaces whose search index has been restored from the
+     * {@link #bootstrapCheckpoint}, <code>null</code> for the system index.
+     */
+    private final Set<String> restoredIndexes = new HashSet<String>();
+
     /**
      * Sync counter, used to avoid repeated sync() calls from piling up.
      * Only updated within the critical section guarded by {@link #syncLock}.
@@ -143,6 +291,36 @@ public class ClusterNode implements Runnable,
      */
     private AtomicInteger syncCount = new AtomicInteger();
 
+    /**
+     * Flag indicating whether the startup sync is in progress. While catching
+     * up, independent change log records are applied in batches.
+     * Only accessed within the critical section guarded by {@link #syncLock}.
+     */
+    private boolean catchingUp;
+
+    /**
+     * Change log records of the same workspace not yet applied while
+     * catching up.
+     */
+    private final List<ChangeLogRecord> pendingUpdates = new ArrayList<ChangeLogRecord>();
+
+    /**
+     * Ids of the items changed by the {@link #pendingUpdates}.
+     */
+    private final Set<ItemId> pendingItemIds = new HashSet<ItemId>();
+
+    /**
+     * Revisions of local updates that have been written to the journal, but
+     * whose events have not yet been dispatched to the search indexes.
+     */
+    private final SortedSet<Long> undispatchedRevisions = new TreeSet<Long>();
+
+    /**
+     * Revision preceding a batch of change log records that could not be
+     * applied, or <code>-1</code>.
+     */
+    private long failedRevision = -1;
+
     /**
      * Status flag, one of {@link #NONE}, {@link #STARTED} or {@link #STOPPED}.
      */
@@ -231,6 +409,24 @@ public class ClusterNode implements Runnable,
             instanceRevision = journal.getInstanceRevision();
             journal.register(this);
             producer = journal.getProducer(PRODUCER_ID);
+            if (journal instanceof AbstractJournal) {
+                AbstractJournal aj = (AbstractJournal) journal;
+                notifier = aj.getJournalNotifier();
+                compactRecords = aj.isCompactRecords();
+                compressRecords = aj.isCompressRecords();
+                checkpointDirectory = aj.getCheckpointDirectory();
+                checkpointInterval = aj.getCheckpointInterval() * 1000L;
+                checkpointCount = aj.getCheckpointCount();
+            }
+            if (checkpointDirectory != null) {
+                Checkpoint checkpoint = Checkpoint.getLatest(checkpointDirectory);
+                if (checkpoint != null
+                        && instanceRevision.get() < checkpoint.getRevision()) {
+                    log.info("Cluster node {} at revision {} starts from {}",
+                            new Object[]{clusterNodeId, instanceRevision.get(), checkpoint});
+                    bootstrapCheckpoint = checkpoint;
+                }
+            }
         } catch (RepositoryException e) {
             throw new ClusterException(
                     "Cluster initialization failed: " + this, e);
@@ -238,6 +434,17 @@ public class ClusterNode implements Runnable,
             throw new ClusterException(
                     "Journal initialization failed: " + this, e);
         }
+
+        RepositoryStatisticsImpl stats = clusterContext.getRepositoryStatistics();
+        if (stats == null) {
+            // no repository statistics to publish to
+            stats = new RepositoryStatisticsImpl();
+        }
+        visibilityLatencyDuration = stats.getCounter(VISIBILITY_LATENCY_DURATION, true);
+        visibilityLatencyCounter = stats.getCounter(VISIBILITY_LATENCY_COUNTER, true);
+        syncNotificationCounter = stats.getCounter(SYNC_NOTIFICATION_COUNTER, true);
+        journalBytesCounter = stats.getCounter(JOURNAL_BYTES_COUNTER, true);
+        journalRevisionCounter = stats.getCounter(JOURNAL_REVISION_COUNTER, true);
     }
 
     /**
@@ -274,25 +481,47 @@ public class ClusterNode implements Runnable,
      */
     public synchronized void start() throws ClusterException {
         if (status == NONE) {
+            if (bootstrapCheckpoint != null) {
+                // the search indexes have been restored from the checkpoint
+                setRevision(bootstrapCheckpoint.getRevision());
+            }
             syncOnStartup();
+            nextCheckpoint = System.currentTimeMillis() + checkpointInterval;
 
             if (!disableAutoSync) {
                 Thread t = new Thread(this, "ClusterNode-" + clusterNodeId);
                 t.setDaemon(true);
                 t.start();
                 syncThread = t;
+
+                if (notifier != null) {
+                    notifier.setListener(new JournalNotifier.Listener() {
+                        public void revisionAppended(String id, long revision) {
+                            log.debug("Cluster node {} appended revision {}",
+                                    id, revision);
+                            syncNotificationCounter.incrementAndGet();
+                            syncRequest.release();
+                        }
+                    });
+                }
             }
             status = STARTED;
         }
     }
 
     /**
-     * Run loop that will sync this node after some delay.
+     * Run loop that will sync this node after some delay, or as soon as
+     * another cluster node notified us about a new revision.
      */
     public void run() {
         for (;;) {
             try {
-                if (stopLatch.attempt(syncDelay)) {
+                if (syncRequest.tryAcquire(syncDelay, TimeUnit.MILLISECONDS)) {
+                    // notifications received in the meantime are covered
+                    // by the sync below
+                    syncRequest.drainPermits();
+                }
+                if (stopLatch.attempt(0)) {
                     break;
                 }
             } catch (InterruptedException e) {
@@ -312,6 +541,128 @@ public class ClusterNode implements Runnable,
                 log.error(msg, e);
                 throw e;
             }
+            if (checkpointInterval > 0
+                    && System.currentTimeMillis() >= nextCheckpoint) {
+                nextCheckpoint = System.currentTimeMillis() + checkpointInterval;
+                try {
+                    createCheckpoint();
+                } catch (ClusterException e) {
+                    String msg = "Periodic checkpoint failed: " + e.getMessage();
+                    log.error(msg, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a checkpoint with the current revision of this cluster node
+     * and snapshots of its search indexes, and removes old checkpoints.
+     * The journal is locked while the revision is determined, so that no
+     * update is in progress. Before the snapshots are written, local
+     * updates up to that revision are given time to reach the search
+     * indexes, which happens after they have been written to the journal.
+     *
+     * @return the new checkpoint
+     * @throws ClusterException if no checkpoint path is configured or the
+     *                          checkpoint can not be created
+     */
+    public Checkpoint createCheckpoint() throws ClusterException {
+        if (checkpointDirectory == null) {
+            throw new ClusterException("No checkpoint path configured.");
+        }
+        try {
+            syncLock.acquire();
+        } catch (InterruptedException e) {
+            String msg = "Interrupted while waiting for mutex.";
+            throw new ClusterException(msg);
+        }
+
+        try {
+            // checkpoints are only configured on abstract journals
+            AbstractJournal aj = (AbstractJournal) journal;
+            long revision;
+            aj.lockAndSync();
+            try {
+                revision = instanceRevision.get();
+            } finally {
+                aj.unlock(false);
+            }
+            awaitDispatch(revision);
+            Checkpoint checkpoint = Checkpoint.create(
+                    checkpointDirectory, revision, clusterNodeId);
+            clusterContext.createIndexSnapshots(checkpoint);
+            checkpoint.commit();
+            Checkpoint.prune(checkpointDirectory, checkpointCount, clusterNodeId);
+            log.info("Created " + checkpoint);
+            return checkpoint;
+        } catch (JournalException e) {
+            throw new ClusterException(
+                    "Unable to determine the checkpoint revision.", e);
+        } catch (IOException e) {
+            throw new ClusterException("Unable to write checkpoint.", e);
+        } catch (RepositoryException e) {
+            throw new ClusterException("Unable to snapshot search indexes.", e);
+        } finally {
+            syncLock.release();
+        }
+    }
+
+    /**
+     * Waits until the events of all local updates up to the given revision
+     * have been dispatched, so that the search indexes contain them.
+     *
+     * @param revision the revision
+     * @throws ClusterException if interrupted or the updates are not
+     *                          dispatched within {@link #DISPATCH_TIMEOUT}
+     */
+    private void awaitDispatch(long revision) throws ClusterException {
+        long end = System.currentTimeMillis() + DISPATCH_TIMEOUT;
+        synchronized (undispatchedRevisions) {
+            while (!undispatchedRevisions.isEmpty()
+                    && undispatchedRevisions.first() <= revision) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new ClusterException("Local update "
+                            + undispatchedRevisions.first()
+                            + " has not been indexed in time.");
+                }
+                try {
+                    undispatchedRevisions.wait(wait);
+                } catch (InterruptedException e) {
+                    throw new ClusterException(
+                            "Interrupted while waiting for local updates.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the checkpoint this cluster node starts from. Search indexes
+     * should be restored from its snapshots before the node is started.
+     *
+     * @return the checkpoint, or <code>null</code> if the node replays the
+     *         journal from its own revision
+     */
+    public Checkpoint getBootstrapCheckpoint() {
+        return bootstrapCheckpoint;
+    }
+
+    /**
+     * Returns the checkpoint the search index of a workspace has to be
+     * restored from. An index is only restored once, the checkpoint is
+     * therefore only returned on the first call for each workspace.
+     *
+     * @param workspace workspace name, <code>null</code> for the index of
+     *                  the system tree
+     * @return the checkpoint, or <code>null</code> if the index must not
+     *         be restored
+     */
+    public Checkpoint getIndexCheckpoint(String workspace) {
+        synchronized (restoredIndexes) {
+            if (bootstrapCheckpoint == null || !restoredIndexes.add(workspace)) {
+                return null;
+            }
+            return bootstrapCheckpoint;
         }
     }
 
@@ -337,7 +688,17 @@ public class ClusterNode implements Runnable,
             // while we were waiting to acquire the syncLock.
             if (count == syncCount.get()) {
                 syncCount.incrementAndGet();
-                journal.sync(startup);
+                catchingUp = startup;
+                try {
+                    journal.sync(startup);
+                } finally {
+                    // updates still pending have not been acknowledged
+                    // with a revision and will be synchronized again
+                    catchingUp = false;
+                    pendingUpdates.clear();
+                    pendingItemIds.clear();
+                    failedRevision = -1;
+                }
             }
         } catch (JournalException e) {
             throw new ClusterException(e.getMessage(), e.getCause());
@@ -373,6 +734,10 @@ public class ClusterNode implements Runnable,
             status = STOPPED;
 
             stopLatch.release();
+            syncRequest.release();
+            if (notifier != null) {
+                notifier.close();
+            }
 
             // Give synchronization thread some time to finish properly before
             // closing down the journal (see JCR-1553)
@@ -609,6 +974,12 @@ public class ClusterNode implements Runnable,
          */
         private static final String ATTRIBUTE_UPDATE_SIZE = "updateSize";
 
+        /**
+         * Attribute name used to store the revision of a committed update
+         * until its events have been dispatched.
+         */
+        private static final String ATTRIBUTE_DISPATCH_REVISION = "dispatchRevision";
+
         /**
          * Workspace name.
          */
@@ -667,6 +1038,9 @@ public class ClusterNode implements Runnable,
                 ChangeLogRecord clr = new ChangeLogRecord(changes, events,
                         record, workspace, update.getTimestamp(),
                         update.getUserData());
+                if (compactRecords) {
+                    clr.useCompactFormat(compressRecords);
+                }
                 clr.write();
                 succeeded = true;
             } catch (JournalException e) {
@@ -699,11 +1073,17 @@ public class ClusterNode implements Runnable,
             try {
 
                 long recordRevision = record.getRevision();
+                synchronized (undispatchedRevisions) {
+                    undispatchedRevisions.add(recordRevision);
+                }
+                update.setAttribute(ATTRIBUTE_DISPATCH_REVISION, recordRevision);
                 setRevision(recordRevision);
 
                 long journalUpdateSize = record.update();
 
                 log.debug("Stored record '{}' to Journal ({})", recordRevision, journalUpdateSize);
+                journalBytesCounter.addAndGet(journalUpdateSize);
+                journalRevisionCounter.incrementAndGet();
 
                 Object updateSizeValue = update.getAttribute(ATTRIBUTE_UPDATE_SIZE);
                 long updateSize = updateSizeValue != null? (Long)updateSizeValue : 0;
@@ -734,6 +1114,20 @@ public class ClusterNode implements Runnable,
             }
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        public void updateDispatched(Update update) {
+            Long revision = (Long) update.getAttribute(ATTRIBUTE_DISPATCH_REVISION);
+            if (revision != null) {
+                update.setAttribute(ATTRIBUTE_DISPATCH_REVISION, null);
+                synchronized (undispatchedRevisions) {
+                    undispatchedRevisions.remove(revision);
+                    undispatchedRevisions.notifyAll();
+                }
+            }
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -839,6 +1233,20 @@ public class ClusterNode implements Runnable,
         return PRODUCER_ID;
     }
 
+    /**
+     * Returns the visibility latency of the last external update, i.e. the
+     * time between the update on the originating cluster node and the
+     * delivery of its events on this cluster node. The latency includes the
+     * time the originating node needed to commit the update and is subject
+     * to the clock difference of the two nodes.
+     *
+     * @return the latency in milliseconds, or -1 if no external update has
+     *         been processed yet
+     */
+    public long getLastVisibilityLatency() {
+        return lastVisibilityLatency;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -858,7 +1266,12 @@ public class ClusterNode implements Runnable,
         log.info("Processing revision: " + record.getRevision());
 
         try {
-            deserializer.deserialize(record).process(this);
+            ClusterRecord clusterRecord = deserializer.deserialize(record);
+            if (!(clusterRecord instanceof ChangeLogRecord)) {
+                // keep the order of changes
+                flushUpdates();
+            }
+            clusterRecord.process(this);
         } catch (JournalException e) {
             String msg = "Unable to read revision '" + record.getRevision() + "'.";
             log.error(msg, e);
@@ -869,6 +1282,15 @@ public class ClusterNode implements Runnable,
      * {@inheritDoc}
      */
     public void setRevision(long revision) {
+        try {
+            flushUpdates();
+        } catch (IllegalStateException e) {
+            log.error("Unable to apply updates up to revision " + revision + ".");
+        }
+        if (failedRevision != -1) {
+            revision = Math.min(revision, failedRevision);
+            failedRevision = -1;
+        }
         try {
             instanceRevision.set(revision);
         } catch (JournalException e) {
@@ -882,6 +1304,75 @@ public class ClusterNode implements Runnable,
      * {@inheritDoc}
      */
     public void process(ChangeLogRecord record) {
+        if (catchingUp) {
+            if (!canBatch(record)) {
+                flushUpdates();
+            }
+            pendingUpdates.add(record);
+            addItemIds(record.getChanges(), pendingItemIds);
+            if (pendingUpdates.size() >= CATCH_UP_BATCH_SIZE) {
+                flushUpdates();
+            }
+        } else {
+            process(Collections.singletonList(record));
+        }
+    }
+
+    /**
+     * Returns whether the given change log record can be applied together
+     * with the pending updates: it must belong to the same workspace, carry
+     * the same user data and not touch any of the items already changed.
+     *
+     * @param record change log record
+     * @return <code>true</code> if the record can be added to the batch
+     */
+    private boolean canBatch(ChangeLogRecord record) {
+        if (pendingUpdates.isEmpty()) {
+            return true;
+        }
+        ChangeLogRecord first = pendingUpdates.get(0);
+        if (!equals(first.getWorkspace(), record.getWorkspace())
+                || !equals(first.getUserData(), record.getUserData())) {
+            return false;
+        }
+        Set<ItemId> ids = new HashSet<ItemId>();
+        addItemIds(record.getChanges(), ids);
+        for (ItemId id : ids) {
+            if (pendingItemIds.contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies the pending updates, if any.
+     *
+     * @throws IllegalStateException if the updates can not be applied
+     */
+    private void flushUpdates() {
+        if (pendingUpdates.isEmpty()) {
+            return;
+        }
+        List<ChangeLogRecord> records = new ArrayList<ChangeLogRecord>(pendingUpdates);
+        pendingUpdates.clear();
+        pendingItemIds.clear();
+        try {
+            process(records);
+        } catch (IllegalStateException e) {
+            failedRevision = records.get(0).getRevision() - 1;
+            throw e;
+        }
+    }
+
+    /**
+     * Applies a sequence of change log records of the same workspace with
+     * a single external update.
+     *
+     * @param records change log records, not empty
+     */
+    private void process(List<ChangeLogRecord> records) {
+        ChangeLogRecord record = records.get(records.size() - 1);
         String workspace = record.getWorkspace();
 
         UpdateEventListener listener = null;
@@ -912,18 +1403,41 @@ public class ClusterNode implements Runnable,
             }
         }
         try {
-            List<EventState> eventStates = record.getEvents();
+            ChangeLog changes;
+            List<EventState> eventStates;
+            if (records.size() == 1) {
+                changes = record.getChanges();
+                eventStates = record.getEvents();
+            } else {
+                changes = new ChangeLog();
+                eventStates = new ArrayList<EventState>();
+                for (ChangeLogRecord r : records) {
+                    changes.merge(r.getChanges());
+                    eventStates.addAll(r.getEvents());
+                }
+            }
 
-            String path = getFirstUserId(eventStates)
-                    + "@" + workspace
-                    + ":" + EventState.getCommonPath(eventStates, null);
+            for (ChangeLogRecord r : records) {
+                String path = getFirstUserId(r.getEvents())
+                        + "@" + workspace
+                        + ":" + EventState.getCommonPath(r.getEvents(), null);
 
-            updateCount.compareAndSet(Integer.MAX_VALUE, 0);
-           	auditLogger.info("[{}] {} {}", new Object[]{updateCount.incrementAndGet(), 
-                    record.getRevision(), path});
+                updateCount.compareAndSet(Integer.MAX_VALUE, 0);
+                auditLogger.info("[{}] {} {}", new Object[]{updateCount.incrementAndGet(),
+                        r.getRevision(), path});
+            }
 
-            listener.externalUpdate(record.getChanges(), eventStates,
+            listener.externalUpdate(changes, eventStates,
                     record.getTimestamp(), record.getUserData());
+
+            // the updates are now visible on this cluster node
+            long now = System.currentTimeMillis();
+            for (ChangeLogRecord r : records) {
+                long latency = Math.max(0, now - r.getTimestamp());
+                visibilityLatencyDuration.addAndGet(latency);
+                visibilityLatencyCounter.incrementAndGet();
+                lastVisibilityLatency = latency;
+            }
         } catch (RepositoryException e) {
             String msg = "Unable to deliver update events: " + e.getMessage();
             log.error(msg);
@@ -1121,6 +1635,31 @@ public class ClusterNode implements Runnable,
         }
     }
 
+    /**
+     * Adds the ids of all items changed by a change log to a set.
+     *
+     * @param changes change log
+     * @param ids set of item ids
+     */
+    private static void addItemIds(ChangeLog changes, Set<ItemId> ids) {
+        for (ItemState state : changes.addedStates()) {
+            ids.add(state.getId());
+        }
+        for (ItemState state : changes.modifiedStates()) {
+            ids.add(state.getId());
+        }
+        for (ItemState state : changes.deletedStates()) {
+            ids.add(state.getId());
+        }
+        for (NodeReferences refs : changes.modifiedRefs()) {
+            ids.add(refs.getTargetId());
+        }
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     private String getFirstUserId(List<EventState> eventStates) {
         if (eventStates == null || eventStates.isEmpty()) {
             return "";
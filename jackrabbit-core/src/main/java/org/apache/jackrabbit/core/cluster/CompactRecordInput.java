@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import static org.apache.jackrabbit.core.cluster.CompactRecordOutput.ELEMENT_CURRENT;
+import static org.apache.jackrabbit.core.cluster.CompactRecordOutput.ELEMENT_IDENTIFIER;
+import static org.apache.jackrabbit.core.cluster.CompactRecordOutput.ELEMENT_KIND_BITS;
+import static org.apache.jackrabbit.core.cluster.CompactRecordOutput.ELEMENT_NAME;
+import static org.apache.jackrabbit.core.cluster.CompactRecordOutput.ELEMENT_PARENT;
+import static org.apache.jackrabbit.core.cluster.CompactRecordOutput.ELEMENT_ROOT;
+import static org.apache.jackrabbit.core.cluster.CompactRecordOutput.INDEX_REF;
+import static org.apache.jackrabbit.core.cluster.CompactRecordOutput.NEW_REF;
+import static org.apache.jackrabbit.core.cluster.CompactRecordOutput.NULL_REF;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.journal.JournalException;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.PathFactory;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+
+/**
+ * Reads the body of a compact cluster record.
+ *
+ * @see CompactRecordOutput
+ */
+class CompactRecordInput {
+
+    private static final PathFactory PATH_FACTORY = PathFactoryImpl.getInstance();
+
+    private final byte[] data;
+
+    private int pos;
+
+    private final List<NodeId> nodeIds = new ArrayList<NodeId>();
+
+    private final List<String> namespaces = new ArrayList<String>();
+
+    private final List<Name> names = new ArrayList<Name>();
+
+    private final List<Path> paths = new ArrayList<Path>();
+
+    private final List<String> sharedStrings = new ArrayList<String>();
+
+    /**
+     * Creates a new input.
+     *
+     * @param data the record body
+     */
+    CompactRecordInput(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Creates a new input on a body compressed with
+     * {@link CompactRecordOutput#toCompressedByteArray()}.
+     *
+     * @param compressed the compressed body
+     * @param length the length of the uncompressed body
+     * @return the input
+     * @throws JournalException if the body can not be decompressed
+     */
+    static CompactRecordInput decompress(byte[] compressed, int length)
+            throws JournalException {
+        byte[] data = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < length) {
+                int read = inflater.inflate(data, n, length - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != length) {
+                throw new JournalException("Compressed record truncated: expected "
+                        + length + " bytes, got " + n);
+            }
+        } catch (DataFormatException e) {
+            throw new JournalException("Invalid compressed record.", e);
+        } finally {
+            inflater.end();
+        }
+        return new CompactRecordInput(data);
+    }
+
+    public int readVarInt() throws JournalException {
+        long n = readVarLong();
+        if (n > Integer.MAX_VALUE) {
+            throw new JournalException("Integer out of range: " + n);
+        }
+        return (int) n;
+    }
+
+    public long readVarLong() throws JournalException {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            n |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+        throw new JournalException("Malformed variable length integer.");
+    }
+
+    public long readSignedVarLong() throws JournalException {
+        long n = readVarLong();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    public int readByte() throws JournalException {
+        if (pos >= data.length) {
+            throw new JournalException("Unexpected end of record.");
+        }
+        return data[pos++] & 0xFF;
+    }
+
+    public String readString() throws JournalException {
+        int length = readVarInt();
+        if (length == 0) {
+            return null;
+        }
+        length--;
+        if (length > data.length - pos) {
+            throw new JournalException("Unexpected end of record.");
+        }
+        try {
+            String s = new String(data, pos, length, "UTF-8");
+            pos += length;
+            return s;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported", e);
+        }
+    }
+
+    public String readSharedString() throws JournalException {
+        int ref = readVarInt();
+        if (ref == NEW_REF) {
+            String s = readString();
+            sharedStrings.add(s);
+            return s;
+        }
+        return lookup(sharedStrings, ref);
+    }
+
+    public NodeId readNodeId() throws JournalException {
+        int ref = readVarInt();
+        if (ref == NEW_REF) {
+            NodeId id = new NodeId(readLong(), readLong());
+            nodeIds.add(id);
+            return id;
+        }
+        return lookup(nodeIds, ref);
+    }
+
+    public Name readName() throws JournalException {
+        int ref = readVarInt();
+        if (ref == NEW_REF) {
+            String uri;
+            int nsRef = readVarInt();
+            if (nsRef == NEW_REF) {
+                uri = readString();
+                namespaces.add(uri);
+            } else {
+                uri = lookup(namespaces, nsRef);
+            }
+            String localName = readString();
+            if (uri == null || localName == null) {
+                throw new JournalException("Invalid name in record.");
+            }
+            Name name = NameFactoryImpl.getInstance().create(uri, localName);
+            names.add(name);
+            return name;
+        }
+        return lookup(names, ref);
+    }
+
+    public Path readPath() throws JournalException {
+        int ref = readVarInt();
+        if (ref != NEW_REF) {
+            return lookup(paths, ref);
+        }
+        int count = readVarInt();
+        Path.Element[] elements = new Path.Element[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                int header = readVarInt();
+                switch (header & ((1 << ELEMENT_KIND_BITS) - 1)) {
+                case ELEMENT_NAME:
+                    Name name = readName();
+                    int index = header >>> ELEMENT_KIND_BITS;
+                    if (index != Path.INDEX_UNDEFINED) {
+                        elements[i] = PATH_FACTORY.createElement(name, index);
+                    } else {
+                        elements[i] = PATH_FACTORY.createElement(name);
+                    }
+                    break;
+                case ELEMENT_ROOT:
+                    elements[i] = PATH_FACTORY.getRootElement();
+                    break;
+                case ELEMENT_PARENT:
+                    elements[i] = PATH_FACTORY.getParentElement();
+                    break;
+                case ELEMENT_CURRENT:
+                    elements[i] = PATH_FACTORY.getCurrentElement();
+                    break;
+                case ELEMENT_IDENTIFIER:
+                    elements[i] = PATH_FACTORY.createElement(readString());
+                    break;
+                default:
+                    throw new JournalException(
+                            "Unknown path element kind: " + header);
+                }
+            }
+            Path path = PATH_FACTORY.create(elements);
+            paths.add(path);
+            return path;
+        } catch (IllegalArgumentException e) {
+            throw new JournalException("Invalid path in record.", e);
+        }
+    }
+
+    /**
+     * Checks that the whole body has been read.
+     *
+     * @throws JournalException if there are unread bytes
+     */
+    public void checkEnd() throws JournalException {
+        if (pos != data.length) {
+            throw new JournalException((data.length - pos)
+                    + " unexpected bytes at the end of the record.");
+        }
+    }
+
+    //------------------------------------------------------------< internal >
+
+    private long readLong() throws JournalException {
+        long n = 0;
+        for (int i = 0; i < 8; i++) {
+            n = n << 8 | readByte();
+        }
+        return n;
+    }
+
+    private static <T> T lookup(List<T> dictionary, int ref)
+            throws JournalException {
+        if (ref == NULL_REF) {
+            return null;
+        }
+        int index = ref - INDEX_REF;
+        if (index < 0 || index >= dictionary.size()) {
+            throw new JournalException("Invalid dictionary reference: " + ref);
+        }
+        return dictionary.get(index);
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+
+/**
+ * Writes the body of a compact cluster record. Numbers are written as
+ * variable length integers. Node ids, namespaces, names, paths and user
+ * ids are written in full only the first time they occur in a record, later
+ * occurrences refer to their index in a per-record dictionary.
+ * <p>
+ * A dictionary reference is written as a variable length integer:
+ * <code>0</code> for <code>null</code>, <code>1</code> if a new entry
+ * follows and <code>index + 2</code> for an existing entry.
+ *
+ * @see CompactRecordInput
+ */
+class CompactRecordOutput {
+
+    /**
+     * Dictionary reference to <code>null</code>.
+     */
+    static final int NULL_REF = 0;
+
+    /**
+     * Dictionary reference to a new entry.
+     */
+    static final int NEW_REF = 1;
+
+    /**
+     * Offset of the references to existing entries.
+     */
+    static final int INDEX_REF = 2;
+
+    /**
+     * Path element kinds, stored in the lowest bits of the element header.
+     */
+    static final int ELEMENT_NAME = 0;
+    static final int ELEMENT_ROOT = 1;
+    static final int ELEMENT_PARENT = 2;
+    static final int ELEMENT_CURRENT = 3;
+    static final int ELEMENT_IDENTIFIER = 4;
+
+    /**
+     * Number of bits used for the path element kind.
+     */
+    static final int ELEMENT_KIND_BITS = 3;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+
+    private final Map<NodeId, Integer> nodeIds = new HashMap<NodeId, Integer>();
+
+    private final Map<String, Integer> namespaces = new HashMap<String, Integer>();
+
+    private final Map<Name, Integer> names = new HashMap<Name, Integer>();
+
+    private final Map<Path, Integer> paths = new HashMap<Path, Integer>();
+
+    private final Map<String, Integer> sharedStrings = new HashMap<String, Integer>();
+
+    /**
+     * Writes an unsigned variable length integer.
+     *
+     * @param n the value, must not be negative
+     */
+    public void writeVarInt(int n) {
+        writeVarLong(n);
+    }
+
+    /**
+     * Writes an unsigned variable length long.
+     *
+     * @param n the value, must not be negative
+     */
+    public void writeVarLong(long n) {
+        while ((n & ~0x7FL) != 0) {
+            out.write((int) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        out.write((int) n);
+    }
+
+    /**
+     * Writes a signed long, small absolute values take less space.
+     *
+     * @param n the value
+     */
+    public void writeSignedVarLong(long n) {
+        writeVarLong((n << 1) ^ (n >> 63));
+    }
+
+    public void writeByte(int b) {
+        out.write(b);
+    }
+
+    /**
+     * Writes a string, which may be <code>null</code>.
+     *
+     * @param s the string
+     */
+    public void writeString(String s) {
+        if (s == null) {
+            writeVarInt(0);
+        } else {
+            byte[] b = toBytes(s);
+            writeVarInt(b.length + 1);
+            out.write(b, 0, b.length);
+        }
+    }
+
+    /**
+     * Writes a string that is likely to occur more than once in the record.
+     *
+     * @param s the string, may be <code>null</code>
+     */
+    public void writeSharedString(String s) {
+        if (writeRef(sharedStrings, s)) {
+            writeString(s);
+        }
+    }
+
+    public void writeNodeId(NodeId id) {
+        if (writeRef(nodeIds, id)) {
+            writeLong(id.getMostSignificantBits());
+            writeLong(id.getLeastSignificantBits());
+        }
+    }
+
+    public void writeName(Name name) {
+        if (writeRef(names, name)) {
+            if (writeRef(namespaces, name.getNamespaceURI())) {
+                writeString(name.getNamespaceURI());
+            }
+            writeString(name.getLocalName());
+        }
+    }
+
+    public void writePath(Path path) {
+        if (writeRef(paths, path)) {
+            Path.Element[] elements = path.getElements();
+            writeVarInt(elements.length);
+            for (Path.Element element : elements) {
+                if (element.denotesRoot()) {
+                    writeVarInt(ELEMENT_ROOT);
+                } else if (element.denotesParent()) {
+                    writeVarInt(ELEMENT_PARENT);
+                } else if (element.denotesCurrent()) {
+                    writeVarInt(ELEMENT_CURRENT);
+                } else if (element.denotesIdentifier()) {
+                    writeVarInt(ELEMENT_IDENTIFIER);
+                    writeString(element.getIdentifier());
+                } else {
+                    writeVarInt(element.getIndex() << ELEMENT_KIND_BITS | ELEMENT_NAME);
+                    writeName(element.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the body written so far.
+     *
+     * @return number of bytes
+     */
+    public int size() {
+        return out.size();
+    }
+
+    /**
+     * Returns the body written so far.
+     *
+     * @return the body
+     */
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the body written so far, compressed with the deflate
+     * algorithm.
+     *
+     * @return the compressed body
+     */
+    public byte[] toCompressedByteArray() {
+        byte[] data = out.toByteArray();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream compressed =
+                    new ByteArrayOutputStream(data.length / 2 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                compressed.write(buffer, 0, n);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    //------------------------------------------------------------< internal >
+
+    private void writeLong(long n) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (n >>> shift));
+        }
+    }
+
+    /**
+     * Writes a reference to the given dictionary entry.
+     *
+     * @return <code>true</code> if the entry is new and must be written
+     *         by the caller
+     */
+    private <T> boolean writeRef(Map<T, Integer> dictionary, T value) {
+        if (value == null) {
+            writeVarInt(NULL_REF);
+            return false;
+        }
+        Integer index = dictionary.get(value);
+        if (index != null) {
+            writeVarInt(index + INDEX_REF);
+            return false;
+        }
+        dictionary.put(value, dictionary.size());
+        writeVarInt(NEW_REF);
+        return true;
+    }
+
+    private static byte[] toBytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported", e);
+        }
+    }
+}
@@ -52,6 +52,16 @@ public interface UpdateEventChannel {
      */
     void updateCancelled(Update update);
 
+    /**
+     * Called when the events of a committed update operation have been
+     * dispatched to the synchronous listeners, which include the search
+     * indexes. The default implementation does nothing.
+     *
+     * @param update update operation
+     */
+    default void updateDispatched(Update update) {
+    }
+
     /**
      * Set listener that will receive information about incoming, external update events.
      *
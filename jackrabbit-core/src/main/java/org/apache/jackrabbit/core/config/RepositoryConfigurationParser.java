@@ -32,6 +32,7 @@ import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.data.DataStoreFactory;
 import org.apache.jackrabbit.core.data.MultiDataStore;
 import org.apache.jackrabbit.core.data.MultiDataStoreAware;
+import org.apache.jackrabbit.core.data.TieredDataStore;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.fs.FileSystemException;
 import org.apache.jackrabbit.core.fs.FileSystemFactory;
@@ -194,6 +195,9 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
     /** Name of the archive DataStore class attribute. */
     public static final String ARCHIVE_DATASTORE_ATTRIBUTE = "archive";
 
+    /** Name of the tier DataStore class attribute. */
+    public static final String TIER_DATASTORE_ATTRIBUTE = "tier";
+
     /** Default synchronization delay, in milliseconds. */
     public static final String DEFAULT_SYNC_DELAY = "5000";
 
@@ -1008,6 +1012,19 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
      *     &lt;/param&gt;
      *   &lt;/DataStore&gt;
      * </pre>
+     * A tiered data store has one or more <code>tier</code> parameters, the
+     * fastest tier first:
+     * <pre>
+     *   &lt;DataStore class="org.apache.jackrabbit.core.data.TieredDataStore"&gt;
+     *     &lt;param name="tier" value="org.apache.jackrabbit.core.data.FileDataStore"&gt;
+     *         &lt;param name="..." value="..."&gt;
+     *         ...
+     *     &lt;/param&gt;
+     *     &lt;param name="tier" value="org.apache.jackrabbit.core.data.FileDataStore"&gt;
+     *         ...
+     *     &lt;/param&gt;
+     *   &lt;/DataStore&gt;
+     * </pre>
      * <p>
      * <code>DataStore</code> is a {@link #parseBeanConfig(Element,String) bean configuration}
      * element.
@@ -1040,21 +1057,7 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
                                         && (PRIMARY_DATASTORE_ATTRIBUTE.equals(paramNode.getAttributes().getNamedItem("name").getNodeValue())
                                                 || ARCHIVE_DATASTORE_ATTRIBUTE.equals(paramNode.getAttributes().getNamedItem("name").getNodeValue()))) {
                                     try {
-                                        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-                                        Element newParent = document.createElement("parent");
-                                        document.appendChild(newParent);
-                                        Element datastoreElement = document.createElement(DATA_STORE_ELEMENT);
-                                        newParent.appendChild(datastoreElement);
-                                        NodeList childNodes = paramNode.getChildNodes();
-                                        for (int y = 0; childNodes.getLength() > y; y++) {
-                                            datastoreElement.appendChild(document.importNode(childNodes.item(y), true));
-                                        }
-                                        NamedNodeMap attributes = paramNode.getAttributes();
-                                        for (int z = 0; attributes.getLength() > z; z++) {
-                                            Node item = attributes.item(z);
-                                            datastoreElement.setAttribute(CLASS_ATTRIBUTE, item.getNodeValue());
-                                        }
-                                        DataStore subDataStore = getDataStoreFactory(newParent, directory).getDataStore();
+                                        DataStore subDataStore = getSubDataStore(paramNode, directory);
                                         if (!MultiDataStoreAware.class.isAssignableFrom(subDataStore.getClass())) {
                                             throw new ConfigurationException("Only MultiDataStoreAware datastore's can be used within a MultiDataStore.");
                                         }
@@ -1074,6 +1077,29 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
                             }
                             ((MultiDataStore) store).setPrimaryDataStore(primary);
                             ((MultiDataStore) store).setArchiveDataStore(archive);
+                        } else if (store instanceof TieredDataStore) {
+                            List<DataStore> tiers = new ArrayList<DataStore>();
+                            NodeList subParamNodes = child.getChildNodes();
+                            for (int x = 0; x < subParamNodes.getLength(); x++) {
+                                Node paramNode = subParamNodes.item(x);
+                                if (paramNode.getNodeType() == Node.ELEMENT_NODE
+                                        && TIER_DATASTORE_ATTRIBUTE.equals(paramNode.getAttributes().getNamedItem("name").getNodeValue())) {
+                                    DataStore subDataStore;
+                                    try {
+                                        subDataStore = getSubDataStore(paramNode, directory);
+                                    } catch (Exception e) {
+                                        throw new ConfigurationException("Failed to parse the TieredDataStore element.", e);
+                                    }
+                                    if (!MultiDataStoreAware.class.isAssignableFrom(subDataStore.getClass())) {
+                                        throw new ConfigurationException("Only MultiDataStoreAware datastore's can be used within a TieredDataStore.");
+                                    }
+                                    tiers.add(subDataStore);
+                                }
+                            }
+                            if (tiers.size() < 2) {
+                                throw new ConfigurationException("A TieredDataStore must have configured at least two tier datastores");
+                            }
+                            ((TieredDataStore) store).setTierDataStores(tiers);
                         }
                         store.init(directory);
                         return store;
@@ -1084,6 +1110,36 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
         };
     }
 
+    /**
+     * Creates and initializes the data store configured by a
+     * <code>primary</code>, <code>archive</code> or <code>tier</code>
+     * parameter of a multi or tiered data store.
+     *
+     * @param paramNode the parameter element
+     * @param directory the repository directory
+     * @return the initialized data store
+     * @throws Exception if the configuration is broken or the data store
+     *                   can not be initialized
+     */
+    private DataStore getSubDataStore(Node paramNode, String directory)
+            throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element newParent = document.createElement("parent");
+        document.appendChild(newParent);
+        Element datastoreElement = document.createElement(DATA_STORE_ELEMENT);
+        newParent.appendChild(datastoreElement);
+        NodeList childNodes = paramNode.getChildNodes();
+        for (int y = 0; childNodes.getLength() > y; y++) {
+            datastoreElement.appendChild(document.importNode(childNodes.item(y), true));
+        }
+        NamedNodeMap attributes = paramNode.getAttributes();
+        for (int z = 0; attributes.getLength() > z; z++) {
+            Node item = attributes.item(z);
+            datastoreElement.setAttribute(CLASS_ATTRIBUTE, item.getNodeValue());
+        }
+        return getDataStoreFactory(newParent, directory).getDataStore();
+    }
+
     /**
      * Parses repository lock mechanism configuration. Repository lock mechanism
      * configuration uses the following format:
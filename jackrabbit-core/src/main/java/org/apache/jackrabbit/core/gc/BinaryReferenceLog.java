@@ -0,0 +1,494 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.gc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jcr.PropertyType;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.PropertyState;
+import org.apache.jackrabbit.core.value.InternalValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent set of the data store records referenced by the binary
+ * properties of one persistence manager. The set is kept up to date from the
+ * change logs stored by the shared item state manager, so that the
+ * {@link GarbageCollector} does not need to traverse the persistence manager
+ * and to touch every referenced record in its mark phase.
+ * <p>
+ * The references are kept in the directory of the log in two files: the
+ * <code>references</code> file contains one line per binary property with
+ * the property id and the identifiers of its values, and the
+ * <code>changes</code> file contains the properties added, modified
+ * (<code>+</code>) or removed (<code>-</code>) since the last compaction.
+ * The changes are merged into the references by {@link #compact()}. The log
+ * is only trusted if it was closed properly the last time; otherwise it has
+ * to be rebuilt from the persistence manager. Errors while writing the log
+ * never fail a save, they invalidate the log instead.
+ */
+public class BinaryReferenceLog {
+
+    /**
+     * Set this system property to true to keep binary reference logs and
+     * run the incremental data store garbage collection.
+     */
+    public static final String INCREMENTAL_PROPERTY =
+        "org.apache.jackrabbit.garbagecollector.incremental";
+
+    private static final Logger log =
+        LoggerFactory.getLogger(BinaryReferenceLog.class);
+
+    private static final String ENCODING = "UTF-8";
+
+    private final File references;
+
+    private final File changes;
+
+    private final File oldChanges;
+
+    private final File rebuilt;
+
+    private final File clean;
+
+    private Writer writer;
+
+    private boolean valid;
+
+    private long referenceCount = -1;
+
+    private BloomFilter tracked;
+
+    private Writer rebuildWriter;
+
+    /**
+     * Whether writing the changes failed since the rebuild started.
+     */
+    private boolean failed;
+
+    /**
+     * Opens the log in the given directory.
+     *
+     * @param directory the directory of the log
+     * @throws IOException if the log can not be opened
+     */
+    public BinaryReferenceLog(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        references = new File(directory, "references");
+        changes = new File(directory, "changes");
+        oldChanges = new File(directory, "changes.old");
+        rebuilt = new File(directory, "references.tmp");
+        clean = new File(directory, "clean");
+
+        valid = clean.exists() && references.exists()
+            && !oldChanges.exists() && !rebuilt.exists();
+        if (clean.exists() && !clean.delete()) {
+            throw new IOException("Could not delete " + clean);
+        }
+        if (!valid) {
+            delete(changes);
+            delete(oldChanges);
+            delete(rebuilt);
+        }
+        writer = openChanges();
+    }
+
+    /**
+     * Returns whether the incremental data store garbage collection is
+     * enabled by the {@link #INCREMENTAL_PROPERTY} system property.
+     *
+     * @return true if binary reference logs are to be kept
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(INCREMENTAL_PROPERTY);
+    }
+
+    /**
+     * Marks the log in the given directory as outdated, if there is one.
+     * This is called when the repository is started without keeping the
+     * log, so that a later start does not trust the references.
+     *
+     * @param directory the directory of the log
+     */
+    public static void invalidate(File directory) {
+        File file = new File(directory, "clean");
+        if (file.exists() && !file.delete()) {
+            log.warn("Could not delete {}", file);
+        }
+    }
+
+    /**
+     * Returns whether the references are complete, that is, whether the log
+     * can be used instead of traversing the persistence manager.
+     *
+     * @return true if the log is valid
+     */
+    public synchronized boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Returns the number of references found by the last compaction or
+     * rebuild.
+     *
+     * @return the number of references, or -1 if unknown
+     */
+    public synchronized long getReferenceCount() {
+        return referenceCount;
+    }
+
+    /**
+     * Records the binary properties of a change log that has been stored by
+     * the persistence manager.
+     *
+     * @param changeLog the stored change log
+     */
+    public synchronized void persisted(ChangeLog changeLog) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            for (ItemState state : changeLog.deletedStates()) {
+                if (isBinary(state)) {
+                    writer.write("-" + state.getId() + "\n");
+                }
+            }
+            for (ItemState state : changeLog.addedStates()) {
+                if (isBinary(state)) {
+                    String ids = getIdentifiers((PropertyState) state, tracked);
+                    if (ids.length() > 0) {
+                        writer.write("+" + state.getId() + "\t" + ids + "\n");
+                    }
+                }
+            }
+            for (ItemState state : changeLog.modifiedStates()) {
+                if (isBinary(state)) {
+                    String ids = getIdentifiers((PropertyState) state, tracked);
+                    if (ids.length() > 0) {
+                        writer.write("+" + state.getId() + "\t" + ids + "\n");
+                    } else {
+                        writer.write("-" + state.getId() + "\n");
+                    }
+                }
+            }
+            writer.flush();
+        } catch (IOException e) {
+            log.warn("Could not write the binary reference log, the next"
+                    + " garbage collection needs to rebuild it", e);
+            valid = false;
+            failed = true;
+        }
+    }
+
+    /**
+     * Merges the changes into the references.
+     *
+     * @throws IOException if the log can not be written
+     */
+    public void compact() throws IOException {
+        rotate();
+        merge(references);
+    }
+
+    /**
+     * Starts to rebuild the references. The changes logged until now are
+     * discarded, as they are contained in the persistence manager that is
+     * traversed next.
+     *
+     * @throws IOException if the log can not be written
+     */
+    public void beginRebuild() throws IOException {
+        rotate();
+        synchronized (this) {
+            failed = false;
+        }
+        delete(oldChanges);
+        rebuildWriter = openWriter(rebuilt, false);
+    }
+
+    /**
+     * Adds a binary property found while traversing the persistence manager.
+     *
+     * @param state the property
+     * @throws IOException if the log can not be written
+     */
+    public void rebuild(PropertyState state) throws IOException {
+        String ids = getIdentifiers(state, null);
+        if (ids.length() > 0) {
+            write(rebuildWriter, state.getId().toString(), ids);
+        }
+    }
+
+    /**
+     * Ends the rebuild. The properties changed while the persistence manager
+     * was traversed are merged into the references, and the log is valid
+     * again.
+     *
+     * @throws IOException if the log can not be written
+     */
+    public void endRebuild() throws IOException {
+        rebuildWriter.close();
+        rebuildWriter = null;
+        rotate();
+        merge(rebuilt);
+        synchronized (this) {
+            valid = !failed;
+        }
+    }
+
+    /**
+     * Adds all references to the given bloom filter. The references added
+     * from now on are also added to the filter, until
+     * {@link #stopTracking()} is called.
+     *
+     * @param filter the bloom filter
+     * @throws IOException if the log can not be read
+     */
+    void fill(BloomFilter filter) throws IOException {
+        synchronized (this) {
+            tracked = filter;
+            writer.flush();
+            BufferedReader reader = openReader(changes);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("+")) {
+                        add(filter, line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        // the references are only replaced by the garbage collector itself
+        BufferedReader reader = openReader(references);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                add(filter, line);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Stops adding new references to the bloom filter.
+     */
+    synchronized void stopTracking() {
+        tracked = null;
+    }
+
+    /**
+     * Closes the log. If the log is valid, it is trusted when it is opened
+     * the next time.
+     */
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+            if (valid && !clean.createNewFile()) {
+                log.warn("Could not create {}", clean);
+            }
+        } catch (IOException e) {
+            log.warn("Could not close the binary reference log", e);
+        } finally {
+            writer = null;
+            tracked = null;
+        }
+    }
+
+    private static boolean isBinary(ItemState state) {
+        return !state.isNode()
+            && ((PropertyState) state).getType() == PropertyType.BINARY;
+    }
+
+    private static String getIdentifiers(
+            PropertyState state, BloomFilter filter) {
+        StringBuilder buff = new StringBuilder();
+        for (InternalValue value : state.getValues()) {
+            DataIdentifier id = value.getDataIdentifier();
+            if (id != null) {
+                if (buff.length() > 0) {
+                    buff.append(' ');
+                }
+                buff.append(id);
+                if (filter != null) {
+                    filter.add(id.toString());
+                }
+            }
+        }
+        return buff.toString();
+    }
+
+    private static void add(BloomFilter filter, String line) {
+        int tab = line.indexOf('\t');
+        for (String id : line.substring(tab + 1).split(" ")) {
+            filter.add(id);
+        }
+    }
+
+    /**
+     * Starts a new changes file, and moves the current one to
+     * <code>changes.old</code>.
+     */
+    private synchronized void rotate() throws IOException {
+        if (writer == null) {
+            throw new IOException("The binary reference log is closed");
+        }
+        writer.close();
+        try {
+            delete(oldChanges);
+            if (changes.exists() && !changes.renameTo(oldChanges)) {
+                throw new IOException("Could not rename " + changes);
+            }
+        } catch (IOException e) {
+            valid = false;
+            failed = true;
+            throw e;
+        } finally {
+            writer = openChanges();
+        }
+    }
+
+    /**
+     * Merges <code>changes.old</code> into the given file and replaces the
+     * references with the result.
+     */
+    private void merge(File base) throws IOException {
+        Map<String, String> changed = new LinkedHashMap<String, String>();
+        if (oldChanges.exists()) {
+            BufferedReader reader = openReader(oldChanges);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("+")) {
+                        int tab = line.indexOf('\t');
+                        String id = line.substring(1, tab);
+                        changed.remove(id);
+                        changed.put(id, line.substring(tab + 1));
+                    } else if (line.startsWith("-")) {
+                        changed.remove(line.substring(1));
+                        changed.put(line.substring(1), null);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        long count = 0;
+        File tmp = new File(references.getPath() + ".new");
+        Writer w = openWriter(tmp, false);
+        try {
+            if (base.exists()) {
+                BufferedReader reader = openReader(base);
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int tab = line.indexOf('\t');
+                        String id = line.substring(0, tab);
+                        String ids = line.substring(tab + 1);
+                        if (changed.containsKey(id)) {
+                            ids = changed.remove(id);
+                        }
+                        if (ids != null) {
+                            count += write(w, id, ids);
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+            for (Map.Entry<String, String> entry : changed.entrySet()) {
+                if (entry.getValue() != null) {
+                    count += write(w, entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            w.close();
+        }
+
+        synchronized (this) {
+            delete(references);
+            if (!tmp.renameTo(references)) {
+                valid = false;
+                failed = true;
+                throw new IOException("Could not rename " + tmp);
+            }
+            if (base != references) {
+                delete(base);
+            }
+            delete(oldChanges);
+            referenceCount = count;
+        }
+    }
+
+    private static int write(Writer w, String id, String ids)
+            throws IOException {
+        w.write(id);
+        w.write('\t');
+        w.write(ids);
+        w.write('\n');
+        return ids.split(" ").length;
+    }
+
+    private Writer openChanges() throws IOException {
+        return openWriter(changes, true);
+    }
+
+    private static Writer openWriter(File file, boolean append)
+            throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, append), ENCODING));
+    }
+
+    private static BufferedReader openReader(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return new BufferedReader(new InputStreamReader(in, ENCODING));
+        } catch (IOException e) {
+            IOUtils.closeQuietly(in);
+            throw e;
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+}
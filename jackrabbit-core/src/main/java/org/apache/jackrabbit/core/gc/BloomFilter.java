@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.gc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bloom filter of data store identifiers, used by the incremental mark of
+ * the {@link GarbageCollector}. The filter never reports a referenced
+ * identifier as unreferenced; a false positive only keeps an unreferenced
+ * record until the next garbage collection. Identifiers may be added
+ * concurrently.
+ */
+class BloomFilter {
+
+    private final AtomicLongArray bits;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    /**
+     * Creates a filter for the given number of identifiers.
+     *
+     * @param expectedCount the expected number of identifiers
+     * @param falsePositiveProbability the probability that an identifier
+     *        that was not added is reported as contained
+     */
+    BloomFilter(long expectedCount, double falsePositiveProbability) {
+        long n = Math.max(1, expectedCount);
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (ln2 * ln2));
+        m = Math.max(64, Math.min(m, 64L * Integer.MAX_VALUE));
+        bits = new AtomicLongArray((int) ((m + 63) / 64));
+        bitCount = 64L * bits.length();
+        hashCount = (int) Math.max(1, Math.min(16, Math.round((double) m / n * ln2)));
+    }
+
+    void add(String identifier) {
+        long h1 = hash(identifier);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long old;
+            do {
+                old = bits.get(index);
+            } while ((old & mask) == 0 && !bits.compareAndSet(index, old, old | mask));
+        }
+    }
+
+    boolean mightContain(String identifier) {
+        long h1 = hash(identifier);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 64 bit FNV-1a hash.
+     */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Finalizer of the 64 bit MurmurHash3.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb3fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -16,8 +16,10 @@
  */
 package org.apache.jackrabbit.core.gc;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -47,7 +49,9 @@ import org.apache.jackrabbit.api.management.DataStoreGarbageCollector;
 import org.apache.jackrabbit.api.management.MarkEventListener;
 import org.apache.jackrabbit.core.RepositoryContext;
 import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.data.DataStore;
+import org.apache.jackrabbit.core.data.SelectiveDeleteDataStore;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.observation.SynchronousEventListener;
@@ -72,6 +76,14 @@ import org.slf4j.LoggerFactory;
  * entries are detected because the modified date is changed when they are
  * added.
  * <p>
+ * If the persistence managers keep a {@link BinaryReferenceLog} and the data
+ * store is a {@link SelectiveDeleteDataStore}, the mark phase is incremental
+ * instead: the referenced records are read from the logs into a
+ * {@link BloomFilter}, and the sweep phase only deletes the old records that
+ * are not contained in the filter. The modified date of the referenced
+ * records is not updated. The logs are rebuilt by scanning the persistence
+ * managers if they are not valid.
+ * <p>
  * Example code to run the data store garbage collection:
  * <pre>
  * JackrabbitRepositoryFactory jf = (JackrabbitRepositoryFactory) factory;
@@ -150,6 +162,20 @@ public class GarbageCollector implements DataStoreGarbageCollector {
 
     private volatile RepositoryException observationException;
 
+    private double falsePositiveProbability = 0.01;
+
+    /**
+     * The binary reference logs of the persistence managers, if the mark
+     * phase is incremental.
+     */
+    private BinaryReferenceLog[] referenceLogs;
+
+    /**
+     * The records referenced when the incremental mark phase ran, or
+     * <code>null</code>.
+     */
+    private BloomFilter referenced;
+
     /**
      * Create a new garbage collector.
      * This method is usually not called by the application, it is called
@@ -208,6 +234,21 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         this.callback = callback;
     }
 
+    public double getFalsePositiveProbability() {
+        return falsePositiveProbability;
+    }
+
+    /**
+     * Set the probability that an unreferenced record is kept by the
+     * incremental garbage collection. A lower probability needs more memory
+     * in the mark phase.
+     *
+     * @param falsePositiveProbability the probability, by default 0.01
+     */
+    public void setFalsePositiveProbability(double falsePositiveProbability) {
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
     public void mark() throws RepositoryException {
         if (store == null) {
             throw new RepositoryException("No DataStore configured.");
@@ -224,7 +265,10 @@ public class GarbageCollector implements DataStoreGarbageCollector {
             }
         } else {
             try {
-                if (!NODE_ID_SCAN) {
+                BinaryReferenceLog[] logs = getBinaryReferenceLogs();
+                if (logs != null) {
+                    markIncremental(logs);
+                } else if (!NODE_ID_SCAN) {
                     scanPersistenceManagersByNodeInfos();
                 } else {
                     scanPersistenceManagersByNodeIds();
@@ -235,6 +279,86 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         }
     }
 
+    /**
+     * Get the binary reference logs of all persistence managers.
+     *
+     * @return the logs, or null if the mark phase can not be incremental
+     */
+    private BinaryReferenceLog[] getBinaryReferenceLogs() {
+        if (!(store instanceof SelectiveDeleteDataStore)) {
+            return null;
+        }
+        BinaryReferenceLog[] logs = new BinaryReferenceLog[pmList.length];
+        for (int i = 0; i < pmList.length; i++) {
+            logs[i] = context.getBinaryReferenceLog(pmList[i]);
+            if (logs[i] == null) {
+                return null;
+            }
+        }
+        return logs;
+    }
+
+    private void markIncremental(BinaryReferenceLog[] logs)
+            throws RepositoryException, ItemStateException {
+        try {
+            long count = 0;
+            for (int i = 0; i < logs.length; i++) {
+                if (logs[i].isValid()) {
+                    logs[i].compact();
+                } else {
+                    LOG.info("Rebuilding the binary reference log of " + pmList[i]);
+                    rebuildReferenceLog(pmList[i], logs[i]);
+                }
+                count += logs[i].getReferenceCount();
+            }
+            // leave room for the references added until the sweep ends
+            BloomFilter filter = new BloomFilter(
+                    count + count / 4 + 1024, falsePositiveProbability);
+            referenceLogs = logs;
+            referenced = filter;
+            for (BinaryReferenceLog log : logs) {
+                log.fill(filter);
+            }
+            LOG.debug("Marked " + count + " references incrementally");
+        } catch (IOException e) {
+            throw new RepositoryException(
+                    "Unable to read the binary reference log", e);
+        }
+    }
+
+    private void rebuildReferenceLog(
+            IterablePersistenceManager pm, BinaryReferenceLog log)
+            throws IOException, ItemStateException, RepositoryException {
+        log.beginRebuild();
+        Map<NodeId,NodeInfo> batch = pm.getAllNodeInfos(null, NODESATONCE);
+        while (!batch.isEmpty()) {
+            NodeId lastId = null;
+            for (NodeInfo info : batch.values()) {
+                lastId = info.getId();
+                if (callback != null) {
+                    callback.beforeScanning(null);
+                }
+                if (info.hasBlobsInDataStore()) {
+                    try {
+                        NodeState state = pm.load(info.getId());
+                        for (Name name : state.getPropertyNames()) {
+                            PropertyState ps =
+                                pm.load(new PropertyId(info.getId(), name));
+                            if (ps.getType() == PropertyType.BINARY) {
+                                log.rebuild(ps);
+                            }
+                        }
+                    } catch (NoSuchItemStateException ignored) {
+                        // the node may have been deleted in the meantime
+                    }
+                }
+            }
+            batch = pm.getAllNodeInfos(lastId, NODESATONCE);
+        }
+        NodeInfo.clearPool();
+        log.endRebuild();
+    }
+
     private void scanNodes(SessionImpl session) throws RepositoryException {
 
         // add a listener to get 'moved' nodes
@@ -403,8 +527,38 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         if (startScanTimestamp == 0) {
             throw new RepositoryException("scan must be called first");
         }
+        if (referenced == null) {
+            stopScan();
+            return store.deleteAllOlderThan(startScanTimestamp);
+        }
+        int count = 0;
+        try {
+            // references added in the meantime are tracked until the end,
+            // and records that are accessed are touched
+            SelectiveDeleteDataStore sds = (SelectiveDeleteDataStore) store;
+            Iterator<DataIdentifier> it = store.getAllIdentifiers();
+            while (it.hasNext()) {
+                DataIdentifier id = it.next();
+                if (!referenced.mightContain(id.toString())
+                        && sds.deleteRecordIfOlderThan(id, startScanTimestamp)) {
+                    count++;
+                }
+            }
+        } finally {
+            stopTracking();
+        }
         stopScan();
-        return store.deleteAllOlderThan(startScanTimestamp);
+        return count;
+    }
+
+    private void stopTracking() {
+        if (referenceLogs != null) {
+            for (BinaryReferenceLog log : referenceLogs) {
+                log.stopTracking();
+            }
+            referenceLogs = null;
+        }
+        referenced = null;
     }
 
     /**
@@ -506,6 +660,7 @@ public class GarbageCollector implements DataStoreGarbageCollector {
 
     public void close() {
         if (!closed.getAndSet(true)) {
+            stopTracking();
             try {
                 stopScan();
             } catch (RepositoryException e) {
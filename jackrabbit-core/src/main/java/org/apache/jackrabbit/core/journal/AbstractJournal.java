@@ -90,6 +90,53 @@ public abstract class AbstractJournal implements Journal {
      */
     private InternalVersionManagerImpl internalVersionManager;
 
+    /**
+     * Class name of the {@link JournalNotifier} to use, bean property.
+     * If not set, other cluster nodes only see new revisions when they
+     * synchronize periodically.
+     */
+    private String notifier;
+
+    /**
+     * Address passed to the {@link JournalNotifier}, bean property.
+     */
+    private String notifierAddress;
+
+    /**
+     * Flag indicating whether change log records are written in the compact
+     * format, bean property. Cluster nodes running a version that does not
+     * know this format can not read such records.
+     */
+    private boolean compactRecords;
+
+    /**
+     * Flag indicating whether the body of compact records is compressed,
+     * bean property.
+     */
+    private boolean compressRecords = true;
+
+    /**
+     * Directory shared by the cluster nodes where {@link Checkpoint}s are
+     * stored, bean property. If not set, no checkpoints are used.
+     */
+    private String checkpointPath;
+
+    /**
+     * Interval in seconds between two checkpoints created by this cluster
+     * node, bean property. Zero disables the periodic creation.
+     */
+    private int checkpointInterval;
+
+    /**
+     * Number of checkpoints kept, bean property.
+     */
+    private int checkpointCount = 2;
+
+    /**
+     * The journal notifier, <code>null</code> if none is configured.
+     */
+    private JournalNotifier journalNotifier;
+
     /**
      * {@inheritDoc}
      */
@@ -97,6 +144,45 @@ public abstract class AbstractJournal implements Journal {
         this.id = id;
         this.resolver = resolver;
         this.npResolver = new DefaultNamePathResolver(resolver, true);
+        if (notifier != null && journalNotifier == null) {
+            journalNotifier = createNotifier();
+        }
+    }
+
+    /**
+     * Creates and initializes the configured journal notifier.
+     *
+     * @return the journal notifier
+     * @throws JournalException if the notifier can not be created
+     */
+    protected JournalNotifier createNotifier() throws JournalException {
+        JournalNotifier jn;
+        try {
+            Class<?> clazz = Class.forName(notifier);
+            if (!JournalNotifier.class.isAssignableFrom(clazz)) {
+                throw new JournalException(notifier
+                        + " is not a JournalNotifier implementation");
+            }
+            jn = (JournalNotifier) clazz.newInstance();
+        } catch (JournalException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JournalException(
+                    "Unable to create journal notifier: " + notifier, e);
+        }
+        jn.init(id, notifierAddress);
+        return jn;
+    }
+
+    /**
+     * Returns the journal notifier. The notifier is closed by the cluster
+     * node that uses this journal.
+     *
+     * @return the journal notifier, or <code>null</code> if none is
+     *         configured
+     */
+    public JournalNotifier getJournalNotifier() {
+        return journalNotifier;
     }
 
     /**
@@ -392,6 +478,19 @@ public abstract class AbstractJournal implements Journal {
      */
     protected abstract void doUnlock(boolean successful);
 
+    /**
+     * Notification method called by an appended record after it has been
+     * committed and the journal has been unlocked. Tells the other journals
+     * about the new revision if a notifier is configured.
+     *
+     * @param record record that was appended
+     */
+    protected void appended(AppendRecord record) {
+        if (journalNotifier != null) {
+            journalNotifier.revisionAppended(record.getRevision());
+        }
+    }
+
     /**
      * Return this journal's identifier.
      *
@@ -463,4 +562,118 @@ public abstract class AbstractJournal implements Journal {
      public void setRevision(String revision) {
          this.revision = revision;
      }
+
+     /**
+      * @return the class name of the journal notifier
+      */
+     public String getNotifier() {
+         return notifier;
+     }
+
+     /**
+      * @param notifier the class name of the journal notifier to set
+      */
+     public void setNotifier(String notifier) {
+         this.notifier = notifier;
+     }
+
+     /**
+      * @return the address of the journal notifier
+      */
+     public String getNotifierAddress() {
+         return notifierAddress;
+     }
+
+     /**
+      * @param notifierAddress the address of the journal notifier to set
+      */
+     public void setNotifierAddress(String notifierAddress) {
+         this.notifierAddress = notifierAddress;
+     }
+
+     /**
+      * @return whether change log records are written in the compact format
+      */
+     public boolean isCompactRecords() {
+         return compactRecords;
+     }
+
+     /**
+      * @param compactRecords whether to write change log records in the
+      *                       compact format
+      */
+     public void setCompactRecords(boolean compactRecords) {
+         this.compactRecords = compactRecords;
+     }
+
+     /**
+      * @return whether the body of compact records is compressed
+      */
+     public boolean isCompressRecords() {
+         return compressRecords;
+     }
+
+     /**
+      * @param compressRecords whether to compress the body of compact records
+      */
+     public void setCompressRecords(boolean compressRecords) {
+         this.compressRecords = compressRecords;
+     }
+
+     /**
+      * @return the directory where checkpoints are stored
+      */
+     public String getCheckpointPath() {
+         return checkpointPath;
+     }
+
+     /**
+      * @param checkpointPath the directory where checkpoints are stored,
+      *                       shared by all cluster nodes
+      */
+     public void setCheckpointPath(String checkpointPath) {
+         this.checkpointPath = checkpointPath;
+     }
+
+     /**
+      * Returns the directory where checkpoints are stored.
+      *
+      * @return the directory, or <code>null</code> if no checkpoints are used
+      */
+     public File getCheckpointDirectory() {
+         if (checkpointPath == null) {
+             return null;
+         }
+         return new File(checkpointPath);
+     }
+
+     /**
+      * @return the interval in seconds between two checkpoints
+      */
+     public int getCheckpointInterval() {
+         return checkpointInterval;
+     }
+
+     /**
+      * @param checkpointInterval the interval in seconds between two
+      *                           checkpoints created by this cluster node,
+      *                           zero to disable
+      */
+     public void setCheckpointInterval(int checkpointInterval) {
+         this.checkpointInterval = checkpointInterval;
+     }
+
+     /**
+      * @return the number of checkpoints kept
+      */
+     public int getCheckpointCount() {
+         return checkpointCount;
+     }
+
+     /**
+      * @param checkpointCount the number of checkpoints kept
+      */
+     public void setCheckpointCount(int checkpointCount) {
+         this.checkpointCount = checkpointCount;
+     }
 }
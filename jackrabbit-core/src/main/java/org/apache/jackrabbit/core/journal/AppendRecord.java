@@ -278,6 +278,9 @@ public class AppendRecord extends AbstractRecord {
             dispose();
 
             journal.unlock(succeeded);
+            if (succeeded) {
+                journal.appended(this);
+            }
         }
     }
 
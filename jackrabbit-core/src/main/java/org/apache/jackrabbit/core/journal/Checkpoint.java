@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A journal checkpoint: a revision together with snapshots of the search
+ * indexes of a cluster node that contain all changes up to that revision.
+ * A new cluster node can start from a checkpoint and only needs to replay
+ * the records after its revision.
+ * <p>
+ * Checkpoints are stored in a directory shared by the cluster nodes, each
+ * one in a sub directory named after its revision. A checkpoint becomes
+ * visible once it has been {@link #commit() committed}.
+ */
+public class Checkpoint {
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(Checkpoint.class);
+
+    /**
+     * Name of the file that describes a committed checkpoint.
+     */
+    private static final String PROPERTIES_FILE = "checkpoint.properties";
+
+    /**
+     * Suffix of checkpoints that are still being written.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Separates the revision, the cluster node id and the unique suffix in
+     * the name of a checkpoint that is still being written.
+     */
+    private static final char TEMP_SEPARATOR = '_';
+
+    /**
+     * Age in milliseconds after which checkpoints of other cluster nodes
+     * that have never been committed are removed.
+     */
+    private static final long TEMP_TIMEOUT = 24 * 60 * 60 * 1000;
+
+    /**
+     * Name of the directory that contains the workspace index snapshots.
+     */
+    private static final String WORKSPACES = "workspaces";
+
+    /**
+     * Name of the directory that contains the snapshot of the system index.
+     */
+    private static final String SYSTEM = "system";
+
+    private static final String REVISION = "revision";
+
+    private static final String TIMESTAMP = "timestamp";
+
+    private static final String CLUSTER_NODE_ID = "clusterNodeId";
+
+    /**
+     * The directory of this checkpoint.
+     */
+    private File directory;
+
+    /**
+     * The revision of this checkpoint.
+     */
+    private final long revision;
+
+    /**
+     * When this checkpoint was created.
+     */
+    private final long timestamp;
+
+    /**
+     * The cluster node that created this checkpoint.
+     */
+    private final String clusterNodeId;
+
+    private Checkpoint(File directory, long revision, long timestamp,
+                       String clusterNodeId) {
+        this.directory = directory;
+        this.revision = revision;
+        this.timestamp = timestamp;
+        this.clusterNodeId = clusterNodeId;
+    }
+
+    /**
+     * Creates a new checkpoint, which has to be committed once the index
+     * snapshots have been written.
+     *
+     * @param checkpoints the directory that contains the checkpoints
+     * @param revision revision of the checkpoint
+     * @param clusterNodeId id of the cluster node creating the checkpoint
+     * @return the new checkpoint
+     * @throws IOException if the checkpoint can not be created
+     */
+    public static Checkpoint create(File checkpoints, long revision,
+                                    String clusterNodeId) throws IOException {
+        // several cluster nodes may write a checkpoint of the same revision
+        File directory = new File(checkpoints, Long.toString(revision)
+                + TEMP_SEPARATOR + clusterNodeId + TEMP_SEPARATOR
+                + UUID.randomUUID() + TEMP_SUFFIX);
+        if (!directory.mkdirs()) {
+            throw new IOException("Unable to create checkpoint directory: "
+                    + directory.getAbsolutePath());
+        }
+        return new Checkpoint(directory, revision,
+                System.currentTimeMillis(), clusterNodeId);
+    }
+
+    /**
+     * Returns the committed checkpoint with the highest revision.
+     *
+     * @param checkpoints the directory that contains the checkpoints
+     * @return the latest checkpoint, or <code>null</code> if there is none
+     */
+    public static Checkpoint getLatest(File checkpoints) {
+        List<Checkpoint> list = list(checkpoints);
+        if (list.isEmpty()) {
+            return null;
+        }
+        return list.get(list.size() - 1);
+    }
+
+    /**
+     * Removes all but the given number of most recent checkpoints, as well
+     * as checkpoints that the given cluster node has never committed.
+     * Uncommitted checkpoints of other cluster nodes may still be written
+     * and are only removed once they are older than {@link #TEMP_TIMEOUT}.
+     *
+     * @param checkpoints the directory that contains the checkpoints
+     * @param keep number of checkpoints to keep
+     * @param clusterNodeId id of the cluster node that prunes the checkpoints
+     */
+    public static void prune(File checkpoints, int keep, String clusterNodeId) {
+        File[] files = checkpoints.listFiles();
+        if (files != null) {
+            long expired = System.currentTimeMillis() - TEMP_TIMEOUT;
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isDirectory() && name.endsWith(TEMP_SUFFIX)
+                        && (clusterNodeId.equals(getTempClusterNodeId(name))
+                                || file.lastModified() < expired)) {
+                    delete(file);
+                }
+            }
+        }
+        List<Checkpoint> list = list(checkpoints);
+        for (int i = 0; i < list.size() - Math.max(1, keep); i++) {
+            delete(list.get(i).getDirectory());
+        }
+    }
+
+    /**
+     * @return the revision of this checkpoint
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return when this checkpoint was created
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the id of the cluster node that created this checkpoint
+     */
+    public String getClusterNodeId() {
+        return clusterNodeId;
+    }
+
+    /**
+     * @return the directory of this checkpoint
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the directory of the snapshot of a search index.
+     *
+     * @param workspace the workspace name, or <code>null</code> for the
+     *                  index of the system tree
+     * @return the snapshot directory, which may not exist
+     */
+    public File getIndexDirectory(String workspace) {
+        if (workspace == null) {
+            return new File(directory, SYSTEM);
+        }
+        return new File(new File(directory, WORKSPACES), workspace);
+    }
+
+    /**
+     * Commits this checkpoint, which makes it visible to other cluster nodes.
+     *
+     * @throws IOException if the checkpoint can not be committed
+     */
+    public void commit() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(REVISION, Long.toString(revision));
+        properties.setProperty(TIMESTAMP, Long.toString(timestamp));
+        properties.setProperty(CLUSTER_NODE_ID, clusterNodeId);
+        OutputStream out = new FileOutputStream(new File(directory, PROPERTIES_FILE));
+        try {
+            properties.store(out, "Journal checkpoint");
+        } finally {
+            out.close();
+        }
+
+        File target = new File(directory.getParentFile(), Long.toString(revision));
+        if (target.exists()) {
+            FileUtils.deleteDirectory(target);
+        }
+        if (!directory.renameTo(target)) {
+            throw new IOException("Unable to commit checkpoint: "
+                    + directory.getAbsolutePath());
+        }
+        directory = target;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        return "checkpoint " + revision + " (" + directory.getAbsolutePath() + ")";
+    }
+
+    //------------------------------------------------------------< internal >
+
+    /**
+     * Returns the committed checkpoints, ordered by revision.
+     */
+    private static List<Checkpoint> list(File checkpoints) {
+        List<Checkpoint> list = new ArrayList<Checkpoint>();
+        File[] files = checkpoints.listFiles();
+        if (files == null) {
+            return list;
+        }
+        for (File file : files) {
+            File propertiesFile = new File(file, PROPERTIES_FILE);
+            if (file.getName().endsWith(TEMP_SUFFIX) || !propertiesFile.isFile()) {
+                continue;
+            }
+            try {
+                Properties properties = new Properties();
+                InputStream in = new FileInputStream(propertiesFile);
+                try {
+                    properties.load(in);
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+                list.add(new Checkpoint(file,
+                        Long.parseLong(properties.getProperty(REVISION)),
+                        Long.parseLong(properties.getProperty(TIMESTAMP)),
+                        properties.getProperty(CLUSTER_NODE_ID)));
+            } catch (IOException e) {
+                log.warn("Unable to read checkpoint " + file + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                log.warn("Invalid checkpoint " + file + ": " + e.getMessage());
+            }
+        }
+        Collections.sort(list, new Comparator<Checkpoint>() {
+            public int compare(Checkpoint a, Checkpoint b) {
+                return a.revision < b.revision ? -1 : (a.revision == b.revision ? 0 : 1);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Returns the id of the cluster node that writes the checkpoint with the
+     * given directory name.
+     *
+     * @param name name of an uncommitted checkpoint directory
+     * @return the cluster node id, or <code>null</code> if the name does not
+     *         contain one
+     */
+    private static String getTempClusterNodeId(String name) {
+        int start = name.indexOf(TEMP_SEPARATOR);
+        int end = name.lastIndexOf(TEMP_SEPARATOR);
+        if (start == -1 || end <= start) {
+            return null;
+        }
+        return name.substring(start + 1, end);
+    }
+
+    private static void delete(File directory) {
+        try {
+            FileUtils.deleteDirectory(directory);
+        } catch (IOException e) {
+            log.warn("Unable to delete checkpoint " + directory + ": " + e.getMessage());
+        }
+    }
+}
@@ -66,6 +66,10 @@ import javax.sql.DataSource;
  * which equals 24 hours)</li>
  * <li><code>janitorFirstRunHourOfDay</code>: specifies the hour at which the clean-up
  * thread initiates its first run (default = <code>3</code> which means 3:00 at night)</li>
+ * <li><code>checkpointPath</code>: if set, the clean-up thread also removes the
+ * records preceding the latest {@link Checkpoint} that is at least one hour old,
+ * even if some cluster node has not seen them yet; that node restores the
+ * checkpoint when it starts</li>
  * <li><code>schemaCheckEnabled</code>:  whether the schema check during initialization is enabled
  * (default = <code>true</code>)</li>
  * </ul>
@@ -90,6 +94,12 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     private static final String LOCAL_REVISIONS_TABLE = "LOCAL_REVISIONS";
 
+    /**
+     * Minimum age in milliseconds of a checkpoint before the janitor removes
+     * the records preceding it: one hour.
+     */
+    private static final long CHECKPOINT_MIN_AGE = 60 * 60 * 1000;
+
     /**
      * Logger.
      */
@@ -178,6 +188,25 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     private DatabaseRevision databaseRevision;
 
+    /**
+     * Number of records selected at once when catching up on startup,
+     * bean property. Zero disables the paged catch-up and selects all
+     * pending records with a single statement.
+     */
+    private int catchUpPageSize = 1000;
+
+    /**
+     * Maximum number of records read ahead when catching up on startup,
+     * bean property.
+     */
+    private int catchUpQueueSize = 2000;
+
+    /**
+     * Flag indicating whether the cluster node is catching up on startup.
+     * Only accessed by the thread synchronizing the journal.
+     */
+    private boolean catchingUp;
+
     /**
      * SQL statement returning all revisions within a range.
      */
@@ -414,6 +443,11 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      * {@inheritDoc}
      */
     public RecordIterator getRecords(long startRevision) throws JournalException {
+        if (catchingUp) {
+            return new PrefetchingRecordIterator(conHelper, selectRevisionsStmtSQL,
+                    startRevision, catchUpPageSize, catchUpQueueSize,
+                    getResolver(), getNamePathResolver());
+        }
         try {
             return new DatabaseRecordIterator(conHelper.exec(selectRevisionsStmtSQL, new Object[]{new Long(
                     startRevision)}, false, 0), getResolver(), getNamePathResolver());
@@ -439,6 +473,11 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      * Do the initial sync in batchMode, since some databases (PSQL) when
      * not in transactional mode, load all results in memory which causes
      * out of memory. See JCR-2832
+     * <p>
+     * If a {@link #setCatchUpPageSize catch-up page size} is configured,
+     * the initial sync instead selects the pending records page by page
+     * and reads them ahead in a background thread, see
+     * {@link PrefetchingRecordIterator}.
      *
      * @param startRevision start point (exclusive)
      * @param startup indicates if the cluster node is syncing on startup 
@@ -450,6 +489,14 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         if (!startup) {
             // if the cluster node is not starting do a normal sync
             doSync(startRevision);
+        } else if (catchUpPageSize > 0) {
+            // bounded pages don't need a transaction to limit memory usage
+            catchingUp = true;
+            try {
+                doSync(startRevision);
+            } finally {
+                catchingUp = false;
+            }
         } else {
             try {
                 startBatch();
@@ -741,6 +788,34 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         janitorNextRun.set(Calendar.MILLISECOND, 0);
     }
 
+    public int getCatchUpPageSize() {
+        return catchUpPageSize;
+    }
+
+    /**
+     * Set the number of records selected at once when catching up on
+     * startup. Zero selects all pending records with a single statement.
+     *
+     * @param catchUpPageSize number of records per page
+     */
+    public void setCatchUpPageSize(int catchUpPageSize) {
+        this.catchUpPageSize = catchUpPageSize;
+    }
+
+    public int getCatchUpQueueSize() {
+        return catchUpQueueSize;
+    }
+
+    /**
+     * Set the maximum number of records read ahead when catching up on
+     * startup.
+     *
+     * @param catchUpQueueSize number of records
+     */
+    public void setCatchUpQueueSize(int catchUpQueueSize) {
+        this.catchUpQueueSize = catchUpQueueSize;
+    }
+
     public String getDataSourceName() {
         return dataSourceName;
     }
@@ -884,6 +959,12 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
                     minRevision = rs.getLong(1);
                 }
 
+                // Records up to a checkpoint are not needed anymore, nodes
+                // lagging behind it restore the checkpoint when they start
+                if (cleanUp) {
+                    minRevision = Math.max(minRevision, getCheckpointRevision());
+                }
+
                 // Clean up if necessary:
                 if (cleanUp) {
                     conHelper.exec(cleanRevisionStmtSQL, minRevision);
@@ -896,5 +977,24 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
                 DbUtility.close(rs);
             }
         }
+
+        /**
+         * Returns the revision of the latest checkpoint that is old enough
+         * for all running cluster nodes to have synchronized past it.
+         *
+         * @return revision of the checkpoint, or <code>0</code> if there is none
+         */
+        protected long getCheckpointRevision() {
+            File directory = getCheckpointDirectory();
+            if (directory == null) {
+                return 0;
+            }
+            Checkpoint checkpoint = Checkpoint.getLatest(directory);
+            if (checkpoint == null
+                    || System.currentTimeMillis() - checkpoint.getTimestamp() < CHECKPOINT_MIN_AGE) {
+                return 0;
+            }
+            return checkpoint.getRevision();
+        }
     }
 }
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+/**
+ * Channel used by a journal to tell the other cluster nodes that it appended
+ * a new revision, so that they synchronize right away instead of waiting for
+ * their next periodic synchronization.
+ * <p>
+ * Notifications are best effort: a lost notification only delays the
+ * synchronization of a node until its next periodic synchronization.
+ * Implementations need a public no-argument constructor; they are configured
+ * with the <code>notifier</code> and <code>notifierAddress</code> parameters
+ * of the journal.
+ */
+public interface JournalNotifier {
+
+    /**
+     * Opens the channel.
+     *
+     * @param id the identifier of the journal using this notifier
+     * @param address implementation specific address of the channel, may be
+     *                <code>null</code> to use a default
+     * @throws JournalException if the channel can not be opened
+     */
+    void init(String id, String address) throws JournalException;
+
+    /**
+     * Sets the listener receiving the notifications of other journals.
+     *
+     * @param listener the listener, or <code>null</code> to ignore
+     *                 notifications
+     */
+    void setListener(Listener listener);
+
+    /**
+     * Tells the other journals that a revision has been appended. Called
+     * after the revision has been committed.
+     *
+     * @param revision the appended revision
+     */
+    void revisionAppended(long revision);
+
+    /**
+     * Closes the channel.
+     */
+    void close();
+
+    /**
+     * Receives the notifications of other journals.
+     */
+    interface Listener {
+
+        /**
+         * Called when another journal appended a revision.
+         *
+         * @param id the identifier of the journal that appended the revision
+         * @param revision the appended revision
+         */
+        void revisionAppended(String id, long revision);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Journal notifier that delivers notifications to the journals of the same
+ * virtual machine that use the same address. Useful for tests and for
+ * clusters running inside a single process.
+ */
+public class LocalJournalNotifier implements JournalNotifier {
+
+    /**
+     * Address used if none is configured.
+     */
+    private static final String DEFAULT_ADDRESS = "default";
+
+    /**
+     * Open notifiers, indexed by address.
+     */
+    private static final Map<String, CopyOnWriteArrayList<LocalJournalNotifier>> CHANNELS =
+            new HashMap<String, CopyOnWriteArrayList<LocalJournalNotifier>>();
+
+    /**
+     * Journal identifier.
+     */
+    private String id;
+
+    /**
+     * The notifiers sharing the address of this notifier.
+     */
+    private CopyOnWriteArrayList<LocalJournalNotifier> channel;
+
+    /**
+     * Listener, may be <code>null</code>.
+     */
+    private volatile Listener listener;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init(String id, String address) {
+        this.id = id;
+        if (address == null) {
+            address = DEFAULT_ADDRESS;
+        }
+        synchronized (CHANNELS) {
+            channel = CHANNELS.get(address);
+            if (channel == null) {
+                channel = new CopyOnWriteArrayList<LocalJournalNotifier>();
+                CHANNELS.put(address, channel);
+            }
+            channel.add(this);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void revisionAppended(long revision) {
+        for (LocalJournalNotifier notifier : channel) {
+            Listener l = notifier.listener;
+            if (notifier != this && l != null) {
+                l.revisionAppended(id, revision);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        synchronized (CHANNELS) {
+            channel.remove(this);
+            if (channel.isEmpty()) {
+                CHANNELS.values().remove(channel);
+            }
+        }
+    }
+}
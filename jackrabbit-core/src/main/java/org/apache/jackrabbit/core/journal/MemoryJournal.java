@@ -20,17 +20,19 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.NoSuchElementException;
 import java.util.List;
-import java.util.Collections;
+import java.util.NoSuchElementException;
 
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Memory-based journal, useful for testing purposes only.
+ * Memory-based journal, useful for testing purposes only. Cluster nodes
+ * running in the same JVM share their records if their journals are
+ * configured with the same <code>logName</code>. Records are kept in a
+ * {@link MemoryRecordLog}, which can be appended to and read from
+ * concurrently without locking.
  */
 public class MemoryJournal extends AbstractJournal {
 
@@ -55,9 +57,21 @@ public class MemoryJournal extends AbstractJournal {
     private InstanceRevision revision = new MemoryRevision();
 
     /**
-     * List of records.
+     * Records.
+     */
+    private MemoryRecordLog records = new MemoryRecordLog();
+
+    /**
+     * Name of the record log shared with other memory journals, or
+     * <code>null</code> if the records are private to this journal.
+     */
+    private String logName;
+
+    /**
+     * Number of times this journal has been locked without being unlocked.
+     * Only modified by the thread holding the journal's write lock.
      */
-    private List<MemoryRecord> records = Collections.synchronizedList(new ArrayList<MemoryRecord>());
+    private int lockCount;
 
     /**
      * Set the read delay, i.e. the time in ms to wait before returning
@@ -74,7 +88,7 @@ public class MemoryJournal extends AbstractJournal {
     /**
      * Flag indicating whether this journal is closed.
      */
-    private boolean closed;
+    private volatile boolean closed;
 
     /**
      * {@inheritDoc}
@@ -90,18 +104,39 @@ public class MemoryJournal extends AbstractJournal {
             throws JournalException {
 
         super.init(id, resolver);
+
+        if (logName != null) {
+            records = MemoryRecordLog.getLog(logName);
+        }
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Acquires the lock of the record log, which excludes appends by other
+     * journals sharing the same records.
      */
     protected void doLock() throws JournalException {
         checkState();
+
+        if (lockCount == 0) {
+            try {
+                records.lock(getId());
+            } catch (InterruptedException e) {
+                throw new JournalException("Interrupted in lock().");
+            }
+        }
+        lockCount++;
     }
 
-    @Override
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The journal is locked, so the record will be appended right after the
+     * current last record.
+     */
     protected void appending(AppendRecord record) {
-        record.setRevision(records.size()+1);
+        record.setRevision(records.size() + 1);
     }
 
     /**
@@ -133,7 +168,13 @@ public class MemoryJournal extends AbstractJournal {
         } catch (InterruptedException e) {
             throw new JournalException("Interrupted in append().");
         }
-        records.add(new MemoryRecord(getId(), record.getProducerId(), data));
+        long revision = records.append(
+                new MemoryRecord(getId(), record.getProducerId(), data));
+        if (revision != record.getRevision()) {
+            String msg = "Record appended with revision " + revision
+                    + " instead of " + record.getRevision() + ".";
+            throw new JournalException(msg);
+        }
     }
 
     /**
@@ -145,6 +186,9 @@ public class MemoryJournal extends AbstractJournal {
         } catch (JournalException e) {
             log.warn("Journal already closed while unlocking.");
         }
+        if (lockCount > 0 && --lockCount == 0) {
+            records.unlock(getId());
+        }
     }
 
     /**
@@ -170,11 +214,33 @@ public class MemoryJournal extends AbstractJournal {
 
     /**
      * Set records. Used to share records between two journal implementations.
+     * Appending to the list is not synchronized with other journals, so this
+     * should only be used by single threaded tests that need to inspect the
+     * records; use a shared {@link #setLogName(String) log name} otherwise.
      *
      * @param records array list that should back up this memory journal
      */
     public void setRecords(List<MemoryRecord> records) {
-        this.records = records;
+        this.records = new ListRecordLog(records);
+    }
+
+    /**
+     * Return the name of the record log shared with other memory journals.
+     *
+     * @return log name, or <code>null</code>
+     */
+    public String getLogName() {
+        return logName;
+    }
+
+    /**
+     * Set the name of the record log shared with other memory journals in
+     * the same JVM.
+     *
+     * @param logName log name
+     */
+    public void setLogName(String logName) {
+        this.logName = logName;
     }
 
     /**
@@ -290,6 +356,54 @@ public class MemoryJournal extends AbstractJournal {
         }
     }
 
+    /**
+     * Record log backed by a list supplied by a test.
+     */
+    private static class ListRecordLog extends MemoryRecordLog {
+
+        /**
+         * The records.
+         */
+        private final List<MemoryRecord> list;
+
+        /**
+         * Create a new instance of this class.
+         *
+         * @param list list of records
+         */
+        public ListRecordLog(List<MemoryRecord> list) {
+            this.list = list;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long size() {
+            synchronized (list) {
+                return list.size();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public MemoryRecord get(long index) {
+            synchronized (list) {
+                return list.get((int) index);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long append(MemoryRecord record) {
+            synchronized (list) {
+                list.add(record);
+                return list.size();
+            }
+        }
+    }
+
     /**
      * Record iterator implementation.
      */
@@ -329,8 +443,10 @@ public class MemoryJournal extends AbstractJournal {
         public Record nextRecord() throws NoSuchElementException,
                 JournalException {
 
-            int index = (int) revision;
-            MemoryRecord record = records.get(index);
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            MemoryRecord record = records.get(revision);
 
             checkState();
 
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+
+/**
+ * Append-only list of records of a {@link MemoryJournal}, which may be
+ * shared by the memory journals of several cluster nodes running in the same
+ * JVM. Records are stored in chunks that are allocated on demand, so that
+ * neither appending nor reading a record requires a lock: an appender
+ * reserves a slot with an atomic increment and publishes the record by
+ * setting the slot; the size of the log is advanced over all contiguously
+ * published slots by whichever appender gets there first. Readers therefore
+ * never see a gap, even if appenders complete out of order.
+ * <p>
+ * Cluster nodes also need mutual exclusion between the time they lock the
+ * journal and the time their record has been appended, so that changes are
+ * always validated against the latest revision. This is provided by
+ * {@link #lock(String)}, which atomically sets the owner of the log and
+ * does not block readers or the owner's own appends.
+ */
+public class MemoryRecordLog {
+
+    /**
+     * Logs shared by name.
+     */
+    private static final ConcurrentMap<String, MemoryRecordLog> LOGS =
+            new ConcurrentHashMap<String, MemoryRecordLog>();
+
+    /**
+     * Number of bits of the index of a record inside its chunk.
+     */
+    private static final int CHUNK_BITS = 12;
+
+    /**
+     * Number of records per chunk.
+     */
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /**
+     * Maximum number of chunks.
+     */
+    private static final int MAX_CHUNKS = 1 << 12;
+
+    /**
+     * Maximum number of records.
+     */
+    private static final long CAPACITY = (long) MAX_CHUNKS * CHUNK_SIZE;
+
+    /**
+     * Number of times a cluster node retries to acquire the lock before
+     * parking.
+     */
+    private static final int LOCK_SPINS = 64;
+
+    /**
+     * Maximum time in nanoseconds to park between two attempts to acquire
+     * the lock.
+     */
+    private static final long LOCK_MAX_PARK = 1000000L;
+
+    /**
+     * Chunks of records, allocated on demand.
+     */
+    private final AtomicReferenceArray<AtomicReferenceArray<MemoryRecord>> chunks =
+            new AtomicReferenceArray<AtomicReferenceArray<MemoryRecord>>(MAX_CHUNKS);
+
+    /**
+     * Number of slots reserved by appenders.
+     */
+    private final AtomicLong reserved = new AtomicLong();
+
+    /**
+     * Number of records visible to readers.
+     */
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Identifier of the journal holding the lock, or <code>null</code>.
+     */
+    private final AtomicReference<String> owner = new AtomicReference<String>();
+
+    /**
+     * Returns the log with the given name, creating it if necessary.
+     *
+     * @param name name of the log
+     * @return shared log
+     */
+    public static MemoryRecordLog getLog(String name) {
+        MemoryRecordLog log = LOGS.get(name);
+        if (log == null) {
+            MemoryRecordLog created = new MemoryRecordLog();
+            log = LOGS.putIfAbsent(name, created);
+            if (log == null) {
+                log = created;
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Forgets the log with the given name. Journals still referencing the
+     * log can continue to use it.
+     *
+     * @param name name of the log
+     */
+    public static void removeLog(String name) {
+        LOGS.remove(name);
+    }
+
+    /**
+     * Returns the number of records in this log, which is also the revision
+     * of its latest record.
+     *
+     * @return number of records
+     */
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the record with the given index.
+     *
+     * @param index index, starting at 0
+     * @return record
+     * @throws IndexOutOfBoundsException if there is no such record
+     */
+    public MemoryRecord get(long index) {
+        if (index < 0 || index >= size.get()) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return getChunk(index).get((int) (index & (CHUNK_SIZE - 1)));
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param record record to append
+     * @return revision of the record, i.e. its index plus one
+     * @throws JournalException if this log is full
+     */
+    public long append(MemoryRecord record) throws JournalException {
+        long index = reserved.getAndIncrement();
+        if (index >= CAPACITY) {
+            throw new JournalException("Memory journal full.");
+        }
+        getChunk(index).set((int) (index & (CHUNK_SIZE - 1)), record);
+        publish();
+        return index + 1;
+    }
+
+    /**
+     * Acquires the lock of this log, waiting until it has been released by
+     * any other journal.
+     *
+     * @param journalId identifier of the journal
+     * @throws InterruptedException if the thread has been interrupted
+     */
+    public void lock(String journalId) throws InterruptedException {
+        long park = 1000;
+        int spins = 0;
+        while (!owner.compareAndSet(null, journalId)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (spins++ < LOCK_SPINS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(park);
+                park = Math.min(park * 2, LOCK_MAX_PARK);
+            }
+        }
+    }
+
+    /**
+     * Releases the lock of this log, if it is held by the given journal.
+     *
+     * @param journalId identifier of the journal
+     */
+    public void unlock(String journalId) {
+        owner.compareAndSet(journalId, null);
+    }
+
+    //------------------------------------------------------------< internal >
+
+    /**
+     * Returns the chunk containing the slot with the given index, allocating
+     * it if necessary.
+     */
+    private AtomicReferenceArray<MemoryRecord> getChunk(long index) {
+        int n = (int) (index >>> CHUNK_BITS);
+        AtomicReferenceArray<MemoryRecord> chunk = chunks.get(n);
+        if (chunk == null) {
+            chunks.compareAndSet(
+                    n, null, new AtomicReferenceArray<MemoryRecord>(CHUNK_SIZE));
+            chunk = chunks.get(n);
+        }
+        return chunk;
+    }
+
+    /**
+     * Advances the size over all published slots.
+     */
+    private void publish() {
+        for (;;) {
+            long n = size.get();
+            if (n >= reserved.get() || n >= CAPACITY) {
+                return;
+            }
+            AtomicReferenceArray<MemoryRecord> chunk =
+                    chunks.get((int) (n >>> CHUNK_BITS));
+            if (chunk == null || chunk.get((int) (n & (CHUNK_SIZE - 1))) == null) {
+                // the appender of slot n will advance the size
+                return;
+            }
+            size.compareAndSet(n, n + 1);
+        }
+    }
+}
@@ -24,7 +24,7 @@ public class MemoryRevision implements InstanceRevision {
     /**
      * Revision.
      */
-    private long revision;
+    private volatile long revision;
 
     /**
      * {@inheritDoc}
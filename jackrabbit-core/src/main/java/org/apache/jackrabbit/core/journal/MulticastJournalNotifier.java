@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Journal notifier that sends notifications as UDP multicast datagrams.
+ * The address has the format <code>group:port</code> and defaults to
+ * <code>239.255.74.82:45674</code>. Datagrams are sent with a time to live
+ * of one, i.e. they do not leave the local network.
+ * <p>
+ * Use the following journal parameters to enable this notifier:
+ * <pre>
+ *   &lt;param name="notifier" value="org.apache.jackrabbit.core.journal.MulticastJournalNotifier"/&gt;
+ *   &lt;param name="notifierAddress" value="239.255.74.82:45674"/&gt;
+ * </pre>
+ */
+public class MulticastJournalNotifier implements JournalNotifier, Runnable {
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(MulticastJournalNotifier.class);
+
+    /**
+     * Address used if none is configured.
+     */
+    private static final String DEFAULT_ADDRESS = "239.255.74.82:45674";
+
+    /**
+     * Marks the datagrams of this notifier.
+     */
+    private static final int MAGIC = 0x4a524e31;
+
+    /**
+     * Maximum size of a datagram.
+     */
+    private static final int MAX_DATAGRAM_SIZE = 1024;
+
+    /**
+     * Journal identifier.
+     */
+    private String id;
+
+    /**
+     * Multicast group.
+     */
+    private InetAddress group;
+
+    /**
+     * Multicast port.
+     */
+    private int port;
+
+    /**
+     * The socket used to send and receive datagrams.
+     */
+    private MulticastSocket socket;
+
+    /**
+     * The thread receiving datagrams.
+     */
+    private Thread receiver;
+
+    /**
+     * Listener, may be <code>null</code>.
+     */
+    private volatile Listener listener;
+
+    /**
+     * Flag indicating whether this notifier has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init(String id, String address) throws JournalException {
+        this.id = id;
+        if (address == null) {
+            address = DEFAULT_ADDRESS;
+        }
+        int colon = address.lastIndexOf(':');
+        try {
+            if (colon == -1) {
+                throw new JournalException(
+                        "Invalid notifier address, expected group:port: " + address);
+            }
+            group = InetAddress.getByName(address.substring(0, colon));
+            port = Integer.parseInt(address.substring(colon + 1));
+            socket = new MulticastSocket(port);
+            socket.setTimeToLive(1);
+            socket.joinGroup(group);
+        } catch (NumberFormatException e) {
+            throw new JournalException("Invalid notifier port: " + address, e);
+        } catch (IOException e) {
+            if (socket != null) {
+                socket.close();
+            }
+            throw new JournalException(
+                    "Unable to open multicast socket: " + address, e);
+        }
+        receiver = new Thread(this, "MulticastJournalNotifier-" + id);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void revisionAppended(long revision) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(MAGIC);
+            out.writeLong(revision);
+            out.writeUTF(id);
+            out.close();
+            byte[] data = buffer.toByteArray();
+            socket.send(new DatagramPacket(data, data.length, group, port));
+        } catch (IOException e) {
+            log.warn("Unable to send notification for revision " + revision
+                    + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Receives datagrams until this notifier is closed.
+     */
+    public void run() {
+        byte[] data = new byte[MAX_DATAGRAM_SIZE];
+        while (!closed) {
+            DatagramPacket packet = new DatagramPacket(data, data.length);
+            try {
+                socket.receive(packet);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                        packet.getData(), packet.getOffset(), packet.getLength()));
+                if (in.readInt() != MAGIC) {
+                    continue;
+                }
+                long revision = in.readLong();
+                String sender = in.readUTF();
+                Listener l = listener;
+                if (l != null && !id.equals(sender)) {
+                    l.revisionAppended(sender, revision);
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Unable to receive notification: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                log.error("Unexpected error while processing notification", e);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        closed = true;
+        if (socket != null) {
+            try {
+                socket.leaveGroup(group);
+            } catch (IOException e) {
+                log.debug("Unable to leave multicast group: " + e.getMessage());
+            }
+            socket.close();
+        }
+    }
+}
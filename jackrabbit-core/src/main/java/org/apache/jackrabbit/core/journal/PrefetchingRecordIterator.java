@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.util.db.ConnectionHelper;
+import org.apache.jackrabbit.core.util.db.DbUtility;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Record iterator that reads the journal table page by page in a background
+ * thread. Each page is selected with a bounded query starting after the last
+ * revision of the previous page, so that neither the database nor the driver
+ * has to keep a cursor over the whole revision range open. The records are
+ * read completely into memory by the background thread and handed over
+ * through a bounded queue, which limits the number of records held in memory
+ * while the consumer applies them.
+ */
+class PrefetchingRecordIterator implements RecordIterator, Runnable {
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(PrefetchingRecordIterator.class);
+
+    /**
+     * Marks the end of the records in the queue.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * Time in milliseconds the background thread waits for free space in
+     * the queue before checking whether the iterator has been closed.
+     */
+    private static final long OFFER_TIMEOUT = 100;
+
+    /**
+     * Time in milliseconds the consumer waits for the next record before
+     * checking whether the background thread is still alive.
+     */
+    private static final long POLL_TIMEOUT = 1000;
+
+    /**
+     * Maximum time in milliseconds {@link #close()} waits for the background
+     * thread to release its database resources.
+     */
+    private static final long CLOSE_TIMEOUT = 1000;
+
+    /**
+     * Connection helper.
+     */
+    private final ConnectionHelper conHelper;
+
+    /**
+     * SQL statement selecting the records after a given revision.
+     */
+    private final String selectRevisionsStmtSQL;
+
+    /**
+     * Revision after which the next page starts.
+     */
+    private volatile long startRevision;
+
+    /**
+     * Maximum number of records per page.
+     */
+    private final int pageSize;
+
+    /**
+     * Namespace resolver.
+     */
+    private final NamespaceResolver resolver;
+
+    /**
+     * Name and Path resolver.
+     */
+    private final NamePathResolver npResolver;
+
+    /**
+     * Records read by the background thread. Contains {@link ReadRecord}s,
+     * followed by either {@link #END} or a {@link JournalException}.
+     */
+    private final BlockingQueue<Object> queue;
+
+    /**
+     * The background thread.
+     */
+    private final Thread fetcher;
+
+    /**
+     * Flag indicating whether this iterator has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Next element taken from the queue.
+     */
+    private Object next;
+
+    /**
+     * Flag indicating whether EOF was reached.
+     */
+    private boolean isEOF;
+
+    /**
+     * Create a new instance of this class and start reading records.
+     *
+     * @param conHelper connection helper
+     * @param selectRevisionsStmtSQL statement selecting the records after a
+     *        given revision, ordered by revision
+     * @param startRevision start point (exclusive)
+     * @param pageSize maximum number of records selected at once
+     * @param queueSize maximum number of records read ahead
+     * @param resolver namespace resolver
+     * @param npResolver name and path resolver
+     */
+    public PrefetchingRecordIterator(
+            ConnectionHelper conHelper, String selectRevisionsStmtSQL,
+            long startRevision, int pageSize, int queueSize,
+            NamespaceResolver resolver, NamePathResolver npResolver) {
+        this.conHelper = conHelper;
+        this.selectRevisionsStmtSQL = selectRevisionsStmtSQL;
+        this.startRevision = startRevision;
+        this.pageSize = pageSize;
+        this.resolver = resolver;
+        this.npResolver = npResolver;
+        this.queue = new ArrayBlockingQueue<Object>(Math.max(1, queueSize));
+
+        fetcher = new Thread(this, "PrefetchingRecordIterator-" + startRevision);
+        fetcher.setDaemon(true);
+        fetcher.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        if (!isEOF && next == null) {
+            try {
+                next = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                while (next == null) {
+                    if (!fetcher.isAlive() && queue.isEmpty()) {
+                        next = new JournalException(
+                                "Reading records stopped after revision "
+                                + startRevision + ".");
+                    } else {
+                        next = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                next = new JournalException(
+                        "Interrupted while waiting for the next record.");
+            }
+            if (next == END) {
+                next = null;
+                isEOF = true;
+            }
+        }
+        return !isEOF;
+    }
+
+    /**
+     * Return the next record. If there are no more records, throws
+     * a <code>NoSuchElementException</code>. If the records could not be
+     * read from the database, throws a <code>JournalException</code>.
+     *
+     * @return next record
+     * @throws NoSuchElementException if there are no more records
+     * @throws JournalException if another error occurs
+     */
+    public Record nextRecord() throws NoSuchElementException, JournalException {
+        if (!hasNext()) {
+            String msg = "No current record.";
+            throw new NoSuchElementException(msg);
+        }
+        Object current = next;
+        next = null;
+        if (current instanceof JournalException) {
+            isEOF = true;
+            throw (JournalException) current;
+        }
+        return (Record) current;
+    }
+
+    /**
+     * Stops the background thread and waits until it has released its
+     * database resources.
+     */
+    public void close() {
+        closed = true;
+        fetcher.interrupt();
+        queue.clear();
+        next = null;
+        isEOF = true;
+        try {
+            fetcher.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (fetcher.isAlive()) {
+            log.warn("Reading records after revision {} did not stop in time.",
+                    startRevision);
+        }
+    }
+
+    /**
+     * Reads the records page by page and puts them into the queue, until
+     * all records have been read or this iterator is closed. The queue always
+     * ends with {@link #END} or a {@link JournalException}.
+     */
+    public void run() {
+        Object last = END;
+        try {
+            boolean more = true;
+            while (more && !closed) {
+                int count = 0;
+                ResultSet rs = conHelper.exec(selectRevisionsStmtSQL,
+                        new Object[]{Long.valueOf(startRevision)}, false, pageSize);
+                try {
+                    while (rs.next() && !closed) {
+                        long revision = rs.getLong(1);
+                        String journalId = rs.getString(2);
+                        String producerId = rs.getString(3);
+                        byte[] data = read(rs.getBinaryStream(4));
+                        DataInputStream dataIn = new DataInputStream(
+                                new ByteArrayInputStream(data));
+                        put(new ReadRecord(journalId, producerId, revision,
+                                dataIn, data.length, resolver, npResolver));
+                        startRevision = revision;
+                        count++;
+                    }
+                } finally {
+                    DbUtility.close(rs);
+                }
+                more = count == pageSize;
+            }
+        } catch (SQLException e) {
+            last = new JournalException("Unable to read records after revision "
+                    + startRevision + ".", e);
+        } catch (IOException e) {
+            last = new JournalException("Unable to read record after revision "
+                    + startRevision + ".", e);
+        } catch (Throwable e) {
+            last = new JournalException("Unexpected error while reading records"
+                    + " after revision " + startRevision + ".", e);
+        } finally {
+            put(last);
+        }
+    }
+
+    /**
+     * Puts an element into the queue, waiting for free space unless this
+     * iterator is closed.
+     *
+     * @param element element
+     */
+    private void put(Object element) {
+        try {
+            while (!closed) {
+                if (queue.offer(element, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            if (!closed) {
+                log.warn("Interrupted while reading ahead records.");
+            }
+        }
+    }
+
+    /**
+     * Reads the data of a record.
+     *
+     * @param in input stream, may be <code>null</code>
+     * @return data
+     * @throws IOException if an I/O error occurs
+     */
+    private static byte[] read(InputStream in) throws IOException {
+        if (in == null) {
+            return new byte[0];
+        }
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+}
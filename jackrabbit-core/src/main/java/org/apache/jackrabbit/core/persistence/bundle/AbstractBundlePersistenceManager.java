@@ -20,6 +20,9 @@ import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_MIXINTYPE
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_PRIMARYTYPE;
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_UUID;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -33,7 +36,8 @@ import javax.jcr.RepositoryException;
 import org.apache.jackrabbit.api.stats.RepositoryStatistics;
 import org.apache.jackrabbit.core.cache.Cache;
 import org.apache.jackrabbit.core.cache.CacheAccessListener;
-import org.apache.jackrabbit.core.cache.ConcurrentCache;
+import org.apache.jackrabbit.core.cache.CacheManager;
+import org.apache.jackrabbit.core.cache.KeyValueCache;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.fs.FileSystemResource;
@@ -48,6 +52,7 @@ import org.apache.jackrabbit.core.persistence.check.ConsistencyCheckListener;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyChecker;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyReport;
 import org.apache.jackrabbit.core.persistence.util.BLOBStore;
+import org.apache.jackrabbit.core.persistence.util.BundleBinding;
 import org.apache.jackrabbit.core.persistence.util.FileBasedIndex;
 import org.apache.jackrabbit.core.persistence.util.NodeInfo;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
@@ -92,6 +97,8 @@ import org.slf4j.LoggerFactory;
  * Configuration:<br>
  * <ul>
  * <li>&lt;param name="{@link #setBundleCacheSize(String) bundleCacheSize}" value="8"/&gt;
+ * <li>&lt;param name="{@link #setChildNodePageSize(String) childNodePageSize}" value="0"/&gt;
+ * <li>&lt;param name="{@link #setOffHeapBundleCacheSize(String) offHeapBundleCacheSize}" value="0"/&gt;
  * </ul>
  */
 public abstract class AbstractBundlePersistenceManager implements
@@ -134,7 +141,13 @@ public abstract class AbstractBundlePersistenceManager implements
     private StringIndex nameIndex;
 
     /** the cache of loaded bundles */
-    private ConcurrentCache<NodeId, NodePropBundle> bundles;
+    private KeyValueCache<NodeId, NodePropBundle> bundles;
+
+    /** Name of the counter of bundles found in the off-heap bundle cache. */
+    public static final String OFF_HEAP_CACHE_HIT_COUNTER = "BUNDLE_OFF_HEAP_CACHE_HIT_COUNTER";
+
+    /** Name of the counter of bundles not found in the off-heap bundle cache. */
+    public static final String OFF_HEAP_CACHE_MISS_COUNTER = "BUNDLE_OFF_HEAP_CACHE_MISS_COUNTER";
 
     /** The default minimum stats logging interval (in ms). */
     private static final int DEFAULT_LOG_STATS_INTERVAL = 60 * 1000;
@@ -154,6 +167,15 @@ public abstract class AbstractBundlePersistenceManager implements
     /** default size of the bundle cache */
     private long bundleCacheSize = 8 * 1024 * 1024;
 
+    /** size of the off-heap bundle cache, or 0 if disabled */
+    private long offHeapBundleCacheSize = 0;
+
+    /** the off-heap cache of serialized bundles, or <code>null</code> */
+    private OffHeapBundleCache offHeapBundles;
+
+    /** the maximum number of child node entries stored inline in a bundle */
+    private int childNodePageSize;
+
     /** Counter of read operations. */
     private AtomicLong readCounter;
 
@@ -196,6 +218,51 @@ public abstract class AbstractBundlePersistenceManager implements
         this.bundleCacheSize = Long.parseLong(bundleCacheSize) * 1024 * 1024;
     }
 
+    /**
+     * Returns the size of the off-heap bundle cache in megabytes.
+     * @return the size of the off-heap bundle cache in megabytes.
+     */
+    public String getOffHeapBundleCacheSize() {
+        return Long.toString(offHeapBundleCacheSize / (1024 * 1024));
+    }
+
+    /**
+     * Sets the size of the off-heap bundle cache in megabytes. If set, bundles
+     * that are loaded from the persistent storage are also kept in serialized
+     * form in direct memory outside of the Java heap, and are read from there
+     * when they have been evicted from the bundle cache. The default is 0,
+     * which disables the off-heap bundle cache.
+     *
+     * @param offHeapBundleCacheSize the off-heap bundle cache size in megabytes.
+     */
+    public void setOffHeapBundleCacheSize(String offHeapBundleCacheSize) {
+        this.offHeapBundleCacheSize =
+            Long.parseLong(offHeapBundleCacheSize) * 1024 * 1024;
+    }
+
+    /**
+     * Returns the maximum number of child node entries stored inline in a
+     * bundle.
+     * @return the child node page size.
+     */
+    public String getChildNodePageSize() {
+        return String.valueOf(childNodePageSize);
+    }
+
+    /**
+     * Sets the maximum number of child node entries stored inline in a
+     * bundle. The child node entries of nodes with more children are stored
+     * in pages of at most this size in the blob store, and adding or removing
+     * a child node only rewrites the affected pages instead of the complete
+     * list. The default is 0, which stores all child node entries inline.
+     * Bundles written with pages can be read regardless of this setting.
+     *
+     * @param childNodePageSize the child node page size.
+     */
+    public void setChildNodePageSize(String childNodePageSize) {
+        this.childNodePageSize = Integer.decode(childNodePageSize).intValue();
+    }
+
     /**
      * Creates the folder path for the given node id that is suitable for
      * storing states in a filesystem.
@@ -351,14 +418,14 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     public synchronized void onExternalUpdate(ChangeLog changes) {
         for (ItemState state : changes.modifiedStates()) {
-            bundles.remove(getBundleId(state));
+            evictBundle(getBundleId(state));
         }
         for (ItemState state : changes.deletedStates()) {
-            bundles.remove(getBundleId(state));
+            evictBundle(getBundleId(state));
         }
         for (ItemState state : changes.addedStates()) {
             // There may have been a cache miss entry
-            bundles.remove(getBundleId(state));
+            evictBundle(getBundleId(state));
         }
     }
 
@@ -439,6 +506,17 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     protected abstract BLOBStore getBlobStore();
 
+    /**
+     * Returns the binding used to serialize the bundles kept in the off-heap
+     * bundle cache. Subclasses that do not override this method do not
+     * support the off-heap bundle cache.
+     *
+     * @return the bundle binding, or <code>null</code>
+     */
+    protected BundleBinding getBundleBinding() {
+        return null;
+    }
+
     //-------------------------------------------------< PersistenceManager >---
 
     /**
@@ -449,7 +527,7 @@ public abstract class AbstractBundlePersistenceManager implements
     public void init(PMContext context) throws Exception {
         this.context = context;
         // init bundle cache
-        bundles = new ConcurrentCache<NodeId, NodePropBundle>(context.getHomeDir().getName() + "BundleCache");
+        bundles = CacheManager.createCache(context.getHomeDir().getName() + "BundleCache");
         bundles.setMaxMemorySize(bundleCacheSize);
         bundles.setAccessListener(this);
 
@@ -469,6 +547,13 @@ public abstract class AbstractBundlePersistenceManager implements
                 RepositoryStatistics.Type.BUNDLE_CACHE_MISS_COUNTER);
         cacheMissDuration = stats.getCounter(
                 RepositoryStatistics.Type.BUNDLE_CACHE_MISS_DURATION);
+
+        if (offHeapBundleCacheSize > 0) {
+            offHeapBundles = new OffHeapBundleCache(
+                    offHeapBundleCacheSize,
+                    stats.getCounter(OFF_HEAP_CACHE_HIT_COUNTER, true),
+                    stats.getCounter(OFF_HEAP_CACHE_MISS_COUNTER, true));
+        }
     }
 
     /**
@@ -479,6 +564,9 @@ public abstract class AbstractBundlePersistenceManager implements
     public void close() throws Exception {
         // clear caches
         bundles.clear();
+        if (offHeapBundles != null) {
+            offHeapBundles.clear();
+        }
     }
 
     /**
@@ -595,6 +683,9 @@ public abstract class AbstractBundlePersistenceManager implements
         } finally {
             if (!success) {
                 bundles.clear();
+                if (offHeapBundles != null) {
+                    offHeapBundles.clear();
+                }
             }
         }
     }
@@ -763,7 +854,13 @@ public abstract class AbstractBundlePersistenceManager implements
     private NodePropBundle getBundleCacheMiss(NodeId id)
             throws ItemStateException {
         long time = System.nanoTime();
-        NodePropBundle bundle = loadBundle(id);
+        NodePropBundle bundle = getOffHeapBundle(id);
+        if (bundle == null) {
+            bundle = loadBundle(id);
+            if (bundle != null) {
+                putOffHeapBundle(bundle);
+            }
+        }
         time = System.nanoTime() - time;
         cacheMissDuration.addAndGet(time);
         final long timeMs = time / 1000000;
@@ -778,6 +875,52 @@ public abstract class AbstractBundlePersistenceManager implements
         return bundle;
     }
 
+    /**
+     * Returns the bundle with the given id from the off-heap bundle cache.
+     *
+     * @param id the id of the bundle
+     * @return the bundle, or <code>null</code> if not cached
+     */
+    private NodePropBundle getOffHeapBundle(NodeId id) {
+        BundleBinding binding = getBundleBinding();
+        if (offHeapBundles == null || binding == null) {
+            return null;
+        }
+        byte[] data = offHeapBundles.get(id);
+        if (data == null) {
+            return null;
+        }
+        try {
+            return binding.readBundle(new ByteArrayInputStream(data), id);
+        } catch (IOException e) {
+            log.warn("Failed to read bundle " + id
+                    + " from the off-heap bundle cache", e);
+            offHeapBundles.remove(id);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the serialized form of a loaded bundle to the off-heap bundle
+     * cache.
+     *
+     * @param bundle the loaded bundle
+     */
+    private void putOffHeapBundle(NodePropBundle bundle) {
+        BundleBinding binding = getBundleBinding();
+        if (offHeapBundles == null || binding == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            binding.writeStoredBundle(out, bundle);
+            offHeapBundles.put(bundle.getId(), out.toByteArray());
+        } catch (IOException e) {
+            log.debug("Bundle {} not added to the off-heap bundle cache: {}",
+                    bundle.getId(), e);
+        }
+    }
+
     /**
      * Deletes the bundle
      *
@@ -785,8 +928,12 @@ public abstract class AbstractBundlePersistenceManager implements
      * @throws ItemStateException if an error occurs
      */
     private void deleteBundle(NodePropBundle bundle) throws ItemStateException {
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(bundle.getId());
+        }
         destroyBundle(bundle);
         bundle.removeAllProperties(getBlobStore());
+        bundle.removeAllChildNodePages(getBlobStore());
         bundles.put(bundle.getId(), MISSING, MISSING_SIZE_ESTIMATE);
     }
 
@@ -797,8 +944,12 @@ public abstract class AbstractBundlePersistenceManager implements
      * @throws ItemStateException if an error occurs
      */
     private void putBundle(NodePropBundle bundle) throws ItemStateException {
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(bundle.getId());
+        }
         long time = System.nanoTime();
         storeBundle(bundle);
+        bundle.removeObsoleteChildNodePages(getBlobStore());
         time = System.nanoTime() - time;
         if (auditLogger.isDebugEnabled()) {
             auditLogger.debug("{} ({})", bundle.getId(), bundle.getSize());
@@ -859,6 +1010,9 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     protected void evictBundle(NodeId id) {
         bundles.remove(id);
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(id);
+        }
     }
 
     public void cacheAccessed(long accessCount) {
@@ -874,6 +1028,9 @@ public abstract class AbstractBundlePersistenceManager implements
                 return;
             }
             log.info(bundles.getCacheInfoAsString());
+            if (offHeapBundles != null) {
+                log.info(offHeapBundles.toString());
+            }
             nextLogStats = now + minLogStatsInterval;
         }
     }
@@ -196,6 +196,7 @@ public class BundleFsPersistenceManager extends AbstractBundlePersistenceManager
         // load namespaces
         binding = new BundleBinding(errorHandling, blobStore, getNsIndex(), getNameIndex(), context.getDataStore());
         binding.setMinBlobSize(minBlobSize);
+        binding.setChildNodePageSize(Integer.decode(getChildNodePageSize()));
 
         initialized = true;
     }
@@ -208,6 +209,14 @@ public class BundleFsPersistenceManager extends AbstractBundlePersistenceManager
         return blobStore;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BundleBinding getBundleBinding() {
+        return binding;
+    }
+
     /**
      * {@inheritDoc}
      */
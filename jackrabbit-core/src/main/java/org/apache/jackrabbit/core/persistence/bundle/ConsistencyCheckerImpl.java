@@ -173,6 +173,7 @@ public class ConsistencyCheckerImpl {
             } finally {
                 if (successful) {
                     eventChannel.updateCommitted(update, "checker@");
+                    eventChannel.updateDispatched(update);
                 } else {
                     eventChannel.updateCancelled(update);
                 }
@@ -414,6 +415,7 @@ public class ConsistencyCheckerImpl {
             bundle.markOld();
             bundle.setModCount((short) (bundle.getModCount()+1));
             pm.storeBundle(bundle);
+            bundle.removeObsoleteChildNodePages(pm.getBlobStore());
             pm.evictBundle(bundle.getId());
         } catch (ItemStateException e) {
             log.error(pm + ": Error storing fixed bundle: " + e);
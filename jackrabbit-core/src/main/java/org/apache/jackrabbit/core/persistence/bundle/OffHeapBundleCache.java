@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+/**
+ * A second-level cache of serialized bundles that is kept outside of the
+ * Java heap, so that it can be much larger than the bundle cache without
+ * adding to the garbage collection overhead.
+ * <p>
+ * The serialized bundles are appended to a ring of direct byte buffers
+ * (segments) that are allocated on demand. When the ring is full, the
+ * oldest segment is overwritten, which evicts all bundles stored in it.
+ * Bundles that are read while in the oldest segment are copied to the
+ * current segment, so that frequently used bundles stay in the cache
+ * (second chance FIFO). The index from node id to buffer position is an
+ * open addressing hash table of primitive arrays, so it consists of a few
+ * large objects regardless of the number of cached bundles.
+ * <p>
+ * All methods are synchronized. The cache is only accessed on misses of
+ * the bundle cache, so contention is not expected to be an issue.
+ */
+class OffHeapBundleCache {
+
+    /** The maximum size of a segment. */
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /** The minimum number of segments. */
+    private static final int MIN_SEGMENT_COUNT = 4;
+
+    /** The initial capacity of the index. */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The segments, allocated on first use. */
+    private final ByteBuffer[] segments;
+
+    /** The size of each segment. */
+    private final int segmentSize;
+
+    /** The log position at which the next bundle is written. */
+    private long writePosition;
+
+    /** The number of bundles in the index, including overwritten ones. */
+    private int count;
+
+    // the index: node id, log position and length of each bundle,
+    // a length of zero marks an empty slot
+    private long[] msbs;
+    private long[] lsbs;
+    private long[] positions;
+    private int[] lengths;
+
+    /** Counter of bundles found in this cache. */
+    private final AtomicLong hitCounter;
+
+    /** Counter of bundles not found in this cache. */
+    private final AtomicLong missCounter;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize the maximum amount of off-heap memory to use, in bytes
+     * @param hitCounter counter of bundles found in this cache
+     * @param missCounter counter of bundles not found in this cache
+     */
+    OffHeapBundleCache(
+            long maxSize, AtomicLong hitCounter, AtomicLong missCounter) {
+        // use at least a few segments, so that overwriting the oldest
+        // segment does not evict most of the cache
+        this.segmentSize = (int) Math.max(1, Math.min(
+                maxSize / MIN_SEGMENT_COUNT, MAX_SEGMENT_SIZE));
+        this.segments = new ByteBuffer[(int) Math.max(1, maxSize / segmentSize)];
+        this.hitCounter = hitCounter;
+        this.missCounter = missCounter;
+        initIndex(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns a copy of the serialized bundle with the given id.
+     *
+     * @param id node id
+     * @return serialized bundle, or <code>null</code> if not cached
+     */
+    synchronized byte[] get(NodeId id) {
+        int slot = find(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        if (slot >= 0 && !isValid(positions[slot])) {
+            delete(slot);
+            slot = -1;
+        }
+        if (slot < 0) {
+            missCounter.incrementAndGet();
+            return null;
+        }
+        long position = positions[slot];
+        byte[] data = new byte[lengths[slot]];
+        ByteBuffer buffer = segments[getSegmentIndex(position)].duplicate();
+        buffer.position((int) (position % segmentSize));
+        buffer.get(data);
+        hitCounter.incrementAndGet();
+
+        if (segments.length > 1
+                && position / segmentSize == writePosition / segmentSize - segments.length + 1) {
+            // give bundles that are about to be overwritten a second chance
+            positions[slot] = append(data);
+        }
+        return data;
+    }
+
+    /**
+     * Adds the given serialized bundle to the cache.
+     *
+     * @param id node id
+     * @param data serialized bundle
+     */
+    synchronized void put(NodeId id, byte[] data) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        if (data.length == 0 || data.length > segmentSize) {
+            int slot = find(msb, lsb);
+            if (slot >= 0) {
+                delete(slot);
+            }
+            return;
+        }
+        long position = append(data);
+        int slot = find(msb, lsb);
+        if (slot < 0) {
+            if (count >= lengths.length * 3 / 4) {
+                rebuildIndex();
+            }
+            slot = hash(msb, lsb);
+            while (lengths[slot] != 0) {
+                slot = (slot + 1) & (lengths.length - 1);
+            }
+            msbs[slot] = msb;
+            lsbs[slot] = lsb;
+            count++;
+        }
+        positions[slot] = position;
+        lengths[slot] = data.length;
+    }
+
+    /**
+     * Removes the bundle with the given id from the cache.
+     *
+     * @param id node id
+     */
+    synchronized void remove(NodeId id) {
+        int slot = find(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        if (slot >= 0) {
+            delete(slot);
+        }
+    }
+
+    /**
+     * Removes all bundles from the cache. The allocated memory is kept.
+     */
+    synchronized void clear() {
+        initIndex(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns the amount of off-heap memory allocated by this cache.
+     *
+     * @return allocated memory in bytes
+     */
+    synchronized long getMemoryUsed() {
+        long used = 0;
+        for (ByteBuffer segment : segments) {
+            if (segment != null) {
+                used += segmentSize;
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Returns the number of bundles in the index, including bundles that
+     * have been overwritten but not yet removed from the index.
+     *
+     * @return number of indexed bundles
+     */
+    synchronized int getElementCount() {
+        return count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "OffHeapBundleCache[elements=" + count
+                + ", usedmemorykb=" + getMemoryUsed() / 1024
+                + ", maxmemorykb=" + (long) segments.length * segmentSize / 1024
+                + ", hits=" + hitCounter.get()
+                + ", misses=" + missCounter.get() + "]";
+    }
+
+    //-------------------------------------------------------------< private >
+
+    /**
+     * Appends the given data to the log, starting a new segment if it does
+     * not fit in the current one.
+     *
+     * @param data the data to append
+     * @return the log position of the data
+     */
+    private long append(byte[] data) {
+        long offset = writePosition % segmentSize;
+        if (offset + data.length > segmentSize) {
+            writePosition += segmentSize - offset;
+            offset = 0;
+        }
+        int index = getSegmentIndex(writePosition);
+        if (segments[index] == null) {
+            segments[index] = ByteBuffer.allocateDirect(segmentSize);
+        }
+        ByteBuffer buffer = segments[index].duplicate();
+        buffer.position((int) offset);
+        buffer.put(data);
+        long position = writePosition;
+        writePosition += data.length;
+        return position;
+    }
+
+    /**
+     * Checks whether the data at the given log position has not yet been
+     * overwritten.
+     */
+    private boolean isValid(long position) {
+        return position / segmentSize > writePosition / segmentSize - segments.length;
+    }
+
+    private int getSegmentIndex(long position) {
+        return (int) ((position / segmentSize) % segments.length);
+    }
+
+    private void initIndex(int capacity) {
+        msbs = new long[capacity];
+        lsbs = new long[capacity];
+        positions = new long[capacity];
+        lengths = new int[capacity];
+        count = 0;
+    }
+
+    /**
+     * Removes overwritten bundles from the index, and doubles its capacity
+     * if it is still more than half full.
+     */
+    private void rebuildIndex() {
+        long[] oldMsbs = msbs;
+        long[] oldLsbs = lsbs;
+        long[] oldPositions = positions;
+        int[] oldLengths = lengths;
+
+        int live = 0;
+        for (int i = 0; i < oldLengths.length; i++) {
+            if (oldLengths[i] != 0 && isValid(oldPositions[i])) {
+                live++;
+            }
+        }
+        int capacity = oldLengths.length;
+        while (live >= capacity / 2) {
+            capacity *= 2;
+        }
+
+        initIndex(capacity);
+        for (int i = 0; i < oldLengths.length; i++) {
+            if (oldLengths[i] != 0 && isValid(oldPositions[i])) {
+                int slot = hash(oldMsbs[i], oldLsbs[i]);
+                while (lengths[slot] != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                msbs[slot] = oldMsbs[i];
+                lsbs[slot] = oldLsbs[i];
+                positions[slot] = oldPositions[i];
+                lengths[slot] = oldLengths[i];
+                count++;
+            }
+        }
+    }
+
+    private int find(long msb, long lsb) {
+        int slot = hash(msb, lsb);
+        while (lengths[slot] != 0) {
+            if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                return slot;
+            }
+            slot = (slot + 1) & (lengths.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the given slot from the index, moving following entries of
+     * the same probe sequence back so that they can still be found.
+     */
+    private void delete(int slot) {
+        int mask = lengths.length - 1;
+        lengths[slot] = 0;
+        count--;
+        int i = slot;
+        int j = slot;
+        while (true) {
+            j = (j + 1) & mask;
+            if (lengths[j] == 0) {
+                return;
+            }
+            int k = hash(msbs[j], lsbs[j]);
+            if (i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+                // the entry is reachable from its home slot
+                continue;
+            }
+            msbs[i] = msbs[j];
+            lsbs[i] = lsbs[j];
+            positions[i] = positions[j];
+            lengths[i] = lengths[j];
+            lengths[j] = 0;
+            i = j;
+        }
+    }
+
+    private int hash(long msb, long lsb) {
+        long h = (msb ^ (lsb * 0x9E3779B97F4A7C15L)) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32)) & (lengths.length - 1);
+    }
+
+}
@@ -402,6 +402,7 @@ public class InMemBundlePersistenceManager extends AbstractBundlePersistenceMana
         // load namespaces
         binding = new BundleBinding(errorHandling, blobStore, getNsIndex(), getNameIndex(), context.getDataStore());
         binding.setMinBlobSize(minBlobSize);
+        binding.setChildNodePageSize(Integer.decode(getChildNodePageSize()));
 
         if (persistent) {
             // deserialize contents of the stores
@@ -559,6 +560,14 @@ public class InMemBundlePersistenceManager extends AbstractBundlePersistenceMana
         return blobStore;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BundleBinding getBundleBinding() {
+        return binding;
+    }
+
     /**
      * Helper interface for closeable stores
      */
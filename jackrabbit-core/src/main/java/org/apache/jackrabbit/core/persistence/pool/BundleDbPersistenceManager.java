@@ -26,9 +26,12 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jcr.RepositoryException;
 import javax.sql.DataSource;
@@ -81,6 +84,7 @@ import org.slf4j.LoggerFactory;
  * <li>&lt;param name="{@link #setErrorHandling(String) errorHandling}" value=""/&gt;
  * <li>&lt;param name="{@link #setBlockOnConnectionLoss(String) blockOnConnectionLoss}" value="false"/&gt;
  * <li>&lt;param name="{@link #setSchemaCheckEnabled(boolean) schemaCheckEnabled}" value="true"/&gt;
+ * <li>&lt;param name="{@link #setMaxBatchSize(String) maxBatchSize}" value="0"/&gt;
  * </ul>
  */
 public class BundleDbPersistenceManager
@@ -165,6 +169,20 @@ public class BundleDbPersistenceManager
      */
     private int minBlobSize = 0x1000;
 
+    /**
+     * the maximum number of statements sent to the database in one JDBC batch
+     * @see #setMaxBatchSize(String)
+     */
+    private int maxBatchSize = 0;
+
+    /**
+     * the bundle and reference statements that have not yet been sent to the
+     * database. Only set while a change log is stored with batching enabled.
+     * Only the thread that stores the change log may flush the batch, as the
+     * statements belong to the transaction of its connection.
+     */
+    private volatile StatementBatch pendingStatements;
+
     /**
      * flag for error handling
      */
@@ -409,6 +427,32 @@ public class BundleDbPersistenceManager
         this.minBlobSize = Integer.decode(minBlobSize).intValue();
     }
 
+    /**
+     * Returns the maximum number of statements in one JDBC batch.
+     * @return the maximum batch size.
+     */
+    public String getMaxBatchSize() {
+        return String.valueOf(maxBatchSize);
+    }
+
+    /**
+     * Sets the maximum number of bundle and node reference statements that
+     * are sent to the database in one JDBC batch while storing a change log.
+     * Statements of the same type are grouped and executed through
+     * {@link ConnectionHelper#updateBatch(String, List)}, which saves a
+     * database round trip per modified node. A value of 0 or 1 disables
+     * batching; this is the default.
+     * <p>
+     * Note that MySQL Connector/J only rewrites batches into multi-row
+     * statements if <code>rewriteBatchedStatements=true</code> is set in the
+     * connection URL.
+     *
+     * @param maxBatchSize the maximum batch size.
+     */
+    public void setMaxBatchSize(String maxBatchSize) {
+        this.maxBatchSize = Integer.parseInt(maxBatchSize);
+    }
+
     /**
      * Sets the error handling behaviour of this manager. See {@link ErrorHandling}
      * for details about the flags.
@@ -479,7 +523,15 @@ public class BundleDbPersistenceManager
         while (!sleepInterrupted && (blockOnConnectionLoss || failures <= 1)) {
             try {
                 conHelper.startBatch();
-                super.store(changeLog);
+                if (maxBatchSize > 1) {
+                    pendingStatements = new StatementBatch();
+                }
+                try {
+                    super.store(changeLog);
+                    flushPendingStatements();
+                } finally {
+                    pendingStatements = null;
+                }
                 conHelper.endBatch(true);
                 return;
             } catch (SQLException e) {
@@ -516,6 +568,33 @@ public class BundleDbPersistenceManager
         throw lastException;
     }
 
+    /**
+     * Sends all pending bundle and reference statements to the database.
+     * If this fails, the bundles written in the current transaction are
+     * evicted from the bundle cache as the transaction will be rolled back.
+     *
+     * @throws ItemStateException if the statements could not be executed
+     */
+    private void flushPendingStatements() throws ItemStateException {
+        if (pendingStatements != null) {
+            try {
+                pendingStatements.flush();
+            } catch (SQLException e) {
+                for (NodeId id : pendingStatements.getBundleIds()) {
+                    evictBundle(id);
+                }
+                String msg;
+                if (isIntegrityConstraintViolation(e)) {
+                    msg = "FATAL error while writing a batch of bundles";
+                } else {
+                    msg = "failed to write a batch of bundles";
+                }
+                log.error(msg, e);
+                throw new ItemStateException(msg, e);
+            }
+        }
+    }
+
     private boolean isIntegrityConstraintViolation(Throwable t) {
         if (t instanceof SQLException) {
             String state = ((SQLException) t).getSQLState();
@@ -554,6 +633,7 @@ public class BundleDbPersistenceManager
         // load namespaces
         binding = new BundleBinding(errorHandling, blobStore, getNsIndex(), getNameIndex(), context.getDataStore());
         binding.setMinBlobSize(minBlobSize);
+        binding.setChildNodePageSize(Integer.decode(getChildNodePageSize()));
 
         initialized = true;
 
@@ -612,6 +692,14 @@ public class BundleDbPersistenceManager
         return blobStore;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BundleBinding getBundleBinding() {
+        return binding;
+    }
+
     /**
      * Creates a suitable blobstore
      * @return a blobstore
@@ -882,6 +970,7 @@ public class BundleDbPersistenceManager
     @Override
     protected NodePropBundle loadBundle(NodeId id) throws ItemStateException {
         try {
+            awaitPendingBundle(id);
             ResultSet rs =
                 conHelper.exec(bundleSelectSQL, getKey(id), false, 0);
             try {
@@ -903,6 +992,30 @@ public class BundleDbPersistenceManager
         }
     }
 
+    /**
+     * Makes sure that a read of the given bundle sees its pending statement.
+     * The thread that stores the current change log sends its pending
+     * statements to the database. Any other thread waits until the change
+     * log is stored, because the statements are executed in the transaction
+     * of the storing thread.
+     *
+     * @param id bundle identifier
+     * @throws SQLException if the pending statements can not be executed
+     */
+    private void awaitPendingBundle(NodeId id) throws SQLException {
+        StatementBatch batch = pendingStatements;
+        if (batch != null && batch.containsBundle(id)) {
+            if (batch.isOwner()) {
+                batch.flush();
+            } else {
+                synchronized (this) {
+                    // store(ChangeLog) holds this lock until the batch is
+                    // committed or rolled back
+                }
+            }
+        }
+    }
+
     /**
      * Reads and parses a bundle from the BLOB in the given column of the
      * current row of the given result set. This is a helper method to
@@ -947,7 +1060,11 @@ public class BundleDbPersistenceManager
 
             String sql = bundle.isNew() ? bundleInsertSQL : bundleUpdateSQL;
             Object[] params = createParams(bundle.getId(), out.toByteArray(), true);
-            conHelper.update(sql, params);
+            if (pendingStatements != null) {
+                pendingStatements.addBundleStatement(bundle.getId(), sql, params);
+            } else {
+                conHelper.update(sql, params);
+            }
         } catch (Exception e) {
             String msg;
 
@@ -970,7 +1087,12 @@ public class BundleDbPersistenceManager
      */
     protected synchronized void destroyBundle(NodePropBundle bundle) throws ItemStateException {
         try {
-            conHelper.update(bundleDeleteSQL, getKey(bundle.getId()));
+            if (pendingStatements != null) {
+                pendingStatements.addBundleStatement(
+                        bundle.getId(), bundleDeleteSQL, getKey(bundle.getId()));
+            } else {
+                conHelper.update(bundleDeleteSQL, getKey(bundle.getId()));
+            }
         } catch (Exception e) {
             if (e instanceof NoSuchItemStateException) {
                 throw (NoSuchItemStateException) e;
@@ -993,6 +1115,9 @@ public class BundleDbPersistenceManager
         ResultSet rs = null;
         InputStream in = null;
         try {
+            if (pendingStatements != null && pendingStatements.containsReferences(targetId)) {
+                pendingStatements.flush();
+            }
             rs = conHelper.exec(nodeReferenceSelectSQL, getKey(targetId), false, 0);
             if (!rs.next()) {
                 throw new NoSuchItemStateException(targetId.toString());
@@ -1041,7 +1166,11 @@ public class BundleDbPersistenceManager
             Serializer.serialize(refs, out);
 
             Object[] params = createParams(refs.getTargetId(), out.toByteArray(), true);
-            conHelper.exec(sql, params);
+            if (pendingStatements != null) {
+                pendingStatements.addReferencesStatement(refs.getTargetId(), sql, params);
+            } else {
+                conHelper.exec(sql, params);
+            }
             
             // there's no need to close a ByteArrayOutputStream
             //out.close();
@@ -1061,7 +1190,12 @@ public class BundleDbPersistenceManager
         }
 
         try {
-            conHelper.exec(nodeReferenceDeleteSQL, getKey(refs.getTargetId()));
+            if (pendingStatements != null) {
+                pendingStatements.addReferencesStatement(
+                        refs.getTargetId(), nodeReferenceDeleteSQL, getKey(refs.getTargetId()));
+            } else {
+                conHelper.exec(nodeReferenceDeleteSQL, getKey(refs.getTargetId()));
+            }
         } catch (Exception e) {
             if (e instanceof NoSuchItemStateException) {
                 throw (NoSuchItemStateException) e;
@@ -1082,6 +1216,9 @@ public class BundleDbPersistenceManager
 
         ResultSet rs = null;
         try {
+            if (pendingStatements != null && pendingStatements.containsReferences(targetId)) {
+                pendingStatements.flush();
+            }
             rs = conHelper.exec(nodeReferenceSelectSQL, getKey(targetId), false, 0);
 
             // a reference exists if the result has at least one entry
@@ -1160,6 +1297,95 @@ public class BundleDbPersistenceManager
 
     }
 
+    /**
+     * Collects bundle and node reference statements and sends them to the
+     * database in JDBC batches, grouped by SQL statement. Statements for the
+     * same row are kept in order: if a row already has a pending statement of
+     * a different type (e.g. a delete followed by an insert), the pending
+     * statements are flushed first.
+     */
+    private final class StatementBatch {
+
+        /** the thread that stores the change log of this batch */
+        private final Thread owner = Thread.currentThread();
+
+        /** the pending parameters, per SQL statement in order of first use */
+        private final Map<String, List<Object[]>> statements =
+            new LinkedHashMap<String, List<Object[]>>();
+
+        /** the pending statement for each bundle, also read by other threads */
+        private final Map<NodeId, String> pendingBundles =
+            new ConcurrentHashMap<NodeId, String>();
+
+        /** the pending statement for each node references row */
+        private final Map<NodeId, String> pendingReferences =
+            new ConcurrentHashMap<NodeId, String>();
+
+        /** the ids of all bundles written through this batch */
+        private final Set<NodeId> bundleIds = new HashSet<NodeId>();
+
+        /** the number of pending statements */
+        private int size;
+
+        void addBundleStatement(NodeId id, String sql, Object[] params)
+                throws SQLException {
+            bundleIds.add(id);
+            add(pendingBundles, id, sql, params);
+        }
+
+        void addReferencesStatement(NodeId id, String sql, Object[] params)
+                throws SQLException {
+            add(pendingReferences, id, sql, params);
+        }
+
+        boolean isOwner() {
+            return owner == Thread.currentThread();
+        }
+
+        boolean containsBundle(NodeId id) {
+            return pendingBundles.containsKey(id);
+        }
+
+        boolean containsReferences(NodeId id) {
+            return pendingReferences.containsKey(id);
+        }
+
+        Set<NodeId> getBundleIds() {
+            return bundleIds;
+        }
+
+        private void add(Map<NodeId, String> pending, NodeId id, String sql, Object[] params)
+                throws SQLException {
+            String previous = pending.get(id);
+            if (previous != null && !previous.equals(sql)) {
+                flush();
+            }
+            pending.put(id, sql);
+            List<Object[]> list = statements.get(sql);
+            if (list == null) {
+                list = new ArrayList<Object[]>();
+                statements.put(sql, list);
+            }
+            list.add(params);
+            if (++size >= maxBatchSize) {
+                flush();
+            }
+        }
+
+        void flush() throws SQLException {
+            try {
+                for (Map.Entry<String, List<Object[]>> entry : statements.entrySet()) {
+                    conHelper.updateBatch(entry.getKey(), entry.getValue());
+                }
+            } finally {
+                statements.clear();
+                pendingBundles.clear();
+                pendingReferences.clear();
+                size = 0;
+            }
+        }
+    }
+
     /**
      * Helper interface for closeable stores
      */
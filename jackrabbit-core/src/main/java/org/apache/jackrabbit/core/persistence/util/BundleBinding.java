@@ -57,10 +57,17 @@ public class BundleBinding {
      */
     static final int VERSION_3 = 3;
 
+    /**
+     * serialization version 4: like version 3, but the child node entries
+     * may be stored in separate pages in the blob store. Only bundles with
+     * child node pages are written in this version.
+     */
+    static final int VERSION_4 = 4;
+
     /**
      * current version
      */
-    static final int VERSION_CURRENT = VERSION_3;
+    static final int VERSION_CURRENT = VERSION_4;
 
     /**
      * the namespace index
@@ -82,6 +89,12 @@ public class BundleBinding {
      */
     protected long minBlobSize = 0x4000; // 16k
 
+    /**
+     * maximum number of child node entries stored inline in a bundle,
+     * or 0 if child node entries are never stored in separate pages
+     */
+    protected int childNodePageSize = 0;
+
     /**
      * the error handling
      */
@@ -131,6 +144,28 @@ public class BundleBinding {
         this.minBlobSize = minBlobSize;
     }
 
+    /**
+     * Returns the child node page size.
+     * @see #setChildNodePageSize(int) for details.
+     * @return the child node page size
+     */
+    public int getChildNodePageSize() {
+        return childNodePageSize;
+    }
+
+    /**
+     * Sets the child node page size. The child node entries of bundles with
+     * more entries than this size are stored in pages of at most this size
+     * in the blob store, and only the pages that changed are rewritten when
+     * the bundle is stored. Default is 0, which stores all child node entries
+     * inline.
+     *
+     * @param childNodePageSize the child node page size.
+     */
+    public void setChildNodePageSize(int childNodePageSize) {
+        this.childNodePageSize = childNodePageSize;
+    }
+
     /**
      * Returns the blob store that is associated with this binding.
      * @return the blob store
@@ -164,4 +199,23 @@ public class BundleBinding {
         new BundleWriter(this, out).writeBundle(bundle);
     }
 
+    /**
+     * Serializes a <code>NodePropBundle</code> that has already been stored,
+     * for example to keep a serialized copy in a cache. Unlike
+     * {@link #writeBundle(OutputStream, NodePropBundle)}, this method never
+     * writes to the blob store.
+     *
+     * @param out the output stream
+     * @param bundle the bundle to serialize
+     * @throws IOException if the bundle references binaries or child node
+     *                     pages that are not in the blob store, or if
+     *                     another I/O error occurs
+     */
+    public void writeStoredBundle(OutputStream out, NodePropBundle bundle)
+            throws IOException {
+        BundleWriter writer = new BundleWriter(this, out);
+        writer.disableBlobStoreWrites();
+        writer.writeBundle(bundle);
+    }
+
 }
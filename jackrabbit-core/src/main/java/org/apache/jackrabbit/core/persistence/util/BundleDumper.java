@@ -39,6 +39,7 @@ public class BundleDumper {
     private static final int VERSION_1 = 1;
     private static final int VERSION_2 = 2;
     private static final int VERSION_3 = 3;
+    private static final int VERSION_4 = 4;
 
     private static final int BINARY_IN_BLOB_STORE = -1;
     private static final int BINARY_IN_DATA_STORE = -2;
@@ -194,6 +195,15 @@ public class BundleDumper {
                 buffer.append("shared set:").append(readNodeId()).append("\n");
             }
         }
+
+        // child node pages (list of page number/entry count pairs)
+        if (version >= VERSION_4) {
+            int count = readVarInt();
+            for (int i = 0; i < count; i++) {
+                buffer.append("child node page: ").append(readVarInt()).
+                        append(" entries: ").append(readVarInt()).append("\n");
+            }
+        }
     }
 
     private void readBundleOld() throws IOException {
@@ -22,6 +22,8 @@ import org.apache.commons.io.IOExceptionWithCause;
 import org.apache.commons.io.input.CountingInputStream;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodeEntry;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodePage;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
@@ -31,10 +33,12 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.TimeZone;
 import java.math.BigDecimal;
@@ -148,7 +152,11 @@ class BundleReader {
         } else {
             readBundleOld(bundle);
         }
-        bundle.setSize(cin.getByteCount() - start);
+        long size = cin.getByteCount() - start;
+        for (ChildNodePage page : bundle.getChildNodePages()) {
+            size += page.getSize();
+        }
+        bundle.setSize(size);
         return bundle;
     }
 
@@ -211,6 +219,59 @@ class BundleReader {
             }
             bundle.setSharedSet(shared);
         }
+
+        // child node pages (list of page number/entry count pairs)
+        if (version >= BundleBinding.VERSION_4) {
+            int count = readVarInt();
+            List<ChildNodePage> pages = new ArrayList<ChildNodePage>(count);
+            for (int i = 0; i < count; i++) {
+                int number = readVarInt();
+                int entries = readVarInt();
+                ChildNodePage page = readChildNodePage(bundle, number);
+                if (page.getEntries().size() != entries) {
+                    throw new IOException("Child node page " + number
+                            + " of bundle " + bundle.getId() + " contains "
+                            + page.getEntries().size() + " entries, expected "
+                            + entries);
+                }
+                bundle.getChildNodeEntries().addAll(page.getEntries());
+                pages.add(page);
+            }
+            bundle.setChildNodePages(pages);
+        }
+    }
+
+    /**
+     * Reads a page of child node entries from the blob store.
+     *
+     * @param bundle the bundle the page belongs to
+     * @param number the page number
+     * @return the page
+     * @throws IOException if the page could not be read
+     */
+    private ChildNodePage readChildNodePage(NodePropBundle bundle, int number)
+            throws IOException {
+        String blobId = bundle.getChildNodePageBlobId(binding.getBlobStore(), number);
+        InputStream stream;
+        try {
+            stream = binding.getBlobStore().get(blobId);
+        } catch (Exception e) {
+            throw new IOExceptionWithCause(
+                    "Unable to read child node page " + blobId, e);
+        }
+        try {
+            BundleReader reader = new BundleReader(binding, stream);
+            int n = reader.readVarInt();
+            List<ChildNodeEntry> entries = new ArrayList<ChildNodeEntry>(n);
+            for (int i = 0; i < n; i++) {
+                Name name = reader.readQName();
+                NodeId id = reader.readNodeId();
+                entries.add(new ChildNodeEntry(name, id));
+            }
+            return new ChildNodePage(number, entries, reader.cin.getByteCount());
+        } finally {
+            stream.close();
+        }
     }
 
     private void readBundleOld(NodePropBundle bundle) throws IOException {
@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.core.persistence.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -23,9 +25,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
@@ -35,6 +42,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodeEntry;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodePage;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle.PropertyEntry;
 import org.apache.jackrabbit.spi.Name;
 import org.slf4j.Logger;
@@ -54,6 +62,12 @@ class BundleWriter {
 
     private final DataOutputStream out;
 
+    /**
+     * Whether binaries and child node pages that are not yet in the blob
+     * store are written to it, or cause the serialization to fail.
+     */
+    private boolean blobStoreWrites = true;
+
     /**
      * The default namespace and the first six other namespaces used in this
      * bundle. Used by the {@link #writeName(Name)} method to keep track of
@@ -75,7 +89,15 @@ class BundleWriter {
         assert namespaces.length == 7;
         this.binding = binding;
         this.out = new DataOutputStream(stream);
-        this.out.writeByte(BundleBinding.VERSION_CURRENT);
+    }
+
+    /**
+     * Disables writes to the blob store. Bundles that reference binaries
+     * or child node pages that are not yet in the blob store can then not
+     * be serialized.
+     */
+    public void disableBlobStoreWrites() {
+        blobStoreWrites = false;
     }
 
     /**
@@ -86,6 +108,15 @@ class BundleWriter {
      */
     public void writeBundle(NodePropBundle bundle)
             throws IOException {
+        // write the child node pages first, as they determine the version
+        List<ChildNodePage> pages = writeChildNodePages(bundle);
+        if (pages.isEmpty()) {
+            // keep bundles without pages readable by older versions
+            out.writeByte(BundleBinding.VERSION_3);
+        } else {
+            out.writeByte(BundleBinding.VERSION_4);
+        }
+
         long size = out.size();
 
         // primaryType
@@ -104,6 +135,9 @@ class BundleWriter {
         Collection<Name> mixins = bundle.getMixinTypeNames();
         Collection<PropertyEntry> properties = bundle.getPropertyEntries();
         Collection<ChildNodeEntry> nodes = bundle.getChildNodeEntries();
+        if (!pages.isEmpty()) {
+            nodes = Collections.emptyList();
+        }
         Collection<NodeId> shared = bundle.getSharedSet();
 
         int mn = mixins.size();
@@ -146,8 +180,183 @@ class BundleWriter {
             writeNodeId(nodeId);
         }
 
+        // child node pages (list of page number/entry count pairs)
+        long pageSize = 0;
+        if (!pages.isEmpty()) {
+            writeVarInt(pages.size());
+            for (ChildNodePage page : pages) {
+                writeVarInt(page.getNumber());
+                writeVarInt(page.getEntries().size());
+                pageSize += page.getSize();
+            }
+        }
+
         // set size of bundle
-        bundle.setSize(out.size() - size);
+        bundle.setSize(out.size() - size + pageSize);
+    }
+
+    /**
+     * Distributes the child node entries of the given bundle to pages and
+     * writes the pages that changed since the bundle was last read or
+     * written to the blob store. Pages whose entries are still present,
+     * unchanged and consecutive, are kept; the remaining entries are
+     * written to new pages, absorbing adjacent pages that are not full.
+     * New pages always get a new number, so that the pages referenced by
+     * the previously stored bundle stay intact until it is overwritten.
+     *
+     * @param bundle the bundle
+     * @return the pages of the bundle, or an empty list if the child node
+     *         entries are stored inline
+     * @throws IOException if a page could not be written
+     */
+    private List<ChildNodePage> writeChildNodePages(NodePropBundle bundle)
+            throws IOException {
+        int max = binding.getChildNodePageSize();
+        List<ChildNodePage> oldPages = bundle.getChildNodePages();
+        if (!blobStoreWrites) {
+            int n = 0;
+            for (ChildNodePage page : oldPages) {
+                n += page.getEntries().size();
+            }
+            if (!oldPages.isEmpty()
+                    && n != bundle.getChildNodeEntries().size()) {
+                throw new IOException("Child node pages of bundle "
+                        + bundle.getId() + " are not stored");
+            }
+            return oldPages;
+        }
+        List<ChildNodeEntry> nodes =
+            new ArrayList<ChildNodeEntry>(bundle.getChildNodeEntries());
+        if (max <= 0 || nodes.size() <= max) {
+            bundle.setChildNodePages(Collections.<ChildNodePage>emptyList());
+            return bundle.getChildNodePages();
+        }
+
+        int number = 0;
+        for (ChildNodePage page : oldPages) {
+            number = Math.max(number, page.getNumber() + 1);
+        }
+
+        // find the old pages that can be kept, unless they are fragmented
+        Map<Integer, ChildNodePage> intact = new HashMap<Integer, ChildNodePage>();
+        if (oldPages.size() <= 2 * ((nodes.size() + max - 1) / max) + 1) {
+            Map<NodeId, Integer> positions =
+                new HashMap<NodeId, Integer>(nodes.size() * 2);
+            for (int i = 0; i < nodes.size(); i++) {
+                positions.put(nodes.get(i).getId(), i);
+            }
+            for (ChildNodePage page : oldPages) {
+                List<ChildNodeEntry> entries = page.getEntries();
+                Integer start = positions.get(entries.get(0).getId());
+                if (start != null
+                        && start + entries.size() <= nodes.size()
+                        && nodes.subList(start, start + entries.size()).equals(entries)) {
+                    intact.put(start, page);
+                }
+            }
+        }
+
+        List<ChildNodePage> pages = new ArrayList<ChildNodePage>();
+        List<ChildNodeEntry> loose = new ArrayList<ChildNodeEntry>();
+        int i = 0;
+        while (i < nodes.size()) {
+            ChildNodePage page = intact.get(i);
+            if (page == null) {
+                loose.add(nodes.get(i++));
+            } else if (!loose.isEmpty()
+                    && loose.size() + page.getEntries().size() <= max) {
+                // merge small runs of changed entries with the next page
+                loose.addAll(page.getEntries());
+                i += page.getEntries().size();
+            } else {
+                number = writeChildNodePages(bundle, pages, loose, number);
+                pages.add(page);
+                i += page.getEntries().size();
+            }
+        }
+        writeChildNodePages(bundle, pages, loose, number);
+
+        bundle.setChildNodePages(pages);
+        return pages;
+    }
+
+    /**
+     * Writes the given entries to new pages of about equal size and
+     * appends them to the given list of pages. If the last page in the
+     * list is not full, its entries are rewritten together with the
+     * given entries.
+     *
+     * @param bundle the bundle
+     * @param pages the pages written so far
+     * @param entries the entries to write, cleared on return
+     * @param number the next free page number
+     * @return the next free page number
+     * @throws IOException if a page could not be written
+     */
+    private int writeChildNodePages(
+            NodePropBundle bundle, List<ChildNodePage> pages,
+            List<ChildNodeEntry> entries, int number) throws IOException {
+        if (entries.isEmpty()) {
+            return number;
+        }
+        int max = binding.getChildNodePageSize();
+        if (!pages.isEmpty()) {
+            ChildNodePage last = pages.get(pages.size() - 1);
+            if (last.getEntries().size() < max) {
+                pages.remove(pages.size() - 1);
+                entries.addAll(0, last.getEntries());
+            }
+        }
+
+        int count = (entries.size() + max - 1) / max;
+        int start = 0;
+        for (int n = 0; n < count; n++) {
+            int end = (int) ((long) entries.size() * (n + 1) / count);
+            pages.add(writeChildNodePage(
+                    bundle, number++, entries.subList(start, end)));
+            start = end;
+        }
+        entries.clear();
+        return number;
+    }
+
+    /**
+     * Writes a page of child node entries to the blob store. The page
+     * consists of the version byte, the number of entries and the list
+     * of name/uuid pairs.
+     *
+     * @param bundle the bundle
+     * @param number the page number
+     * @param entries the entries of the page
+     * @return the written page
+     * @throws IOException if the page could not be written
+     */
+    private ChildNodePage writeChildNodePage(
+            NodePropBundle bundle, int number, List<ChildNodeEntry> entries)
+            throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        BundleWriter writer = new BundleWriter(binding, buffer);
+        writer.out.writeByte(BundleBinding.VERSION_4);
+        writer.writeVarInt(entries.size());
+        for (ChildNodeEntry child : entries) {
+            writer.writeName(child.getName());
+            writer.writeNodeId(child.getId());
+        }
+        writer.out.flush();
+        byte[] data = buffer.toByteArray();
+
+        BLOBStore blobStore = binding.getBlobStore();
+        String blobId = bundle.getChildNodePageBlobId(blobStore, number);
+        try {
+            blobStore.put(blobId, new ByteArrayInputStream(data), data.length);
+        } catch (Exception e) {
+            String msg = "Error while storing child node page. id="
+                    + bundle.getId() + " page=" + number;
+            log.error(msg, e);
+            throw new IOExceptionWithCause(msg, e);
+        }
+        return new ChildNodePage(
+                number, new ArrayList<ChildNodeEntry>(entries), data.length);
     }
 
     /**
@@ -231,7 +440,10 @@ class BundleWriter {
                             // spool binary value to file in blob store
                             out.writeInt(BundleBinding.BINARY_IN_BLOB_STORE);
                             String blobId = state.getBlobId(i);
-                            if (blobId == null) {
+                            if (blobId == null && !blobStoreWrites) {
+                                throw new IOException("Binary value of "
+                                        + state.getId() + " is not stored");
+                            } else if (blobId == null) {
                                 BLOBStore blobStore = binding.getBlobStore();
                                 try {
                                     InputStream in = val.getStream();
@@ -16,8 +16,10 @@
  */
 package org.apache.jackrabbit.core.persistence.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -34,6 +36,7 @@ import org.apache.jackrabbit.core.state.PropertyState;
 import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +51,14 @@ public class NodePropBundle {
      */
     private static Logger log = LoggerFactory.getLogger(NodePropBundle.class);
 
+    /**
+     * Name used to create the blob store ids of child node pages.
+     *
+     * @see #getChildNodePageBlobId(BLOBStore, int)
+     */
+    private static final Name CHILD_NODE_PAGE_NAME =
+        NameFactoryImpl.getInstance().create(Name.NS_REP_URI, "childNodePage");
+
     /**
      * the node id
      */
@@ -73,6 +84,18 @@ public class NodePropBundle {
      */
     private LinkedList<NodePropBundle.ChildNodeEntry> childNodeEntries = new LinkedList<NodePropBundle.ChildNodeEntry>();
 
+    /**
+     * the pages in which the child node entries are stored, or an empty list
+     * if they are stored inline
+     */
+    private List<ChildNodePage> childNodePages = Collections.emptyList();
+
+    /**
+     * pages that are no longer referenced by this bundle but have not yet
+     * been removed from the blob store
+     */
+    private List<ChildNodePage> obsoleteChildNodePages = Collections.emptyList();
+
     /**
      * the properties
      */
@@ -300,6 +323,78 @@ public class NodePropBundle {
         childNodeEntries.add(new ChildNodeEntry(name, id));
     }
 
+    /**
+     * Returns the pages in which the child node entries of this bundle are
+     * stored, in the order of the entries.
+     *
+     * @return the child node pages, or an empty list if the child node
+     *         entries are stored inline
+     */
+    public List<ChildNodePage> getChildNodePages() {
+        return childNodePages;
+    }
+
+    /**
+     * Sets the pages in which the child node entries of this bundle are
+     * stored. Pages that were set before but are not contained in the
+     * given list are remembered as obsolete, until they are removed by
+     * {@link #removeObsoleteChildNodePages(BLOBStore)}.
+     *
+     * @param pages the child node pages
+     */
+    public void setChildNodePages(List<ChildNodePage> pages) {
+        for (ChildNodePage page : childNodePages) {
+            if (!pages.contains(page)) {
+                if (obsoleteChildNodePages.isEmpty()) {
+                    obsoleteChildNodePages = new ArrayList<ChildNodePage>();
+                }
+                obsoleteChildNodePages.add(page);
+            }
+        }
+        childNodePages = pages;
+    }
+
+    /**
+     * Returns the blob store id of the child node page with the given number.
+     *
+     * @param blobStore the blob store
+     * @param number the page number
+     * @return the blob id
+     */
+    public String getChildNodePageBlobId(BLOBStore blobStore, int number) {
+        return blobStore.createId(
+                new PropertyId(id, CHILD_NODE_PAGE_NAME), number);
+    }
+
+    /**
+     * Removes the child node pages that are no longer referenced by this
+     * bundle from the blob store. Called after the bundle has been stored.
+     *
+     * @param blobStore BLOB store from where to delete the pages
+     */
+    public void removeObsoleteChildNodePages(BLOBStore blobStore) {
+        for (ChildNodePage page : obsoleteChildNodePages) {
+            String blobId = getChildNodePageBlobId(blobStore, page.getNumber());
+            try {
+                blobStore.remove(blobId);
+                log.debug("removed child node page {}", blobId);
+            } catch (Exception e) {
+                log.error("Ignoring error while removing child node page " + blobId, e);
+            }
+        }
+        obsoleteChildNodePages = Collections.emptyList();
+    }
+
+    /**
+     * Removes all child node pages of this bundle from the blob store.
+     *
+     * @param blobStore BLOB store from where to delete the pages
+     */
+    public void removeAllChildNodePages(BLOBStore blobStore) {
+        setChildNodePages(Collections.<ChildNodePage>emptyList());
+        removeObsoleteChildNodePages(blobStore);
+    }
+
     /**
      * Adds a new property entry
      * @param entry the enrty to add
@@ -542,6 +637,75 @@ public class NodePropBundle {
 
     }
 
+    //------------------------------------------------------< ChildNodePage >---
+
+    /**
+     * A page of consecutive child node entries that is stored in the blob
+     * store instead of inline in the bundle. Pages are immutable: a page
+     * whose entries change is replaced by a new page with a new number.
+     */
+    public static class ChildNodePage {
+
+        /**
+         * the page number, unique within the bundle
+         */
+        private final int number;
+
+        /**
+         * the entries stored in this page
+         */
+        private final List<ChildNodeEntry> entries;
+
+        /**
+         * the serialized size of this page
+         */
+        private final long size;
+
+        /**
+         * Creates a new page.
+         *
+         * @param number the page number
+         * @param entries the entries stored in the page
+         * @param size the serialized size of the page
+         */
+        public ChildNodePage(int number, List<ChildNodeEntry> entries, long size) {
+            this.number = number;
+            this.entries = entries;
+            this.size = size;
+        }
+
+        /**
+         * Returns the page number.
+         * @return the page number.
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * Returns the entries stored in this page.
+         * @return the entries stored in this page.
+         */
+        public List<ChildNodeEntry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Returns the serialized size of this page.
+         * @return the serialized size of this page.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        //----------------------------------------------------------< Object >
+
+        public String toString() {
+            return "#" + number + "(" + entries.size() + ")";
+        }
+
+    }
+
     //------------------------------------------------------< PropertyEntry >---
 
     /**
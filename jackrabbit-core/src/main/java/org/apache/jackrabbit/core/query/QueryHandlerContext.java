@@ -28,6 +28,8 @@ import org.apache.jackrabbit.core.nodetype.NodeTypeRegistry;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.state.ItemStateManager;
 import org.apache.jackrabbit.core.state.SharedItemStateManager;
+import org.apache.jackrabbit.core.stats.StatManager;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 
 /**
  * Acts as an argument for the {@link QueryHandler} to keep the interface
@@ -221,6 +223,24 @@ public class QueryHandlerContext {
         return repositoryContext.getClusterNode();
     }
 
+    /**
+     * Returns the repository statistics collector.
+     *
+     * @return repository statistics
+     */
+    public RepositoryStatisticsImpl getRepositoryStatistics() {
+        return repositoryContext.getRepositoryStatistics();
+    }
+
+    /**
+     * Returns the statistics manager of the repository.
+     *
+     * @return statistics manager
+     */
+    public StatManager getStatManager() {
+        return repositoryContext.getStatManager();
+    }
+
     public String getWorkspace() {
         return workspace;
     }
@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.query;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -24,6 +25,8 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Value;
 import javax.jcr.query.InvalidQueryException;
 import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
 import javax.jcr.query.qom.Column;
 import javax.jcr.query.qom.Constraint;
 import javax.jcr.query.qom.Ordering;
@@ -32,6 +35,8 @@ import javax.jcr.query.qom.Source;
 
 import org.apache.jackrabbit.api.stats.RepositoryStatistics.Type;
 import org.apache.jackrabbit.commons.query.QueryObjectModelBuilderRegistry;
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.query.lucene.FacetCounter;
 import org.apache.jackrabbit.core.query.lucene.LuceneQueryFactory;
 import org.apache.jackrabbit.core.query.lucene.SearchIndex;
 import org.apache.jackrabbit.core.query.lucene.join.QueryEngine;
@@ -146,6 +151,104 @@ public class QueryObjectModelImpl extends QueryImpl implements QueryObjectModel
         return result;
     }
 
+    /**
+     * Returns the execution plan of this query, without executing it. The
+     * plan shows how each join is executed and the estimated number of rows
+     * of each selector and join side.
+     *
+     * @return the execution plan
+     * @throws RepositoryException if the plan can not be created
+     */
+    public String explain() throws RepositoryException {
+        return sessionContext.getSessionState().perform(
+                new SessionOperation<String>() {
+                    public String perform(SessionContext context)
+                            throws RepositoryException {
+                        final QueryEngine engine = new QueryEngine(
+                                sessionContext.getSessionImpl(), lqf, variables);
+                        return engine.explain(getSource(), getConstraint(),
+                                getOrderings(), offset, limit);
+                    }
+
+                    public String toString() {
+                        return "query.explain(" + statement + ")";
+                    }
+                });
+    }
+
+    /**
+     * Counts the values of a property over the nodes of a selector in all
+     * rows of this query. Offset and limit of the query are ignored.
+     *
+     * @param selectorName the name of the selector.
+     * @param propertyName the name of the property.
+     * @return the number of nodes per property value, ordered by descending
+     *         count.
+     * @throws RepositoryException if the query can not be executed
+     * @see #getFacet(String, String, int)
+     */
+    public Map<String, Long> getFacet(String selectorName, String propertyName)
+            throws RepositoryException {
+        return getFacet(selectorName, propertyName,
+                FacetCounter.NO_DATE_RESOLUTION);
+    }
+
+    /**
+     * Counts the values of a property over the nodes of a selector in all
+     * rows of this query, with date values truncated to the given
+     * <code>Calendar</code> field. Offset and limit of the query are
+     * ignored. A node is counted once per row it occurs in.
+     *
+     * @param selectorName   the name of the selector.
+     * @param propertyName   the name of the property.
+     * @param dateResolution the <code>Calendar</code> field date values are
+     *                       truncated to, or
+     *                       {@link FacetCounter#NO_DATE_RESOLUTION}.
+     * @return the number of nodes per property value, ordered by descending
+     *         count.
+     * @throws RepositoryException if the query can not be executed
+     */
+    public Map<String, Long> getFacet(
+            final String selectorName, final String propertyName,
+            final int dateResolution) throws RepositoryException {
+        return sessionContext.getSessionState().perform(
+                new SessionOperation<Map<String, Long>>() {
+                    public Map<String, Long> perform(SessionContext context)
+                            throws RepositoryException {
+                        final QueryEngine engine = new QueryEngine(
+                                sessionContext.getSessionImpl(), lqf, variables);
+                        QueryResult result = engine.execute(getColumns(),
+                                getSource(), getConstraint(), new Ordering[0],
+                                0, -1);
+                        try {
+                            FacetCounter counter = new FacetCounter(
+                                    (SearchIndex) handler, sessionContext,
+                                    propertyName, dateResolution);
+                            try {
+                                RowIterator rows = result.getRows();
+                                while (rows.hasNext()) {
+                                    Row row = rows.nextRow();
+                                    Node node = row.getNode(selectorName);
+                                    if (node != null) {
+                                        counter.count(
+                                                ((NodeImpl) node).getNodeId());
+                                    }
+                                }
+                                return counter.getFacet();
+                            } finally {
+                                counter.close();
+                            }
+                        } catch (IOException e) {
+                            throw new RepositoryException(e);
+                        }
+                    }
+
+                    public String toString() {
+                        return "query.getFacet(" + statement + ")";
+                    }
+                });
+    }
+
     @Override
     public String[] getBindVariableNames() {
         return variables.keySet().toArray(new String[variables.size()]);
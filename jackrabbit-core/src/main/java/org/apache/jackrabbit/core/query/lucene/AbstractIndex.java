@@ -160,6 +160,16 @@ abstract class AbstractIndex {
         return directory;
     }
 
+    /**
+     * Returns the directory the <code>IndexWriter</code> of this index writes
+     * to. Default implementation returns {@link #getDirectory()}.
+     *
+     * @return the directory for the index writer.
+     */
+    protected Directory getWriterDirectory() {
+        return getDirectory();
+    }
+
     /**
      * Returns <code>true</code> if this index was openend on a directory with
      * an existing index in it; <code>false</code> otherwise.
@@ -353,7 +363,7 @@ abstract class AbstractIndex {
             mergePolicy.setNoCFSRatio(1.0);
             config.setMergePolicy(mergePolicy);
 
-            indexWriter = new IndexWriter(getDirectory(), config);
+            indexWriter = new IndexWriter(getWriterDirectory(), config);
             indexWriter.setInfoStream(STREAM_LOGGER);
         }
         return indexWriter;
@@ -16,8 +16,13 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -28,6 +33,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.FieldSelector;
 import org.apache.lucene.index.CorruptIndexException;
@@ -37,6 +43,7 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.util.ReaderUtil;
@@ -47,6 +54,23 @@ import org.slf4j.LoggerFactory;
  * Implements an <code>IndexReader</code> that maintains caches to resolve
  * {@link #getParent(int, BitSet)} calls efficiently.
  * <p>
+ * The parent relation of all documents is persisted in the file
+ * {@link #FILE_CACHE_NAME_PARENTS} once the caches have been initialized.
+ * When the file exists, it is memory mapped read-only on construction and
+ * used in place of the on-heap caches. Parents that are resolved again
+ * later, because the persisted parent is not valid anymore, are kept in
+ * {@link #foreignParentDocIds}. The file has the following layout (all
+ * values big-endian):
+ * <pre>
+ * int    magic
+ * int    version
+ * int    maxDoc
+ * int    number of foreign parents
+ * int[]  one entry per document: &gt;= 0 the document number of the parent,
+ *        -1 unknown, -2 root node, &lt;= -3 index (-3 - i) into the foreign
+ *        parents
+ * long[] most and least significant bits of the foreign parent ids
+ * </pre>
  */
 class CachingIndexReader extends FilterIndexReader {
 
@@ -63,6 +87,42 @@ class CachingIndexReader extends FilterIndexReader {
      */
     private static final int MAX_CACHE_INIT_BATCH_SIZE = 400 * 1000;
 
+    /**
+     * The parent relation of the documents is persisted using this filename.
+     */
+    static final String FILE_CACHE_NAME_PARENTS = "cache.parents";
+
+    /**
+     * Identifies a {@link #FILE_CACHE_NAME_PARENTS} file.
+     */
+    private static final int CACHE_FILE_MAGIC = 0x4a524350;
+
+    /**
+     * The current version of the {@link #FILE_CACHE_NAME_PARENTS} format.
+     */
+    private static final int CACHE_FILE_VERSION = 1;
+
+    /**
+     * The length of the {@link #FILE_CACHE_NAME_PARENTS} header in bytes.
+     */
+    private static final int CACHE_FILE_HEADER_LENGTH = 16;
+
+    /**
+     * Value in {@link #inSegmentParents} for an unknown parent.
+     */
+    private static final int PARENT_UNKNOWN = -1;
+
+    /**
+     * Value in {@link #inSegmentParents} for the root node.
+     */
+    private static final int PARENT_ROOT = -2;
+
+    /**
+     * Values in {@link #inSegmentParents} below this value reference an
+     * entry in {@link #foreignParents}.
+     */
+    private static final int PARENT_FOREIGN = -3;
+
     /**
      * The current value of the global creation tick counter.
      */
@@ -75,14 +135,31 @@ class CachingIndexReader extends FilterIndexReader {
     private final BitSet shareableNodes;
 
     /**
-     * Cache of nodes parent relation. If an entry in the array is >= 0,
-     * then that means the node with the document number = array-index has the
-     * node with the value at that position as parent.
+     * Cache of nodes parent relation. If an entry in the buffer is >= 0,
+     * then that means the node with the document number = buffer-index has the
+     * node with the value at that position as parent. Values less than -1
+     * are only present when the buffer is mapped from the persisted cache
+     * file and denote the root node or an entry in {@link #foreignParents}.
+     */
+    private final IntBuffer inSegmentParents;
+
+    /**
+     * Whether {@link #inSegmentParents} is mapped read-only from the
+     * persisted cache file. Updates of the parent relation are then kept in
+     * {@link #foreignParentDocIds}, which takes precedence over the file.
+     */
+    private final boolean readOnlyParents;
+
+    /**
+     * The ids of foreign parents from the persisted cache file, or
+     * <code>null</code> if the cache file is not used.
      */
-    private final int[] inSegmentParents;
+    private final LongBuffer foreignParents;
 
     /**
      * Cache of nodes parent relation that point to a foreign index segment.
+     * If {@link #readOnlyParents} is set, it also holds the parents that
+     * replace those of the persisted cache file.
      */
     private final Map<Integer, DocId> foreignParentDocIds = new ConcurrentHashMap<Integer, DocId>();
 
@@ -102,6 +179,25 @@ class CachingIndexReader extends FilterIndexReader {
      */
     private final DocNumberCache cache;
 
+    /**
+     * Validates entries of the document number {@link #cache}.
+     */
+    private final DocNumberCache.Resolver cacheResolver = new DocNumberCache.Resolver() {
+        public int resolve(long tick, int doc) {
+            // check if valid
+            // the cache may contain entries from a different reader
+            // with the same uuid. that happens when a node is updated
+            // and is reindexed. the node 'travels' from an older index
+            // to a newer one. the cache will still contain a cache
+            // entry from the old until it is overwritten by the
+            // newer index.
+            if (tick == creationTick && !isDeleted(doc)) {
+                return doc;
+            }
+            return -1;
+        }
+    };
+
     /**
      * Maps document number to node id.
      */
@@ -130,11 +226,25 @@ class CachingIndexReader extends FilterIndexReader {
             throws IOException {
         super(delegatee);
         this.cache = cache;
-        this.inSegmentParents = new int[delegatee.maxDoc()];
-        Arrays.fill(this.inSegmentParents, -1);
+        int maxDoc = delegatee.maxDoc();
+        ByteBuffer buffer = openCacheFile(delegatee.directory(), maxDoc);
+        if (buffer != null) {
+            buffer.position(CACHE_FILE_HEADER_LENGTH);
+            buffer.limit(CACHE_FILE_HEADER_LENGTH + maxDoc * 4);
+            this.inSegmentParents = buffer.slice().asIntBuffer();
+            buffer.limit(buffer.capacity());
+            buffer.position(CACHE_FILE_HEADER_LENGTH + maxDoc * 4);
+            this.foreignParents = buffer.slice().asLongBuffer();
+        } else {
+            int[] parents = new int[maxDoc];
+            Arrays.fill(parents, PARENT_UNKNOWN);
+            this.inSegmentParents = IntBuffer.wrap(parents);
+            this.foreignParents = null;
+        }
+        this.readOnlyParents = inSegmentParents.isReadOnly();
         this.shareableNodes = initShareableNodes(delegatee);
         this.cacheInitializer = new CacheInitializer(delegatee);
-        if (initCache) {
+        if (initCache && buffer == null) {
             cacheInitializer.run();
         }
         // limit cache to 1% of maxDoc(), but at least 10.
@@ -168,14 +278,22 @@ class CachingIndexReader extends FilterIndexReader {
      * @throws IOException if an error occurs while reading from the index.
      */
     DocId getParent(int n, BitSet deleted) throws IOException {
-        DocId parent;
+        DocId parent = null;
         boolean existing = false;
-        int parentDocNum = inSegmentParents[n];
-        if (parentDocNum != -1) {
-            parent = DocId.create(parentDocNum);
-        } else {
+        if (readOnlyParents && !foreignParentDocIds.isEmpty()) {
+            // parents resolved since the cache file was mapped
             parent = foreignParentDocIds.get(n);
         }
+        if (parent == null) {
+            int parentDocNum = inSegmentParents.get(n);
+            if (parentDocNum >= 0) {
+                parent = DocId.create(parentDocNum);
+            } else if (parentDocNum == PARENT_UNKNOWN) {
+                parent = foreignParentDocIds.get(n);
+            } else {
+                parent = getPersistedParent(n, parentDocNum);
+            }
+        }
 
         if (parent != null) {
             existing = true;
@@ -224,24 +342,49 @@ class CachingIndexReader extends FilterIndexReader {
             }
 
             // finally put to cache
-            if (plainDocId != -1) {
+            if (plainDocId != -1 && !readOnlyParents) {
                 // PlainDocId
-                inSegmentParents[n] = plainDocId;
+                inSegmentParents.put(n, plainDocId);
             } else {
                 // UUIDDocId
                 foreignParentDocIds.put(n, parent);
-                if (existing) {
+                if (existing && !readOnlyParents) {
                     // there was an existing parent reference in
                     // inSegmentParents, which was invalid and is replaced
                     // with a UUIDDocId (points to a foreign segment).
                     // mark as unknown
-                    inSegmentParents[n] = -1;
+                    inSegmentParents.put(n, PARENT_UNKNOWN);
                 }
             }
         }
         return parent;
     }
 
+    /**
+     * Returns the parent of <code>n</code> as recorded in the persisted cache
+     * file. Foreign parents are added to {@link #foreignParentDocIds}, which
+     * keeps the resolved document number of the <code>DocId</code> across
+     * calls.
+     *
+     * @param n the document number.
+     * @param value the (negative) value of <code>n</code> in
+     *              {@link #inSegmentParents}.
+     * @return the <code>DocId</code> of <code>n</code>'s parent.
+     */
+    private DocId getPersistedParent(int n, int value) {
+        if (value == PARENT_ROOT) {
+            return DocId.NULL;
+        }
+        int index = (PARENT_FOREIGN - value) * 2;
+        DocId parent = DocId.create(new NodeId(
+                foreignParents.get(index), foreignParents.get(index + 1)));
+        foreignParentDocIds.put(n, parent);
+        if (!readOnlyParents) {
+            inSegmentParents.put(n, PARENT_UNKNOWN);
+        }
+        return parent;
+    }
+
     /**
      * Returns the tick value when this reader was created.
      *
@@ -309,18 +452,9 @@ class CachingIndexReader extends FilterIndexReader {
         if (term != null && term.field() == FieldNames.UUID) {
             // check cache if we have one
             if (cache != null) {
-                DocNumberCache.Entry e = cache.get(term.text());
-                if (e != null) {
-                    // check if valid
-                    // the cache may contain entries from a different reader
-                    // with the same uuid. that happens when a node is updated
-                    // and is reindexed. the node 'travels' from an older index
-                    // to a newer one. the cache will still contain a cache
-                    // entry from the old until it is overwritten by the
-                    // newer index.
-                    if (e.creationTick == creationTick && !isDeleted(e.doc)) {
-                        return new SingleTermDocs(e.doc);
-                    }
+                int doc = cache.get(term.text(), cacheResolver);
+                if (doc != -1) {
+                    return new SingleTermDocs(doc);
                 }
 
                 // not in cache or invalid
@@ -356,6 +490,71 @@ class CachingIndexReader extends FilterIndexReader {
 
     //----------------------< internal >----------------------------------------
 
+    /**
+     * Opens the {@link #FILE_CACHE_NAME_PARENTS} file of the given directory.
+     * The file is memory mapped read-only if the directory is backed by the
+     * file system, so that the parents are not copied to the heap. Otherwise
+     * the file is read into a heap buffer.
+     *
+     * @param directory the index directory.
+     * @param maxDoc the number of documents in the index.
+     * @return the contents of the file, or <code>null</code> if the file
+     *         does not exist or is not valid for the index.
+     */
+    private static ByteBuffer openCacheFile(Directory directory, int maxDoc) {
+        try {
+            if (!directory.fileExists(FILE_CACHE_NAME_PARENTS)) {
+                return null;
+            }
+            long time = System.currentTimeMillis();
+            ByteBuffer buffer;
+            File dir = FSDirectoryManager.getFileSystemDirectory(directory);
+            if (dir != null) {
+                RandomAccessFile raf = new RandomAccessFile(
+                        new File(dir, FILE_CACHE_NAME_PARENTS), "r");
+                try {
+                    FileChannel channel = raf.getChannel();
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                            0, channel.size());
+                } finally {
+                    raf.close();
+                }
+            } else {
+                IndexInput in = directory.openInput(FILE_CACHE_NAME_PARENTS);
+                try {
+                    byte[] data = new byte[(int) in.length()];
+                    in.readBytes(data, 0, data.length);
+                    buffer = ByteBuffer.wrap(data);
+                } finally {
+                    in.close();
+                }
+            }
+            if (buffer.capacity() >= CACHE_FILE_HEADER_LENGTH
+                    && buffer.getInt(0) == CACHE_FILE_MAGIC
+                    && buffer.getInt(4) == CACHE_FILE_VERSION
+                    && buffer.getInt(8) == maxDoc
+                    && buffer.capacity() == CACHE_FILE_HEADER_LENGTH
+                            + maxDoc * 4L + buffer.getInt(12) * 16L) {
+                log.debug("persisted cache opened for {} DocIds in {} ms",
+                        maxDoc, System.currentTimeMillis() - time);
+                return buffer;
+            }
+            log.debug("persisted cache is outdated, will remove {}",
+                    FILE_CACHE_NAME_PARENTS);
+        } catch (IOException e) {
+            log.warn("Saved state of CachingIndexReader is corrupt, will try "
+                    + "to remove offending file " + FILE_CACHE_NAME_PARENTS, e);
+        }
+        // remove the file, it is recreated after the cache has been
+        // initialized from the index
+        try {
+            directory.deleteFile(FILE_CACHE_NAME_PARENTS);
+        } catch (IOException e) {
+            log.warn("Unable to remove " + FILE_CACHE_NAME_PARENTS, e);
+        }
+        return null;
+    }
+
     /**
      * Returns the next creation tick value.
      *
@@ -374,7 +573,9 @@ class CachingIndexReader extends FilterIndexReader {
     private class CacheInitializer implements Runnable {
 
         /**
-         * The {@link #inSegmentParents} is persisted using this filename.
+         * The name of the file used by previous versions to persist
+         * {@link #inSegmentParents}. It is removed once the
+         * {@link #FILE_CACHE_NAME_PARENTS} file has been written.
          */
         private static final String FILE_CACHE_NAME_ARRAY = "cache.inSegmentParents";
 
@@ -393,6 +594,12 @@ class CachingIndexReader extends FilterIndexReader {
          */
         private volatile boolean stopRequested = false;
 
+        /**
+         * The ids of the foreign parents found while the caches are
+         * initialized, keyed by document number.
+         */
+        private final Map<Integer, NodeId> foreignParentIds = new HashMap<Integer, NodeId>();
+
         /**
          * Creates a new initializer with the given <code>reader</code>.
          * @param reader
@@ -414,13 +621,10 @@ class CachingIndexReader extends FilterIndexReader {
                     // immediately return when stop is requested
                     return;
                 }
-                boolean initCacheFromFile = loadCacheFromFile();
-                if (!initCacheFromFile) {
-                    // file-based cache is not available, load from the
-                    // repository
-                    log.debug("persisted cache is not available, will load directly from the repository.");
-                    initializeParents(reader);
-                }
+                // file-based cache is not available, load from the
+                // repository
+                log.debug("persisted cache is not available, will load directly from the repository.");
+                initializeParents(reader);
             } catch (Exception e) {
                 // only log warn message during regular operation
                 if (!stopRequested) {
@@ -549,9 +753,10 @@ class CachingIndexReader extends FilterIndexReader {
                         }
                     }
                     if (parentDocId != -1) {
-                        inSegmentParents[info.docId] = parentDocId;
+                        inSegmentParents.put(info.docId, parentDocId);
                     } else if (info.parent != null) {
                         foreignParents++;
+                        foreignParentIds.put(info.docId, info.parent);
                         foreignParentDocIds.put(info.docId, DocId.create(info.parent));
                     } else if (shareableNodes.get(info.docId)) {
                         Document doc = reader.document(info.docId, FieldSelectors.UUID_AND_PARENT);
@@ -567,12 +772,12 @@ class CachingIndexReader extends FilterIndexReader {
                 NumberFormat nf = NumberFormat.getPercentInstance();
                 nf.setMaximumFractionDigits(1);
                 time = System.currentTimeMillis() - time;
-                if (inSegmentParents.length > 0) {
-                    foreignParents /= inSegmentParents.length;
+                if (inSegmentParents.capacity() > 0) {
+                    foreignParents /= inSegmentParents.capacity();
                 }
                 log.debug("initialized {} DocIds in {} ms, {} foreign parents",
                         new Object[]{
-                            inSegmentParents.length,
+                            inSegmentParents.capacity(),
                             time,
                             nf.format(foreignParents)
                         });
@@ -624,68 +829,64 @@ class CachingIndexReader extends FilterIndexReader {
         }
 
         /**
-         * Persists the cache info {@link #inSegmentParents} to a file:
-         * {@link #FILE_CACHE_NAME_ARRAY}, for faster init times on startup.
-         * 
+         * Persists the parent relation of all documents to the file
+         * {@link #FILE_CACHE_NAME_PARENTS}, for faster init times on startup.
+         * Parents of shareable nodes are not persisted.
+         *
          * see https://issues.apache.org/jira/browse/JCR-3107
          */
         public void saveCacheToFile() throws IOException {
+            Directory directory = reader.directory();
+            int maxDoc = inSegmentParents.capacity();
+            int[] parents = new int[maxDoc];
+            Map<NodeId, Integer> foreignIndexes = new HashMap<NodeId, Integer>();
+            NodeId[] foreignIds = new NodeId[foreignParentIds.size()];
+            for (int i = 0; i < maxDoc; i++) {
+                int parent = inSegmentParents.get(i);
+                if (parent == PARENT_UNKNOWN) {
+                    NodeId id = foreignParentIds.get(i);
+                    if (id != null) {
+                        Integer index = foreignIndexes.get(id);
+                        if (index == null) {
+                            index = foreignIndexes.size();
+                            foreignIndexes.put(id, index);
+                            foreignIds[index] = id;
+                        }
+                        parent = PARENT_FOREIGN - index;
+                    } else if (foreignParentDocIds.get(i) == DocId.NULL) {
+                        parent = PARENT_ROOT;
+                    }
+                }
+                parents[i] = parent;
+            }
+            foreignParentIds.clear();
+
             IndexOutput io = null;
             try {
-                io = reader.directory().createOutput(FILE_CACHE_NAME_ARRAY);
-                for (int parent : inSegmentParents) {
+                io = directory.createOutput(FILE_CACHE_NAME_PARENTS);
+                io.writeInt(CACHE_FILE_MAGIC);
+                io.writeInt(CACHE_FILE_VERSION);
+                io.writeInt(maxDoc);
+                io.writeInt(foreignIndexes.size());
+                for (int parent : parents) {
                     io.writeInt(parent);
                 }
+                for (int i = 0; i < foreignIndexes.size(); i++) {
+                    io.writeLong(foreignIds[i].getMostSignificantBits());
+                    io.writeLong(foreignIds[i].getLeastSignificantBits());
+                }
             } catch (Exception e) {
                 log.error(
-                        "Error saving " + FILE_CACHE_NAME_ARRAY + ": "
+                        "Error saving " + FILE_CACHE_NAME_PARENTS + ": "
                                 + e.getMessage(), e);
             } finally {
                 if (io != null) {
                     io.close();
                 }
             }
-        }
-
-        /**
-         * Loads the cache info {@link #inSegmentParents} from the file
-         * {@link #FILE_CACHE_NAME_ARRAY}.
-         * 
-         * see https://issues.apache.org/jira/browse/JCR-3107
-         * 
-         * @return true if the cache has been initialized of false if the cache
-         *         file does not exist yet, or an error happened
-         */
-        private boolean loadCacheFromFile() throws IOException {
-            IndexInput ii = null;
-            try {
-                long time = System.currentTimeMillis();
-                ii = reader.directory().openInput(FILE_CACHE_NAME_ARRAY);
-                for (int i = 0; i < inSegmentParents.length; i++) {
-                    inSegmentParents[i] = ii.readInt();
-                }
-                log.debug(
-                        "persisted cache initialized {} DocIds in {} ms",
-                        new Object[] { inSegmentParents.length,
-                                System.currentTimeMillis() - time });
-                return true;
-            } catch (FileNotFoundException ignore) {
-                // expected in the case where the file-based cache has not been
-                // initialized yet
-            } catch (IOException ignore) {
-                log.warn(
-                        "Saved state of CachingIndexReader is corrupt, will try to remove offending file "
-                                + FILE_CACHE_NAME_ARRAY, ignore);
-                // In the case where is a read error, the cache file is removed
-                // so it can be recreated after
-                // the cache loads the data from the repository directly
-                reader.directory().deleteFile(FILE_CACHE_NAME_ARRAY);
-            } finally {
-                if (ii != null) {
-                    ii.close();
-                }
+            if (directory.fileExists(FILE_CACHE_NAME_ARRAY)) {
+                directory.deleteFile(FILE_CACHE_NAME_ARRAY);
             }
-            return false;
         }
     }
 
@@ -23,8 +23,6 @@ import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.index.IndexReader;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.HashMap;
 
 /**
  * Extends a <code>MultiReader</code> with support for cached <code>TermDocs</code>
@@ -40,10 +38,26 @@ public final class CachingMultiIndexReader
     private ReadOnlyIndexReader[] subReaders;
 
     /**
-     * Map of {@link OffsetReader}s, identified by creation tick.
+     * The {@link OffsetReader}s of the sub readers. Looked up by creation
+     * tick with a linear search, the number of sub readers is small.
      */
-    private final Map<Long, OffsetReader> readersByCreationTick =
-        new HashMap<Long, OffsetReader>();
+    private OffsetReader[] offsetReaders;
+
+    /**
+     * Validates entries of the document number {@link #cache}.
+     */
+    private final DocNumberCache.Resolver cacheResolver = new DocNumberCache.Resolver() {
+        public int resolve(long creationTick, int doc) {
+            // check if valid:
+            // 1) reader must be in the set of readers
+            // 2) doc must not be deleted
+            OffsetReader offsetReader = getOffsetReader(creationTick);
+            if (offsetReader != null && !offsetReader.reader.isDeleted(doc)) {
+                return doc + offsetReader.offset;
+            }
+            return -1;
+        }
+    };
 
     /**
      * Document number cache if available. May be <code>null</code>.
@@ -67,9 +81,9 @@ public final class CachingMultiIndexReader
         super(subReaders);
         this.cache = cache;
         this.subReaders = subReaders;
+        this.offsetReaders = new OffsetReader[subReaders.length];
         for (int i = 0; i < subReaders.length; i++) {
-            OffsetReader offsetReader = new OffsetReader(subReaders[i], starts[i]);
-            readersByCreationTick.put(subReaders[i].getCreationTick(), offsetReader);
+            offsetReaders[i] = new OffsetReader(subReaders[i], starts[i]);
         }
     }
 
@@ -102,16 +116,9 @@ public final class CachingMultiIndexReader
     public TermDocs termDocs(Term term) throws IOException {
         if (term != null && term.field() == FieldNames.UUID) {
             // check cache
-            DocNumberCache.Entry e = cache.get(term.text());
-            if (e != null) {
-                // check if valid:
-                // 1) reader must be in the set of readers
-                // 2) doc must not be deleted
-                OffsetReader offsetReader =
-                    readersByCreationTick.get(e.creationTick);
-                if (offsetReader != null && !offsetReader.reader.isDeleted(e.doc)) {
-                    return new SingleTermDocs(e.doc + offsetReader.offset);
-                }
+            int doc = cache.get(term.text(), cacheResolver);
+            if (doc != -1) {
+                return new SingleTermDocs(doc);
             }
 
             // if we get here, entry is either invalid or did not exist
@@ -156,7 +163,7 @@ public final class CachingMultiIndexReader
             subReader.release();
         }
         subReaders = null;
-        readersByCreationTick.clear();
+        offsetReaders = new OffsetReader[0];
     }
 
     //-------------------------< MultiIndexReader >-----------------------------
@@ -196,13 +203,30 @@ public final class CachingMultiIndexReader
      * {@inheritDoc}
      */
     public int getDocumentNumber(ForeignSegmentDocId docId) {
-        OffsetReader r = readersByCreationTick.get(docId.getCreationTick());
+        OffsetReader r = getOffsetReader(docId.getCreationTick());
         if (r != null && !r.reader.isDeleted(docId.getDocNumber())) {
             return r.offset + docId.getDocNumber();
         }
         return -1;
     }
 
+    /**
+     * Returns the {@link OffsetReader} of the sub reader with the given
+     * creation tick.
+     *
+     * @param creationTick the creation tick of a sub reader.
+     * @return the offset reader or <code>null</code> if this reader does not
+     *         contain a sub reader with the given creation tick.
+     */
+    private OffsetReader getOffsetReader(long creationTick) {
+        for (OffsetReader reader : offsetReaders) {
+            if (reader.creationTick == creationTick) {
+                return reader;
+            }
+        }
+        return null;
+    }
+
     //-----------------------< OffsetTermDocs >---------------------------------
 
     /**
@@ -220,6 +244,11 @@ public final class CachingMultiIndexReader
          */
         private final int offset;
 
+        /**
+         * The creation tick of the index reader.
+         */
+        private final long creationTick;
+
         /**
          * Creates a new <code>OffsetReader</code>.
          *
@@ -229,6 +258,7 @@ public final class CachingMultiIndexReader
         OffsetReader(ReadOnlyIndexReader reader, int offset) {
             this.reader = reader;
             this.offset = offset;
+            this.creationTick = reader.getCreationTick();
         }
     }
 }
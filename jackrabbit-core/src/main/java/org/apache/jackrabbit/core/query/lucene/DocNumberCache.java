@@ -16,12 +16,17 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
-import org.apache.commons.collections.map.LRUMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.core.id.NodeId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Implements a Document number cache with a fixed size and a LRU strategy.
+ * Implements a Document number cache with a fixed size and a CLOCK
+ * replacement strategy. The cache is keyed by the most and least
+ * significant bits of the node ids and stores its entries in primitive
+ * arrays with open addressing, so that lookups do not create any objects.
  */
 final class DocNumberCache {
 
@@ -41,29 +46,40 @@ final class DocNumberCache {
     private static final int CACHE_SEGMENTS = 0x10;
 
     /**
-     * Mask to calculate segment number.
+     * Number of accesses to a segment after which its statistics are added
+     * to the cache counters.
      */
-    private static final int CACHE_SEGMENTS_MASK = CACHE_SEGMENTS - 1;
+    private static final int COUNTER_FLUSH_INTERVAL = 0x400;
 
     /**
-     * LRU Maps where key=uuid value=reader;docNumber
+     * The cache segments, selected by the hash code of the node id.
      */
-    private final LRUMap[] docNumbers = new LRUMap[CACHE_SEGMENTS];
+    private final Segment[] segments = new Segment[CACHE_SEGMENTS];
 
     /**
-     * Timestamp of the last cache statistics log.
+     * The maximum number of entries in a segment.
+     */
+    private final int segmentSize;
+
+    /**
+     * Counter of cache hits.
      */
-    private long lastLog;
+    private final AtomicLong hitCounter;
 
     /**
-     * Cache misses.
+     * Counter of cache misses.
+     */
+    private final AtomicLong missCounter;
+
+    /**
+     * Timestamp of the last cache statistics log.
      */
-    private long misses;
+    private volatile long lastLog;
 
     /**
-     * Cache accesses;
+     * Hits and misses at the time of the last cache statistics log.
      */
-    private long accesses;
+    private long lastLogHits, lastLogMisses;
 
     /**
      * Creates a new <code>DocNumberCache</code> with a limiting
@@ -72,14 +88,30 @@ final class DocNumberCache {
      * @param size the cache limit.
      */
     DocNumberCache(int size) {
+        this(size, new AtomicLong(), new AtomicLong());
+    }
+
+    /**
+     * Creates a new <code>DocNumberCache</code> with a limiting
+     * <code>size</code>.
+     *
+     * @param size the cache limit.
+     * @param hitCounter counter of cache hits.
+     * @param missCounter counter of cache misses.
+     */
+    DocNumberCache(int size, AtomicLong hitCounter, AtomicLong missCounter) {
         size = size / CACHE_SEGMENTS;
         if (size < 0x40) {
             // minimum size is 0x40 * 0x10 = 1024
             size = 0x40;
         }
-        for (int i = 0; i < docNumbers.length; i++) {
-            docNumbers[i] = new LRUMap(size);
+        this.segmentSize = size;
+        this.hitCounter = hitCounter;
+        this.missCounter = missCounter;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(size);
         }
+        this.lastLog = System.currentTimeMillis();
     }
 
     /**
@@ -92,100 +124,378 @@ final class DocNumberCache {
      * @param n the document number.
      */
     void put(String uuid, CachingIndexReader reader, int n) {
-        LRUMap cacheSegment = docNumbers[getSegmentIndex(uuid.charAt(0))];
-        synchronized (cacheSegment) {
-            Entry e = (Entry) cacheSegment.get(uuid);
-            if (e != null) {
-                // existing entry
-                // ignore if reader is older than the one in entry
-                if (reader.getCreationTick() <= e.creationTick) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Ignoring put(). New entry is not from a newer reader. "
-                                + "existing: " + e.creationTick
-                                + ", new: " + reader.getCreationTick());
-                    }
-                    e = null;
-                }
+        put(uuid, reader.getCreationTick(), n);
+    }
+
+    /**
+     * Puts a document number into the cache using a uuid as key. An entry is
+     * only overwritten if <code>creationTick</code> is greater than the
+     * creation tick of the existing entry.
+     *
+     * @param uuid the key.
+     * @param creationTick the creation tick of the index reader.
+     * @param n the document number.
+     */
+    void put(String uuid, long creationTick, int n) {
+        if (!isValid(uuid)) {
+            return;
+        }
+        long msb = parseHex(uuid, 0, 18);
+        long lsb = parseHex(uuid, 19, NodeId.UUID_FORMATTED_LENGTH);
+        int hash = hash(msb, lsb);
+        segments[hash >>> 28].put(msb, lsb, hash, creationTick, n);
+    }
+
+    /**
+     * Looks up the cache entry for <code>uuid</code> and passes it to
+     * <code>resolver</code>. The resolver is called without holding any
+     * lock of this cache.
+     *
+     * @param uuid the key.
+     * @param resolver validates the cache entry.
+     * @return the document number returned by the <code>resolver</code>, or
+     *         -1 if no entry exists for <code>uuid</code>.
+     */
+    int get(String uuid, Resolver resolver) {
+        if (!isValid(uuid)) {
+            return -1;
+        }
+        long msb = parseHex(uuid, 0, 18);
+        long lsb = parseHex(uuid, 19, NodeId.UUID_FORMATTED_LENGTH);
+        int hash = hash(msb, lsb);
+        Segment segment = segments[hash >>> 28];
+        long creationTick;
+        int doc;
+        synchronized (segment) {
+            int slot = segment.find(msb, lsb, hash);
+            if (slot < 0) {
+                segment.misses++;
             } else {
-                // entry did not exist
-                e = new Entry(reader.getCreationTick(), n);
+                segment.hits++;
+                segment.referenced[slot] = true;
             }
-
-            if (e != null) {
-                cacheSegment.put(uuid, e);
+            if (++segment.accesses >= COUNTER_FLUSH_INTERVAL) {
+                hitCounter.addAndGet(segment.hits);
+                missCounter.addAndGet(segment.misses);
+                segment.accesses = 0;
+                segment.hits = 0;
+                segment.misses = 0;
+                logStatistics();
             }
+            if (slot < 0) {
+                return -1;
+            }
+            creationTick = segment.ticks[slot];
+            doc = segment.docs[slot];
         }
+        return resolver.resolve(creationTick, doc);
     }
 
     /**
-     * Returns the cache entry for <code>uuid</code>, or <code>null</code> if
-     * no entry exists for <code>uuid</code>.
+     * Returns the number of cache hits. Accesses are added to this counter
+     * in batches.
      *
-     * @param uuid the key.
-     * @return cache entry or <code>null</code>.
-     */
-    Entry get(String uuid) {
-        LRUMap cacheSegment = docNumbers[getSegmentIndex(uuid.charAt(0))];
-        Entry entry;
-        synchronized (cacheSegment) {
-            entry = (Entry) cacheSegment.get(uuid);
-        }
-        if (log.isInfoEnabled()) {
-            accesses++;
-            if (entry == null) {
-                misses++;
+     * @return the number of cache hits.
+     */
+    long getHitCount() {
+        return hitCounter.get();
+    }
+
+    /**
+     * Returns the number of cache misses. Accesses are added to this counter
+     * in batches.
+     *
+     * @return the number of cache misses.
+     */
+    long getMissCount() {
+        return missCounter.get();
+    }
+
+    /**
+     * Returns the number of entries in this cache.
+     *
+     * @return the number of entries.
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
             }
-            // log at most after 1000 accesses and every 10 seconds
-            if (accesses > 1000 && System.currentTimeMillis() - lastLog > LOG_INTERVAL) {
-                long ratio = 100;
-                if (misses != 0) {
-                    ratio -= misses * 100L / accesses;
-                }
-                StringBuffer statistics = new StringBuffer();
-                int inUse = 0;
-                for (LRUMap docNumber : docNumbers) {
-                    inUse += docNumber.size();
+        }
+        return size;
+    }
+
+    /**
+     * Logs the cache statistics at most every {@link #LOG_INTERVAL} ms.
+     */
+    private void logStatistics() {
+        long now = System.currentTimeMillis();
+        if (!log.isInfoEnabled() || now - lastLog <= LOG_INTERVAL) {
+            return;
+        }
+        long hits, misses;
+        synchronized (this) {
+            if (now - lastLog <= LOG_INTERVAL) {
+                return;
+            }
+            long totalHits = hitCounter.get();
+            long totalMisses = missCounter.get();
+            hits = totalHits - lastLogHits;
+            misses = totalMisses - lastLogMisses;
+            lastLogHits = totalHits;
+            lastLogMisses = totalMisses;
+            lastLog = now;
+        }
+        long accesses = hits + misses;
+        long ratio = 100;
+        if (misses != 0) {
+            ratio -= misses * 100L / accesses;
+        }
+        StringBuilder statistics = new StringBuilder();
+        int inUse = 0;
+        for (Segment segment : segments) {
+            // unsynchronized, the value is only informational
+            inUse += segment.size;
+        }
+        statistics.append("size=").append(inUse);
+        statistics.append("/").append(segmentSize * CACHE_SEGMENTS);
+        statistics.append(", #accesses=").append(accesses);
+        statistics.append(", #hits=").append(hits);
+        statistics.append(", #misses=").append(misses);
+        statistics.append(", cacheRatio=").append(ratio).append("%");
+        log.info(statistics.toString());
+    }
+
+    /**
+     * Returns <code>true</code> if <code>uuid</code> is a formatted UUID,
+     * e.g. f81d4fae-7dec-11d0-a765-00a0c91e6bf6.
+     */
+    private static boolean isValid(String uuid) {
+        if (uuid.length() != NodeId.UUID_FORMATTED_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < NodeId.UUID_FORMATTED_LENGTH; i++) {
+            char c = uuid.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
                 }
-                statistics.append("size=").append(inUse);
-                statistics.append("/").append(docNumbers[0].maxSize() * CACHE_SEGMENTS);
-                statistics.append(", #accesses=").append(accesses);
-                statistics.append(", #hits=").append((accesses - misses));
-                statistics.append(", #misses=").append(misses);
-                statistics.append(", cacheRatio=").append(ratio).append("%");
-                log.info(statistics.toString());
-                accesses = 0;
-                misses = 0;
-                lastLog = System.currentTimeMillis();
+            } else if (hexDigit(c) < 0) {
+                return false;
             }
         }
-        return entry;
+        return true;
     }
 
     /**
-     * Returns the segment index for character c.
+     * Parses the hexadecimal digits of a valid formatted UUID between
+     * <code>start</code> and <code>end</code>, skipping dashes.
      */
-    private static int getSegmentIndex(char c) {
-        if (c > '9') {
-            c += 9;
+    private static long parseHex(String uuid, int start, int end) {
+        long x = 0;
+        for (int i = start; i < end; i++) {
+            char c = uuid.charAt(i);
+            if (c != '-') {
+                x = (x << 4) | hexDigit(c);
+            }
         }
-        return c & CACHE_SEGMENTS_MASK;
+        return x;
     }
 
-    public static final class Entry {
+    /**
+     * Returns the value of an ASCII hexadecimal digit, or -1 if
+     * <code>c</code> is not a hexadecimal digit.
+     */
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 0xa;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 0xa;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the hash code of a node id. The upper four bits select the
+     * segment, the remaining bits the slot within the segment.
+     */
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Validates a cache entry and resolves the document number.
+     */
+    interface Resolver {
 
         /**
-         * The creation tick of the IndexReader.
+         * Returns the document number for a cache entry, or -1 if the entry
+         * is not valid anymore.
+         *
+         * @param creationTick the creation tick of the index reader.
+         * @param doc the document number within the index reader.
+         * @return the resolved document number or -1.
          */
-        final long creationTick;
+        int resolve(long creationTick, int doc);
+    }
+
+    /**
+     * A segment of the cache. It is an open addressing hash table with
+     * linear probing. All fields are guarded by the segment itself.
+     */
+    private static final class Segment {
+
+        private final long[] msbs;
+
+        private final long[] lsbs;
+
+        private final long[] ticks;
+
+        private final int[] docs;
+
+        private final boolean[] used;
+
+        /**
+         * The CLOCK reference bits.
+         */
+        private final boolean[] referenced;
+
+        private final int mask;
+
+        private final int maxSize;
+
+        private int size;
 
         /**
-         * The document number.
+         * The CLOCK hand.
          */
-        final int doc;
+        private int hand;
+
+        private int accesses;
+
+        private int hits;
+
+        private int misses;
 
-        Entry(long creationTick, int doc) {
-            this.creationTick = creationTick;
-            this.doc = doc;
+        Segment(int maxSize) {
+            int capacity = 1;
+            while (capacity < maxSize * 2) {
+                capacity <<= 1;
+            }
+            this.msbs = new long[capacity];
+            this.lsbs = new long[capacity];
+            this.ticks = new long[capacity];
+            this.docs = new int[capacity];
+            this.used = new boolean[capacity];
+            this.referenced = new boolean[capacity];
+            this.mask = capacity - 1;
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Returns the slot of the given node id, or -1 if there is none.
+         */
+        int find(long msb, long lsb, int hash) {
+            int slot = hash & mask;
+            while (used[slot]) {
+                if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        synchronized void put(long msb, long lsb, int hash,
+                              long creationTick, int doc) {
+            int slot = find(msb, lsb, hash);
+            if (slot >= 0) {
+                // existing entry
+                // ignore if reader is older than the one in entry
+                if (creationTick <= ticks[slot]) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Ignoring put(). New entry is not from a newer reader. "
+                                + "existing: " + ticks[slot]
+                                + ", new: " + creationTick);
+                    }
+                } else {
+                    ticks[slot] = creationTick;
+                    docs[slot] = doc;
+                }
+                return;
+            }
+            if (size >= maxSize) {
+                evict();
+            }
+            slot = hash & mask;
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            msbs[slot] = msb;
+            lsbs[slot] = lsb;
+            ticks[slot] = creationTick;
+            docs[slot] = doc;
+            used[slot] = true;
+            referenced[slot] = false;
+            size++;
+        }
+
+        /**
+         * Removes the first entry at or after the CLOCK hand that has not
+         * been referenced since the hand passed it the last time.
+         */
+        private void evict() {
+            for (;;) {
+                if (used[hand]) {
+                    if (referenced[hand]) {
+                        referenced[hand] = false;
+                    } else {
+                        remove(hand);
+                        return;
+                    }
+                }
+                hand = (hand + 1) & mask;
+            }
+        }
+
+        /**
+         * Removes the entry in the given slot and moves following entries
+         * of the probe sequence into the gap.
+         */
+        private void remove(int slot) {
+            int gap = slot;
+            int next = slot;
+            for (;;) {
+                next = (next + 1) & mask;
+                if (!used[next]) {
+                    break;
+                }
+                int home = hash(msbs[next], lsbs[next]) & mask;
+                // keep the entry if its home slot is cyclically
+                // within (gap, next]
+                boolean keep = gap <= next
+                        ? gap < home && home <= next
+                        : gap < home || home <= next;
+                if (!keep) {
+                    msbs[gap] = msbs[next];
+                    lsbs[gap] = lsbs[next];
+                    ticks[gap] = ticks[next];
+                    docs[gap] = docs[next];
+                    referenced[gap] = referenced[next];
+                    gap = next;
+                }
+            }
+            used[gap] = false;
+            referenced[gap] = false;
+            size--;
         }
     }
 }
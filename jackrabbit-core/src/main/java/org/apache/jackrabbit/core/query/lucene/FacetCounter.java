@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.session.SessionContext;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.util.ISO8601;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TermDocs;
+
+/**
+ * Counts the values of a property over a set of nodes. The nodes are
+ * identified by their document number, or looked up in the index by their
+ * id, and the values of each node are read from the
+ * {@link SharedFacetCache} of the index segment that contains the node.
+ * The counter must be closed when it is not used anymore.
+ */
+public class FacetCounter {
+
+    /**
+     * Date resolution that counts every date value on its own.
+     */
+    public static final int NO_DATE_RESOLUTION = -1;
+
+    /**
+     * The calendar fields a date value can be truncated to, from coarse to
+     * fine.
+     */
+    private static final int[] CALENDAR_FIELDS = {
+        Calendar.YEAR, Calendar.MONTH, Calendar.DAY_OF_MONTH,
+        Calendar.HOUR_OF_DAY, Calendar.MINUTE, Calendar.SECOND,
+        Calendar.MILLISECOND
+    };
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /**
+     * The session context, used to resolve names and paths in the values.
+     */
+    private final SessionContext sessionContext;
+
+    /**
+     * Resolves names and paths as stored in the index.
+     */
+    private final NamePathResolver indexResolver;
+
+    /**
+     * Index into {@link #CALENDAR_FIELDS} of the date resolution, or
+     * <code>-1</code> if dates are not truncated.
+     */
+    private final int dateResolution;
+
+    /**
+     * The index reader used to look up nodes.
+     */
+    private final IndexReader reader;
+
+    /**
+     * Whether {@link #reader} is released when this counter is closed.
+     */
+    private final boolean release;
+
+    /**
+     * The index segments of {@link #reader}.
+     */
+    private final List<IndexReader> readers = new ArrayList<IndexReader>();
+
+    /**
+     * The document number starts for the {@link #readers}.
+     */
+    private final int[] starts;
+
+    /**
+     * The values of the property per segment.
+     */
+    private final SharedFacetCache.ValueOrdinals[] ordinals;
+
+    /**
+     * The counts per segment, indexed by value ordinal.
+     */
+    private final int[][] counts;
+
+    /**
+     * Creates a new counter for the values of a property.
+     *
+     * @param index          the search index.
+     * @param sessionContext the session context of the query.
+     * @param propertyName   the JCR name of the property to count.
+     * @param dateResolution the <code>Calendar</code> field date values are
+     *                       truncated to, or {@link #NO_DATE_RESOLUTION}.
+     * @throws RepositoryException if the property name is invalid or the
+     *                             date resolution is not supported.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public FacetCounter(SearchIndex index, SessionContext sessionContext,
+                        String propertyName, int dateResolution)
+            throws RepositoryException, IOException {
+        this(index, null, sessionContext, propertyName, dateResolution);
+    }
+
+    /**
+     * Creates a new counter for the values of a property of the documents
+     * of the given index reader, e.g. the reader the counted hits were
+     * found with. A given reader is not released when the counter is
+     * closed.
+     *
+     * @param index          the search index.
+     * @param reader         the index reader, or <code>null</code> to use
+     *                       a reader of the search index.
+     * @param sessionContext the session context of the query.
+     * @param propertyName   the JCR name of the property to count.
+     * @param dateResolution the <code>Calendar</code> field date values are
+     *                       truncated to, or {@link #NO_DATE_RESOLUTION}.
+     * @throws RepositoryException if the property name is invalid or the
+     *                             date resolution is not supported.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    FacetCounter(SearchIndex index, IndexReader reader,
+                 SessionContext sessionContext, String propertyName,
+                 int dateResolution)
+            throws RepositoryException, IOException {
+        this.sessionContext = sessionContext;
+        this.dateResolution = getDateResolution(dateResolution);
+        NamespaceMappings nsMappings = index.getNamespaceMappings();
+        this.indexResolver = NamePathResolverImpl.create(nsMappings);
+        String prefix = FieldNames.createNamedValue(nsMappings.translateName(
+                sessionContext.getQName(propertyName)), "");
+
+        this.release = reader == null;
+        this.reader = release ? index.getIndexReader() : reader;
+        try {
+            getIndexReaders(readers, this.reader);
+            starts = new int[readers.size() + 1];
+            ordinals = new SharedFacetCache.ValueOrdinals[readers.size()];
+            counts = new int[readers.size()][];
+            int maxDoc = 0;
+            for (int i = 0; i < readers.size(); i++) {
+                IndexReader r = readers.get(i);
+                starts[i] = maxDoc;
+                maxDoc += r.maxDoc();
+                ordinals[i] = SharedFacetCache.INSTANCE.getValueOrdinals(
+                        r, prefix);
+                counts[i] = new int[ordinals[i].size()];
+            }
+            starts[readers.size()] = maxDoc;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Counts the values of a node. A node that is not in the index is
+     * ignored.
+     *
+     * @param id the id of the node.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public void count(NodeId id) throws IOException {
+        TermDocs docs = reader.termDocs(
+                TermFactory.createUUIDTerm(id.toString()));
+        try {
+            if (docs.next()) {
+                count(docs.doc());
+            }
+        } finally {
+            docs.close();
+        }
+    }
+
+    /**
+     * Counts the values of a document of the index reader of this counter.
+     *
+     * @param doc the document number.
+     */
+    public void count(int doc) {
+        int i = readerIndex(doc);
+        ordinals[i].count(doc - starts[i], counts[i]);
+    }
+
+    /**
+     * Returns the counted values, ordered by descending count. Values with
+     * the same count are ordered by value. Names and paths are returned in
+     * the syntax of the session, dates in ISO 8601 format.
+     *
+     * @return the count of each value.
+     * @throws RepositoryException if a value can not be converted.
+     */
+    public Map<String, Long> getFacet() throws RepositoryException {
+        Map<String, Long> facet = new HashMap<String, Long>();
+        for (int i = 0; i < ordinals.length; i++) {
+            for (int ord = 0; ord < counts[i].length; ord++) {
+                if (counts[i][ord] > 0) {
+                    String value = getValue(
+                            ordinals[i].getValue(ord), ordinals[i].getType(ord));
+                    Long count = facet.get(value);
+                    facet.put(value, (count == null ? 0 : count) + counts[i][ord]);
+                }
+            }
+        }
+
+        List<Map.Entry<String, Long>> entries =
+            new ArrayList<Map.Entry<String, Long>>(facet.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            public int compare(Map.Entry<String, Long> a,
+                               Map.Entry<String, Long> b) {
+                int c = b.getValue().compareTo(a.getValue());
+                if (c == 0) {
+                    c = a.getKey().compareTo(b.getKey());
+                }
+                return c;
+            }
+        });
+        Map<String, Long> sorted = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> entry : entries) {
+            sorted.put(entry.getKey(), entry.getValue());
+        }
+        return sorted;
+    }
+
+    /**
+     * Releases the index reader of this counter, unless it was passed to
+     * the counter.
+     *
+     * @throws IOException if an error occurs while releasing the reader.
+     */
+    public void close() throws IOException {
+        if (release) {
+            Util.closeOrRelease(reader);
+        }
+    }
+
+    //--------------------------------< internal >------------------------------
+
+    /**
+     * Converts a value as stored in the index into its facet key.
+     */
+    private String getValue(String value, int type)
+            throws RepositoryException {
+        switch (type) {
+            case PropertyType.DATE:
+                Calendar cal = Calendar.getInstance(UTC);
+                cal.setTimeInMillis(DateField.stringToTime(value));
+                if (dateResolution != -1) {
+                    for (int i = dateResolution + 1; i < CALENDAR_FIELDS.length; i++) {
+                        cal.set(CALENDAR_FIELDS[i],
+                                cal.getActualMinimum(CALENDAR_FIELDS[i]));
+                    }
+                }
+                return ISO8601.format(cal);
+            case PropertyType.LONG:
+                return String.valueOf(LongField.stringToLong(value));
+            case PropertyType.DOUBLE:
+                return String.valueOf(DoubleField.stringToDouble(value));
+            case PropertyType.DECIMAL:
+                return DecimalField.stringToDecimal(value).toString();
+            case PropertyType.NAME:
+                return sessionContext.getJCRName(indexResolver.getQName(value));
+            case PropertyType.PATH:
+                return sessionContext.getJCRPath(indexResolver.getQPath(value));
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Returns the index into {@link #CALENDAR_FIELDS} of the given
+     * <code>Calendar</code> field.
+     */
+    private static int getDateResolution(int field)
+            throws RepositoryException {
+        if (field == NO_DATE_RESOLUTION) {
+            return -1;
+        }
+        for (int i = 0; i < CALENDAR_FIELDS.length; i++) {
+            if (CALENDAR_FIELDS[i] == field) {
+                return i;
+            }
+        }
+        throw new RepositoryException("Unsupported date resolution: " + field);
+    }
+
+    /**
+     * Returns the reader index for document <code>n</code>.
+     *
+     * @param n document number.
+     * @return the reader index.
+     */
+    private int readerIndex(int n) {
+        int lo = 0;
+        int hi = readers.size() - 1;
+
+        while (hi >= lo) {
+            int mid = (lo + hi) >> 1;
+            int midValue = starts[mid];
+            if (n < midValue) {
+                hi = mid - 1;
+            } else if (n > midValue) {
+                lo = mid + 1;
+            } else {
+                while (mid + 1 < readers.size() && starts[mid + 1] == midValue) {
+                    mid++;
+                }
+                return mid;
+            }
+        }
+        return hi;
+    }
+
+    /**
+     * Adds the segment readers of <code>reader</code> to the list.
+     */
+    private static void getIndexReaders(List<IndexReader> readers,
+                                        IndexReader reader) {
+        if (reader instanceof MultiIndexReader) {
+            for (IndexReader r : ((MultiIndexReader) reader).getIndexReaders()) {
+                getIndexReaders(readers, r);
+            }
+        } else {
+            readers.add(reader);
+        }
+    }
+
+}
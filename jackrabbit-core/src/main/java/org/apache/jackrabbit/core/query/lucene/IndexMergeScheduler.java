@@ -0,0 +1,653 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockFactory;
+
+/**
+ * Controls when and how fast the {@link IndexMerger} merges index segments.
+ * <ul>
+ * <li>The bytes written by merges are limited to a configurable rate.</li>
+ * <li>Merges of at least <code>mergeWindowMinDocs</code> documents only run
+ * within the configured time windows and are deferred otherwise.</li>
+ * <li>While queries are executed, merges are slowed down according to the
+ * query priority: with a priority of <code>p</code> percent, merges only
+ * get <code>100 - p</code> percent of the time.</li>
+ * </ul>
+ * Only writes of threads that are currently merging (see
+ * {@link #beginMerge(boolean)}) are throttled.
+ */
+class IndexMergeScheduler implements IndexMergeSchedulerMBean {
+
+    /**
+     * Number of bytes a merge thread writes before it is throttled.
+     */
+    private static final int THROTTLE_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The maximum time in milliseconds a merge pauses at a time in favour of
+     * running queries.
+     */
+    private static final long MAX_QUERY_PAUSE = 1000;
+
+    /**
+     * The index merger controlled by this scheduler.
+     */
+    private final IndexMerger merger;
+
+    /**
+     * The merge state of the current thread, or <code>null</code> if the
+     * current thread is not merging.
+     */
+    private final ThreadLocal<MergeThread> mergeThread = new ThreadLocal<MergeThread>();
+
+    /**
+     * Number of queries that are currently executed.
+     */
+    private final AtomicInteger runningQueries = new AtomicInteger();
+
+    /**
+     * Number of merges that are currently running.
+     */
+    private final AtomicInteger runningMerges = new AtomicInteger();
+
+    /**
+     * Number of optimize merges that are currently running.
+     */
+    private final AtomicInteger runningOptimizes = new AtomicInteger();
+
+    private final AtomicLong bytesMerged = new AtomicLong();
+
+    private final AtomicLong bytesThrottled = new AtomicLong();
+
+    private final AtomicLong throttleTime = new AtomicLong();
+
+    /**
+     * The I/O rate limit in bytes per second, 0 means unlimited.
+     */
+    private volatile long ioRateLimit;
+
+    /**
+     * The time windows in which large merges run, <code>null</code> if
+     * they run at any time. Each window is a pair of minutes of the day.
+     */
+    private volatile int[][] mergeWindows;
+
+    /**
+     * The configured merge window string.
+     */
+    private volatile String mergeWindow;
+
+    /**
+     * Merges of at least this number of documents only run within the
+     * {@link #mergeWindows}.
+     */
+    private volatile int mergeWindowMinDocs = SearchIndex.DEFAULT_MERGE_WINDOW_MIN_DOCS;
+
+    /**
+     * The priority of queries over merges, between 0 and 100.
+     */
+    private volatile int queryPriority;
+
+    /**
+     * The time in nanoseconds when the next throttled write may start.
+     * Guarded by <code>this</code>.
+     */
+    private long nextWrite;
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param merger the index merger controlled by this scheduler.
+     */
+    IndexMergeScheduler(IndexMerger merger) {
+        this.merger = merger;
+    }
+
+    //---------------------------< configuration >------------------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getIORateLimit() {
+        return (int) (ioRateLimit / 1024);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setIORateLimit(int kbPerSecond) {
+        ioRateLimit = Math.max(0, kbPerSecond) * 1024L;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getMergeWindow() {
+        return mergeWindow;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if <code>window</code> is not a comma
+     *          separated list of <code>HH:mm-HH:mm</code> time windows.
+     */
+    public void setMergeWindow(String window) {
+        if (window == null || window.trim().length() == 0) {
+            mergeWindows = null;
+            mergeWindow = null;
+        } else {
+            mergeWindows = parseMergeWindow(window);
+            mergeWindow = window;
+        }
+    }
+
+    /**
+     * @return the minimum number of documents of a merge that only runs
+     *         within the merge window.
+     */
+    int getMergeWindowMinDocs() {
+        return mergeWindowMinDocs;
+    }
+
+    /**
+     * @param minDocs the minimum number of documents of a merge that only
+     *                runs within the merge window.
+     */
+    void setMergeWindowMinDocs(int minDocs) {
+        this.mergeWindowMinDocs = minDocs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getQueryPriority() {
+        return queryPriority;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setQueryPriority(int priority) {
+        queryPriority = Math.max(0, Math.min(100, priority));
+    }
+
+    //--------------------------------< state >---------------------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getMergeState() {
+        if (runningOptimizes.get() > 0) {
+            return "optimizing";
+        } else if (runningMerges.get() > 0) {
+            return "merging";
+        } else if (merger.getDeferredMergeCount() > 0) {
+            return "deferred";
+        } else {
+            return "idle";
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getRunningMerges() {
+        return runningMerges.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getDeferredMerges() {
+        return merger.getDeferredMergeCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getBytesMerged() {
+        return bytesMerged.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getBytesThrottled() {
+        return bytesThrottled.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getThrottleTime() {
+        return throttleTime.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isMergeWindowOpen() {
+        return getMillisUntilMergeWindow(Calendar.getInstance()) == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void optimize() {
+        merger.optimize();
+    }
+
+    //--------------------------< merge scheduling >----------------------------
+
+    /**
+     * Returns the number of milliseconds a merge of <code>numDocs</code>
+     * documents has to wait for the merge window.
+     *
+     * @param numDocs the number of documents to merge.
+     * @return the delay in milliseconds, 0 if the merge may run immediately.
+     */
+    long getMergeDelay(long numDocs) {
+        if (numDocs < mergeWindowMinDocs) {
+            return 0;
+        }
+        return getMillisUntilMergeWindow(Calendar.getInstance());
+    }
+
+    /**
+     * Returns the number of milliseconds from <code>now</code> until the next
+     * merge window opens.
+     *
+     * @param now the current time.
+     * @return the number of milliseconds, 0 if a merge window is open.
+     */
+    long getMillisUntilMergeWindow(Calendar now) {
+        int[][] windows = mergeWindows;
+        if (windows == null) {
+            return 0;
+        }
+        int minute = now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE);
+        int wait = Integer.MAX_VALUE;
+        for (int[] window : windows) {
+            int start = window[0];
+            int end = window[1];
+            boolean open = start <= end
+                    ? start <= minute && minute < end
+                    : minute >= start || minute < end;
+            if (open) {
+                return 0;
+            }
+            wait = Math.min(wait, (start - minute + 24 * 60) % (24 * 60));
+        }
+        long millis = wait * 60 * 1000L
+                - now.get(Calendar.SECOND) * 1000L
+                - now.get(Calendar.MILLISECOND);
+        return Math.max(1, millis);
+    }
+
+    /**
+     * Parses a comma separated list of <code>HH:mm-HH:mm</code> time windows.
+     *
+     * @param window the time windows.
+     * @return pairs of start and end minutes of the day.
+     * @throws IllegalArgumentException if <code>window</code> is malformed.
+     */
+    static int[][] parseMergeWindow(String window)
+            throws IllegalArgumentException {
+        List<int[]> windows = new ArrayList<int[]>();
+        for (String w : window.split(",")) {
+            String[] times = w.trim().split("-");
+            if (times.length != 2) {
+                throw new IllegalArgumentException(
+                        "Invalid merge window: " + window);
+            }
+            windows.add(new int[]{parseTime(times[0]), parseTime(times[1])});
+        }
+        return windows.toArray(new int[windows.size()][]);
+    }
+
+    private static int parseTime(String time) throws IllegalArgumentException {
+        String[] parts = time.trim().split(":");
+        try {
+            int hours = Integer.parseInt(parts[0]);
+            int minutes = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            if (parts.length > 2 || hours < 0 || hours > 24
+                    || minutes < 0 || minutes > 59) {
+                throw new IllegalArgumentException("Invalid time: " + time);
+            }
+            return (hours * 60 + minutes) % (24 * 60);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time: " + time);
+        }
+    }
+
+    //-----------------------------< throttling >-------------------------------
+
+    /**
+     * Marks the current thread as merging. Writes of the current thread to
+     * directories returned by {@link #throttle(Directory)} are throttled
+     * until {@link #endMerge(boolean)} is called.
+     *
+     * @param optimize whether the merge is an optimize of the whole index.
+     */
+    void beginMerge(boolean optimize) {
+        runningMerges.incrementAndGet();
+        if (optimize) {
+            runningOptimizes.incrementAndGet();
+        }
+        mergeThread.set(new MergeThread());
+    }
+
+    /**
+     * Ends a merge started with {@link #beginMerge(boolean)}.
+     *
+     * @param optimize whether the merge is an optimize of the whole index.
+     */
+    void endMerge(boolean optimize) {
+        mergeThread.remove();
+        if (optimize) {
+            runningOptimizes.decrementAndGet();
+        }
+        runningMerges.decrementAndGet();
+    }
+
+    /**
+     * Called when the execution of a query starts. The query counts as
+     * running until its hits have been read and closed.
+     */
+    void queryStarted() {
+        runningQueries.incrementAndGet();
+    }
+
+    /**
+     * Called when the hits of a query have been closed.
+     */
+    void queryFinished() {
+        runningQueries.decrementAndGet();
+    }
+
+    /**
+     * Returns a directory that throttles the writes of merging threads.
+     *
+     * @param directory the directory to write to.
+     * @return the throttling directory.
+     */
+    Directory throttle(Directory directory) {
+        return new ThrottledDirectory(directory);
+    }
+
+    /**
+     * Accounts for <code>bytes</code> written by the current thread and
+     * delays the thread according to the I/O rate limit and the query
+     * priority.
+     *
+     * @param bytes the number of bytes written.
+     * @throws IOException if the thread is interrupted while it is delayed.
+     */
+    void throttle(int bytes) throws IOException {
+        MergeThread thread = mergeThread.get();
+        if (thread == null || bytes <= 0) {
+            return;
+        }
+        bytesMerged.addAndGet(bytes);
+        long now = System.nanoTime();
+
+        long rateDelay = 0;
+        long rate = ioRateLimit;
+        if (rate > 0) {
+            synchronized (this) {
+                if (nextWrite < now) {
+                    nextWrite = now;
+                }
+                rateDelay = nextWrite - now;
+                nextWrite += bytes * TimeUnit.SECONDS.toNanos(1) / rate;
+            }
+        }
+
+        long queryPause = 0;
+        int priority = queryPriority;
+        if (priority > 0 && runningQueries.get() > 0) {
+            long maxPause = TimeUnit.MILLISECONDS.toNanos(MAX_QUERY_PAUSE);
+            if (priority >= 100) {
+                queryPause = maxPause;
+            } else {
+                long working = now - thread.lastThrottle;
+                queryPause = Math.min(maxPause,
+                        working * priority / (100 - priority));
+            }
+        }
+
+        if (rateDelay > 0 || queryPause > 0) {
+            bytesThrottled.addAndGet(bytes);
+            long start = System.nanoTime();
+            try {
+                if (rateDelay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(rateDelay);
+                }
+                // pause while queries are executed
+                long end = System.nanoTime() + queryPause;
+                while (runningQueries.get() > 0 && System.nanoTime() < end) {
+                    Thread.sleep(1);
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while merge was throttled");
+            } finally {
+                throttleTime.addAndGet(TimeUnit.NANOSECONDS.toMillis(
+                        System.nanoTime() - start));
+            }
+        }
+        thread.lastThrottle = System.nanoTime();
+    }
+
+    /**
+     * The state of a merging thread.
+     */
+    private static final class MergeThread {
+
+        /**
+         * The time in nanoseconds when the thread was throttled last.
+         */
+        private long lastThrottle = System.nanoTime();
+    }
+
+    /**
+     * A directory that throttles the writes of merging threads.
+     */
+    private final class ThrottledDirectory extends Directory {
+
+        private final Directory directory;
+
+        ThrottledDirectory(Directory directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public String[] listAll() throws IOException {
+            return directory.listAll();
+        }
+
+        @Override
+        public boolean fileExists(String name) throws IOException {
+            return directory.fileExists(name);
+        }
+
+        @Override
+        public long fileModified(String name) throws IOException {
+            return directory.fileModified(name);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void touchFile(String name) throws IOException {
+            directory.touchFile(name);
+        }
+
+        @Override
+        public void deleteFile(String name) throws IOException {
+            directory.deleteFile(name);
+        }
+
+        @Override
+        public long fileLength(String name) throws IOException {
+            return directory.fileLength(name);
+        }
+
+        @Override
+        public IndexOutput createOutput(String name) throws IOException {
+            return new ThrottledIndexOutput(directory.createOutput(name));
+        }
+
+        @Override
+        public void sync(Collection<String> names) throws IOException {
+            directory.sync(names);
+        }
+
+        @Override
+        public IndexInput openInput(String name) throws IOException {
+            return directory.openInput(name);
+        }
+
+        @Override
+        public IndexInput openInput(String name, int bufferSize)
+                throws IOException {
+            return directory.openInput(name, bufferSize);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the underlying directory is closed by its index
+        }
+
+        @Override
+        public Lock makeLock(String name) {
+            return directory.makeLock(name);
+        }
+
+        @Override
+        public void clearLock(String name) throws IOException {
+            directory.clearLock(name);
+        }
+
+        @Override
+        public void setLockFactory(LockFactory lockFactory) throws IOException {
+            directory.setLockFactory(lockFactory);
+        }
+
+        @Override
+        public LockFactory getLockFactory() {
+            return directory.getLockFactory();
+        }
+
+        @Override
+        public String getLockID() {
+            return directory.getLockID();
+        }
+
+        public String toString() {
+            return getClass().getName() + '@' + directory;
+        }
+    }
+
+    /**
+     * An index output that reports the written bytes in chunks of
+     * {@link #THROTTLE_CHUNK_SIZE} to {@link IndexMergeScheduler#throttle(int)}.
+     */
+    private final class ThrottledIndexOutput extends IndexOutput {
+
+        private final IndexOutput out;
+
+        private int pending;
+
+        ThrottledIndexOutput(IndexOutput out) {
+            this.out = out;
+        }
+
+        @Override
+        public void writeByte(byte b) throws IOException {
+            out.writeByte(b);
+            if (++pending >= THROTTLE_CHUNK_SIZE) {
+                throttlePending();
+            }
+        }
+
+        @Override
+        public void writeBytes(byte[] b, int offset, int length)
+                throws IOException {
+            out.writeBytes(b, offset, length);
+            pending += length;
+            if (pending >= THROTTLE_CHUNK_SIZE) {
+                throttlePending();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                throttlePending();
+            }
+        }
+
+        @Override
+        public long getFilePointer() {
+            return out.getFilePointer();
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            out.seek(pos);
+        }
+
+        @Override
+        public long length() throws IOException {
+            return out.length();
+        }
+
+        @Override
+        public void setLength(long length) throws IOException {
+            out.setLength(length);
+        }
+
+        private void throttlePending() throws IOException {
+            int bytes = pending;
+            pending = 0;
+            if (bytes > 0) {
+                throttle(bytes);
+            }
+        }
+    }
+}
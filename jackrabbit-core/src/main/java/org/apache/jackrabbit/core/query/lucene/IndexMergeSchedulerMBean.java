@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+/**
+ * Management interface of the merge scheduler of a search index. It is
+ * registered with the platform MBean server under the name
+ * <code>org.apache.jackrabbit:type=IndexMergeScheduler,path=&lt;index path&gt;</code>.
+ */
+public interface IndexMergeSchedulerMBean {
+
+    /**
+     * Returns the current merge state: <code>idle</code>,
+     * <code>merging</code>, <code>deferred</code> or <code>optimizing</code>.
+     *
+     * @return the current merge state.
+     */
+    String getMergeState();
+
+    /**
+     * @return the number of merges that are currently running.
+     */
+    int getRunningMerges();
+
+    /**
+     * @return the number of merges that wait for the merge window to open.
+     */
+    int getDeferredMerges();
+
+    /**
+     * @return the number of bytes written by merges.
+     */
+    long getBytesMerged();
+
+    /**
+     * @return the number of bytes whose writes were delayed by the I/O rate
+     *         limit or the query priority.
+     */
+    long getBytesThrottled();
+
+    /**
+     * @return the time in milliseconds merges were delayed by the I/O rate
+     *         limit or the query priority.
+     */
+    long getThrottleTime();
+
+    /**
+     * @return the maximum number of kilobytes merges may write per second,
+     *         0 means unlimited.
+     */
+    int getIORateLimit();
+
+    /**
+     * @param kbPerSecond the maximum number of kilobytes merges may write
+     *                    per second, 0 means unlimited.
+     */
+    void setIORateLimit(int kbPerSecond);
+
+    /**
+     * @return the time windows in which large merges run, or
+     *         <code>null</code> if they run at any time.
+     */
+    String getMergeWindow();
+
+    /**
+     * @param window the time windows in which large merges run, e.g.
+     *               <code>22:00-06:00</code>, or <code>null</code> to run
+     *               them at any time.
+     */
+    void setMergeWindow(String window);
+
+    /**
+     * @return <code>true</code> if large merges may currently run.
+     */
+    boolean isMergeWindowOpen();
+
+    /**
+     * @return the priority of queries over merges, between 0 and 100.
+     */
+    int getQueryPriority();
+
+    /**
+     * @param priority the priority of queries over merges, between 0 (merges
+     *                 are not slowed down by queries) and 100 (merges pause
+     *                 while queries are executed).
+     */
+    void setQueryPriority(int priority);
+
+    /**
+     * Merges all index segments into a single segment in the background.
+     * The call returns immediately.
+     */
+    void optimize();
+}
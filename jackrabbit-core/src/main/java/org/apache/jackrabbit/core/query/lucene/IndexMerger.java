@@ -18,11 +18,13 @@ package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -34,7 +36,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Merges indexes in a separate daemon thread.
+ * Merges indexes in a separate daemon thread. When and how fast merges run
+ * is controlled by an {@link IndexMergeScheduler}.
  */
 class IndexMerger implements IndexListener {
 
@@ -71,7 +74,17 @@ class IndexMerger implements IndexListener {
     /**
      * The executor of the repository.
      */
-    private final Executor executor;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Controls when and how fast merges run.
+     */
+    private final IndexMergeScheduler scheduler;
+
+    /**
+     * Merge tasks that wait for the merge window to open.
+     */
+    private final List<Merge> deferredMerges = new ArrayList<Merge>();
 
     /**
      * Flag that indicates that this index merger is shuting down and should
@@ -109,9 +122,10 @@ class IndexMerger implements IndexListener {
      * @param multiIndex the <code>MultiIndex</code>.
      * @param executor   the executor of the repository.
      */
-    IndexMerger(MultiIndex multiIndex, Executor executor) {
+    IndexMerger(MultiIndex multiIndex, ScheduledExecutorService executor) {
         this.multiIndex = multiIndex;
         this.executor = executor;
+        this.scheduler = new IndexMergeScheduler(this);
     }
 
     /**
@@ -209,7 +223,7 @@ class IndexMerger implements IndexListener {
                     if (log.isDebugEnabled()) {
                         log.debug("requesting merge for " + indexesToMerge);
                     }
-                    addMergeTask(new Merge(idxs));
+                    addMergeTask(new Merge(idxs, false));
                     if (log.isDebugEnabled()) {
                         int numBusy;
                         synchronized (busyMergers) {
@@ -222,6 +236,52 @@ class IndexMerger implements IndexListener {
         }
     }
 
+    /**
+     * Merges all indexes that are currently not being merged into a single
+     * index. The merge runs in the background, regardless of the merge
+     * window. Merges that wait for the merge window are included.
+     */
+    void optimize() {
+        synchronized (lock) {
+            List<Index> indexes = new ArrayList<Index>();
+            for (IndexBucket bucket : indexBuckets) {
+                indexes.addAll(bucket);
+            }
+            synchronized (deferredMerges) {
+                for (Merge merge : deferredMerges) {
+                    indexes.addAll(Arrays.asList(merge.indexes));
+                }
+                if (indexes.size() < 2) {
+                    log.info("index is already optimized");
+                    return;
+                }
+                deferredMerges.clear();
+            }
+            for (IndexBucket bucket : indexBuckets) {
+                bucket.clear();
+            }
+            log.info("requesting optimize of " + indexes);
+            addMergeTask(new Merge(
+                    indexes.toArray(new Index[indexes.size()]), true));
+        }
+    }
+
+    /**
+     * @return the number of merge tasks that wait for the merge window.
+     */
+    int getDeferredMergeCount() {
+        synchronized (deferredMerges) {
+            return deferredMerges.size();
+        }
+    }
+
+    /**
+     * @return the scheduler of this index merger.
+     */
+    IndexMergeScheduler getScheduler() {
+        return scheduler;
+    }
+
     /**
      * @inheritDoc
      */
@@ -324,9 +384,31 @@ class IndexMerger implements IndexListener {
 
     //------------------------------< internal >--------------------------------
 
-    private void addMergeTask(Merge task) {
+    private void addMergeTask(final Merge task) {
         // only enqueue if still running
         if (!quit.get()) {
+            long delay = task.optimize ? 0 : scheduler.getMergeDelay(task.numDocs);
+            if (delay > 0) {
+                // wait for the merge window
+                synchronized (deferredMerges) {
+                    deferredMerges.add(task);
+                }
+                log.debug("deferring merge of {} documents by {} ms",
+                        task.numDocs, delay);
+                executor.schedule(new Runnable() {
+                    public void run() {
+                        boolean deferred;
+                        synchronized (deferredMerges) {
+                            // removed if the task was taken over by optimize
+                            deferred = deferredMerges.remove(task);
+                        }
+                        if (deferred) {
+                            addMergeTask(task);
+                        }
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+                return;
+            }
             Worker worker = new Worker(task);
             if (isStarted.get()) {
                 // immediately unblock if this index merger is already started
@@ -400,15 +482,32 @@ class IndexMerger implements IndexListener {
 
         private final Index[] indexes;
 
+        /**
+         * The number of documents to merge.
+         */
+        private final long numDocs;
+
+        /**
+         * Whether this task optimizes the whole index.
+         */
+        private final boolean optimize;
+
         /**
          * Merge task, to merge <code>indexes</code> into a new index with
          * <code>name</code>.
          *
          * @param indexes the indexes to merge.
+         * @param optimize whether the task optimizes the whole index.
          */
-        Merge(Index[] indexes) {
+        Merge(Index[] indexes, boolean optimize) {
             this.indexes = new Index[indexes.length];
             System.arraycopy(indexes, 0, this.indexes, 0, indexes.length);
+            long docs = 0;
+            for (Index index : indexes) {
+                docs += index.numDocs;
+            }
+            this.numDocs = docs;
+            this.optimize = optimize;
         }
     }
 
@@ -535,6 +634,7 @@ class IndexMerger implements IndexListener {
                 try {
                     log.debug("create new index");
                     PersistentIndex index = multiIndex.getOrCreateIndex(null);
+                    index.setMergeScheduler(scheduler);
                     boolean success = false;
                     try {
 
@@ -543,7 +643,12 @@ class IndexMerger implements IndexListener {
                         try {
                             // do the merge
                             long time = System.currentTimeMillis();
-                            index.addIndexes(readers);
+                            scheduler.beginMerge(task.optimize);
+                            try {
+                                index.addIndexes(readers);
+                            } finally {
+                                scheduler.endMerge(task.optimize);
+                            }
                             time = System.currentTimeMillis() - time;
                             int docCount = 0;
                             for (IndexReader reader : readers) {
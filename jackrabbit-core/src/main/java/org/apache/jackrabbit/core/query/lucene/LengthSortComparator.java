@@ -36,15 +36,26 @@ public class LengthSortComparator extends FieldComparatorSource {
      */
     private final NamespaceMappings nsMappings;
 
+    /**
+     * The sort value cache, may be <code>null</code>.
+     */
+    private final SortValueCache cache;
+
     public LengthSortComparator(NamespaceMappings nsMappings) {
+        this(nsMappings, null);
+    }
+
+    public LengthSortComparator(NamespaceMappings nsMappings,
+                                SortValueCache cache) {
         this.nsMappings = nsMappings;
+        this.cache = cache;
     }
 
     @Override
     public FieldComparator newComparator(String fieldname, int numHits, int sortPos, boolean reversed) throws IOException {
         NameFactory factory = NameFactoryImpl.getInstance();
         try {
-            return new SimpleFieldComparator(nsMappings.translateName(factory.create(fieldname)), FieldNames.PROPERTY_LENGTHS, numHits);
+            return new SimpleFieldComparator(nsMappings.translateName(factory.create(fieldname)), FieldNames.PROPERTY_LENGTHS, numHits, cache);
         }
         catch (IllegalNameException e) {
             throw Util.createIOException(e);
@@ -104,10 +104,12 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermQuery;
 
 /**
  * Factory that creates Lucene queries from QOM elements.
@@ -260,6 +262,102 @@ public class LuceneQueryFactory {
         }
     }
 
+    /**
+     * Estimates the number of nodes matched by the given selector and
+     * constraint from the document frequencies of the index terms. No query
+     * is executed. Constraint parts that can not be mapped to index terms
+     * are ignored, so the estimate is an upper bound rather than an exact
+     * count.
+     *
+     * @param selector the selector
+     * @param constraint a constraint that only refers to the selector, or
+     *                   <code>null</code>
+     * @return estimated number of matching nodes
+     * @throws RepositoryException if the index can not be accessed
+     */
+    public long estimate(Selector selector, Constraint constraint)
+            throws RepositoryException {
+        try {
+            IndexReader reader = index.getIndexReader(true);
+            try {
+                long count = estimate(create(selector), reader);
+                if (constraint != null) {
+                    JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
+                            session, reader, index.getContext().getItemStateManager());
+                    String name = selector.getSelectorName();
+                    NodeType type =
+                        ntManager.getNodeType(selector.getNodeTypeName());
+                    count = Math.min(count, estimate(
+                            constraint, Collections.singletonMap(name, type),
+                            searcher, reader, count));
+                }
+                return count;
+            } finally {
+                Util.closeOrRelease(reader);
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to access the query index", e);
+        }
+    }
+
+    private long estimate(
+            Constraint constraint, Map<String, NodeType> selectorMap,
+            JackrabbitIndexSearcher searcher, IndexReader reader, long count)
+            throws IOException {
+        if (constraint instanceof And) {
+            And and = (And) constraint;
+            return Math.min(
+                    estimate(and.getConstraint1(), selectorMap,
+                            searcher, reader, count),
+                    estimate(and.getConstraint2(), selectorMap,
+                            searcher, reader, count));
+        } else if (constraint instanceof Or) {
+            Or or = (Or) constraint;
+            return Math.min(count,
+                    estimate(or.getConstraint1(), selectorMap,
+                            searcher, reader, count)
+                    + estimate(or.getConstraint2(), selectorMap,
+                            searcher, reader, count));
+        } else if (constraint instanceof DescendantNode
+                || constraint instanceof Not) {
+            // resolving the descendants would mean running queries, and
+            // negations say little about the number of matches
+            return count;
+        }
+        try {
+            return Math.min(count, estimate(
+                    create(constraint, selectorMap, searcher), reader));
+        } catch (RepositoryException e) {
+            // not mapped to the index, evaluated on the rows
+            return count;
+        }
+    }
+
+    private static long estimate(Query query, IndexReader reader)
+            throws IOException {
+        if (query instanceof TermQuery) {
+            return reader.docFreq(((TermQuery) query).getTerm());
+        } else if (query instanceof BooleanQuery) {
+            long must = Long.MAX_VALUE;
+            long should = 0;
+            boolean hasShould = false;
+            for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+                if (clause.getOccur() == MUST) {
+                    must = Math.min(must, estimate(clause.getQuery(), reader));
+                } else if (clause.getOccur() == SHOULD) {
+                    should += estimate(clause.getQuery(), reader);
+                    hasShould = true;
+                }
+            }
+            if (must != Long.MAX_VALUE) {
+                return must;
+            } else if (hasShould) {
+                return Math.min(should, reader.maxDoc());
+            }
+        }
+        return reader.maxDoc();
+    }
+
     /**
      * Creates a lucene query for the given QOM selector.
      *
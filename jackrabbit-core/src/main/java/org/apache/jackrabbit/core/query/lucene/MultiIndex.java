@@ -16,7 +16,9 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,16 +28,28 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.RepositoryException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
 import org.apache.jackrabbit.core.state.ChildNodeEntry;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -47,10 +61,15 @@ import org.apache.jackrabbit.spi.PathFactory;
 import org.apache.jackrabbit.spi.commons.conversion.DefaultNamePathResolver;
 import org.apache.jackrabbit.spi.commons.conversion.PathResolver;
 import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -184,6 +203,12 @@ public class MultiIndex {
      */
     private final IndexMerger merger;
 
+    /**
+     * The name under which the merge scheduler is registered with the
+     * platform MBean server, or <code>null</code> if not registered.
+     */
+    private final ObjectName mergeSchedulerName;
+
     /**
      * Task that is periodically called by the repository timer for checking
      * if index should be flushed.
@@ -223,6 +248,24 @@ public class MultiIndex {
      */
     private long currentTransactionId = -1;
 
+    /**
+     * Name of the file that records the progress of a parallel initial index
+     * creation. The file only exists while the initial index is incomplete.
+     */
+    private static final String REINDEX_PROGRESS = "reindex";
+
+    /**
+     * Number of node ids read at once during a parallel initial index
+     * creation.
+     */
+    private static final int REINDEX_CHUNK_SIZE = 1000;
+
+    /**
+     * Number of chunks after which a parallel initial index creation
+     * records its progress.
+     */
+    private static final int REINDEX_CHECKPOINT_CHUNKS = 10;
+
     /**
      * Flag indicating whether re-indexing is running.
      */
@@ -246,7 +289,11 @@ public class MultiIndex {
         this.redoLogFactory = handler.getRedoLogFactory();
         this.indexDir = directoryManager.getDirectory(".");
         this.handler = handler;
-        this.cache = new DocNumberCache(handler.getCacheSize());
+        RepositoryStatisticsImpl stats =
+                handler.getContext().getRepositoryStatistics();
+        this.cache = new DocNumberCache(handler.getCacheSize(),
+                stats.getCounter(SearchIndex.DOC_NUMBER_CACHE_HIT_COUNTER, true),
+                stats.getCounter(SearchIndex.DOC_NUMBER_CACHE_MISS_COUNTER, true));
         this.excludedIDs = new HashSet<NodeId>(excludedIDs);
         this.nsMappings = handler.getNamespaceMappings();
 
@@ -265,6 +312,12 @@ public class MultiIndex {
         merger.setMaxMergeDocs(handler.getMaxMergeDocs());
         merger.setMergeFactor(handler.getMergeFactor());
         merger.setMinMergeDocs(handler.getMinMergeDocs());
+        IndexMergeScheduler scheduler = merger.getScheduler();
+        scheduler.setIORateLimit(handler.getMergeIORateLimit());
+        scheduler.setMergeWindow(handler.getMergeWindow());
+        scheduler.setMergeWindowMinDocs(handler.getMergeWindowMinDocs());
+        scheduler.setQueryPriority(handler.getMergeQueryPriority());
+        mergeSchedulerName = registerMergeScheduler();
 
         // initialize indexing queue
         this.indexingQueue = new IndexingQueue(new IndexingQueueStore(indexDir));
@@ -375,20 +428,34 @@ public class MultiIndex {
                             NodeId rootId,
                             Path rootPath)
             throws IOException {
+        boolean resume = isInitialIndexIncomplete();
         // only do an initial index if there are no indexes at all
-        if (indexNames.size() == 0) {
+        if (indexNames.size() == 0 || resume) {
             reindexing = true;
             try {
                 long count = 0;
-                // traverse and index workspace
-                executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
-                NodeState rootState = (NodeState) stateMgr.getItemState(rootId);
-                count = createIndex(rootState, rootPath, stateMgr, count);
-                checkIndexingQueue(true);
-                executeAndLog(new Commit(getTransactionId()));
+                IterablePersistenceManager pm = getReindexPersistenceManager();
+                if (pm != null) {
+                    // read node ids from the persistence manager and
+                    // create the documents in parallel
+                    count = createIndex(pm, resume);
+                } else if (resume) {
+                    throw new IllegalStateException(
+                            "Unable to resume initial index creation");
+                } else {
+                    // traverse and index workspace
+                    executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
+                    NodeState rootState = (NodeState) stateMgr.getItemState(rootId);
+                    count = createIndex(rootState, rootPath, stateMgr, count);
+                    checkIndexingQueue(true);
+                    executeAndLog(new Commit(getTransactionId()));
+                }
                 log.debug("Created initial index for {} nodes", count);
                 releaseMultiReader();
                 safeFlush();
+                if (pm != null) {
+                    indexDir.deleteFile(REINDEX_PROGRESS);
+                }
             } catch (Exception e) {
                 String msg = "Error indexing workspace";
                 IOException ex = new IOException(msg);
@@ -403,6 +470,18 @@ public class MultiIndex {
         }
     }
 
+    /**
+     * Returns <code>true</code> if a parallel initial index creation has
+     * been interrupted and must be resumed.
+     *
+     * @return <code>true</code> if the initial index is incomplete.
+     * @throws IOException if an error occurs while reading from the index
+     *                     directory.
+     */
+    boolean isInitialIndexIncomplete() throws IOException {
+        return indexDir.fileExists(REINDEX_PROGRESS);
+    }
+
     /**
      * Atomically updates the index by removing some documents and adding
      * others.
@@ -783,6 +862,21 @@ public class MultiIndex {
         return ConsistencyCheck.run(this, handler, excludedIDs);
     }
 
+    /**
+     * @return the scheduler that controls the index merges.
+     */
+    IndexMergeScheduler getMergeScheduler() {
+        return merger.getScheduler();
+    }
+
+    /**
+     * Merges all index segments into a single segment in the background.
+     * Does not block updates or {@link #flush()}.
+     */
+    void optimize() {
+        merger.optimize();
+    }
+
     /**
      * Closes this <code>MultiIndex</code>.
      */
@@ -792,6 +886,7 @@ public class MultiIndex {
         // when calling this method we must not lock this MultiIndex, otherwise
         // a deadlock might occur
         merger.dispose();
+        unregisterMergeScheduler();
 
         synchronized (this) {
             // stop timer
@@ -855,6 +950,43 @@ public class MultiIndex {
         return indexNames.getGeneration();
     }
 
+    /**
+     * Writes a snapshot of this index into the given directory. Pending
+     * changes are flushed first, the snapshot then consists of the current
+     * generation of the index names and the persistent indexes it lists.
+     *
+     * @param target the directory where the snapshot is written.
+     * @throws IOException if an error occurs while writing the snapshot.
+     */
+    void createSnapshot(File target) throws IOException {
+        synchronized (this) {
+            flush();
+            Directory root = FSDirectory.open(target);
+            try {
+                String fileName = indexNames.getFileName();
+                indexDir.copy(root, fileName, fileName);
+            } finally {
+                root.close();
+            }
+            for (PersistentIndex index : indexes) {
+                if (!indexNames.contains(index.getName())) {
+                    continue;
+                }
+                Directory src = index.getDirectory();
+                Directory dest = FSDirectory.open(new File(target, index.getName()));
+                try {
+                    for (String file : src.listAll()) {
+                        if (!IndexWriter.WRITE_LOCK_NAME.equals(file)) {
+                            src.copy(dest, file, file);
+                        }
+                    }
+                } finally {
+                    dest.close();
+                }
+            }
+        }
+    }
+
     /**
      * Returns a lucene Document for the <code>node</code>.
      *
@@ -1039,6 +1171,41 @@ public class MultiIndex {
 
     //-------------------------< internal >-------------------------------------
 
+    /**
+     * Registers the merge scheduler with the platform MBean server.
+     *
+     * @return the name of the registered MBean, or <code>null</code> if the
+     *         registration failed.
+     */
+    private ObjectName registerMergeScheduler() {
+        try {
+            ObjectName name = new ObjectName(
+                    "org.apache.jackrabbit:type=IndexMergeScheduler,path="
+                    + ObjectName.quote(String.valueOf(handler.getPath())));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(merger.getScheduler(),
+                            IndexMergeSchedulerMBean.class), name);
+            return name;
+        } catch (Exception e) {
+            log.warn("Unable to register index merge scheduler MBean: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Unregisters the merge scheduler from the platform MBean server.
+     */
+    private void unregisterMergeScheduler() {
+        if (mergeSchedulerName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                        mergeSchedulerName);
+            } catch (Exception e) {
+                log.warn("Unable to unregister index merge scheduler MBean: " + e);
+            }
+        }
+    }
+
     /**
      * Enqueues unused segments for deletion in {@link #deletable}. This method
      * does not synchronize on {@link #deletable}! A caller must ensure that it
@@ -1251,6 +1418,254 @@ public class MultiIndex {
         return count;
     }
 
+    /**
+     * Returns the persistence manager to read the node ids from when the
+     * initial index is created in parallel, or <code>null</code> if the
+     * workspace is traversed instead. Only workspace indexes are created in
+     * parallel: the index for jcr:system also contains virtual nodes that
+     * are not stored in a persistence manager.
+     *
+     * @return the persistence manager or <code>null</code>.
+     * @throws IOException if an error occurs while reading from the index
+     *                     directory.
+     */
+    private IterablePersistenceManager getReindexPersistenceManager()
+            throws IOException {
+        if (excludedIDs.isEmpty()) {
+            return null;
+        }
+        if (handler.getReindexingThreads() == 0 && !isInitialIndexIncomplete()) {
+            return null;
+        }
+        PersistenceManager pm = handler.getContext().getPersistenceManager();
+        if (pm instanceof IterablePersistenceManager) {
+            return (IterablePersistenceManager) pm;
+        }
+        log.warn("Persistence manager {} does not support parallel"
+                + " re-indexing, traversing the workspace instead", pm);
+        return null;
+    }
+
+    /**
+     * Creates an initial index from the node ids of the given persistence
+     * manager. The node ids are read in chunks, the documents of each chunk
+     * are created by a pool of {@link SearchIndex#getReindexingThreads()}
+     * threads, and the chunks are added to the index by the current thread
+     * in the order in which they were read. Every
+     * {@link #REINDEX_CHECKPOINT_CHUNKS} chunks, the index is flushed and
+     * the id of the last indexed node is recorded, so that an interrupted
+     * index creation can be resumed.
+     *
+     * @param pm     the persistence manager of the workspace.
+     * @param resume whether an interrupted index creation is resumed.
+     * @return the number of nodes indexed.
+     * @throws Exception if an error occurs while indexing the workspace.
+     */
+    private long createIndex(IterablePersistenceManager pm, boolean resume)
+            throws Exception {
+        NodeId after = null;
+        if (resume) {
+            after = readReindexProgress();
+            log.info("Resuming initial index creation after node {}",
+                    after != null ? after : "(none)");
+        } else {
+            writeReindexProgress(null);
+        }
+        // documents of nodes indexed after the last recorded progress may
+        // already be in the index, so delete them first when resuming
+        int deleteChunks = resume ? REINDEX_CHECKPOINT_CHUNKS : 0;
+
+        final int threads = Math.max(1, handler.getReindexingThreads());
+        ExecutorService executor = Executors.newFixedThreadPool(
+                threads, new ThreadFactory() {
+                    private final AtomicInteger counter = new AtomicInteger();
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "SearchIndex-reindex-"
+                                + counter.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        try {
+            long count = 0;
+            long start = System.currentTimeMillis();
+            int chunks = 0;
+            LinkedList<Future<ReindexChunk>> pending =
+                new LinkedList<Future<ReindexChunk>>();
+            List<NodeId> ids = pm.getAllNodeIds(after, REINDEX_CHUNK_SIZE);
+            executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
+            while (!ids.isEmpty() || !pending.isEmpty()) {
+                // keep the worker threads busy
+                while (!ids.isEmpty() && pending.size() < 2 * threads) {
+                    pending.add(executor.submit(new ReindexChunk(ids)));
+                    ids = pm.getAllNodeIds(
+                            ids.get(ids.size() - 1), REINDEX_CHUNK_SIZE);
+                }
+
+                ReindexChunk chunk = pending.removeFirst().get();
+                for (Document doc : chunk.documents) {
+                    if (deleteChunks > 0) {
+                        executeAndLog(new DeleteNode(getTransactionId(),
+                                new NodeId(doc.get(FieldNames.UUID))));
+                    }
+                    executeAndLog(new AddNode(getTransactionId(), doc));
+                    checkVolatileCommit();
+                }
+                count += chunk.documents.size();
+                deleteChunks = Math.max(0, deleteChunks - 1);
+                checkIndexingQueue(true);
+
+                if (++chunks % REINDEX_CHECKPOINT_CHUNKS == 0) {
+                    executeAndLog(new Commit(getTransactionId()));
+                    flush();
+                    writeReindexProgress(chunk.lastId);
+                    executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
+                }
+
+                long time = Math.max(1, System.currentTimeMillis() - start);
+                log.info("indexing... {} nodes ({} nodes/s, last id {})",
+                        new Object[] {count, count * 1000 / time, chunk.lastId});
+            }
+            checkIndexingQueue(true);
+            executeAndLog(new Commit(getTransactionId()));
+            return count;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the id of the last node recorded by a parallel initial index
+     * creation.
+     *
+     * @return the node id, or <code>null</code> if no node was recorded.
+     * @throws IOException if the progress cannot be read.
+     */
+    private NodeId readReindexProgress() throws IOException {
+        IndexInput in = indexDir.openInput(REINDEX_PROGRESS);
+        try {
+            String id = in.readString();
+            return id.length() > 0 ? new NodeId(id) : null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Records the id of the last node that has been added to the index by a
+     * parallel initial index creation.
+     *
+     * @param id the node id, or <code>null</code> if no node has been added
+     *           yet.
+     * @throws IOException if the progress cannot be written.
+     */
+    private void writeReindexProgress(NodeId id) throws IOException {
+        if (indexDir.fileExists(REINDEX_PROGRESS)) {
+            indexDir.deleteFile(REINDEX_PROGRESS);
+        }
+        IndexOutput out = indexDir.createOutput(REINDEX_PROGRESS);
+        try {
+            out.writeString(id != null ? id.toString() : "");
+        } finally {
+            out.close();
+        }
+        indexDir.sync(Collections.singleton(REINDEX_PROGRESS));
+    }
+
+    /**
+     * Creates the documents for a chunk of node ids during a parallel
+     * initial index creation.
+     */
+    private final class ReindexChunk implements Callable<ReindexChunk> {
+
+        /**
+         * The id of the last node in this chunk.
+         */
+        private final NodeId lastId;
+
+        /**
+         * The node ids of this chunk.
+         */
+        private final List<NodeId> ids;
+
+        /**
+         * The documents created for this chunk.
+         */
+        private final List<Document> documents = new ArrayList<Document>();
+
+        ReindexChunk(List<NodeId> ids) {
+            this.ids = ids;
+            this.lastId = ids.get(ids.size() - 1);
+        }
+
+        /**
+         * Ids of the nodes of this chunk and their ancestors that are
+         * known to be reachable from the root node.
+         */
+        private final Set<NodeId> reachable = new HashSet<NodeId>();
+
+        public ReindexChunk call() {
+            ItemStateManager stateMgr = handler.getContext().getItemStateManager();
+            for (NodeId id : ids) {
+                if (excludedIDs.contains(id)) {
+                    continue;
+                }
+                try {
+                    NodeState state = (NodeState) stateMgr.getItemState(id);
+                    if (isReachable(state, stateMgr)) {
+                        documents.add(createDocument(state));
+                    } else {
+                        log.debug("Skipping node {}, it is not reachable"
+                                + " from the root node", id);
+                    }
+                } catch (ItemStateException e) {
+                    // node does not exist anymore or cannot be read
+                    log.warn("Unable to index node " + id, e);
+                } catch (RepositoryException e) {
+                    log.warn("Unable to index node " + id, e);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Checks whether the traversal of the workspace would index the
+         * given node: all its ancestors up to the root node exist, list the
+         * node on the path as a child and are not excluded from the index.
+         *
+         * @param state    the node state.
+         * @param stateMgr the item state manager of the workspace.
+         * @return <code>true</code> if the node is reachable.
+         * @throws ItemStateException if an ancestor cannot be read.
+         */
+        private boolean isReachable(NodeState state, ItemStateManager stateMgr)
+                throws ItemStateException {
+            NodeId rootId = handler.getContext().getRootId();
+            Set<NodeId> path = new LinkedHashSet<NodeId>();
+            NodeState current = state;
+            for (;;) {
+                NodeId id = current.getNodeId();
+                if (excludedIDs.contains(id) || !path.add(id)) {
+                    // excluded subtree or a cycle in the hierarchy
+                    return false;
+                }
+                if (id.equals(rootId) || reachable.contains(id)) {
+                    break;
+                }
+                NodeId parentId = current.getParentId();
+                if (parentId == null || !stateMgr.hasItemState(parentId)) {
+                    return false;
+                }
+                current = (NodeState) stateMgr.getItemState(parentId);
+                if (!current.hasChildNodeEntry(id)) {
+                    return false;
+                }
+            }
+            reachable.addAll(path);
+            return true;
+        }
+    }
+
     /**
      * Attempts to delete all files that are older than
      *{@link SearchIndex#getMaxHistoryAge()}.
@@ -2127,6 +2542,10 @@ public class MultiIndex {
             PersistentIndex persistentIndex = index.getOrCreateIndex(targetIndex);
             persistentIndex.copyIndex(volatileIndex);
             index.resetVolatileIndex();
+            if (index.handler.isInitializeHierarchyCache()) {
+                // initialize the caches and persist them with the new index
+                persistentIndex.getReadOnlyIndexReader(true).release();
+            }
         }
 
         /**
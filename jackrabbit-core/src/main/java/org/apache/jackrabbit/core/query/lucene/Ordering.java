@@ -93,7 +93,8 @@ public class Ordering {
                 PropertyValueImpl propValue = (PropertyValueImpl) node.getPropertyValue();
                 selectorName[0] = propValue.getSelectorQName();
                 return new SortField(propValue.getPropertyQName().toString(),
-                        new LengthSortComparator(nsMappings),
+                        new LengthSortComparator(
+                                nsMappings, scs.getSortValueCache()),
                         !ordering.isAscending());
             }
 
@@ -54,6 +54,11 @@ class PersistentIndex extends AbstractIndex {
      */
     private long generation;
 
+    /**
+     * If non <code>null</code>, throttles merges into this index.
+     */
+    private volatile IndexMergeScheduler mergeScheduler;
+
     /**
      * Creates a new <code>PersistentIndex</code>.
      *
@@ -94,6 +99,29 @@ class PersistentIndex extends AbstractIndex {
         return num;
     }
 
+    /**
+     * Sets the scheduler that throttles merges into this index.
+     *
+     * @param scheduler the merge scheduler.
+     */
+    void setMergeScheduler(IndexMergeScheduler scheduler) {
+        this.mergeScheduler = scheduler;
+    }
+
+    /**
+     * Returns a directory that throttles writes of merges if a merge
+     * scheduler is set.
+     *
+     * @return the directory for the index writer.
+     */
+    protected Directory getWriterDirectory() {
+        Directory directory = getDirectory();
+        if (mergeScheduler != null) {
+            directory = mergeScheduler.throttle(directory);
+        }
+        return directory;
+    }
+
     /**
      * @return the index deletion policy of this index.
      */
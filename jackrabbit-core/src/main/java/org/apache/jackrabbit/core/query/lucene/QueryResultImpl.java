@@ -18,20 +18,23 @@ package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
-import javax.jcr.ItemNotFoundException;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.query.RowIterator;
 
 import org.apache.jackrabbit.api.query.JackrabbitQueryResult;
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.commons.query.qom.ColumnImpl;
+import org.apache.lucene.index.IndexReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +48,11 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
      */
     private static final Logger log = LoggerFactory.getLogger(QueryResultImpl.class);
 
+    /**
+     * The maximum number of hits whose access is checked at once.
+     */
+    private static final int ACCESS_CHECK_BATCH_SIZE = 100;
+
     /**
      * The search index to execute the query.
      */
@@ -351,7 +359,9 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
     /**
      * Collect score nodes from <code>hits</code> into the <code>collector</code>
      * list until the size of <code>collector</code> reaches <code>maxResults</code>
-     * or there are not more results.
+     * or there are not more results. Access is checked in batches of up to
+     * {@link #ACCESS_CHECK_BATCH_SIZE} hits, without reading more hits than
+     * may be collected.
      *
      * @param hits the raw hits.
      * @param collector where the access checked score nodes are collected.
@@ -364,18 +374,53 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
                                    long maxResults)
             throws IOException, RepositoryException {
         while (collector.size() < maxResults) {
+            int batchSize = (int) Math.min(
+                    ACCESS_CHECK_BATCH_SIZE, maxResults - collector.size());
+            int size = collector.size();
+            int read = collectGranted(hits, batchSize, collector);
+            invalid += read - (collector.size() - size);
+            if (read < batchSize) {
+                // no more results
+                break;
+            }
+        }
+    }
+
+    /**
+     * Reads up to <code>maxHits</code> score nodes from <code>hits</code>
+     * and adds those readable by the session to the <code>collector</code>.
+     * Access to the hits is checked with a single call to
+     * {@link #isAccessGranted(List)}.
+     *
+     * @param hits the raw hits.
+     * @param maxHits the maximum number of hits to read.
+     * @param collector where the access checked score nodes are collected.
+     * @return the number of hits read, less than <code>maxHits</code> if
+     *         there are no more hits.
+     * @throws IOException if an error occurs while reading from hits.
+     * @throws RepositoryException if an error occurs while checking access rights.
+     */
+    private int collectGranted(MultiColumnQueryHits hits,
+                               int maxHits,
+                               List<ScoreNode[]> collector)
+            throws IOException, RepositoryException {
+        List<ScoreNode[]> batch = new ArrayList<ScoreNode[]>(maxHits);
+        while (batch.size() < maxHits) {
             ScoreNode[] sn = hits.nextScoreNodes();
             if (sn == null) {
-                // no more results
                 break;
             }
-            // check access
-            if (isAccessGranted(sn)) {
-                collector.add(sn);
-            } else {
-                invalid++;
+            batch.add(sn);
+        }
+        if (!batch.isEmpty()) {
+            boolean[] granted = isAccessGranted(batch);
+            for (int i = 0; i < granted.length; i++) {
+                if (granted[i]) {
+                    collector.add(batch.get(i));
+                }
             }
         }
+        return batch.size();
     }
 
     /**
@@ -389,17 +434,44 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
      */
     protected boolean isAccessGranted(ScoreNode[] nodes)
             throws RepositoryException {
-        for (ScoreNode node : nodes) {
-            try {
-                if (node != null && !sessionContext.getAccessManager().canRead(
-                        null, node.getNodeId())) {
-                    return false;
+        return isAccessGranted(Collections.singletonList(nodes))[0];
+    }
+
+    /**
+     * Checks for each of the given rows if access is granted to all nodes of
+     * the row. The read access of the distinct nodes of all rows is checked
+     * with a single call to the access manager.
+     *
+     * @param rows the rows of nodes to check.
+     * @return for each row, <code>true</code> if read access is granted to
+     *         all nodes of the row.
+     * @throws RepositoryException if an error occurs while checking access
+     *                             rights.
+     */
+    protected boolean[] isAccessGranted(List<ScoreNode[]> rows)
+            throws RepositoryException {
+        Map<NodeId, Integer> ids = new LinkedHashMap<NodeId, Integer>();
+        for (ScoreNode[] nodes : rows) {
+            for (ScoreNode node : nodes) {
+                if (node != null && !ids.containsKey(node.getNodeId())) {
+                    ids.put(node.getNodeId(), ids.size());
+                }
+            }
+        }
+        boolean[] canRead = sessionContext.getAccessManager().canRead(
+                ids.keySet().toArray(new ItemId[ids.size()]));
+
+        boolean[] granted = new boolean[rows.size()];
+        for (int i = 0; i < granted.length; i++) {
+            granted[i] = true;
+            for (ScoreNode node : rows.get(i)) {
+                if (node != null && !canRead[ids.get(node.getNodeId())]) {
+                    granted[i] = false;
+                    break;
                 }
-            } catch (ItemNotFoundException e) {
-                // node deleted while query was executed
             }
         }
-        return true;
+        return granted;
     }
 
     /**
@@ -426,6 +498,91 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
         }
     }
 
+    /**
+     * Counts the values of a property over all nodes of this result that
+     * are readable by the session. Offset and limit of the query are
+     * ignored. If the result has more than one selector, the nodes of the
+     * first selector are counted.
+     *
+     * @param propertyName the name of the property.
+     * @return the number of nodes per property value, ordered by descending
+     *         count.
+     * @throws RepositoryException if an error occurs while executing the
+     *                             query.
+     * @see FacetCounter#getFacet()
+     */
+    public Map<String, Long> getFacet(String propertyName)
+            throws RepositoryException {
+        return getFacet(propertyName, FacetCounter.NO_DATE_RESOLUTION);
+    }
+
+    /**
+     * Counts the values of a property over all nodes of this result that
+     * are readable by the session, with date values truncated to the given
+     * <code>Calendar</code> field, e.g. <code>Calendar.MONTH</code> to count
+     * per month. Offset and limit of the query are ignored. If the result
+     * has more than one selector, the nodes of the first selector are
+     * counted.
+     *
+     * @param propertyName   the name of the property.
+     * @param dateResolution the <code>Calendar</code> field date values are
+     *                       truncated to, or
+     *                       {@link FacetCounter#NO_DATE_RESOLUTION}.
+     * @return the number of nodes per property value, ordered by descending
+     *         count.
+     * @throws RepositoryException if an error occurs while executing the
+     *                             query.
+     */
+    public Map<String, Long> getFacet(String propertyName, int dateResolution)
+            throws RepositoryException {
+        FacetCounter counter = null;
+        MultiColumnQueryHits result = null;
+        try {
+            result = executeQuery(Integer.MAX_VALUE);
+            // count the document numbers of the hits if their reader is known
+            IndexReader reader = null;
+            if (result instanceof SearchIndex.IndexReaderQueryHits) {
+                reader = ((SearchIndex.IndexReaderQueryHits) result).getIndexReader();
+            }
+            counter = new FacetCounter(
+                    index, reader, sessionContext, propertyName, dateResolution);
+            List<ScoreNode[]> granted = new ArrayList<ScoreNode[]>();
+            int read;
+            do {
+                granted.clear();
+                read = collectGranted(result, ACCESS_CHECK_BATCH_SIZE, granted);
+                for (ScoreNode[] row : granted) {
+                    ScoreNode node = row[0];
+                    if (node == null) {
+                        continue;
+                    } else if (reader != null) {
+                        counter.count(node.getDoc(reader));
+                    } else {
+                        counter.count(node.getNodeId());
+                    }
+                }
+            } while (read == ACCESS_CHECK_BATCH_SIZE);
+            return counter.getFacet();
+        } catch (IOException e) {
+            throw new RepositoryException(e);
+        } finally {
+            if (result != null) {
+                try {
+                    result.close();
+                } catch (IOException e) {
+                    log.warn("Unable to close query result: " + e);
+                }
+            }
+            if (counter != null) {
+                try {
+                    counter.close();
+                } catch (IOException e) {
+                    log.warn("Unable to close facet counter: " + e);
+                }
+            }
+        }
+    }
+
     private final class LazyScoreNodeIteratorImpl implements ScoreNodeIterator {
 
         private int position = -1;
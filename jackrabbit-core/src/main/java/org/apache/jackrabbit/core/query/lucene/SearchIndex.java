@@ -40,6 +40,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.HierarchyManager;
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.cluster.ChangeLogRecord;
@@ -57,6 +58,7 @@ import org.apache.jackrabbit.core.fs.FileSystemException;
 import org.apache.jackrabbit.core.fs.FileSystemResource;
 import org.apache.jackrabbit.core.fs.local.LocalFileSystem;
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.journal.Checkpoint;
 import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.JournalException;
 import org.apache.jackrabbit.core.journal.Record;
@@ -196,6 +198,21 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     public static final int DEFAULT_TERM_INFOS_INDEX_DIVISOR = 1;
 
+    /**
+     * The default value for {@link #mergeWindowMinDocs}.
+     */
+    public static final int DEFAULT_MERGE_WINDOW_MIN_DOCS = 10000;
+
+    /**
+     * Name of the counter of id resolver cache hits.
+     */
+    public static final String DOC_NUMBER_CACHE_HIT_COUNTER = "QUERY_DOC_NUMBER_CACHE_HIT_COUNTER";
+
+    /**
+     * Name of the counter of id resolver cache misses.
+     */
+    public static final String DOC_NUMBER_CACHE_MISS_COUNTER = "QUERY_DOC_NUMBER_CACHE_MISS_COUNTER";
+
     /**
      * The path factory.
      */
@@ -293,6 +310,30 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int mergeFactor = DEFAULT_MERGE_FACTOR;
 
+    /**
+     * mergeIORateLimit config parameter: the maximum number of kilobytes
+     * index merges may write per second, 0 means unlimited.
+     */
+    private int mergeIORateLimit = 0;
+
+    /**
+     * mergeWindow config parameter: comma separated time windows
+     * (<code>HH:mm-HH:mm</code>) in which large index merges run.
+     */
+    private String mergeWindow;
+
+    /**
+     * mergeWindowMinDocs config parameter: merges of at least this number of
+     * documents only run within the {@link #mergeWindow}.
+     */
+    private int mergeWindowMinDocs = DEFAULT_MERGE_WINDOW_MIN_DOCS;
+
+    /**
+     * mergeQueryPriority config parameter: the priority of queries over
+     * index merges, between 0 and 100.
+     */
+    private int mergeQueryPriority = 0;
+
     /**
      * maxFieldLength config parameter
      */
@@ -320,6 +361,11 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private long extractorTimeout = DEFAULT_EXTRACTOR_TIMEOUT;
 
+    /**
+     * reindexingThreads config parameter
+     */
+    private int reindexingThreads = 0;
+
     /**
      * Number of documents that are buffered before they are added to the index.
      */
@@ -498,6 +544,19 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private SharedFieldComparatorSource scs;
 
+    /**
+     * The sort values of single valued properties.
+     */
+    private SortValueCache sortValueCache;
+
+    /**
+     * The maximum estimated size in bytes of the sort values that are kept
+     * in memory for this index.
+     * <p>
+     * Default value is: {@link SortValueCache#DEFAULT_MEMORY_LIMIT} (64MB).
+     */
+    private long sortCacheMemoryLimit = SortValueCache.DEFAULT_MEMORY_LIMIT;
+
     /**
      * Flag that indicates whether the hierarchy cache should be initialized
      * immediately on startup.
@@ -539,6 +598,7 @@ public class SearchIndex extends AbstractQueryHandler {
         }
 
         synProvider = createSynonymProvider();
+        restoreSnapshot(context);
         directoryManager = createDirectoryManager();
         redoLogFactory = createRedoLogFactory();
 
@@ -561,9 +621,11 @@ public class SearchIndex extends AbstractQueryHandler {
             }
         }
 
+        sortValueCache = new SortValueCache(sortCacheMemoryLimit,
+                context.getStatManager().getSortCacheStat());
         scs = new SharedFieldComparatorSource(
                 FieldNames.PROPERTIES, context.getItemStateManager(),
-                context.getHierarchyManager(), nsMappings);
+                context.getHierarchyManager(), nsMappings, sortValueCache);
         indexingConfig = createIndexingConfiguration(nsMappings);
         analyzer.setIndexingConfig(indexingConfig);
 
@@ -571,7 +633,7 @@ public class SearchIndex extends AbstractQueryHandler {
         parser = createParser();
 
         index = new MultiIndex(this, excludedIDs);
-        if (index.numDocs() == 0) {
+        if (index.numDocs() == 0 || index.isInitialIndexIncomplete()) {
             Path rootPath;
             if (excludedIDs.isEmpty()) {
                 // this is the index for jcr:system
@@ -824,6 +886,19 @@ public class SearchIndex extends AbstractQueryHandler {
         }
     }
 
+    /**
+     * Writes a snapshot of the index into the given directory, once all
+     * pending text extraction tasks have been processed.
+     *
+     * @param directory the directory where the snapshot is written
+     * @throws IOException if the snapshot can not be written
+     */
+    public void createSnapshot(File directory) throws IOException {
+        checkOpen();
+        index.waitUntilIndexingQueueIsEmpty();
+        index.createSnapshot(directory);
+    }
+
     /**
      * Closes this <code>QueryHandler</code> and frees resources attached
      * to this handler.
@@ -840,6 +915,7 @@ public class SearchIndex extends AbstractQueryHandler {
             spellChecker.close();
         }
         index.close();
+        sortValueCache.clear();
         getContext().destroy();
         super.close();
         closed = true;
@@ -875,17 +951,21 @@ public class SearchIndex extends AbstractQueryHandler {
         JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
                 session, reader, getContext().getItemStateManager());
         searcher.setSimilarity(getSimilarity());
-        return new FilterMultiColumnQueryHits(
-                searcher.execute(query, sort, resultFetchHint,
-                        QueryImpl.DEFAULT_SELECTOR_NAME)) {
-            public void close() throws IOException {
-                try {
-                    super.close();
-                } finally {
-                    Util.closeOrRelease(reader);
-                }
-            }
-        };
+        // hits are read lazily, the query runs until they are closed
+        IndexMergeScheduler scheduler = index.getMergeScheduler();
+        MultiColumnQueryHits hits;
+        scheduler.queryStarted();
+        try {
+            hits = searcher.execute(query, sort, resultFetchHint,
+                    QueryImpl.DEFAULT_SELECTOR_NAME);
+        } catch (IOException e) {
+            scheduler.queryFinished();
+            throw e;
+        } catch (RuntimeException e) {
+            scheduler.queryFinished();
+            throw e;
+        }
+        return new IndexReaderQueryHits(hits, reader, scheduler);
     }
 
     /**
@@ -909,16 +989,20 @@ public class SearchIndex extends AbstractQueryHandler {
         JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
                 session, reader, getContext().getItemStateManager());
         searcher.setSimilarity(getSimilarity());
-        return new FilterMultiColumnQueryHits(
-                query.execute(searcher, orderings, resultFetchHint)) {
-            public void close() throws IOException {
-                try {
-                    super.close();
-                } finally {
-                    Util.closeOrRelease(reader);
-                }
-            }
-        };
+        // hits are read lazily, the query runs until they are closed
+        IndexMergeScheduler scheduler = index.getMergeScheduler();
+        MultiColumnQueryHits hits;
+        scheduler.queryStarted();
+        try {
+            hits = query.execute(searcher, orderings, resultFetchHint);
+        } catch (IOException e) {
+            scheduler.queryFinished();
+            throw e;
+        } catch (RuntimeException e) {
+            scheduler.queryFinished();
+            throw e;
+        }
+        return new IndexReaderQueryHits(hits, reader, scheduler);
     }
 
     /**
@@ -1794,6 +1878,46 @@ public class SearchIndex extends AbstractQueryHandler {
 
     //----------------------------< internal >----------------------------------
 
+    /**
+     * The hits of a query executed on an index reader. Closing the hits
+     * releases the reader and ends the query.
+     */
+    static final class IndexReaderQueryHits extends FilterMultiColumnQueryHits {
+
+        private final IndexReader reader;
+
+        private final IndexMergeScheduler scheduler;
+
+        private boolean closed = false;
+
+        IndexReaderQueryHits(MultiColumnQueryHits hits, IndexReader reader,
+                             IndexMergeScheduler scheduler) {
+            super(hits);
+            this.reader = reader;
+            this.scheduler = scheduler;
+        }
+
+        /**
+         * @return the index reader the document numbers of the hits refer
+         *         to.
+         */
+        IndexReader getIndexReader() {
+            return reader;
+        }
+
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                Util.closeOrRelease(reader);
+                if (!closed) {
+                    closed = true;
+                    scheduler.queryFinished();
+                }
+            }
+        }
+    }
+
     /**
      * Combines multiple {@link CachingMultiIndexReader} into a <code>MultiReader</code>
      * with {@link HierarchyResolver} support.
@@ -2022,6 +2146,79 @@ public class SearchIndex extends AbstractQueryHandler {
         return mergeFactor;
     }
 
+    /**
+     * Sets the maximum number of kilobytes index merges may write per
+     * second.
+     *
+     * @param kbPerSecond the I/O rate limit, 0 means unlimited.
+     */
+    public void setMergeIORateLimit(int kbPerSecond) {
+        this.mergeIORateLimit = kbPerSecond;
+    }
+
+    /**
+     * @return the maximum number of kilobytes index merges may write per
+     *         second.
+     */
+    public int getMergeIORateLimit() {
+        return mergeIORateLimit;
+    }
+
+    /**
+     * Sets the time windows in which large index merges run, e.g.
+     * <code>22:00-06:00</code> or <code>00:00-06:00,12:00-13:00</code>.
+     *
+     * @param window the merge windows, or <code>null</code> to run merges at
+     *               any time.
+     */
+    public void setMergeWindow(String window) {
+        this.mergeWindow = window;
+    }
+
+    /**
+     * @return the time windows in which large index merges run.
+     */
+    public String getMergeWindow() {
+        return mergeWindow;
+    }
+
+    /**
+     * Sets the minimum number of documents of a merge that only runs within
+     * the merge window. Smaller merges run at any time.
+     *
+     * @param minDocs the minimum number of documents.
+     */
+    public void setMergeWindowMinDocs(int minDocs) {
+        this.mergeWindowMinDocs = minDocs;
+    }
+
+    /**
+     * @return the minimum number of documents of a merge that only runs
+     *         within the merge window.
+     */
+    public int getMergeWindowMinDocs() {
+        return mergeWindowMinDocs;
+    }
+
+    /**
+     * Sets the priority of queries over index merges. With a priority of
+     * <code>p</code>, merges only get <code>100 - p</code> percent of the
+     * time while queries are executed. With a priority of 100 merges pause
+     * while queries are executed.
+     *
+     * @param priority the priority between 0 and 100.
+     */
+    public void setMergeQueryPriority(int priority) {
+        this.mergeQueryPriority = priority;
+    }
+
+    /**
+     * @return the priority of queries over index merges.
+     */
+    public int getMergeQueryPriority() {
+        return mergeQueryPriority;
+    }
+
     /**
      * @see VolatileIndex#setBufferSize(int)
      */
@@ -2070,6 +2267,21 @@ public class SearchIndex extends AbstractQueryHandler {
         return cacheSize;
     }
 
+    /**
+     * Sets the maximum estimated size in bytes of the sort values that are
+     * kept in memory for this index. The least recently used values are
+     * evicted when the limit is exceeded.
+     *
+     * @param limit the memory limit in bytes.
+     */
+    public void setSortCacheMemoryLimit(long limit) {
+        sortCacheMemoryLimit = limit;
+    }
+
+    public long getSortCacheMemoryLimit() {
+        return sortCacheMemoryLimit;
+    }
+
     public void setMaxFieldLength(int length) {
         maxFieldLength = length;
     }
@@ -2156,6 +2368,35 @@ public class SearchIndex extends AbstractQueryHandler {
         return extractorPoolSize;
     }
 
+    /**
+     * Sets the number of threads that create index documents when the
+     * initial index of a workspace is created. If greater than zero, the
+     * node ids are read in chunks from the persistence manager instead of
+     * traversing the workspace, and the documents are created in parallel.
+     * The progress is recorded, so that an interrupted initial index
+     * creation resumes where it stopped when the repository is restarted.
+     * This requires a persistence manager that implements
+     * {@link org.apache.jackrabbit.core.persistence.IterablePersistenceManager}.
+     * The default value is 0, which traverses the workspace with a single
+     * thread.
+     *
+     * @param numThreads the number of threads.
+     */
+    public void setReindexingThreads(int numThreads) {
+        if (numThreads < 0) {
+            numThreads = 0;
+        }
+        reindexingThreads = numThreads;
+    }
+
+    /**
+     * @return the number of threads that create index documents when the
+     *         initial index is created, or 0 if the workspace is traversed.
+     */
+    public int getReindexingThreads() {
+        return reindexingThreads;
+    }
+
     /**
      * The number of extractor jobs that are queued until a new job is executed
      * with the current thread instead of using the thread pool.
@@ -2609,6 +2850,40 @@ public class SearchIndex extends AbstractQueryHandler {
         }
     }
 
+    /**
+     * Replaces the index with the snapshot of the checkpoint the cluster
+     * node starts from, if there is one. Without a snapshot for this index,
+     * the existing index is removed, so that it is rebuilt from the
+     * workspace content.
+     *
+     * @param context the query handler context
+     * @throws IOException if the snapshot can not be restored
+     */
+    private void restoreSnapshot(QueryHandlerContext context) throws IOException {
+        ClusterNode cn = context.getClusterNode();
+        Checkpoint checkpoint = null;
+        if (cn != null) {
+            checkpoint = cn.getIndexCheckpoint(context.getWorkspace());
+        }
+        if (checkpoint == null
+                || !FSDirectoryManager.class.getName().equals(directoryManagerClass)) {
+            return;
+        }
+        File indexDir = new File(path);
+        if (indexDir.exists()) {
+            FileUtils.cleanDirectory(indexDir);
+        }
+        File snapshot = checkpoint.getIndexDirectory(context.getWorkspace());
+        if (snapshot.isDirectory()) {
+            log.info("Restoring index of workspace {} from {}",
+                    context.getWorkspace(), checkpoint);
+            FileUtils.copyDirectory(snapshot, indexDir);
+        } else {
+            log.info("No index snapshot for workspace {} in {}",
+                    context.getWorkspace(), checkpoint);
+        }
+    }
+
     /**
      * Polls the underlying journal for events of the type ChangeLogRecord that
      * happened after a given revision, on a given workspace.
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.jcr.PropertyType;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.TermPositions;
+
+/**
+ * Caches the values of a property per index segment in a column oriented
+ * layout, as used to count facets. Unlike the {@link SharedFieldCache} the
+ * values are not materialized per document. Each distinct value of the
+ * property gets an ordinal, and every document refers to the ordinals of
+ * its values. The values are read from the terms of the
+ * {@link FieldNames#PROPERTIES} field.
+ */
+public class SharedFacetCache {
+
+    /**
+     * The distinct values of a property in a single index segment, and the
+     * values of each document as ordinals into those values.
+     */
+    public static class ValueOrdinals {
+
+        /**
+         * The distinct values as stored in the index, without the property
+         * name prefix. Sorted in term order.
+         */
+        private final String[] values;
+
+        /**
+         * The property type of each value, or {@link PropertyType#UNDEFINED}
+         * if the index does not store property types.
+         */
+        private final int[] types;
+
+        /**
+         * The ordinals of document <code>n</code> are stored in
+         * {@link #ords} from <code>docStarts[n]</code> (inclusive) to
+         * <code>docStarts[n + 1]</code> (exclusive).
+         */
+        private final int[] docStarts;
+
+        /**
+         * The value ordinals of all documents.
+         */
+        private final int[] ords;
+
+        ValueOrdinals(String[] values, int[] types,
+                      int[] docStarts, int[] ords) {
+            this.values = values;
+            this.types = types;
+            this.docStarts = docStarts;
+            this.ords = ords;
+        }
+
+        /**
+         * @return the number of distinct values.
+         */
+        public int size() {
+            return values.length;
+        }
+
+        /**
+         * @param ord a value ordinal.
+         * @return the value as stored in the index.
+         */
+        public String getValue(int ord) {
+            return values[ord];
+        }
+
+        /**
+         * @param ord a value ordinal.
+         * @return the property type of the value.
+         */
+        public int getType(int ord) {
+            return types[ord];
+        }
+
+        /**
+         * Increments the count of every value of document <code>doc</code>.
+         *
+         * @param doc    the document number within the segment.
+         * @param counts the counts, indexed by value ordinal.
+         */
+        public void count(int doc, int[] counts) {
+            for (int i = docStarts[doc]; i < docStarts[doc + 1]; i++) {
+                counts[ords[i]]++;
+            }
+        }
+    }
+
+    /**
+     * Reference to the single instance of <code>SharedFacetCache</code>.
+     */
+    public static final SharedFacetCache INSTANCE = new SharedFacetCache();
+
+    /**
+     * The internal cache. Maps the term prefix of a property to its values.
+     */
+    private final Map<IndexReader, Map<String, ValueOrdinals>> cache =
+        new WeakHashMap<IndexReader, Map<String, ValueOrdinals>>();
+
+    /**
+     * Private constructor.
+     */
+    private SharedFacetCache() {
+    }
+
+    /**
+     * Returns the <code>ValueOrdinals</code> of a property in the given
+     * segment <code>reader</code>. The property is identified by its term
+     * <code>prefix</code> in the {@link FieldNames#PROPERTIES} field.
+     *
+     * @param reader the reader of a single index segment.
+     * @param prefix the property name, will be used as term prefix.
+     * @return the values of the property.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public ValueOrdinals getValueOrdinals(IndexReader reader, String prefix)
+            throws IOException {
+        if (reader instanceof ReadOnlyIndexReader) {
+            reader = ((ReadOnlyIndexReader) reader).getBase();
+        }
+
+        ValueOrdinals ret = lookup(reader, prefix);
+        if (ret == null) {
+            ret = createValueOrdinals(reader, prefix);
+            store(reader, prefix, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the values of a property from the index. Deleted documents are
+     * not filtered, the caller is expected to only count live documents.
+     */
+    private static ValueOrdinals createValueOrdinals(
+            IndexReader reader, String prefix) throws IOException {
+        String field = FieldNames.PROPERTIES;
+        int maxDoc = reader.maxDoc();
+        boolean hasPayloads = IndexFormatVersion.getVersion(reader).isAtLeast(
+                IndexFormatVersion.V3);
+
+        List<String> values = new ArrayList<String>();
+        int[] types = new int[16];
+        // (doc, ordinal) pairs in term order
+        int[] pairs = new int[64];
+        int numPairs = 0;
+        int[] docStarts = new int[maxDoc + 1];
+
+        TermDocs termDocs;
+        if (hasPayloads) {
+            termDocs = reader.termPositions();
+        } else {
+            termDocs = reader.termDocs();
+        }
+        TermEnum termEnum = reader.terms(new Term(field, prefix));
+        try {
+            byte[] payload = new byte[1];
+            do {
+                Term term = termEnum.term();
+                if (term == null || term.field() != field
+                        || !term.text().startsWith(prefix)) {
+                    break;
+                }
+                int ord = values.size();
+                int type = PropertyType.UNDEFINED;
+                boolean first = true;
+                termDocs.seek(term);
+                while (termDocs.next()) {
+                    if (first && hasPayloads) {
+                        TermPositions termPos = (TermPositions) termDocs;
+                        termPos.nextPosition();
+                        if (termPos.isPayloadAvailable()) {
+                            payload = termPos.getPayload(payload, 0);
+                            type = PropertyMetaData.fromByteArray(
+                                    payload).getPropertyType();
+                        }
+                    }
+                    first = false;
+                    if (numPairs + 2 > pairs.length) {
+                        pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                    }
+                    int doc = termDocs.doc();
+                    pairs[numPairs++] = doc;
+                    pairs[numPairs++] = ord;
+                    docStarts[doc + 1]++;
+                }
+                if (!first) {
+                    if (ord == types.length) {
+                        types = Arrays.copyOf(types, types.length * 2);
+                    }
+                    types[ord] = type;
+                    values.add(term.text().substring(prefix.length()));
+                }
+            } while (termEnum.next());
+        } finally {
+            termDocs.close();
+            termEnum.close();
+        }
+
+        for (int i = 0; i < maxDoc; i++) {
+            docStarts[i + 1] += docStarts[i];
+        }
+        int[] ords = new int[numPairs / 2];
+        int[] next = new int[maxDoc];
+        System.arraycopy(docStarts, 0, next, 0, maxDoc);
+        for (int i = 0; i < numPairs; i += 2) {
+            ords[next[pairs[i]]++] = pairs[i + 1];
+        }
+        return new ValueOrdinals(
+                values.toArray(new String[values.size()]),
+                Arrays.copyOf(types, values.size()), docStarts, ords);
+    }
+
+    /**
+     * See if a <code>ValueOrdinals</code> object is in the cache.
+     */
+    ValueOrdinals lookup(IndexReader reader, String prefix) {
+        synchronized (cache) {
+            Map<String, ValueOrdinals> readerCache = cache.get(reader);
+            if (readerCache == null) {
+                return null;
+            }
+            return readerCache.get(prefix);
+        }
+    }
+
+    /**
+     * Put a <code>ValueOrdinals</code> <code>value</code> to cache.
+     */
+    void store(IndexReader reader, String prefix, ValueOrdinals value) {
+        synchronized (cache) {
+            Map<String, ValueOrdinals> readerCache = cache.get(reader);
+            if (readerCache == null) {
+                readerCache = new HashMap<String, ValueOrdinals>();
+                cache.put(reader, readerCache);
+            }
+            readerCache.put(prefix, value);
+        }
+    }
+
+}
@@ -364,7 +364,7 @@ public class SharedFieldCache {
      * @param type the property type.
      * @return a comparable for the <code>value</code>.
      */
-    private Comparable<?> getValue(String value, int type) {
+    static Comparable<?> getValue(String value, int type) {
         switch (type) {
             case PropertyType.BOOLEAN:
                 return Boolean.valueOf(value);
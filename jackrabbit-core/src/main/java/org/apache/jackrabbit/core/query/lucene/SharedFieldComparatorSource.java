@@ -63,6 +63,11 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
      */
     private final NamespaceMappings nsMappings;
 
+    /**
+     * The sort value cache, may be <code>null</code>.
+     */
+    private final SortValueCache cache;
+
     /**
      * Create a new <code>SharedFieldComparatorSource</code> for a given shared field.
      *
@@ -73,10 +78,35 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
      */
     public SharedFieldComparatorSource(String fieldname, ItemStateManager ism,
                                        HierarchyManager hmgr, NamespaceMappings nsMappings) {
+        this(fieldname, ism, hmgr, nsMappings, null);
+    }
+
+    /**
+     * Create a new <code>SharedFieldComparatorSource</code> for a given shared
+     * field, which reads single valued properties from a sort value cache.
+     *
+     * @param fieldname the shared field.
+     * @param ism       the item state manager of this workspace.
+     * @param hmgr      the hierarchy manager of this workspace.
+     * @param nsMappings the index internal namespace mappings.
+     * @param cache     the sort value cache, or <code>null</code> to only
+     *                  use the {@link SharedFieldCache}.
+     */
+    public SharedFieldComparatorSource(String fieldname, ItemStateManager ism,
+                                       HierarchyManager hmgr, NamespaceMappings nsMappings,
+                                       SortValueCache cache) {
         this.field = fieldname;
         this.ism = ism;
         this.hmgr = hmgr;
         this.nsMappings = nsMappings;
+        this.cache = cache;
+    }
+
+    /**
+     * @return the sort value cache of this source, or <code>null</code>.
+     */
+    public SortValueCache getSortValueCache() {
+        return cache;
     }
 
     /**
@@ -96,7 +126,7 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
         Path path = factory.create(propertyName);
 
         try {
-            SimpleFieldComparator simple = new SimpleFieldComparator(nsMappings.translatePath(path), field, numHits);
+            SimpleFieldComparator simple = new SimpleFieldComparator(nsMappings.translatePath(path), field, numHits, cache);
 
             return path.getLength() == 1
                 ? simple
@@ -120,6 +150,12 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
          */
         protected SharedFieldCache.ValueIndex[] indexes;
 
+        /**
+         * The cached sort values of the index segments. An element is
+         * <code>null</code> if the segment uses {@link #indexes} instead.
+         */
+        protected SortValueCache.SortValues[] sortValues;
+
         /**
          * The name of the property
          */
@@ -130,6 +166,11 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
          */
         private final String fieldName;
 
+        /**
+         * The sort value cache, may be <code>null</code>.
+         */
+        private final SortValueCache cache;
+
         /**
          * Create a new instance of the <code>FieldComparator</code>.
          *
@@ -138,9 +179,23 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
          * @param numHits       the number of values 
          */
         public SimpleFieldComparator(String propertyName, String fieldName, int numHits) {
+            this(propertyName, fieldName, numHits, null);
+        }
+
+        /**
+         * Create a new instance of the <code>FieldComparator</code>.
+         *
+         * @param propertyName  the name of the property
+         * @param fieldName     the name of the field in the index
+         * @param numHits       the number of values
+         * @param cache         the sort value cache, or <code>null</code>
+         */
+        public SimpleFieldComparator(String propertyName, String fieldName,
+                                     int numHits, SortValueCache cache) {
             super(numHits);
             this.propertyName = propertyName;
             this.fieldName = fieldName;
+            this.cache = cache;
         }
 
         @Override
@@ -148,18 +203,28 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
             super.setNextReader(reader, docBase);
 
             indexes = new SharedFieldCache.ValueIndex[readers.size()];
+            sortValues = new SortValueCache.SortValues[readers.size()];
 
             String namedValue = FieldNames.createNamedValue(propertyName, "");
             for (int i = 0; i < readers.size(); i++) {
                 IndexReader r = readers.get(i);
-                indexes[i] = SharedFieldCache.INSTANCE.getValueIndex(r,
-                        fieldName, namedValue);
+                if (cache != null) {
+                    sortValues[i] = cache.getSortValues(r, fieldName, namedValue);
+                }
+                if (sortValues[i] == null) {
+                    // multi-valued property or no cache
+                    indexes[i] = SharedFieldCache.INSTANCE.getValueIndex(r,
+                            fieldName, namedValue);
+                }
             }
         }
 
         @Override
         protected Comparable<?> sortValue(int doc) {
             int idx = readerIndex(doc);
+            if (sortValues[idx] != null) {
+                return sortValues[idx].getValue(doc - starts[idx]);
+            }
             return indexes[idx].getValue(doc - starts[idx]);
         }
 
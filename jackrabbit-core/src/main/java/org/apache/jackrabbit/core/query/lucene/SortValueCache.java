@@ -0,0 +1,486 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.stats.SortCacheStat;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.TermPositions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the sort values of properties per index segment, without an object
+ * per document. String like values are stored as an <code>int</code>
+ * ordinal per document into a dictionary of the distinct values of the
+ * segment. <code>LONG</code>, <code>DATE</code> and <code>DOUBLE</code>
+ * values are stored in primitive arrays.
+ * <p>
+ * Values are cached per segment reader, so that unchanged segments keep
+ * their values when the index is reopened. The cache evicts the least
+ * recently used values when the estimated size of all values exceeds the
+ * memory limit.
+ * <p>
+ * Properties with more than one value in a document of a segment are not
+ * cached here. For those the caller falls back to the
+ * {@link SharedFieldCache}, which compares multiple values.
+ */
+public class SortValueCache {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(SortValueCache.class);
+
+    /**
+     * The default memory limit in bytes: 64MB.
+     */
+    public static final long DEFAULT_MEMORY_LIMIT = 64 * 1024 * 1024;
+
+    /**
+     * The sort values of a property in a single index segment.
+     */
+    public abstract static class SortValues {
+
+        /**
+         * Returns the sort value of a document.
+         *
+         * @param doc the document number within the segment.
+         * @return the value or <code>null</code> if the document does not
+         *         have a value.
+         */
+        public abstract Comparable<?> getValue(int doc);
+
+        /**
+         * @return the estimated size of these values in bytes.
+         */
+        abstract long getMemoryUsage();
+    }
+
+    /**
+     * Values as ordinals into a dictionary of the distinct values.
+     */
+    static final class OrdinalSortValues extends SortValues {
+
+        /**
+         * The distinct values in term order.
+         */
+        private final Comparable<?>[] dictionary;
+
+        /**
+         * The ordinal of each document, <code>-1</code> if the document has
+         * no value.
+         */
+        private final int[] ords;
+
+        /**
+         * Estimated size of the dictionary values.
+         */
+        private final long dictionarySize;
+
+        OrdinalSortValues(Comparable<?>[] dictionary, int[] ords,
+                          long dictionarySize) {
+            this.dictionary = dictionary;
+            this.ords = ords;
+            this.dictionarySize = dictionarySize;
+        }
+
+        @Override
+        public Comparable<?> getValue(int doc) {
+            int ord = ords[doc];
+            return ord == -1 ? null : dictionary[ord];
+        }
+
+        @Override
+        long getMemoryUsage() {
+            return 4L * ords.length + dictionarySize;
+        }
+    }
+
+    /**
+     * <code>LONG</code> and <code>DATE</code> values.
+     */
+    static final class LongSortValues extends SortValues {
+
+        private final long[] values;
+
+        private final BitSet present;
+
+        LongSortValues(long[] values, BitSet present) {
+            this.values = values;
+            this.present = present;
+        }
+
+        @Override
+        public Comparable<?> getValue(int doc) {
+            return present.get(doc) ? Long.valueOf(values[doc]) : null;
+        }
+
+        @Override
+        long getMemoryUsage() {
+            return 8L * values.length + values.length / 8;
+        }
+    }
+
+    /**
+     * <code>DOUBLE</code> values.
+     */
+    static final class DoubleSortValues extends SortValues {
+
+        private final double[] values;
+
+        private final BitSet present;
+
+        DoubleSortValues(double[] values, BitSet present) {
+            this.values = values;
+            this.present = present;
+        }
+
+        @Override
+        public Comparable<?> getValue(int doc) {
+            return present.get(doc) ? Double.valueOf(values[doc]) : null;
+        }
+
+        @Override
+        long getMemoryUsage() {
+            return 8L * values.length + values.length / 8;
+        }
+    }
+
+    /**
+     * Marks a property with multiple values in a document.
+     */
+    private static final SortValues MULTI_VALUED = new SortValues() {
+
+        @Override
+        public Comparable<?> getValue(int doc) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        long getMemoryUsage() {
+            return 0;
+        }
+    };
+
+    /**
+     * The maximum estimated size of all cached values in bytes.
+     */
+    private final long memoryLimit;
+
+    /**
+     * The statistics of this cache.
+     */
+    private final SortCacheStat stat;
+
+    /**
+     * The cached values in access order.
+     */
+    private final LinkedHashMap<Key, SortValues> cache =
+        new LinkedHashMap<Key, SortValues>(16, 0.75f, true);
+
+    /**
+     * The estimated size of all cached values in bytes.
+     */
+    private long memoryUsed = 0;
+
+    /**
+     * Creates a new sort value cache.
+     *
+     * @param memoryLimit the maximum estimated size of all cached values in
+     *                    bytes.
+     * @param stat        the statistics of this cache.
+     */
+    public SortValueCache(long memoryLimit, SortCacheStat stat) {
+        this.memoryLimit = memoryLimit;
+        this.stat = stat;
+    }
+
+    /**
+     * Returns the sort values of a property in a single segment. The
+     * property is identified by its term <code>prefix</code> in the shared
+     * <code>field</code>.
+     *
+     * @param reader the reader of a single index segment.
+     * @param field  name of the shared field.
+     * @param prefix the property name, will be used as term prefix.
+     * @return the sort values, or <code>null</code> if a document of the
+     *         segment has more than one value for the property.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public SortValues getSortValues(IndexReader reader, String field,
+                                    String prefix) throws IOException {
+        if (reader instanceof ReadOnlyIndexReader) {
+            reader = ((ReadOnlyIndexReader) reader).getBase();
+        }
+        field = field.intern();
+
+        Key key = new Key(reader, field, prefix);
+        SortValues values;
+        synchronized (cache) {
+            values = cache.get(key);
+        }
+        if (values != null) {
+            stat.hit();
+        } else {
+            long time = System.currentTimeMillis();
+            values = createSortValues(reader, field, prefix);
+            time = System.currentTimeMillis() - time;
+            stat.built(time, values.getMemoryUsage());
+            log.debug("Read sort values of {} in {} ms", prefix, time);
+            store(key, values);
+        }
+        return values == MULTI_VALUED ? null : values;
+    }
+
+    /**
+     * @return the estimated size of all cached values in bytes.
+     */
+    public long getMemoryUsed() {
+        synchronized (cache) {
+            return memoryUsed;
+        }
+    }
+
+    /**
+     * @return the maximum estimated size of all cached values in bytes.
+     */
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Removes all values from the cache.
+     */
+    public void clear() {
+        synchronized (cache) {
+            for (SortValues values : cache.values()) {
+                stat.evicted(values.getMemoryUsage());
+            }
+            cache.clear();
+            memoryUsed = 0;
+        }
+    }
+
+    //--------------------------------< internal >------------------------------
+
+    /**
+     * Adds values to the cache and evicts values of closed segments and the
+     * least recently used values until the cache is within its memory
+     * limit. Values larger than the limit are not cached.
+     */
+    private void store(Key key, SortValues values) {
+        long size = values.getMemoryUsage();
+        synchronized (cache) {
+            if (size > memoryLimit) {
+                stat.evicted(size);
+                return;
+            }
+            SortValues old = cache.put(key, values);
+            if (old != null) {
+                memoryUsed -= old.getMemoryUsage();
+                stat.evicted(old.getMemoryUsage());
+            }
+            memoryUsed += size;
+            Iterator<Map.Entry<Key, SortValues>> it = cache.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, SortValues> entry = it.next();
+                if (entry.getKey().isCleared() || memoryUsed > memoryLimit) {
+                    long evicted = entry.getValue().getMemoryUsage();
+                    it.remove();
+                    memoryUsed -= evicted;
+                    stat.evicted(evicted);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the sort values of a property from the terms of a segment.
+     */
+    private static SortValues createSortValues(
+            IndexReader reader, String field, String prefix)
+            throws IOException {
+        int maxDoc = reader.maxDoc();
+        boolean hasPayloads = IndexFormatVersion.getVersion(reader).isAtLeast(
+                IndexFormatVersion.V3);
+        int[] ords = new int[maxDoc];
+        Arrays.fill(ords, -1);
+        List<String> terms = new ArrayList<String>();
+        List<Integer> types = new ArrayList<Integer>();
+
+        TermDocs termDocs;
+        if (hasPayloads) {
+            termDocs = reader.termPositions();
+        } else {
+            termDocs = reader.termDocs();
+        }
+        TermEnum termEnum = reader.terms(new Term(field, prefix));
+        try {
+            byte[] payload = new byte[1];
+            do {
+                Term term = termEnum.term();
+                if (term == null || term.field() != field
+                        || !term.text().startsWith(prefix)) {
+                    break;
+                }
+                int ord = terms.size();
+                int type = PropertyType.UNDEFINED;
+                boolean first = true;
+                termDocs.seek(term);
+                while (termDocs.next()) {
+                    if (first && hasPayloads) {
+                        TermPositions termPos = (TermPositions) termDocs;
+                        termPos.nextPosition();
+                        if (termPos.isPayloadAvailable()) {
+                            payload = termPos.getPayload(payload, 0);
+                            type = PropertyMetaData.fromByteArray(
+                                    payload).getPropertyType();
+                        }
+                    }
+                    first = false;
+                    int doc = termDocs.doc();
+                    if (ords[doc] != -1) {
+                        return MULTI_VALUED;
+                    }
+                    ords[doc] = ord;
+                }
+                if (!first) {
+                    terms.add(term.text().substring(prefix.length()));
+                    types.add(type);
+                }
+            } while (termEnum.next());
+        } finally {
+            termDocs.close();
+            termEnum.close();
+        }
+
+        int type = getCommonType(types);
+        if (type == PropertyType.LONG || type == PropertyType.DATE) {
+            long[] dictionary = new long[terms.size()];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = type == PropertyType.LONG
+                        ? LongField.stringToLong(terms.get(i))
+                        : DateField.stringToTime(terms.get(i));
+            }
+            long[] values = new long[maxDoc];
+            BitSet present = new BitSet(maxDoc);
+            for (int doc = 0; doc < maxDoc; doc++) {
+                if (ords[doc] != -1) {
+                    values[doc] = dictionary[ords[doc]];
+                    present.set(doc);
+                }
+            }
+            return new LongSortValues(values, present);
+        } else if (type == PropertyType.DOUBLE) {
+            double[] values = new double[maxDoc];
+            BitSet present = new BitSet(maxDoc);
+            for (int doc = 0; doc < maxDoc; doc++) {
+                if (ords[doc] != -1) {
+                    values[doc] = DoubleField.stringToDouble(terms.get(ords[doc]));
+                    present.set(doc);
+                }
+            }
+            return new DoubleSortValues(values, present);
+        } else {
+            Comparable<?>[] dictionary = new Comparable<?>[terms.size()];
+            long dictionarySize = 16L + 4L * dictionary.length;
+            for (int i = 0; i < dictionary.length; i++) {
+                String term = terms.get(i);
+                dictionary[i] = SharedFieldCache.getValue(term, types.get(i));
+                dictionarySize += 40 + 2 * term.length();
+            }
+            return new OrdinalSortValues(dictionary, ords, dictionarySize);
+        }
+    }
+
+    /**
+     * Returns the type of all values, or {@link PropertyType#UNDEFINED} if
+     * the values have different types.
+     */
+    private static int getCommonType(List<Integer> types) {
+        int type = PropertyType.UNDEFINED;
+        for (int i = 0; i < types.size(); i++) {
+            if (i == 0) {
+                type = types.get(i);
+            } else if (types.get(i) != type) {
+                return PropertyType.UNDEFINED;
+            }
+        }
+        return type;
+    }
+
+    /**
+     * Identifies the values of a property in a segment. The segment reader
+     * is referenced weakly, the values of a closed segment are evicted with
+     * the next update of the cache.
+     */
+    private static final class Key {
+
+        private final WeakReference<IndexReader> reader;
+
+        private final String field;
+
+        private final String prefix;
+
+        private final int hash;
+
+        Key(IndexReader reader, String field, String prefix) {
+            this.reader = new WeakReference<IndexReader>(reader);
+            this.field = field;
+            this.prefix = prefix;
+            this.hash = System.identityHashCode(reader)
+                    ^ field.hashCode() ^ prefix.hashCode();
+        }
+
+        boolean isCleared() {
+            return reader.get() == null;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                IndexReader r = reader.get();
+                return r != null && r == other.reader.get()
+                        && field.equals(other.field)
+                        && prefix.equals(other.prefix);
+            }
+            return false;
+        }
+    }
+
+}
@@ -132,6 +132,24 @@ public class FSDirectoryManager implements DirectoryManager {
     public void dispose() {
     }
 
+    /**
+     * Returns the file system directory where the given directory stores its
+     * files.
+     *
+     * @param directory a directory.
+     * @return the file system directory or <code>null</code> if
+     *         <code>directory</code> is not backed by the file system.
+     */
+    public static File getFileSystemDirectory(Directory directory) {
+        if (directory instanceof FSDir) {
+            return ((FSDir) directory).directory.getDirectory();
+        } else if (directory instanceof FSDirectory) {
+            return ((FSDirectory) directory).getDirectory();
+        } else {
+            return null;
+        }
+    }
+
     //-----------------------< internal >---------------------------------------
 
     private static final class FSDir extends Directory {
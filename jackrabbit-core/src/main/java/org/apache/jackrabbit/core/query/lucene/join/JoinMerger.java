@@ -46,6 +46,7 @@ import javax.jcr.query.qom.SameNodeJoinCondition;
 import javax.jcr.query.qom.Selector;
 import javax.jcr.query.qom.Source;
 
+import org.apache.jackrabbit.commons.iterator.AbstractLazyIterator;
 import org.apache.jackrabbit.commons.iterator.RowIterable;
 import org.apache.jackrabbit.commons.iterator.RowIteratorAdapter;
 import org.apache.jackrabbit.commons.query.qom.OperandEvaluator;
@@ -154,7 +155,7 @@ abstract class JoinMerger {
         return rightSelectors;
     }
 
-    private Set<String> getSelectorNames(Source source)
+    static Set<String> getSelectorNames(Source source)
             throws RepositoryException {
         if (source instanceof Selector) {
             Selector selector = (Selector) source;
@@ -174,8 +175,8 @@ abstract class JoinMerger {
     /**
      * Merges the left and right dataset of a join query. Take special
      * precaution for outer joins, as extra checks are needed to distinguish
-     * 'null' nodes vs 'not to be included' nodes
-     * 
+     * 'null' nodes vs 'not to be included' nodes. The right rows are hashed,
+     * the joined rows are created while the result is iterated.
      * 
      * @param leftRows
      *            the left dataset of the join
@@ -192,23 +193,25 @@ abstract class JoinMerger {
      * @throws RepositoryException
      */
     public QueryResult merge(RowIterator leftRows, RowIterator rightRows,
-            Set<Row> excludingOuterJoinRowsSet, Comparator<Row> rowComparator)
-            throws RepositoryException {
-        Map<String, List<Row>> map = buildRightRowValues(rightRows);
+            final Set<Row> excludingOuterJoinRowsSet,
+            final Comparator<Row> rowComparator) throws RepositoryException {
+        final Map<String, List<Row>> map = buildRightRowValues(rightRows);
 
         if (JCR_JOIN_TYPE_INNER.equals(type) && !map.isEmpty()) {
-            List<Row> rows = new ArrayList<Row>();
-            for (Row leftRow : new RowIterable(leftRows)) {
-                for (String value : getLeftValues(leftRow)) {
-                    List<Row> matchingRows = map.get(value);
-                    if (matchingRows != null) {
-                        for (Row rightRow : matchingRows) {
-                            rows.add(mergeRow(leftRow, rightRow));
+            return asQueryResult(new ProbingIterator(leftRows) {
+                @Override
+                protected void probe(Row leftRow, List<Row> rows)
+                        throws RepositoryException {
+                    for (String value : getLeftValues(leftRow)) {
+                        List<Row> matchingRows = map.get(value);
+                        if (matchingRows != null) {
+                            for (Row rightRow : matchingRows) {
+                                rows.add(mergeRow(leftRow, rightRow));
+                            }
                         }
                     }
                 }
-            }
-            return asQueryResult(new RowIteratorAdapter(rows));
+            });
         }
 
         if (JCR_JOIN_TYPE_LEFT_OUTER.equals(type)) {
@@ -228,58 +231,179 @@ abstract class JoinMerger {
                         Collections.emptySet()));
             }
 
-            List<Row> rows = new ArrayList<Row>();
-            for (Row leftRow : new RowIterable(leftRows)) {
-                Set<String> leftValues = getLeftValues(leftRow);
-                if(leftValues.isEmpty()){
-                    leftValues.add(null);
-                }
-                for (String value : leftValues) {
-                    List<Row> matchingRows = map.get(value);
-                    if (matchingRows != null) {
-                        for (Row rightRow : matchingRows) {
-                            // I have possible WHERE clauses on the join that I
-                            // need to look at for each rightRow
-                            if (excludingOuterJoinRowsSet == null) {
-                                rows.add(mergeRow(leftRow, rightRow));
-                            } else {
-                                boolean isIncluded = false;
-                                // apparently
-                                // 'excludingOuterJoinRowsSet.contains' fails to
-                                // match rows
-
-                                // TODO can 'rightRow.getNode()' break because
-                                // of joins that are bigger than 2 way?
-                                // how does this perform for 3 way joins ?
-                                for (Row r : excludingOuterJoinRowsSet) {
-                                    if(rowComparator.compare(rightRow, r) == 0){
-                                        isIncluded = true;
-                                        break;
-                                    }
-                                }
-                                if (isIncluded) {
+            return asQueryResult(new ProbingIterator(leftRows) {
+                @Override
+                protected void probe(Row leftRow, List<Row> rows)
+                        throws RepositoryException {
+                    Set<String> leftValues = getLeftValues(leftRow);
+                    if(leftValues.isEmpty()){
+                        leftValues.add(null);
+                    }
+                    for (String value : leftValues) {
+                        List<Row> matchingRows = map.get(value);
+                        if (matchingRows != null) {
+                            for (Row rightRow : matchingRows) {
+                                // I have possible WHERE clauses on the join
+                                // that I need to look at for each rightRow
+                                if (excludingOuterJoinRowsSet == null) {
                                     rows.add(mergeRow(leftRow, rightRow));
+                                } else {
+                                    boolean isIncluded = false;
+                                    // apparently
+                                    // 'excludingOuterJoinRowsSet.contains'
+                                    // fails to match rows
+
+                                    // TODO can 'rightRow.getNode()' break
+                                    // because of joins that are bigger than
+                                    // 2 way?
+                                    // how does this perform for 3 way joins ?
+                                    for (Row r : excludingOuterJoinRowsSet) {
+                                        if(rowComparator.compare(rightRow, r) == 0){
+                                            isIncluded = true;
+                                            break;
+                                        }
+                                    }
+                                    if (isIncluded) {
+                                        rows.add(mergeRow(leftRow, rightRow));
+                                    }
                                 }
                             }
+                        } else {
+                            // No matches in an outer join -> add a null row,
+                            // if there are no 'WHERE' conditions
+                            if (excludingOuterJoinRowsSet == null) {
+                                rows.add(mergeRow(leftRow, null));
+                            }
                         }
-                    } else {
-                        // No matches in an outer join -> add a null row, if
-                        // there are no 'WHERE' conditions
-                        if (excludingOuterJoinRowsSet == null) {
-                            rows.add(mergeRow(leftRow, null));
+                    }
+                }
+            });
+        }
+        return asQueryResult(new RowIteratorAdapter(Collections.emptySet()));
+    }
+
+    /**
+     * Merges the left and right dataset of an inner join by hashing the left
+     * rows and probing them with the right rows. Used by the hash join when
+     * the left dataset is the smaller one.
+     *
+     * @param leftRows
+     *            the left dataset of the join
+     * @param rightRows
+     *            the right dataset of the join
+     * @return a QueryResult that has the final JOIN resultset
+     * @throws RepositoryException
+     */
+    public QueryResult mergeBuildLeft(RowIterator leftRows, RowIterator rightRows)
+            throws RepositoryException {
+        final Map<String, List<Row>> map = new HashMap<String, List<Row>>();
+        for (Row row : new RowIterable(leftRows)) {
+            for (String value : getLeftValues(row)) {
+                List<Row> rows = map.get(value);
+                if (rows == null) {
+                    rows = new ArrayList<Row>();
+                    map.put(value, rows);
+                }
+                rows.add(row);
+            }
+        }
+
+        if (map.isEmpty()) {
+            return asQueryResult(new RowIteratorAdapter(Collections.emptySet()));
+        }
+        return asQueryResult(new ProbingIterator(rightRows) {
+            @Override
+            protected void probe(Row rightRow, List<Row> rows)
+                    throws RepositoryException {
+                for (String value : getRightValues(rightRow)) {
+                    List<Row> matchingRows = map.get(value);
+                    if (matchingRows != null) {
+                        for (Row leftRow : matchingRows) {
+                            rows.add(mergeRow(leftRow, rightRow));
                         }
                     }
                 }
             }
-            return asQueryResult(new RowIteratorAdapter(rows));
+        });
+    }
+
+    /**
+     * Merges the left and right dataset of an inner join by sorting both by
+     * their join values and merging the sorted lists. The joined rows are
+     * created while the result is iterated.
+     *
+     * @param leftRows
+     *            the left dataset of the join
+     * @param rightRows
+     *            the right dataset of the join
+     * @return a QueryResult that has the final JOIN resultset
+     * @throws RepositoryException
+     */
+    public QueryResult mergeSorted(RowIterator leftRows, RowIterator rightRows)
+            throws RepositoryException {
+        final List<KeyedRow> left = new ArrayList<KeyedRow>();
+        for (Row row : new RowIterable(leftRows)) {
+            for (String value : getLeftValues(row)) {
+                left.add(new KeyedRow(value, row));
+            }
         }
-        return asQueryResult(new RowIteratorAdapter(Collections.emptySet()));
+        final List<KeyedRow> right = new ArrayList<KeyedRow>();
+        for (Row row : new RowIterable(rightRows)) {
+            for (String value : getRightValues(row)) {
+                right.add(new KeyedRow(value, row));
+            }
+        }
+        Collections.sort(left);
+        Collections.sort(right);
+
+        return asQueryResult(new MergingIterator() {
+
+            private int i = 0;
+
+            private int j = 0;
+
+            @Override
+            protected boolean merge(List<Row> rows) {
+                while (i < left.size() && j < right.size()) {
+                    String key = left.get(i).key;
+                    int c = key.compareTo(right.get(j).key);
+                    if (c < 0) {
+                        i++;
+                    } else if (c > 0) {
+                        j++;
+                    } else {
+                        int leftEnd = i;
+                        while (leftEnd < left.size() && key.equals(left.get(leftEnd).key)) {
+                            leftEnd++;
+                        }
+                        int rightEnd = j;
+                        while (rightEnd < right.size() && key.equals(right.get(rightEnd).key)) {
+                            rightEnd++;
+                        }
+                        for (int l = i; l < leftEnd; l++) {
+                            for (int r = j; r < rightEnd; r++) {
+                                rows.add(mergeRow(left.get(l).row, right.get(r).row));
+                            }
+                        }
+                        i = leftEnd;
+                        j = rightEnd;
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+        });
     }
 
     private QueryResult asQueryResult(RowIterator rowIterator) {
         return new SimpleQueryResult(columnNames, selectorNames, rowIterator);
     }
 
+    private QueryResult asQueryResult(MergingIterator iterator) {
+        return asQueryResult(new RowIteratorAdapter(iterator));
+    }
+
     private Map<String, List<Row>> buildRightRowValues(RowIterator rightRows)
             throws RepositoryException {
         Map<String, List<Row>> map = new HashMap<String, List<Row>>();
@@ -309,6 +433,99 @@ abstract class JoinMerger {
                 left, leftSelectors, right, rightSelectors);
     }
 
+    /**
+     * A row with one of its join values, sorted by the value.
+     */
+    private static class KeyedRow implements Comparable<KeyedRow> {
+
+        private final String key;
+
+        private final Row row;
+
+        KeyedRow(String key, Row row) {
+            this.key = key;
+            this.row = row;
+        }
+
+        public int compareTo(KeyedRow other) {
+            return key.compareTo(other.key);
+        }
+
+    }
+
+    /**
+     * Lazily merges the rows of a join. The joined rows are produced in
+     * small batches while the result is iterated, so that only the current
+     * batch of joined rows is held in memory.
+     */
+    private abstract static class MergingIterator
+            extends AbstractLazyIterator<Row> {
+
+        private final List<Row> batch = new ArrayList<Row>();
+
+        private int position = 0;
+
+        @Override
+        protected Row getNext() {
+            try {
+                while (position == batch.size()) {
+                    batch.clear();
+                    position = 0;
+                    if (!merge(batch)) {
+                        return null;
+                    }
+                }
+            } catch (RepositoryException e) {
+                throw new RuntimeException("Unable to merge the join rows", e);
+            }
+            return batch.get(position++);
+        }
+
+        /**
+         * Adds the next batch of joined rows to the given list.
+         *
+         * @param rows the list to add the joined rows to
+         * @return <code>false</code> if all rows have been merged
+         * @throws RepositoryException if the rows can not be merged
+         */
+        protected abstract boolean merge(List<Row> rows)
+                throws RepositoryException;
+
+    }
+
+    /**
+     * Merges the rows of one join side, one row at a time, with the hashed
+     * rows of the other side.
+     */
+    private abstract static class ProbingIterator extends MergingIterator {
+
+        private final RowIterator probeRows;
+
+        ProbingIterator(RowIterator probeRows) {
+            this.probeRows = probeRows;
+        }
+
+        @Override
+        protected boolean merge(List<Row> rows) throws RepositoryException {
+            if (!probeRows.hasNext()) {
+                return false;
+            }
+            probe(probeRows.nextRow(), rows);
+            return true;
+        }
+
+        /**
+         * Adds the joined rows of the given row to the given list.
+         *
+         * @param row a row of the probing join side
+         * @param rows the list to add the joined rows to
+         * @throws RepositoryException if the rows can not be merged
+         */
+        protected abstract void probe(Row row, List<Row> rows)
+                throws RepositoryException;
+
+    }
+
     public abstract Set<String> getLeftValues(Row row)
             throws RepositoryException;
 
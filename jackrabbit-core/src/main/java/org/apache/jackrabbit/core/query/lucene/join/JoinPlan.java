@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.join;
+
+/**
+ * The way the {@link QueryEngine} executes a single join, as chosen by the
+ * {@link JoinPlanner}.
+ */
+class JoinPlan {
+
+    enum Strategy {
+
+        /**
+         * Runs the left side, and then the right side restricted to the
+         * join values of the left rows. The right rows are hashed.
+         */
+        INDEX_NESTED_LOOP("INDEX NESTED LOOP JOIN"),
+
+        /**
+         * Runs both sides independently and hashes the rows of the build
+         * side.
+         */
+        HASH("HASH JOIN"),
+
+        /**
+         * Runs both sides independently, sorts both by the join value and
+         * merges them.
+         */
+        SORT_MERGE("SORT MERGE JOIN");
+
+        private final String name;
+
+        Strategy(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+
+    }
+
+    private final Strategy strategy;
+
+    private final boolean buildLeft;
+
+    private final long leftEstimate;
+
+    private final long rightEstimate;
+
+    JoinPlan(Strategy strategy, boolean buildLeft,
+            long leftEstimate, long rightEstimate) {
+        this.strategy = strategy;
+        this.buildLeft = buildLeft;
+        this.leftEstimate = leftEstimate;
+        this.rightEstimate = rightEstimate;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return <code>true</code> if the left rows are hashed and the right
+     *         rows probe them, <code>false</code> if it is the other way
+     *         round. Only used by the {@link Strategy#HASH hash join}.
+     */
+    public boolean isBuildLeft() {
+        return buildLeft;
+    }
+
+    public long getLeftEstimate() {
+        return leftEstimate;
+    }
+
+    public long getRightEstimate() {
+        return rightEstimate;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(strategy);
+        if (strategy == Strategy.HASH) {
+            sb.append(buildLeft ? " (build: left)" : " (build: right)");
+        }
+        sb.append(" estimated rows: left ").append(leftEstimate);
+        sb.append(", right ").append(rightEstimate);
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.join;
+
+import java.util.Locale;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.UnsupportedRepositoryOperationException;
+import javax.jcr.query.qom.Constraint;
+import javax.jcr.query.qom.Join;
+import javax.jcr.query.qom.QueryObjectModelFactory;
+import javax.jcr.query.qom.Selector;
+import javax.jcr.query.qom.Source;
+
+import org.apache.jackrabbit.core.query.lucene.LuceneQueryFactory;
+import org.apache.jackrabbit.core.query.lucene.join.JoinPlan.Strategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses how a join is executed, based on the number of rows of each join
+ * side as estimated from the index term statistics.
+ * <ul>
+ * <li>If the left side is small, and not larger than the right side, the
+ * right side is looked up in the index with the join values of the left
+ * rows ({@link Strategy#INDEX_NESTED_LOOP index nested loop join}).</li>
+ * <li>Inner equi-joins where both sides are very large are executed as a
+ * {@link Strategy#SORT_MERGE sort merge join}, which needs less memory per
+ * row than a hash table.</li>
+ * <li>Otherwise both sides are run independently and the smaller side is
+ * hashed ({@link Strategy#HASH hash join}). Outer joins always hash the
+ * right side, so that all left rows are kept.</li>
+ * </ul>
+ * Only equi-joins and descendant node joins are planned. Other joins, and
+ * outer joins with a constraint on the right side, are always executed as
+ * index nested loop joins.
+ */
+class JoinPlanner {
+
+    private static final Logger log = LoggerFactory.getLogger(JoinPlanner.class);
+
+    /**
+     * System property to force a join strategy, one of
+     * <code>INDEX_NESTED_LOOP</code>, <code>HASH</code> or
+     * <code>SORT_MERGE</code>. The strategy is only used for joins it
+     * applies to. Unknown values are ignored.
+     */
+    public static final String JOIN_STRATEGY_SYSTEM_PROPERTY =
+        "org.apache.jackrabbit.core.query.joinStrategy";
+
+    /**
+     * Maximum estimated number of left rows for an index nested loop join.
+     */
+    static final long INDEX_NESTED_LOOP_LIMIT = 1000;
+
+    /**
+     * Minimum estimated number of rows on both sides for a sort merge join.
+     */
+    static final long SORT_MERGE_LIMIT = 100000;
+
+    /**
+     * The last unknown value of the system property, so that it is only
+     * reported once.
+     */
+    private static volatile String invalidStrategy;
+
+    private final LuceneQueryFactory lqf;
+
+    private final QueryObjectModelFactory factory;
+
+    JoinPlanner(LuceneQueryFactory lqf, QueryObjectModelFactory factory) {
+        this.lqf = lqf;
+        this.factory = factory;
+    }
+
+    /**
+     * Plans the execution of a join without inner splits.
+     *
+     * @param merger the merger of the join
+     * @param csInfo the constraints of the join sides
+     * @param isOuterJoin whether this is a left outer join
+     * @return the join plan
+     * @throws RepositoryException if the index can not be accessed
+     */
+    public JoinPlan plan(JoinMerger merger, ConstraintSplitInfo csInfo,
+            boolean isOuterJoin) throws RepositoryException {
+        Join join = csInfo.getSource();
+        long left = estimate(join.getLeft(), csInfo.getLeftConstraint());
+        long right = estimate(join.getRight(), csInfo.getRightConstraint());
+
+        boolean equi = merger instanceof EquiJoinMerger;
+        boolean descendant = merger instanceof DescendantNodeJoinMerger;
+        boolean buildLeft = !isOuterJoin && left < right;
+        if ((!equi && !descendant)
+                || (isOuterJoin && csInfo.getRightConstraint() != null)) {
+            return new JoinPlan(Strategy.INDEX_NESTED_LOOP, false, left, right);
+        }
+
+        Strategy strategy = getForcedStrategy();
+        if (strategy != null) {
+            if (strategy != Strategy.SORT_MERGE || (equi && !isOuterJoin)) {
+                return new JoinPlan(strategy, buildLeft, left, right);
+            }
+        }
+
+        if (left <= INDEX_NESTED_LOOP_LIMIT && left <= right) {
+            return new JoinPlan(Strategy.INDEX_NESTED_LOOP, false, left, right);
+        } else if (equi && !isOuterJoin
+                && Math.min(left, right) > SORT_MERGE_LIMIT) {
+            return new JoinPlan(Strategy.SORT_MERGE, false, left, right);
+        } else {
+            return new JoinPlan(Strategy.HASH, buildLeft, left, right);
+        }
+    }
+
+    /**
+     * Returns the join strategy forced by the
+     * {@link #JOIN_STRATEGY_SYSTEM_PROPERTY system property}.
+     *
+     * @return the forced strategy, or <code>null</code> if the property is
+     *         not set or has an unknown value
+     */
+    static Strategy getForcedStrategy() {
+        String forced = System.getProperty(JOIN_STRATEGY_SYSTEM_PROPERTY);
+        if (forced == null) {
+            return null;
+        }
+        try {
+            return Strategy.valueOf(forced.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            if (!forced.equals(invalidStrategy)) {
+                invalidStrategy = forced;
+                log.warn("Ignoring unknown join strategy " + forced
+                        + " of system property " + JOIN_STRATEGY_SYSTEM_PROPERTY);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Estimates the number of rows of a join side. The estimate of a join
+     * is the larger estimate of its two sides.
+     *
+     * @param source the join side
+     * @param constraint the constraint on the join side, or
+     *                   <code>null</code>
+     * @return estimated number of rows
+     * @throws RepositoryException if the index can not be accessed
+     */
+    public long estimate(Source source, Constraint constraint)
+            throws RepositoryException {
+        if (source instanceof Selector) {
+            return lqf.estimate((Selector) source, constraint);
+        } else if (source instanceof Join) {
+            Join join = (Join) source;
+            Constraint leftConstraint = null;
+            Constraint rightConstraint = null;
+            if (constraint != null) {
+                try {
+                    ConstraintSplitInfo csInfo = new ConstraintSplitter(
+                            constraint, factory,
+                            JoinMerger.getSelectorNames(join.getLeft()),
+                            JoinMerger.getSelectorNames(join.getRight()),
+                            join).getConstraintSplitInfo();
+                    if (!csInfo.isMultiple()) {
+                        leftConstraint = csInfo.getLeftConstraint();
+                        rightConstraint = csInfo.getRightConstraint();
+                    }
+                } catch (UnsupportedRepositoryOperationException e) {
+                    // estimate without the constraint
+                }
+            }
+            return Math.max(
+                    estimate(join.getLeft(), leftConstraint),
+                    estimate(join.getRight(), rightConstraint));
+        } else {
+            throw new UnsupportedRepositoryOperationException(
+                    "Unknown source type: " + source);
+        }
+    }
+
+}
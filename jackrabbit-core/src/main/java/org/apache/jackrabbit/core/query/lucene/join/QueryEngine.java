@@ -25,9 +25,11 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -58,9 +60,12 @@ import javax.jcr.query.qom.Source;
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.commons.JcrUtils;
+import org.apache.jackrabbit.commons.iterator.AbstractLazyIterator;
+import org.apache.jackrabbit.commons.iterator.RangeIteratorAdapter;
 import org.apache.jackrabbit.commons.iterator.RowIteratorAdapter;
 import org.apache.jackrabbit.commons.query.qom.OperandEvaluator;
 import org.apache.jackrabbit.core.query.lucene.LuceneQueryFactory;
+import org.apache.jackrabbit.core.query.lucene.join.JoinPlan.Strategy;
 import org.apache.jackrabbit.core.query.lucene.sort.DynamicOperandFieldComparatorSource;
 import org.apache.jackrabbit.core.query.lucene.sort.RowComparator;
 import org.apache.lucene.search.Sort;
@@ -83,6 +88,12 @@ public class QueryEngine {
             .getProperty(NATIVE_SORT_SYSTEM_PROPERTY, "false"));
 
     private static final int printIndentStep = 4;
+
+    /**
+     * Maximum number of rows sorted in a bounded heap. Larger pages are
+     * sorted after collecting all rows.
+     */
+    private static final long MAX_TOP_ROWS = 100000;
     
     private final Session session;
 
@@ -96,6 +107,8 @@ public class QueryEngine {
 
     private final OperandEvaluator evaluator;
 
+    private final JoinPlanner planner;
+
     public QueryEngine(Session session, LuceneQueryFactory lqf,
             Map<String, Value> variables) throws RepositoryException {
         this.session = session;
@@ -106,6 +119,7 @@ public class QueryEngine {
         this.valueFactory = session.getValueFactory();
 
         this.evaluator = new OperandEvaluator(valueFactory, variables);
+        this.planner = new JoinPlanner(lqf, qomFactory);
     }
 
     public QueryResult execute(Column[] columns, Source source,
@@ -215,6 +229,12 @@ public class QueryEngine {
                     merger.getSelectorNames(), new RowIteratorAdapter(allRows));
         }
 
+        JoinPlan plan = planner.plan(merger, csInfo, isOuterJoin);
+        log.debug("{}SQL2 JOIN plan: {}", genString(printIndentation), plan);
+        if (plan.getStrategy() != Strategy.INDEX_NESTED_LOOP) {
+            return execute(merger, csInfo, plan, printIndentation);
+        }
+
         Set<Row> leftRows = buildLeftRowsJoin(csInfo, leftCo, printIndentation
                 + printIndentStep);
         if (log.isDebugEnabled()) {
@@ -274,6 +294,45 @@ public class QueryEngine {
 
     }
 
+    /**
+     * Executes a join whose sides are run independently of each other, as
+     * a hash or sort merge join.
+     *
+     * @param merger
+     *            the join merger
+     * @param csInfo
+     *            contains 'WHERE' constraints and the source information
+     * @param plan
+     *            the join plan
+     * @param printIndentation
+     *            used in logging
+     * @return the joined rows
+     * @throws RepositoryException
+     */
+    private QueryResult execute(JoinMerger merger, ConstraintSplitInfo csInfo,
+            JoinPlan plan, int printIndentation) throws RepositoryException {
+        long time = System.currentTimeMillis();
+        QueryResult left = execute(null, csInfo.getSource().getLeft(),
+                csInfo.getLeftConstraint(), null, 0, -1, printIndentation
+                        + printIndentStep);
+        QueryResult right = execute(null, csInfo.getSource().getRight(),
+                csInfo.getRightConstraint(), null, 0, -1, printIndentation
+                        + printIndentStep);
+        QueryResult result;
+        if (plan.getStrategy() == Strategy.SORT_MERGE) {
+            result = merger.mergeSorted(left.getRows(), right.getRows());
+        } else if (plan.isBuildLeft()) {
+            result = merger.mergeBuildLeft(left.getRows(), right.getRows());
+        } else {
+            result = merger.merge(left.getRows(), right.getRows(), null,
+                    new RowPathComparator(merger.getRightSelectors()));
+        }
+        log.debug("{}SQL2 JOIN {} took {} ms.", new Object[] {
+                genString(printIndentation), plan.getStrategy(),
+                System.currentTimeMillis() - time });
+        return result;
+    }
+
     private Set<Row> buildLeftRowsJoin(ConstraintSplitInfo csi,
             Comparator<Row> comparator, int printIndentation)
             throws RepositoryException {
@@ -437,6 +496,105 @@ public class QueryEngine {
         return sb.toString();
     }
 
+    /**
+     * Returns the execution plan of a query, without executing it. The plan
+     * shows how each join is executed and the estimated number of rows of
+     * each selector and join side.
+     *
+     * @param source
+     *            the query source
+     * @param constraint
+     *            the query constraint, or <code>null</code>
+     * @param orderings
+     *            the query orderings
+     * @param offset
+     *            result offset
+     * @param limit
+     *            result limit
+     * @return the execution plan
+     * @throws RepositoryException
+     *             if the plan can not be created
+     */
+    public String explain(Source source, Constraint constraint,
+            Ordering[] orderings, long offset, long limit)
+            throws RepositoryException {
+        StringBuilder sb = new StringBuilder();
+        int indentation = 0;
+        if ((orderings != null && orderings.length > 0) || offset != 0
+                || limit >= 0) {
+            sb.append("SORT");
+            if (orderings != null && orderings.length > 0) {
+                sb.append(" BY ").append(Arrays.toString(orderings));
+            }
+            if (offset != 0) {
+                sb.append(" OFFSET ").append(offset);
+            }
+            if (limit >= 0) {
+                sb.append(" LIMIT ").append(limit);
+            }
+            sb.append(IOUtils.LINE_SEPARATOR);
+            indentation += printIndentStep;
+        }
+        explain(source, constraint, indentation, sb);
+        return sb.toString();
+    }
+
+    private void explain(Source source, Constraint constraint,
+            int printIndentation, StringBuilder sb)
+            throws RepositoryException {
+        if (source instanceof Selector) {
+            sb.append(genString(printIndentation));
+            sb.append("SELECTOR ").append(source);
+            if (constraint != null) {
+                sb.append(" WHERE ").append(constraint);
+            }
+            sb.append(" estimated rows: ");
+            sb.append(planner.estimate(source, constraint));
+            sb.append(IOUtils.LINE_SEPARATOR);
+        } else if (source instanceof Join) {
+            Join join = (Join) source;
+            if (JCR_JOIN_TYPE_RIGHT_OUTER.equalsIgnoreCase(join.getJoinType())) {
+                join = qomFactory.join(join.getRight(), join.getLeft(),
+                        JCR_JOIN_TYPE_LEFT_OUTER, join.getJoinCondition());
+            }
+            JoinMerger merger = JoinMerger.getJoinMerger(join,
+                    Collections.<String, PropertyValue> emptyMap(), evaluator,
+                    qomFactory);
+            ConstraintSplitInfo csInfo = new ConstraintSplitter(constraint,
+                    qomFactory, merger.getLeftSelectors(),
+                    merger.getRightSelectors(), join).getConstraintSplitInfo();
+            explain(merger, csInfo, JCR_JOIN_TYPE_LEFT_OUTER
+                    .equalsIgnoreCase(join.getJoinType()), printIndentation, sb);
+        } else {
+            throw new UnsupportedRepositoryOperationException(
+                    "Unknown source type: " + source);
+        }
+    }
+
+    private void explain(JoinMerger merger, ConstraintSplitInfo csInfo,
+            boolean isOuterJoin, int printIndentation, StringBuilder sb)
+            throws RepositoryException {
+        Join join = csInfo.getSource();
+        sb.append(genString(printIndentation));
+        if (csInfo.isMultiple()) {
+            sb.append("UNION");
+            sb.append(IOUtils.LINE_SEPARATOR);
+            explain(merger, csInfo.getLeftInnerConstraints(), isOuterJoin,
+                    printIndentation + printIndentStep, sb);
+            explain(merger, csInfo.getRightInnerConstraints(), isOuterJoin,
+                    printIndentation + printIndentStep, sb);
+            return;
+        }
+        sb.append(isOuterJoin ? "LEFT OUTER " : "INNER ");
+        sb.append(planner.plan(merger, csInfo, isOuterJoin));
+        sb.append(" ON ").append(join.getJoinCondition());
+        sb.append(IOUtils.LINE_SEPARATOR);
+        explain(join.getLeft(), csInfo.getLeftConstraint(), printIndentation
+                + printIndentStep, sb);
+        explain(join.getRight(), csInfo.getRightConstraint(), printIndentation
+                + printIndentStep, sb);
+    }
+
     protected QueryResult execute(Column[] columns, Selector selector,
             Constraint constraint, Ordering[] orderings, long offset,
             long limit, int printIndentation) throws RepositoryException {
@@ -592,10 +750,13 @@ public class QueryEngine {
     }
 
     /**
-     * Sorts the given query results according to the given QOM orderings. If
-     * one or more orderings have been specified, this method will iterate
-     * through the entire original result set, order the collected rows, and
-     * return a new result set based on the sorted collection of rows.
+     * Sorts the given query results according to the given QOM orderings and
+     * applies the offset and limit. If one or more orderings have been
+     * specified, this method will iterate through the entire original result
+     * set. When a limit is given, only the first <code>offset + limit</code>
+     * rows are kept, in a bounded heap, otherwise all rows are collected and
+     * sorted. Without orderings the rows are not collected, the offset and
+     * limit are applied while the returned result is iterated.
      * 
      * @param result
      *            original query results
@@ -612,17 +773,19 @@ public class QueryEngine {
     protected static QueryResult sort(QueryResult result,
             final Ordering[] orderings, OperandEvaluator evaluator,
             long offset, long limit) throws RepositoryException {
-        if ((orderings != null && orderings.length > 0) || offset != 0
-                || limit >= 0) {
-            List<Row> rows = new ArrayList<Row>();
-
-            RowIterator iterator = result.getRows();
-            while (iterator.hasNext()) {
-                rows.add(iterator.nextRow());
-            }
-
-            if (orderings != null && orderings.length > 0) {
-                Collections.sort(rows, new RowComparator(orderings, evaluator));
+        if (orderings != null && orderings.length > 0) {
+            Comparator<Row> comparator = new RowComparator(orderings, evaluator);
+            List<Row> rows;
+            long count = Math.max(offset, 0) + limit;
+            if (limit >= 0 && limit <= MAX_TOP_ROWS && count <= MAX_TOP_ROWS) {
+                rows = top(result.getRows(), comparator, (int) count);
+            } else {
+                rows = new ArrayList<Row>();
+                RowIterator iterator = result.getRows();
+                while (iterator.hasNext()) {
+                    rows.add(iterator.nextRow());
+                }
+                Collections.sort(rows, comparator);
             }
 
             if (offset > 0) {
@@ -636,9 +799,124 @@ public class QueryEngine {
 
             return new SimpleQueryResult(result.getColumnNames(),
                     result.getSelectorNames(), new RowIteratorAdapter(rows));
+        } else if (offset > 0 || limit >= 0) {
+            return new SimpleQueryResult(result.getColumnNames(),
+                    result.getSelectorNames(), range(result.getRows(),
+                            Math.max(offset, 0), limit));
         } else {
             return result;
         }
     }
 
+    /**
+     * Returns the first rows of the given rows in the order of the given
+     * comparator. Rows that compare equal keep their original order, as in
+     * a stable sort. At most <code>count</code> rows are held in memory.
+     *
+     * @param iterator
+     *            the rows
+     * @param comparator
+     *            the row order
+     * @param count
+     *            the number of rows to return
+     * @return the first <code>count</code> rows, sorted
+     */
+    private static List<Row> top(RowIterator iterator,
+            final Comparator<Row> comparator, int count) {
+        List<Row> rows = new ArrayList<Row>();
+        if (count == 0) {
+            return rows;
+        }
+        // the head of the heap is the last of the rows kept so far
+        PriorityQueue<RankedRow> heap = new PriorityQueue<RankedRow>(
+                Math.min(count, 1024), new Comparator<RankedRow>() {
+                    public int compare(RankedRow a, RankedRow b) {
+                        int c = comparator.compare(b.row, a.row);
+                        if (c == 0) {
+                            c = b.rank < a.rank ? -1 : (b.rank == a.rank ? 0 : 1);
+                        }
+                        return c;
+                    }
+                });
+        long rank = 0;
+        while (iterator.hasNext()) {
+            Row row = iterator.nextRow();
+            if (heap.size() < count) {
+                heap.add(new RankedRow(row, rank));
+            } else if (comparator.compare(row, heap.peek().row) < 0) {
+                heap.poll();
+                heap.add(new RankedRow(row, rank));
+            }
+            rank++;
+        }
+        while (!heap.isEmpty()) {
+            rows.add(heap.poll().row);
+        }
+        Collections.reverse(rows);
+        return rows;
+    }
+
+    /**
+     * Returns an iterator that skips the first <code>offset</code> rows of
+     * the given rows and then returns at most <code>limit</code> rows. The
+     * given rows are only read while the returned iterator is used.
+     *
+     * @param iterator
+     *            the rows
+     * @param offset
+     *            number of rows to skip
+     * @param limit
+     *            maximum number of rows, or -1 for no limit
+     * @return the rows in the range
+     */
+    private static RowIterator range(final RowIterator iterator,
+            final long offset, final long limit) {
+        long size = iterator.getSize();
+        if (size >= 0) {
+            size = Math.max(size - offset, 0);
+            if (limit >= 0) {
+                size = Math.min(size, limit);
+            }
+        }
+        Iterator<Row> rows = new AbstractLazyIterator<Row>() {
+
+            private boolean skipped = false;
+
+            private long count = 0;
+
+            @Override
+            protected Row getNext() {
+                if (!skipped) {
+                    for (long i = 0; i < offset && iterator.hasNext(); i++) {
+                        iterator.nextRow();
+                    }
+                    skipped = true;
+                }
+                if ((limit >= 0 && count >= limit) || !iterator.hasNext()) {
+                    return null;
+                }
+                count++;
+                return iterator.nextRow();
+            }
+
+        };
+        return new RowIteratorAdapter(new RangeIteratorAdapter(rows, size));
+    }
+
+    /**
+     * A row with its position in the unsorted result.
+     */
+    private static class RankedRow {
+
+        private final Row row;
+
+        private final long rank;
+
+        RankedRow(Row row, long rank) {
+            this.row = row;
+            this.rank = rank;
+        }
+
+    }
+
 }
@@ -201,6 +201,34 @@ public interface AccessManager {
      */
     boolean canRead(Path itemPath, ItemId itemId) throws RepositoryException;
 
+    /**
+     * Determines for each of the given persisted items whether it can be
+     * read. This is the bulk variant of {@link #canRead(Path, ItemId)},
+     * which allows an implementation to evaluate a block of items at once,
+     * e.g. when filtering query results.<br>
+     * Items that do not exist (anymore) are reported as readable, accessing
+     * them fails with an <code>ItemNotFoundException</code> as usual.<br>
+     * The default implementation evaluates {@link #canRead(Path, ItemId)}
+     * for each item.
+     *
+     * @param itemIds Ids of the items to be tested.
+     * @return for each of the given <code>itemIds</code>, <code>true</code>
+     * if the item can be read; otherwise <code>false</code>.
+     * @throws RepositoryException if an error occurs.
+     */
+    default boolean[] canRead(ItemId[] itemIds) throws RepositoryException {
+        boolean[] canRead = new boolean[itemIds.length];
+        for (int i = 0; i < itemIds.length; i++) {
+            try {
+                canRead[i] = canRead(null, itemIds[i]);
+            } catch (ItemNotFoundException e) {
+                // item does not exist anymore
+                canRead[i] = true;
+            }
+        }
+        return canRead;
+    }
+
     /**
      * Determines whether the subject of the current context is granted access
      * to the given workspace. Note that an implementation is free to test for
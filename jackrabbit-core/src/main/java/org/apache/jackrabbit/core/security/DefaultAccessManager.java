@@ -266,6 +266,20 @@ public class DefaultAccessManager extends AbstractAccessControlManager implement
         }
     }
 
+    /**
+     * @see AccessManager#canRead(ItemId[])
+     */
+    public boolean[] canRead(ItemId[] itemIds) throws RepositoryException {
+        checkInitialized();
+        if (compiledPermissions.canReadAll()) {
+            boolean[] canRead = new boolean[itemIds.length];
+            Arrays.fill(canRead, true);
+            return canRead;
+        } else {
+            return compiledPermissions.canRead(itemIds);
+        }
+    }
+
     /**
      * @see AccessManager#canAccess(String)
      */
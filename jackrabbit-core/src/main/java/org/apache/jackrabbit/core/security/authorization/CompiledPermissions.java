@@ -19,6 +19,7 @@ package org.apache.jackrabbit.core.security.authorization;
 import org.apache.jackrabbit.spi.Path;
 import org.apache.jackrabbit.core.id.ItemId;
 
+import javax.jcr.ItemNotFoundException;
 import javax.jcr.RepositoryException;
 import javax.jcr.security.Privilege;
 import java.util.Collections;
@@ -119,6 +120,33 @@ public interface CompiledPermissions {
      */
     boolean canRead(Path itemPath, ItemId itemId) throws RepositoryException;
 
+    /**
+     * Returns for each of the given <i>existing</i> items whether READ
+     * permission is granted. This is the bulk variant of
+     * {@link #canRead(Path, ItemId)}, which allows implementations to share
+     * the evaluation between the items of a block, e.g. between siblings.
+     * Items that do not exist (anymore) are reported as readable. The
+     * default implementation evaluates {@link #canRead(Path, ItemId)} for
+     * each item.
+     *
+     * @param itemIds The ids of the items.
+     * @return for each of the given <code>itemIds</code>, <code>true</code>
+     * if the READ permission is granted.
+     * @throws RepositoryException If an error occurs.
+     */
+    default boolean[] canRead(ItemId[] itemIds) throws RepositoryException {
+        boolean[] canRead = new boolean[itemIds.length];
+        for (int i = 0; i < itemIds.length; i++) {
+            try {
+                canRead[i] = canRead(null, itemIds[i]);
+            } catch (ItemNotFoundException e) {
+                // item does not exist anymore
+                canRead[i] = true;
+            }
+        }
+        return canRead;
+    }
+
     /**
      * Static implementation of a <code>CompiledPermissions</code> that doesn't
      * grant any permissions at all.
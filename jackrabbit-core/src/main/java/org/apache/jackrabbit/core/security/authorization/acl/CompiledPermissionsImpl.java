@@ -43,6 +43,7 @@ import javax.jcr.ItemNotFoundException;
 import javax.jcr.RepositoryException;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -266,26 +267,88 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
                     Result result = buildResult(node, isExistingNode, isAcItem, filter);
                     canRead = result.grants(Permission.READ);
                 } else {
-                    /*
-                     simplified evaluation focusing on READ permission. this allows
-                     to omit evaluation of parent node permissions that are
-                     required when calculating the complete set of permissions
-                     (see special treatment of remove, create or ac-specific
-                      permissions).
-                     */
-                    for (Entry ace : entryCollector.collectEntries(node, filter)) {
-                        if (ace.getPrivilegeBits().includesRead()) {
-                            canRead = ace.isAllow();
-                            break;
+                    canRead = canRead(node, filter);
+                }
+                readCache.put(id, canRead);
+            }
+        }
+        return canRead;
+    }
+
+    /**
+     * Evaluates the READ permission of a block of items. Nodes that are
+     * neither access controlled nor access control content have the same
+     * effective entries as their siblings. Unless one of these entries has a
+     * restriction that matched the path of the node, the READ permission
+     * evaluated for one such node is used for its siblings in the block.
+     *
+     * @see org.apache.jackrabbit.core.security.authorization.CompiledPermissions#canRead(ItemId[])
+     */
+    @Override
+    public boolean[] canRead(ItemId[] itemIds) throws RepositoryException {
+        boolean[] canRead = new boolean[itemIds.length];
+        // READ permission shared by the siblings below a parent node
+        Map<NodeId, Boolean> siblings = new HashMap<NodeId, Boolean>();
+        ItemManager itemMgr = session.getItemManager();
+        synchronized (monitor) {
+            for (int i = 0; i < itemIds.length; i++) {
+                ItemId id = itemIds[i];
+                Boolean cached = readCache.get(id);
+                if (cached != null) {
+                    canRead[i] = cached;
+                    continue;
+                }
+                try {
+                    if (!id.denotesNode()) {
+                        canRead[i] = canRead(null, id);
+                        continue;
+                    }
+                    NodeImpl node = (NodeImpl) itemMgr.getItem(id);
+                    NodeId parentId = node.getParentId();
+                    if (parentId == null || util.isAcItem(node)
+                            || ACLProvider.isAccessControlled(node)) {
+                        canRead[i] = canRead(null, id);
+                        continue;
+                    }
+                    Boolean result = siblings.get(parentId);
+                    if (result == null) {
+                        EntryFilterImpl filter = new EntryFilterImpl(principalNames, id, session);
+                        result = canRead(node, filter);
+                        if (!filter.isPathDependent()) {
+                            siblings.put(parentId, result);
                         }
                     }
+                    readCache.put(id, result);
+                    canRead[i] = result;
+                } catch (ItemNotFoundException e) {
+                    // item does not exist anymore
+                    canRead[i] = true;
                 }
-                readCache.put(id, canRead);
             }
         }
         return canRead;
     }
 
+    /**
+     * Simplified evaluation focusing on READ permission. This allows to omit
+     * evaluation of parent node permissions that are required when
+     * calculating the complete set of permissions (see special treatment of
+     * remove, create or ac-specific permissions).
+     *
+     * @param node The node, which must not be access control content.
+     * @param filter The entry filter for the node.
+     * @return <code>true</code> if READ permission is granted.
+     * @throws RepositoryException If an error occurs.
+     */
+    private boolean canRead(NodeImpl node, EntryFilterImpl filter) throws RepositoryException {
+        for (Entry ace : entryCollector.collectEntries(node, filter)) {
+            if (ace.getPrivilegeBits().includesRead()) {
+                return ace.isAllow();
+            }
+        }
+        return false;
+    }
+
     //----------------------------------------< ACLModificationListener >---
     /**
      * @see org.apache.jackrabbit.core.security.authorization.AccessControlListener#acModified(org.apache.jackrabbit.core.security.authorization.AccessControlModifications)
@@ -42,6 +42,8 @@ class EntryFilterImpl implements EntryFilter {
 
     private String itemPath;
 
+    private boolean pathDependent;
+
     EntryFilterImpl(Collection<String> principalNames, final ItemId id, final SessionImpl sessionImpl) {
         this.principalNames = principalNames;
         this.pathProvider = new PathProvider() {
@@ -107,6 +109,7 @@ class EntryFilterImpl implements EntryFilter {
             } else {
                 // there is a glob-restriction: check if the target path matches
                 // this entry.
+                pathDependent = true;
                 try {
                     return entry.matches(getPath());
                 } catch (RepositoryException e) {
@@ -119,6 +122,15 @@ class EntryFilterImpl implements EntryFilter {
         return false;
     }
 
+    /**
+     * @return <code>true</code> if an entry with a restriction was matched
+     * against the path of the target item, i.e. if the filtered entries
+     * depend on the exact path and not only on the ancestors of the item.
+     */
+    boolean isPathDependent() {
+        return pathDependent;
+    }
+
     String getPath() throws RepositoryException {
         if (itemPath == null) {
             itemPath = pathProvider.getPath();
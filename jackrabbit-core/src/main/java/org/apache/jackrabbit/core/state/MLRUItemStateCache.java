@@ -20,7 +20,7 @@ import java.util.List;
 
 import org.apache.commons.collections.map.LinkedMap;
 import org.apache.jackrabbit.core.cache.CacheManager;
-import org.apache.jackrabbit.core.cache.ConcurrentCache;
+import org.apache.jackrabbit.core.cache.KeyValueCache;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,8 +46,8 @@ public class MLRUItemStateCache implements ItemStateCache {
     /** the number of writes */
     private volatile long numWrites = 0;
 
-    private final ConcurrentCache<ItemId, ItemState> cache =
-        new ConcurrentCache<ItemId, ItemState>(MLRUItemStateCache.class.getSimpleName());
+    private final KeyValueCache<ItemId, ItemState> cache =
+        CacheManager.createCache(MLRUItemStateCache.class.getSimpleName());
 
     public MLRUItemStateCache(CacheManager cacheMgr) {
         cache.setMaxMemorySize(DEFAULT_MAX_MEM);
@@ -30,6 +30,7 @@ import javax.jcr.nodetype.NoSuchNodeTypeException;
 import org.apache.jackrabbit.core.RepositoryImpl;
 import org.apache.jackrabbit.core.cluster.ClusterException;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
+import org.apache.jackrabbit.core.gc.BinaryReferenceLog;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.NodeIdFactory;
@@ -190,6 +191,12 @@ public class SharedItemStateManager
 
     private final NodeIdFactory nodeIdFactory;
 
+    /**
+     * Log of the binary references stored by this SISM, or <code>null</code>
+     * if the incremental data store garbage collection is not used.
+     */
+    private volatile BinaryReferenceLog referenceLog;
+
     /**
      * Creates a new <code>SharedItemStateManager</code> instance.
      *
@@ -239,6 +246,16 @@ public class SharedItemStateManager
         this.eventChannel = eventChannel;
     }
 
+    /**
+     * Set the log that records the binary references of the change logs
+     * stored by this SISM.
+     *
+     * @param referenceLog binary reference log, or <code>null</code>
+     */
+    public void setBinaryReferenceLog(BinaryReferenceLog referenceLog) {
+        this.referenceLog = referenceLog;
+    }
+
     /**
      * Sets a new locking strategy.
      *
@@ -796,6 +813,11 @@ public class SharedItemStateManager
                 persistMgr.store(shared);
                 setAttribute(ATTRIBUTE_UPDATE_SIZE, shared.getUpdateSize());
                 succeeded = true;
+                BinaryReferenceLog referenceLog =
+                    SharedItemStateManager.this.referenceLog;
+                if (referenceLog != null) {
+                    referenceLog.persisted(shared);
+                }
                 if (log.isDebugEnabled()) {
                     long t1 = System.currentTimeMillis();
                     log.debug("persisting change log " + shared + " took " + (t1 - t0) + "ms");
@@ -853,19 +875,23 @@ public class SharedItemStateManager
                 eventChannel.updateCommitted(this, path);
                 setAttribute(ATTRIBUTE_UPDATE_SIZE, null);
 
-                if (writeLock != null) {
-                    // exception occurred before downgrading lock
-                    writeLock.release();
-                    writeLock = null;
-                } else if (readLock != null) {
-                    try {
-                        if (succeeded) {
-                            /* dispatch the events */
-                            events.dispatch();
+                try {
+                    if (writeLock != null) {
+                        // exception occurred before downgrading lock
+                        writeLock.release();
+                        writeLock = null;
+                    } else if (readLock != null) {
+                        try {
+                            if (succeeded) {
+                                /* dispatch the events */
+                                events.dispatch();
+                            }
+                        } finally {
+                            readLock.release();
                         }
-                    } finally {
-                        readLock.release();
                     }
+                } finally {
+                    eventChannel.updateDispatched(this);
                 }
 
             }
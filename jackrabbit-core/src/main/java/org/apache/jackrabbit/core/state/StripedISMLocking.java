@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import static org.apache.jackrabbit.data.core.TransactionContext.getCurrentThreadId;
+import static org.apache.jackrabbit.data.core.TransactionContext.isSameThreadId;
+
+import java.util.BitSet;
+import java.util.concurrent.locks.StampedLock;
+
+import org.apache.jackrabbit.core.id.ItemId;
+
+/**
+ * Item state locking strategy that partitions the item ids over a fixed
+ * number of stripes, each protected by a {@link StampedLock}. A reader only
+ * takes the read lock of the stripe of the requested item, so readers never
+ * contend on a shared monitor. A writer takes the write locks of all stripes
+ * touched by its change log, which blocks only the readers of those stripes.
+ * <p>
+ * Readers first try to acquire their stripe without blocking, which succeeds
+ * whenever no writer holds or waits for the stripe. Only if that fails they
+ * check whether the current writer belongs to the same thread or transaction,
+ * in which case they pass without taking the stripe lock.
+ * <p>
+ * Writers are serialized: only one write lock (possibly re-acquired by
+ * related threads) is active at a time. The stripes of a change log are
+ * acquired all at once or not at all, so that a writer never holds some
+ * stripes while waiting for others. A write lock of a related thread only
+ * acquires the stripes of its change log that are not held by the writer
+ * yet. A downgraded write lock releases all stripes, but keeps other writers
+ * out until it is released.
+ * <p>
+ * Use the following configuration to enable this strategy:
+ * <pre>
+ *   &lt;ISMLocking class="org.apache.jackrabbit.core.state.StripedISMLocking"/&gt;
+ * </pre>
+ */
+public class StripedISMLocking implements ISMLocking {
+
+    /**
+     * The default number of stripes.
+     */
+    private static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * The stripes, the length is a power of two.
+     */
+    private final StampedLock[] stripes;
+
+    /**
+     * The thread identifier of the current writer, or <code>null</code> if
+     * there is none. Read without synchronization by readers that could not
+     * acquire their stripe.
+     */
+    private volatile Object writerId;
+
+    /**
+     * Number of acquired write locks, all sharing the {@link #writerId}.
+     * Guarded by <code>this</code>.
+     */
+    private int writerCount;
+
+    /**
+     * Number of read locks that have been acquired by threads related to the
+     * writer, including downgraded write locks. While greater than zero, the
+     * {@link #writerId} is retained. Guarded by <code>this</code>.
+     */
+    private int writerReaderCount;
+
+    /**
+     * The stripes held by the write locks of the current writer. Guarded by
+     * <code>this</code>.
+     */
+    private final BitSet writerStripes;
+
+    /**
+     * Read lock of a thread related to the current writer.
+     */
+    private final ReadLock writerReadLock = new ReadLock() {
+        public void release() {
+            releaseWriterReadLock();
+        }
+    };
+
+    /**
+     * Creates a new locking strategy with the default number of stripes.
+     */
+    public StripedISMLocking() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a new locking strategy.
+     *
+     * @param concurrency the minimum number of stripes
+     */
+    public StripedISMLocking(int concurrency) {
+        int n = 1;
+        while (n < concurrency) {
+            n <<= 1;
+        }
+        stripes = new StampedLock[n];
+        writerStripes = new BitSet(n);
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ReadLock acquireReadLock(ItemId id) throws InterruptedException {
+        final StampedLock stripe = stripes[stripeIndex(id)];
+        long stamp = stripe.tryReadLock();
+        if (stamp == 0) {
+            if (writerId != null) {
+                Object currentId = getCurrentThreadId();
+                synchronized (this) {
+                    if (isSameThreadId(writerId, currentId)) {
+                        writerReaderCount++;
+                        return writerReadLock;
+                    }
+                }
+            }
+            stamp = stripe.readLockInterruptibly();
+        }
+        final long readStamp = stamp;
+        return new ReadLock() {
+            public void release() {
+                stripe.unlockRead(readStamp);
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public WriteLock acquireWriteLock(ChangeLog changeLog)
+            throws InterruptedException {
+        BitSet indexes = new BitSet(stripes.length);
+        for (ItemState state : changeLog.addedStates()) {
+            indexes.set(stripeIndex(state.getId()));
+        }
+        for (ItemState state : changeLog.modifiedStates()) {
+            indexes.set(stripeIndex(state.getId()));
+        }
+        for (ItemState state : changeLog.deletedStates()) {
+            indexes.set(stripeIndex(state.getId()));
+        }
+        for (NodeReferences refs : changeLog.modifiedRefs()) {
+            indexes.set(stripeIndex(refs.getTargetId()));
+        }
+
+        Object currentId = getCurrentThreadId();
+        synchronized (this) {
+            while (writerId != null && !isSameThreadId(writerId, currentId)) {
+                wait();
+            }
+            writerId = currentId;
+            writerCount++;
+            // a related thread may already hold some of the stripes
+            indexes.andNot(writerStripes);
+        }
+
+        long[] stamps = new long[stripes.length];
+        boolean success = false;
+        try {
+            lockStripes(indexes, stamps);
+            synchronized (this) {
+                writerStripes.or(indexes);
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                releaseWriter(false);
+            }
+        }
+        return new WriteLockImpl(indexes, stamps);
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    /**
+     * Acquires the write locks of the given stripes. If a stripe can not be
+     * acquired immediately, all stripes acquired so far are released before
+     * waiting for it, so that the stripes are acquired all at once.
+     *
+     * @param indexes indexes of the stripes to lock
+     * @param stamps receives the stamps of the acquired stripes
+     * @throws InterruptedException if interrupted while waiting for a stripe
+     */
+    private void lockStripes(BitSet indexes, long[] stamps)
+            throws InterruptedException {
+        int blocking = -1;
+        for (;;) {
+            boolean acquired = true;
+            for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+                if (i != blocking) {
+                    stamps[i] = stripes[i].tryWriteLock();
+                    if (stamps[i] == 0) {
+                        blocking = i;
+                        acquired = false;
+                        break;
+                    }
+                }
+            }
+            if (acquired) {
+                return;
+            }
+            unlockStripes(stamps, blocking);
+            stamps[blocking] = stripes[blocking].writeLockInterruptibly();
+        }
+    }
+
+    /**
+     * Releases the write locks of all stripes with a non-zero stamp, except
+     * the stripe with the given index.
+     */
+    private void unlockStripes(long[] stamps, int except) {
+        for (int i = 0; i < stamps.length; i++) {
+            if (stamps[i] != 0 && i != except) {
+                stripes[i].unlockWrite(stamps[i]);
+                stamps[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Releases the write locks of the given stripes held by a write lock of
+     * the current writer.
+     */
+    private void releaseStripes(BitSet indexes, long[] stamps) {
+        synchronized (this) {
+            writerStripes.andNot(indexes);
+        }
+        unlockStripes(stamps, -1);
+    }
+
+    /**
+     * Decrements the writer count, optionally turning the write lock into a
+     * related read lock, and wakes up waiting writers once the writer
+     * identifier is cleared.
+     */
+    private synchronized void releaseWriter(boolean downgrade) {
+        writerCount--;
+        if (downgrade) {
+            writerReaderCount++;
+        }
+        if (writerCount == 0 && writerReaderCount == 0) {
+            writerId = null;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Releases a read lock of a thread related to the writer. Used by the
+     * {@link #writerReadLock} instance.
+     */
+    private synchronized void releaseWriterReadLock() {
+        writerReaderCount--;
+        if (writerCount == 0 && writerReaderCount == 0) {
+            writerId = null;
+            notifyAll();
+        }
+    }
+
+    private int stripeIndex(ItemId id) {
+        int h = id.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h & (stripes.length - 1);
+    }
+
+    private final class WriteLockImpl implements WriteLock {
+
+        /**
+         * Indexes of the stripes acquired by this write lock. Stripes that
+         * were already held by another write lock of the same writer are
+         * not included.
+         */
+        private final BitSet indexes;
+
+        /**
+         * Stamps of the acquired stripes.
+         */
+        private final long[] stamps;
+
+        WriteLockImpl(BitSet indexes, long[] stamps) {
+            this.indexes = indexes;
+            this.stamps = stamps;
+        }
+
+        public void release() {
+            releaseStripes(indexes, stamps);
+            releaseWriter(false);
+        }
+
+        public ReadLock downgrade() {
+            releaseStripes(indexes, stamps);
+            releaseWriter(true);
+            return writerReadLock;
+        }
+
+    }
+
+}
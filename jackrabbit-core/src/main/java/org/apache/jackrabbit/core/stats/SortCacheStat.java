@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the caches that hold the sort values of the search indexes
+ * of a repository.
+ */
+public class SortCacheStat {
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong buildTime = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong memoryUsed = new AtomicLong();
+
+    /**
+     * Records a lookup that found the sort values in the cache.
+     */
+    public void hit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Records a lookup that had to read the sort values from the index.
+     *
+     * @param time the time in milliseconds it took to read the values
+     * @param bytes the estimated size of the values in bytes
+     */
+    public void built(long time, long bytes) {
+        misses.incrementAndGet();
+        buildTime.addAndGet(time);
+        memoryUsed.addAndGet(bytes);
+    }
+
+    /**
+     * Records the removal of sort values from the cache.
+     *
+     * @param bytes the estimated size of the values in bytes
+     */
+    public void evicted(long bytes) {
+        evictions.incrementAndGet();
+        memoryUsed.addAndGet(-bytes);
+    }
+
+    /**
+     * @return the number of lookups answered from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that read the values from the index.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the total time in milliseconds spent reading values from the
+     *         index.
+     */
+    public long getBuildTime() {
+        return buildTime.get();
+    }
+
+    /**
+     * @return the number of values removed from the cache.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the estimated size in bytes of all cached values.
+     */
+    public long getMemoryUsed() {
+        return memoryUsed.get();
+    }
+
+    /**
+     * Resets the counters. The memory in use is not reset.
+     */
+    public void reset() {
+        hits.set(0);
+        misses.set(0);
+        buildTime.set(0);
+        evictions.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "SortCacheStat[hits=" + getHitCount()
+                + ", misses=" + getMissCount()
+                + ", buildTime=" + getBuildTime()
+                + "ms, evictions=" + getEvictionCount()
+                + ", memoryUsed=" + getMemoryUsed() + "]";
+    }
+
+}
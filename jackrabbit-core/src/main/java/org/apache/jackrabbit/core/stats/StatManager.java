@@ -39,6 +39,8 @@ public class StatManager {
     /* STAT OBJECTS */
     private final QueryStatCore queryStat = new QueryStatImpl();
 
+    private final SortCacheStat sortCacheStat = new SortCacheStat();
+
     public StatManager() {
         init();
     }
@@ -56,4 +58,8 @@ public class StatManager {
         return queryStat;
     }
 
+    public SortCacheStat getSortCacheStat() {
+        return sortCacheStat;
+    }
+
 }
@@ -21,9 +21,11 @@ import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.data.DataRecord;
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.data.DataStoreException;
+import org.apache.jackrabbit.core.data.RandomAccessDataRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 import javax.jcr.RepositoryException;
@@ -104,6 +106,19 @@ class BLOBInDataStore extends BLOBFileValue implements ReferenceBinary {
         return getDataRecord().getStream();
     }
 
+    /**
+     * Reads the bytes directly at the given position if the data record
+     * supports random access, instead of skipping the bytes before it.
+     */
+    @Override
+    public int read(byte[] b, long position) throws IOException, RepositoryException {
+        DataRecord record = getDataRecord();
+        if (record instanceof RandomAccessDataRecord) {
+            return ((RandomAccessDataRecord) record).read(position, b, 0, b.length);
+        }
+        return super.read(b, position);
+    }
+
     @Override
     public String getReference() {
         try {
@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.value;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 import javax.jcr.RepositoryException;
@@ -138,6 +139,11 @@ public class RefCountingBLOBFileValue extends BLOBFileValue {
         return value.getStream();
     }
 
+    @Override
+    public int read(byte[] b, long position) throws IOException, RepositoryException {
+        return value.read(b, position);
+    }
+
     @Override
     protected void finalize() throws Throwable {
         if (!disposed) {
@@ -157,6 +163,12 @@ public class RefCountingBLOBFileValue extends BLOBFileValue {
             return getInternalValue().getStream();
         }
 
+        @Override
+        public int read(byte[] b, long position) throws IOException, RepositoryException {
+            checkDisposed();
+            return getInternalValue().read(b, position);
+        }
+
         public long getSize() throws RepositoryException {
             checkDisposed();
             return getInternalValue().getSize();
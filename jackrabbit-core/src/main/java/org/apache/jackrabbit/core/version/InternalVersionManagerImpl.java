@@ -34,6 +34,7 @@ import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
 import org.apache.jackrabbit.core.cluster.UpdateEventListener;
 import org.apache.jackrabbit.core.fs.FileSystem;
+import org.apache.jackrabbit.core.gc.BinaryReferenceLog;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.NodeIdFactory;
@@ -518,6 +519,16 @@ public class InternalVersionManagerImpl extends InternalVersionManagerBase
         eventChannel.setListener(this);
     }
 
+    /**
+     * Set the log that records the binary references stored in the version
+     * storage.
+     *
+     * @param referenceLog binary reference log, or <code>null</code>
+     */
+    public void setBinaryReferenceLog(BinaryReferenceLog referenceLog) {
+        sharedStateMgr.setBinaryReferenceLog(referenceLog);
+    }
+
     /**
      * {@inheritDoc}
      */
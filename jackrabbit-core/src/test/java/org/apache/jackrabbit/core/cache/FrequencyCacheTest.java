@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the {@link FrequencyCache} class.
+ */
+public class FrequencyCacheTest extends TestCase {
+
+    /**
+     * Tests that excess items are evicted and that the memory estimate
+     * matches the cached entries.
+     */
+    public void testMemoryLimit() {
+        FrequencyCache<NodeId, NodeId> cache =
+            new FrequencyCache<NodeId, NodeId>("test");
+        cache.setMaxMemorySize(500);
+
+        for (int i = 0; i < 1000; i++) {
+            NodeId id = NodeId.randomId();
+            cache.put(id, id, 1 + i % 3);
+            cache.get(id);
+        }
+
+        assertTrue(cache.getMemoryUsed() <= 500);
+        assertTrue(cache.getMemoryUsed() > 250);
+
+        List<NodeId> values = cache.values();
+        for (NodeId id : values) {
+            assertTrue(cache.containsKey(id));
+        }
+        assertEquals(values.size(), cache.getElementCount());
+
+        cache.setMaxMemorySize(100);
+        assertTrue(cache.getMemoryUsed() <= 100);
+
+        cache.clear();
+        assertTrue(cache.isEmpty());
+        assertEquals(0, cache.getElementCount());
+    }
+
+    /**
+     * Tests that frequently accessed items survive a scan over many items
+     * that are only accessed once.
+     */
+    public void testScanResistance() {
+        NodeId[] hot = new NodeId[100];
+        FrequencyCache<NodeId, NodeId> cache =
+            new FrequencyCache<NodeId, NodeId>("test");
+        cache.setMaxMemorySize(200);
+
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = NodeId.randomId();
+            cache.put(hot[i], hot[i], 1);
+        }
+        for (int j = 0; j < 10; j++) {
+            for (int i = 0; i < hot.length; i++) {
+                assertEquals(hot[i], cache.get(hot[i]));
+            }
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            NodeId id = NodeId.randomId();
+            if (cache.get(id) == null) {
+                cache.put(id, id, 1);
+            }
+        }
+
+        int n = 0;
+        for (int i = 0; i < hot.length; i++) {
+            if (cache.containsKey(hot[i])) {
+                n++;
+            }
+        }
+        assertTrue(n + " of " + hot.length, n > hot.length * 9 / 10);
+    }
+
+    /**
+     * Tests replacing and removing entries.
+     */
+    public void testReplaceAndRemove() {
+        FrequencyCache<String, String> cache =
+            new FrequencyCache<String, String>("test");
+        cache.setMaxMemorySize(100);
+
+        assertNull(cache.put("a", "1", 10));
+        assertEquals("1", cache.put("a", "2", 20));
+        assertEquals("2", cache.get("a"));
+        assertEquals(20, cache.getMemoryUsed());
+
+        assertEquals("2", cache.remove("a"));
+        assertNull(cache.remove("a"));
+        assertNull(cache.get("a"));
+        assertTrue(cache.isEmpty());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    /**
+     * Tests concurrent reads and writes.
+     */
+    public void testConcurrentAccess() throws Exception {
+        final FrequencyCache<Integer, Integer> cache =
+            new FrequencyCache<Integer, Integer>("test");
+        cache.setMaxMemorySize(1000);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final Random random = new Random(t);
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 100000; i++) {
+                            Integer key = random.nextInt(5000);
+                            Integer value = cache.get(key);
+                            if (value == null) {
+                                cache.put(key, key, 1);
+                            } else if (!value.equals(key)) {
+                                throw new AssertionError(key + " != " + value);
+                            } else if (i % 100 == 0) {
+                                cache.remove(key);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertTrue(cache.getMemoryUsed() <= 1000);
+        assertEquals(cache.getElementCount(), cache.getMemoryUsed());
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.ArrayList;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.cluster.SimpleEventListener.UpdateEvent;
+import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.journal.Journal;
+import org.apache.jackrabbit.core.journal.JournalFactory;
+import org.apache.jackrabbit.core.journal.LocalJournalNotifier;
+import org.apache.jackrabbit.core.journal.MemoryJournal;
+import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for the propagation of changes with a journal notifier.
+ */
+public class ClusterNotificationTest extends JUnitTest {
+
+    /** Defaut workspace name. */
+    private static final String DEFAULT_WORKSPACE = "default";
+
+    /** Sync delay long enough to never be reached in a test: 1 hour. */
+    private static final long SYNC_DELAY = 60 * 60 * 1000;
+
+    /** Maximum time to wait for a change to arrive. */
+    private static final long TIMEOUT = 10000;
+
+    /** Update event factory. */
+    private final UpdateEventFactory factory = UpdateEventFactory.getInstance();
+
+    /** Records shared among multiple memory journals. */
+    private final ArrayList<MemoryRecord> records = new ArrayList<MemoryRecord>();
+
+    /** Master node. */
+    private ClusterNode master;
+
+    /** Slave node. */
+    private ClusterNode slave;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        if (slave != null) {
+            slave.stop();
+        }
+        if (master != null) {
+            master.stop();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Verify that a change is visible on another node right away if a
+     * notifier is configured.
+     */
+    public void testNotifiedSync() throws Exception {
+        master = createClusterNode("master", SYNC_DELAY, true);
+        master.start();
+        slave = createClusterNode("slave", SYNC_DELAY, true);
+        slave.start();
+        assertEquals(-1, slave.getLastVisibilityLatency());
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+
+        UpdateEvent update = factory.createUpdateOperation();
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        channel.updateCreated(update);
+        channel.updatePrepared(update);
+        channel.updateCommitted(update, null);
+
+        waitForEvents(listener, 1);
+        assertEquals(update, listener.getClusterEvents().get(0));
+        assertEquals(master.getRevision(), slave.getRevision());
+        assertTrue(slave.getLastVisibilityLatency() >= 0);
+        assertEquals(-1, master.getLastVisibilityLatency());
+    }
+
+    /**
+     * Verify that changes are still propagated by periodic synchronization
+     * if no notifier is configured.
+     */
+    public void testPollingFallback() throws Exception {
+        master = createClusterNode("master", SYNC_DELAY, false);
+        master.start();
+        slave = createClusterNode("slave", 100, false);
+        slave.start();
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+
+        UpdateEvent update = factory.createUpdateOperation();
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        channel.updateCreated(update);
+        channel.updatePrepared(update);
+        channel.updateCommitted(update, null);
+
+        waitForEvents(listener, 1);
+        assertEquals(update, listener.getClusterEvents().get(0));
+    }
+
+    private static void waitForEvents(SimpleEventListener listener, int count)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (listener.getClusterEvents().size() < count
+                && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, listener.getClusterEvents().size());
+    }
+
+    /**
+     * Create a cluster node, with a memory journal referencing the shared
+     * list of records.
+     *
+     * @param id cluster node id
+     * @param syncDelay sync delay in milliseconds
+     * @param notify whether to use a {@link LocalJournalNotifier}
+     */
+    private ClusterNode createClusterNode(String id, long syncDelay,
+                                          boolean notify) throws Exception {
+        final MemoryJournal journal = new MemoryJournal();
+        JournalFactory jf = new JournalFactory() {
+            public Journal getJournal(NamespaceResolver resolver)
+                    throws RepositoryException {
+                return journal;
+            }
+        };
+        ClusterConfig cc = new ClusterConfig(id, syncDelay, 1000, jf);
+        SimpleClusterContext context = new SimpleClusterContext(cc);
+
+        journal.setRepositoryHome(context.getRepositoryHome());
+        if (notify) {
+            journal.setNotifier(LocalJournalNotifier.class.getName());
+            journal.setNotifierAddress(getName());
+        }
+        journal.init(id, context.getNamespaceResolver());
+        journal.setRecords(records);
+
+        ClusterNode clusterNode = new ClusterNode();
+        clusterNode.init(context);
+        return clusterNode;
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.jackrabbit.core.cluster;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import javax.jcr.RepositoryException;
 
@@ -33,6 +34,7 @@ import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.JournalFactory;
 import org.apache.jackrabbit.core.journal.MemoryJournal;
 import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.core.state.ChangeLog;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.PrivilegeDefinition;
 import org.apache.jackrabbit.spi.QNodeTypeDefinition;
@@ -145,6 +147,24 @@ public class ClusterRecordTest extends JUnitTest {
         assertEquals(listener.getClusterEvents().get(0), update);
     }
 
+    /**
+     * Test producing and consuming updates in the compact format, with and
+     * without compression.
+     */
+    public void testCompactUpdateOperation() throws Exception {
+        UpdateEvent update = factory.createUpdateOperationWithNullUserId();
+        writeAndReadUpdate(update, true, false);
+
+        update = createLargeUpdate();
+        int legacy = writeAndReadUpdate(update, false, false);
+        int compact = writeAndReadUpdate(update, true, false);
+        int compressed = writeAndReadUpdate(update, true, true);
+        assertTrue("Compact record not smaller: " + compact + " >= " + legacy,
+                compact < legacy);
+        assertTrue("Compressed record not smaller: " + compressed + " >= " + compact,
+                compressed < compact);
+    }
+
     /**
      * Test producing and consuming a lock operation.
      * @throws Exception
@@ -299,6 +319,51 @@ public class ClusterRecordTest extends JUnitTest {
         assertEquals(listener.getClusterEvents().get(0), event);
     }
 
+    /**
+     * Writes an update with a new master node and reads it on a new slave node.
+     *
+     * @return the size of the journal record
+     */
+    private int writeAndReadUpdate(UpdateEvent update, boolean compact,
+                                   boolean compress) throws Exception {
+        ArrayList<MemoryRecord> records = new ArrayList<MemoryRecord>();
+        ClusterNode master = createClusterNode("master", records, compact, compress);
+        ClusterNode slave = createClusterNode("slave", records);
+        try {
+            master.start();
+            UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+
+            SimpleEventListener listener = new SimpleEventListener();
+            slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+            slave.sync();
+
+            assertEquals(1, listener.getClusterEvents().size());
+            assertEquals(listener.getClusterEvents().get(0), update);
+            assertEquals(1, records.size());
+            return records.get(0).getData().length;
+        } finally {
+            master.stop();
+            slave.stop();
+        }
+    }
+
+    /**
+     * Creates an update consisting of many node and property changes.
+     */
+    private UpdateEvent createLargeUpdate() {
+        ChangeLog changes = new ChangeLog();
+        List events = new ArrayList();
+        for (int i = 0; i < 50; i++) {
+            UpdateEvent update = factory.createUpdateOperation();
+            changes.merge(update.getChanges());
+            events.addAll(update.getEvents());
+        }
+        return new UpdateEvent(changes, events, System.currentTimeMillis(), "user-data");
+    }
+
     /**
      * Create a cluster node, with a memory journal referencing a list of records.
      *
@@ -307,7 +372,23 @@ public class ClusterRecordTest extends JUnitTest {
      */
     private ClusterNode createClusterNode(
             String id, ArrayList<MemoryRecord> records) throws Exception {
+        return createClusterNode(id, records, false, false);
+    }
+
+    /**
+     * Create a cluster node, with a memory journal referencing a list of records.
+     *
+     * @param id cluster node id
+     * @param records memory journal's list of records
+     * @param compact whether to write records in the compact format
+     * @param compress whether to compress compact records
+     */
+    private ClusterNode createClusterNode(
+            String id, ArrayList<MemoryRecord> records,
+            boolean compact, boolean compress) throws Exception {
         final MemoryJournal journal = new MemoryJournal();
+        journal.setCompactRecords(compact);
+        journal.setCompressRecords(compress);
         JournalFactory jf = new JournalFactory() {
             public Journal getJournal(NamespaceResolver resolver)
                     throws RepositoryException {
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.cluster.SimpleEventListener.UpdateEvent;
+import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.journal.DatabaseJournal;
+import org.apache.jackrabbit.core.journal.Journal;
+import org.apache.jackrabbit.core.journal.JournalFactory;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.util.db.ConnectionFactory;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for the startup synchronization of a cluster node with a
+ * database journal.
+ */
+public class DbClusterCatchUpTest extends JUnitTest {
+
+    /** Defaut workspace name. */
+    private static final String DEFAULT_WORKSPACE = "default";
+
+    /** Directory of the test database. */
+    private static final File DIRECTORY = new File("./target/dbClusterCatchUpTest");
+
+    /** Update event factory. */
+    private final UpdateEventFactory factory = UpdateEventFactory.getInstance();
+
+    /** Connection factory shared by the journals. */
+    private ConnectionFactory connectionFactory;
+
+    /** Journals to close. */
+    private final List<DatabaseJournal> journals = new ArrayList<DatabaseJournal>();
+
+    /** Cluster nodes to stop. */
+    private final List<ClusterNode> nodes = new ArrayList<ClusterNode>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        connectionFactory = new ConnectionFactory();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        for (ClusterNode node : nodes) {
+            node.stop();
+        }
+        for (DatabaseJournal journal : journals) {
+            journal.close();
+        }
+        connectionFactory.close();
+        deleteAll();
+        super.tearDown();
+    }
+
+    private static void deleteAll() throws IOException {
+        FileUtils.deleteDirectory(DIRECTORY);
+    }
+
+    /**
+     * Verify that a node starting after a number of independent changes
+     * reads them in pages and applies them with a single external update.
+     */
+    public void testCatchUp() throws Exception {
+        ClusterNode master = createClusterNode("master", 0);
+        master.start();
+
+        List<UpdateEvent> updates = new ArrayList<UpdateEvent>();
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        for (int i = 0; i < 10; i++) {
+            UpdateEvent update = factory.createUpdateOperation();
+            commit(channel, update);
+            updates.add(update);
+        }
+
+        SimpleEventListener listener = new SimpleEventListener();
+        ClusterNode slave = createClusterNode("slave", 3);
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.start();
+
+        assertEquals(master.getRevision(), slave.getRevision());
+        assertEquals(1, listener.getClusterEvents().size());
+        UpdateEvent batch = (UpdateEvent) listener.getClusterEvents().get(0);
+        List<Object> events = new ArrayList<Object>();
+        for (UpdateEvent update : updates) {
+            events.addAll(update.getEvents());
+            for (ItemState state : update.getChanges().addedStates()) {
+                assertTrue(batch.getChanges().isAdded(state.getId()));
+            }
+        }
+        assertEquals(events.size(), batch.getEvents().size());
+    }
+
+    /**
+     * Verify that changes to the same items are applied in order with
+     * separate external updates.
+     */
+    public void testCatchUpDependentUpdates() throws Exception {
+        ClusterNode master = createClusterNode("master", 0);
+        master.start();
+
+        UpdateEvent first = factory.createUpdateOperation();
+        UpdateEvent second = factory.createUpdateOperation();
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        commit(channel, first);
+        commit(channel, second);
+        commit(channel, first);
+
+        SimpleEventListener listener = new SimpleEventListener();
+        ClusterNode slave = createClusterNode("slave", 2);
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.start();
+
+        assertEquals(master.getRevision(), slave.getRevision());
+        assertEquals(2, listener.getClusterEvents().size());
+        assertEquals(first, listener.getClusterEvents().get(1));
+    }
+
+    /**
+     * Verify that the startup synchronization still works without paging.
+     */
+    public void testCatchUpWithoutPaging() throws Exception {
+        ClusterNode master = createClusterNode("master", 0);
+        master.start();
+
+        UpdateEvent update = factory.createUpdateOperation();
+        commit(master.createUpdateChannel(DEFAULT_WORKSPACE), update);
+
+        SimpleEventListener listener = new SimpleEventListener();
+        ClusterNode slave = createClusterNode("slave", 0);
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.start();
+
+        assertEquals(master.getRevision(), slave.getRevision());
+        assertEquals(1, listener.getClusterEvents().size());
+        assertEquals(update, listener.getClusterEvents().get(0));
+    }
+
+    private static void commit(UpdateEventChannel channel, UpdateEvent update)
+            throws Exception {
+        channel.updateCreated(update);
+        channel.updatePrepared(update);
+        channel.updateCommitted(update, null);
+    }
+
+    /**
+     * Create a cluster node with a database journal, without automatic
+     * synchronization.
+     *
+     * @param id cluster node id
+     * @param pageSize catch-up page size
+     */
+    private ClusterNode createClusterNode(String id, int pageSize)
+            throws Exception {
+        final DatabaseJournal journal = new DatabaseJournal();
+        JournalFactory jf = new JournalFactory() {
+            public Journal getJournal(NamespaceResolver resolver)
+                    throws RepositoryException {
+                return journal;
+            }
+        };
+        ClusterConfig cc = new ClusterConfig(id, 1000, jf);
+        SimpleClusterContext context =
+                new SimpleClusterContext(cc, new File(DIRECTORY, id));
+
+        journal.setConnectionFactory(connectionFactory);
+        journal.setRepositoryHome(context.getRepositoryHome());
+        journal.setDriver("org.h2.Driver");
+        journal.setUrl("jdbc:h2:" + new File(DIRECTORY, "db").getAbsolutePath());
+        journal.setDatabaseType("h2");
+        journal.setSchemaObjectPrefix("journal_");
+        journal.setUser("sa");
+        journal.setPassword("sa");
+        journal.setCatchUpPageSize(pageSize);
+        journal.setCatchUpQueueSize(2);
+        journal.init(id, context.getNamespaceResolver());
+        journals.add(journal);
+
+        ClusterNode clusterNode = new ClusterNode();
+        clusterNode.init(context);
+        clusterNode.disableAutoSync();
+        nodes.add(clusterNode);
+        return clusterNode;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.query.Query;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.apache.jackrabbit.core.journal.Checkpoint;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Tests starting a cluster node from a journal checkpoint.
+ */
+public class DbClusterCheckpointTest extends JUnitTest {
+
+    private static final SimpleCredentials ADMIN = new SimpleCredentials(
+            "admin", "admin".toCharArray());
+
+    private static final File DIRECTORY = new File("./target/dbClusterCheckpointTest");
+
+    private static final File CHECKPOINTS = new File(DIRECTORY, "checkpoints");
+
+    private CheckpointRepository rep1;
+
+    private CheckpointRepository rep2;
+
+    private String prevClusterId;
+
+    public void setUp() throws Exception {
+        deleteAll();
+        String config = FileUtils.readFileToString(new File(
+                "./src/test/resources/org/apache/jackrabbit/core/cluster/repository-h2.xml"),
+                "UTF-8");
+        String journal = "<Journal class=\"org.apache.jackrabbit.core.journal.DatabaseJournal\">";
+        config = config.replace(journal, journal
+                + "\n<param name=\"checkpointPath\" value=\""
+                + CHECKPOINTS.getAbsolutePath() + "\"/>");
+        FileUtils.writeStringToFile(
+                new File(DIRECTORY, "node1/repository.xml"), config, "UTF-8");
+        FileUtils.writeStringToFile(
+                new File(DIRECTORY, "node2/repository.xml"), config, "UTF-8");
+        prevClusterId = System.getProperty(ClusterNode.SYSTEM_PROPERTY_NODE_ID);
+    }
+
+    public void tearDown() throws Exception {
+        if (prevClusterId == null) {
+            System.clearProperty(ClusterNode.SYSTEM_PROPERTY_NODE_ID);
+        } else {
+            System.setProperty(ClusterNode.SYSTEM_PROPERTY_NODE_ID, prevClusterId);
+        }
+        try {
+            if (rep2 != null) {
+                rep2.shutdown();
+            }
+            if (rep1 != null) {
+                rep1.shutdown();
+            }
+        } finally {
+            deleteAll();
+        }
+    }
+
+    private static void deleteAll() throws IOException {
+        FileUtils.deleteDirectory(DIRECTORY);
+    }
+
+    /**
+     * Verify that a new cluster node restores the search index snapshot of
+     * a checkpoint and replays the changes made after it.
+     */
+    public void testStartFromCheckpoint() throws Exception {
+        rep1 = createRepository("node1");
+        Session s1 = rep1.login(ADMIN);
+        s1.getRootNode().addNode("before").setProperty("text", "checkpoint");
+        s1.save();
+
+        Checkpoint checkpoint = rep1.clusterNode.createCheckpoint();
+        assertEquals(rep1.clusterNode.getRevision(), checkpoint.getRevision());
+        assertTrue(checkpoint.getIndexDirectory("default").isDirectory());
+        assertTrue(checkpoint.getIndexDirectory(null).isDirectory());
+        assertEquals(checkpoint.getRevision(),
+                Checkpoint.getLatest(CHECKPOINTS).getRevision());
+
+        s1.getRootNode().addNode("after").setProperty("text", "checkpoint");
+        s1.save();
+        s1.logout();
+
+        rep2 = createRepository("node2");
+        assertNotNull(rep2.clusterNode.getBootstrapCheckpoint());
+        assertEquals(checkpoint.getRevision(),
+                rep2.clusterNode.getBootstrapCheckpoint().getRevision());
+        assertEquals(rep1.clusterNode.getRevision(), rep2.clusterNode.getRevision());
+
+        // the index of the new node has been copied from the checkpoint
+        for (String name : checkpoint.getIndexDirectory("default").list()) {
+            assertTrue(new File(DIRECTORY, "node2/workspaces/default/index/"
+                    + name).exists());
+        }
+
+        Session s2 = rep2.login(ADMIN);
+        Query q = s2.getWorkspace().getQueryManager().createQuery(
+                "//*[@text = 'checkpoint']", Query.XPATH);
+        assertEquals(2, q.execute().getNodes().getSize());
+        s2.logout();
+    }
+
+    /**
+     * Verify that old checkpoints are removed.
+     */
+    public void testPrune() throws Exception {
+        rep1 = createRepository("node1");
+        Session s1 = rep1.login(ADMIN);
+        for (int i = 0; i < 3; i++) {
+            s1.getRootNode().addNode("node" + i);
+            s1.save();
+            rep1.clusterNode.createCheckpoint();
+        }
+        s1.logout();
+        // the default is to keep two checkpoints
+        assertEquals(2, CHECKPOINTS.list().length);
+    }
+
+    private CheckpointRepository createRepository(String name)
+            throws RepositoryException {
+        System.setProperty(ClusterNode.SYSTEM_PROPERTY_NODE_ID,
+                UUID.randomUUID().toString());
+        return new CheckpointRepository(
+                RepositoryConfig.create(new File(DIRECTORY, name)));
+    }
+
+    /**
+     * Repository that gives access to its cluster node.
+     */
+    private static class CheckpointRepository extends RepositoryImpl {
+
+        private ClusterNode clusterNode;
+
+        CheckpointRepository(RepositoryConfig config)
+                throws RepositoryException {
+            super(config);
+        }
+
+        @Override
+        protected ClusterNode createClusterNode() throws RepositoryException {
+            clusterNode = super.createClusterNode();
+            return clusterNode;
+        }
+    }
+}
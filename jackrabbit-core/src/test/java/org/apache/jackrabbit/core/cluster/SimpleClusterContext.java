@@ -24,6 +24,7 @@ import org.apache.jackrabbit.core.config.ClusterConfig;
 import org.apache.jackrabbit.core.nodetype.xml.SimpleNamespaceRegistry;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 import org.apache.jackrabbit.spi.commons.namespace.RegistryNamespaceResolver;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 
 /**
  * Simple cluster context, providing only limited functionality.
@@ -45,6 +46,11 @@ public class SimpleClusterContext implements ClusterContext {
      */
     private final NamespaceResolver nsResolver;
 
+    /**
+     * Repository statistics.
+     */
+    private final RepositoryStatisticsImpl stats = new RepositoryStatisticsImpl();
+
     /**
      * Create a new instance of this class.
      *
@@ -104,4 +110,11 @@ public class SimpleClusterContext implements ClusterContext {
     public void updateEventsReady(String workspace) throws RepositoryException {
         // nothing to be done here
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RepositoryStatisticsImpl getRepositoryStatistics() {
+        return stats;
+    }
 }
@@ -39,7 +39,10 @@ public class TestAll extends TestCase {
 
         suite.addTestSuite(ClusterRecordTest.class);
         suite.addTestSuite(ClusterSyncTest.class);
+        suite.addTestSuite(ClusterNotificationTest.class);
         suite.addTestSuite(DbClusterTest.class);
+        suite.addTestSuite(DbClusterCatchUpTest.class);
+        suite.addTestSuite(DbClusterCheckpointTest.class);
         suite.addTestSuite(DbClusterTestJCR3162.class);
         suite.addTestSuite(FailUpdateOnJournalExceptionTest.class);
 
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+import java.io.InputStream;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.ValueFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.api.JackrabbitValue;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.apache.jackrabbit.core.gc.BinaryReferenceLog;
+import org.apache.jackrabbit.core.gc.GarbageCollector;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test the incremental data store garbage collection, which reads the
+ * references from the {@link BinaryReferenceLog} of each persistence manager.
+ */
+public class IncrementalGarbageCollectorTest extends JUnitTest {
+
+    private final File home = new File("target/repository-incremental-gc");
+
+    private RepositoryImpl repository;
+
+    private Session session;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        FileUtils.deleteQuietly(home);
+        home.mkdirs();
+        // the logs are not kept in a cluster
+        InputStream in = RepositoryImpl.class.getResourceAsStream("repository.xml");
+        try {
+            String xml = IOUtils.toString(in, "UTF-8");
+            FileUtils.writeStringToFile(new File(home, "repository.xml"),
+                    xml.replaceAll("(?s)<Cluster.*</Cluster>", ""), "UTF-8");
+        } finally {
+            in.close();
+        }
+        System.setProperty(BinaryReferenceLog.INCREMENTAL_PROPERTY, "true");
+        start();
+    }
+
+    protected void tearDown() throws Exception {
+        try {
+            stop();
+            System.clearProperty(BinaryReferenceLog.INCREMENTAL_PROPERTY);
+            FileUtils.deleteQuietly(home);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testIncrementalGC() throws Exception {
+        ValueFactory vf = session.getValueFactory();
+        Node node = session.getRootNode().addNode("test");
+        node.setProperty("keep", vf.createBinary(new RandomInputStream(1, 1000)));
+        node.setProperty("remove", vf.createBinary(new RandomInputStream(2, 1000)));
+        session.save();
+        String keep = getContentIdentity(node, "keep");
+        String remove = getContentIdentity(node, "remove");
+
+        // the first run rebuilds the logs
+        assertEquals(0, runGC());
+        assertTrue(FileUtils.readFileToString(
+                new File(home, "gc/workspaces/default/references")).contains(keep));
+
+        node.getProperty("remove").remove();
+        session.save();
+        assertEquals(1, runGC());
+        assertTrue(exists(keep));
+        assertFalse(exists(remove));
+
+        // the logs are trusted after a restart
+        stop();
+        assertTrue(new File(home, "gc/workspaces/default/clean").exists());
+        assertTrue(new File(home, "gc/version/clean").exists());
+        start();
+        assertFalse(new File(home, "gc/workspaces/default/clean").exists());
+
+        node = session.getNode("/test");
+        node.setProperty("added", vf.createBinary(new RandomInputStream(3, 1000)));
+        session.save();
+        String added = getContentIdentity(node, "added");
+        node.getProperty("keep").remove();
+        session.save();
+        assertEquals(1, runGC());
+        assertFalse(exists(keep));
+        assertTrue(exists(added));
+        assertEquals(new RandomInputStream(3, 1000).read(),
+                node.getProperty("added").getBinary().getStream().read());
+    }
+
+    public void testLogNotKept() throws Exception {
+        // the logs are only valid after they have been built once
+        runGC();
+        stop();
+        assertTrue(new File(home, "gc/workspaces/default/clean").exists());
+
+        // changes while the log is not kept make it outdated
+        System.clearProperty(BinaryReferenceLog.INCREMENTAL_PROPERTY);
+        start();
+        assertFalse(new File(home, "gc/workspaces/default/clean").exists());
+        stop();
+
+        System.setProperty(BinaryReferenceLog.INCREMENTAL_PROPERTY, "true");
+        BinaryReferenceLog log = new BinaryReferenceLog(
+                new File(home, "gc/workspaces/default"));
+        try {
+            assertFalse(log.isValid());
+        } finally {
+            log.close();
+        }
+        start();
+    }
+
+    private int runGC() throws Exception {
+        GarbageCollector gc = repository.createDataStoreGarbageCollector();
+        try {
+            // make sure the files are old (access time resolution is 2 seconds)
+            Thread.sleep(2000);
+            gc.mark();
+            gc.getDataStore().clearInUse();
+            return gc.sweep();
+        } finally {
+            gc.close();
+        }
+    }
+
+    private boolean exists(String id) throws Exception {
+        GarbageCollector gc = repository.createDataStoreGarbageCollector();
+        try {
+            return gc.getDataStore().getRecordIfStored(
+                    new DataIdentifier(id)) != null;
+        } finally {
+            gc.close();
+        }
+    }
+
+    private static String getContentIdentity(Node node, String name)
+            throws Exception {
+        return ((JackrabbitValue) node.getProperty(name).getValue())
+            .getContentIdentity();
+    }
+
+    private void start() throws Exception {
+        repository = RepositoryImpl.create(RepositoryConfig.create(home));
+        session = repository.login(
+                new SimpleCredentials("admin", "admin".toCharArray()));
+    }
+
+    private void stop() {
+        if (session != null) {
+            session.logout();
+            session = null;
+        }
+        if (repository != null) {
+            repository.shutdown();
+            repository = null;
+        }
+    }
+}
@@ -43,6 +43,7 @@ public class TestAll extends TestCase {
         suite.addTestSuite(ExportImportTest.class);
         suite.addTestSuite(GarbageCollectorTest.class);
         suite.addTestSuite(GCConcurrentTest.class);
+        suite.addTestSuite(IncrementalGarbageCollectorTest.class);
         suite.addTestSuite(GCEventListenerTest.class);
         suite.addTestSuite(LazyFileInputStreamTest.class);
         suite.addTestSuite(NodeTypeTest.class);
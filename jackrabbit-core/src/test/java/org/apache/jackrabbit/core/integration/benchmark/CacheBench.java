@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.integration.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.core.cache.ConcurrentCache;
+import org.apache.jackrabbit.core.cache.FrequencyCache;
+import org.apache.jackrabbit.core.cache.KeyValueCache;
+
+/**
+ * A micro benchmark that compares the {@link ConcurrentCache} and the
+ * {@link FrequencyCache} implementations. A number of threads read keys
+ * from a Zipfian distribution and add the missing entries to the cache.
+ * The throughput and the hit rate of each cache is printed for different
+ * numbers of threads and read/write mixes. Run with:
+ * <pre>
+ * java -cp ... org.apache.jackrabbit.core.integration.benchmark.CacheBench
+ * </pre>
+ */
+public class CacheBench {
+
+    /** Number of distinct keys. */
+    private static final int KEYS = 1 << 20;
+
+    /** Number of entries that fit in the cache. */
+    private static final int CAPACITY = KEYS / 16;
+
+    /** Duration of each measurement in milliseconds. */
+    private static final int DURATION = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        long[] keys = zipf(KEYS, 0.99, 1 << 24, new Random(1));
+        for (int threads = 1; threads <= 2 * cpus; threads *= 2) {
+            for (int writePercent : new int[] { 0, 10 }) {
+                run(new ConcurrentCache<Long, Long>("concurrent"),
+                        keys, threads, writePercent);
+                run(new FrequencyCache<Long, Long>("frequency"),
+                        keys, threads, writePercent);
+            }
+        }
+    }
+
+    private static void run(
+            final KeyValueCache<Long, Long> cache, final long[] keys,
+            int threads, final int writePercent) throws Exception {
+        cache.setMaxMemorySize(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            cache.put(keys[i], keys[i], 1);
+        }
+        cache.resetMissCount();
+        final long before = cache.getTotalAccessCount();
+
+        final AtomicLong operations = new AtomicLong();
+        final long end = System.currentTimeMillis() + DURATION;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            workers[t] = new Thread() {
+                public void run() {
+                    int i = random.nextInt(keys.length);
+                    long count = 0;
+                    while ((count & 0xfff) != 0
+                            || System.currentTimeMillis() < end) {
+                        Long key = keys[i++ & (keys.length - 1)];
+                        if (cache.get(key) == null
+                                || random.nextInt(100) < writePercent) {
+                            cache.put(key, key, 1);
+                        }
+                        count++;
+                    }
+                    operations.addAndGet(count);
+                }
+            };
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long reads = cache.getTotalAccessCount() - before;
+        System.out.println(cache + ": threads=" + threads
+                + ", writes=" + writePercent + "%"
+                + ", ops/s=" + operations.get() * 1000 / DURATION
+                + ", hit rate=" + (reads - cache.getMissCount()) * 100 / reads + "%");
+    }
+
+    /**
+     * Generates a sequence of keys with a Zipfian distribution.
+     *
+     * @param n number of distinct keys
+     * @param skew skew of the distribution
+     * @param length length of the sequence, a power of two
+     * @param random random number generator
+     * @return the key sequence
+     */
+    private static long[] zipf(int n, double skew, int length, Random random) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            cumulative[i] = sum;
+        }
+        long[] keys = new long[length];
+        for (int i = 0; i < length; i++) {
+            double x = random.nextDouble() * sum;
+            int low = 0;
+            int high = n - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] < x) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            // scatter the popular keys over the key space
+            keys[i] = low * 0x9E3779B97F4A7C15L;
+        }
+        return keys;
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.core.nodetype.xml.SimpleNamespaceRegistry;
+import org.apache.jackrabbit.spi.commons.namespace.RegistryNamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for memory journals sharing their records.
+ */
+public class MemoryJournalTest extends JUnitTest {
+
+    /**
+     * Name of the shared record log.
+     */
+    private static final String LOG_NAME = "MemoryJournalTest";
+
+    /**
+     * Number of journals.
+     */
+    private static final int JOURNALS = 4;
+
+    /**
+     * Number of records appended by each journal.
+     */
+    private static final int RECORDS = 500;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception {
+        MemoryRecordLog.removeLog(LOG_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * Verify that records appended concurrently by journals sharing a log
+     * get distinct, contiguous revisions and are all visible to readers.
+     */
+    public void testConcurrentAppend() throws Exception {
+        final List<Long> revisions =
+                Collections.synchronizedList(new ArrayList<Long>());
+        final List<Throwable> errors =
+                Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < JOURNALS; i++) {
+            final MemoryJournal journal = createJournal("node" + i);
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        RecordProducer producer = journal.getProducer("test");
+                        for (int j = 0; j < RECORDS; j++) {
+                            Record record = producer.append();
+                            record.writeString(journal.getId() + "/" + j);
+                            record.update();
+                            revisions.add(record.getRevision());
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+
+        Set<Long> unique = new HashSet<Long>(revisions);
+        assertEquals(JOURNALS * RECORDS, unique.size());
+        for (long revision = 1; revision <= JOURNALS * RECORDS; revision++) {
+            assertTrue(unique.contains(revision));
+        }
+
+        MemoryJournal reader = createJournal("reader");
+        RecordIterator iterator = reader.getRecords(0);
+        int count = 0;
+        while (iterator.hasNext()) {
+            Record record = iterator.nextRecord();
+            assertEquals(++count, record.getRevision());
+            assertTrue(record.readString().startsWith(record.getJournalId() + "/"));
+        }
+        assertEquals(JOURNALS * RECORDS, count);
+    }
+
+    /**
+     * Verify that journals with a list of records still append to that list.
+     */
+    public void testSetRecords() throws Exception {
+        List<MemoryRecord> records = new ArrayList<MemoryRecord>();
+        MemoryJournal journal = createJournal("node");
+        journal.setRecords(records);
+
+        Record record = journal.getProducer("test").append();
+        record.writeString("test");
+        record.update();
+
+        assertEquals(1, record.getRevision());
+        assertEquals(1, records.size());
+        assertEquals("node", records.get(0).getJournalId());
+    }
+
+    private MemoryJournal createJournal(String id) throws JournalException {
+        MemoryJournal journal = new MemoryJournal();
+        journal.setLogName(LOG_NAME);
+        journal.init(id, new RegistryNamespaceResolver(
+                new SimpleNamespaceRegistry()));
+        return journal;
+    }
+}
@@ -17,7 +17,10 @@
 package org.apache.jackrabbit.core.persistence;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.PropertyType;
 
@@ -29,6 +32,7 @@ import org.apache.jackrabbit.core.RepositoryImpl;
 import org.apache.jackrabbit.core.fs.mem.MemoryFileSystem;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
 import org.apache.jackrabbit.core.persistence.mem.InMemBundlePersistenceManager;
 import org.apache.jackrabbit.core.persistence.mem.InMemPersistenceManager;
 import org.apache.jackrabbit.core.persistence.obj.ObjectPersistenceManager;
@@ -118,7 +122,81 @@ public class PersistenceManagerTest extends TestCase {
         assertPersistenceManager(manager);
     }
 
-    private void assertPersistenceManager(PersistenceManager manager)
+    public void testDerbyPoolPersistenceManagerBatched() throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager();
+        manager.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        manager.setUrl("jdbc:derby:" + database.getPath() + ";create=true");
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setMaxBatchSize("2");
+        assertPersistenceManager(manager);
+    }
+
+    public void testH2PoolPersistenceManagerBatched() throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager();
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:mem:" + database.getPath());
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setMaxBatchSize("100");
+        assertPersistenceManager(manager);
+    }
+
+    public void testH2PoolPersistenceManagerChildNodePages() throws Exception {
+        List<AbstractBundlePersistenceManager> managers =
+            new ArrayList<AbstractBundlePersistenceManager>();
+        for (int i = 0; i < 2; i++) {
+            org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+                new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager();
+            manager.setDriver("org.h2.Driver");
+            manager.setUrl("jdbc:h2:" + new File(directory, "db").getPath());
+            manager.setConnectionFactory(new ConnectionFactory());
+            manager.setChildNodePageSize("100");
+            managers.add(manager);
+        }
+        assertChildNodePages(managers.get(0), managers.get(1));
+    }
+
+    public void testH2PoolPersistenceManagerOffHeapBundleCache()
+            throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager();
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:mem:" + database.getPath());
+        manager.setConnectionFactory(new ConnectionFactory());
+        // disable the bundle cache, so that all reads go to the off-heap cache
+        manager.setBundleCacheSize("0");
+        manager.setOffHeapBundleCacheSize("1");
+        RepositoryStatisticsImpl stats = new RepositoryStatisticsImpl();
+        initPersistenceManager(manager, stats);
+        try {
+            assertCreateNewNode(manager);
+            assertCreateNewProperty(manager);
+            assertMissingItemStates(manager);
+            assertCreateUpdateDelete(manager);
+
+            NodeState node = new NodeState(
+                    NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
+                    ItemState.STATUS_NEW, true);
+            node.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+            ChangeLog create = new ChangeLog();
+            create.added(node);
+            manager.store(create);
+
+            AtomicLong hits = stats.getCounter(
+                    AbstractBundlePersistenceManager.OFF_HEAP_CACHE_HIT_COUNTER,
+                    true);
+            long before = hits.get();
+            assertEquals(node, manager.load(NODE_ID));
+            assertEquals(node, manager.load(NODE_ID));
+            assertEquals(before + 1, hits.get());
+        } finally {
+            manager.close();
+        }
+    }
+
+    private void initPersistenceManager(
+            PersistenceManager manager, RepositoryStatisticsImpl stats)
             throws Exception {
         manager.init(new PMContext(
                 directory,
@@ -127,7 +205,12 @@ public class PersistenceManagerTest extends TestCase {
                 new NamespaceRegistryImpl(new MemoryFileSystem()),
                 null,
                 null,
-                new RepositoryStatisticsImpl()));
+                stats));
+    }
+
+    private void assertPersistenceManager(PersistenceManager manager)
+            throws Exception {
+        initPersistenceManager(manager, new RepositoryStatisticsImpl());
         try {
             assertCreateNewNode(manager);
             assertCreateNewProperty(manager);
@@ -138,6 +221,53 @@ public class PersistenceManagerTest extends TestCase {
         }
     }
 
+    /**
+     * Stores and modifies a node with a large number of child nodes using
+     * the first persistence manager, and reads it back from storage using
+     * the second one.
+     */
+    private void assertChildNodePages(
+            PersistenceManager first, PersistenceManager second)
+            throws Exception {
+        NodeState node = new NodeState(
+                NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
+                ItemState.STATUS_NEW, true);
+        node.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+        for (int i = 0; i < 250; i++) {
+            node.addChildNodeEntry(TEST, NodeId.randomId());
+        }
+
+        initPersistenceManager(first, new RepositoryStatisticsImpl());
+        try {
+            ChangeLog create = new ChangeLog();
+            create.added(node);
+            first.store(create);
+
+            node.setStatus(ItemState.STATUS_EXISTING);
+            node.removeChildNodeEntry(
+                    node.getChildNodeEntries().get(120).getId());
+            node.addChildNodeEntry(TEST, CHILD_ID);
+            ChangeLog update = new ChangeLog();
+            update.modified(node);
+            first.store(update);
+            assertEquals(node, first.load(NODE_ID));
+        } finally {
+            first.close();
+        }
+
+        initPersistenceManager(second, new RepositoryStatisticsImpl());
+        try {
+            assertEquals(node, second.load(NODE_ID));
+
+            ChangeLog delete = new ChangeLog();
+            delete.deleted(node);
+            second.store(delete);
+            assertFalse(second.exists(NODE_ID));
+        } finally {
+            second.close();
+        }
+    }
+
     private void assertCreateNewNode(PersistenceManager manager) {
         NodeState state = manager.createNew(NODE_ID);
         assertNotNull(state);
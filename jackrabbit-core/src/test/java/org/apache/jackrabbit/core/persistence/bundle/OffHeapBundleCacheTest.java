@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+public class OffHeapBundleCacheTest extends TestCase {
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public void testPutGetRemove() {
+        OffHeapBundleCache cache = new OffHeapBundleCache(1024, hits, misses);
+        NodeId id = NodeId.randomId();
+        assertNull(cache.get(id));
+        cache.put(id, data(id, 100));
+        assertTrue(Arrays.equals(data(id, 100), cache.get(id)));
+        cache.put(id, data(id, 50));
+        assertTrue(Arrays.equals(data(id, 50), cache.get(id)));
+        cache.remove(id);
+        assertNull(cache.get(id));
+        assertEquals(2, hits.get());
+        assertEquals(2, misses.get());
+    }
+
+    public void testEviction() {
+        OffHeapBundleCache cache = new OffHeapBundleCache(4 * 1000, hits, misses);
+        NodeId[] ids = new NodeId[100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+            cache.put(ids[i], data(ids[i], 100));
+        }
+        assertTrue(cache.getMemoryUsed() <= 4 * 1000);
+        assertNull(cache.get(ids[0]));
+        for (int i = ids.length - 10; i < ids.length; i++) {
+            assertTrue(Arrays.equals(data(ids[i], 100), cache.get(ids[i])));
+        }
+        int cached = 0;
+        for (NodeId id : ids) {
+            byte[] data = cache.get(id);
+            if (data != null) {
+                assertTrue(Arrays.equals(data(id, 100), data));
+                cached++;
+            }
+        }
+        assertTrue(cached >= 10 && cached <= 40);
+        assertTrue(cache.getElementCount() <= ids.length);
+    }
+
+    public void testSecondChance() {
+        OffHeapBundleCache cache = new OffHeapBundleCache(4 * 1000, hits, misses);
+        NodeId hot = NodeId.randomId();
+        cache.put(hot, data(hot, 100));
+        for (int i = 0; i < 1000; i++) {
+            NodeId id = NodeId.randomId();
+            cache.put(id, data(id, 100));
+            assertTrue(Arrays.equals(data(hot, 100), cache.get(hot)));
+        }
+    }
+
+    public void testClear() {
+        OffHeapBundleCache cache = new OffHeapBundleCache(1024 * 1024, hits, misses);
+        NodeId[] ids = new NodeId[10000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+            cache.put(ids[i], data(ids[i], 10));
+        }
+        for (NodeId id : ids) {
+            assertTrue(Arrays.equals(data(id, 10), cache.get(id)));
+        }
+        cache.clear();
+        for (NodeId id : ids) {
+            assertNull(cache.get(id));
+        }
+        assertEquals(0, cache.getElementCount());
+    }
+
+    private static byte[] data(NodeId id, int length) {
+        byte[] data = new byte[length];
+        long seed = id.getLeastSignificantBits() + length;
+        for (int i = 0; i < length; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            data[i] = (byte) (seed >>> 56);
+        }
+        return data;
+    }
+
+}
@@ -18,18 +18,23 @@ package org.apache.jackrabbit.core.persistence.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 
 import javax.jcr.PropertyType;
 
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodePage;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle.PropertyEntry;
 import org.apache.jackrabbit.core.util.StringIndex;
 import org.apache.jackrabbit.core.value.InternalValue;
@@ -474,14 +479,93 @@ public class BundleBindingTest extends TestCase {
         assertEquals(value, result.getPropertyEntry(name).getValues()[0]);
     }
 
-    private void assertBundleRoundtrip(NodePropBundle bundle)
+    /**
+     * Tests that large child node lists are stored in pages, and that
+     * only the changed pages are rewritten.
+     */
+    public void testChildNodePages() throws Exception {
+        final Map<String, byte[]> blobs = new HashMap<String, byte[]>();
+        final int[] puts = new int[1];
+        BLOBStore blobStore = new BLOBStore() {
+            public String createId(PropertyId id, int index) {
+                return id.getParentId() + "." + index;
+            }
+            public void put(String blobId, InputStream in, long size)
+                    throws Exception {
+                blobs.put(blobId, IOUtils.toByteArray(in));
+                puts[0]++;
+            }
+            public InputStream get(String blobId) throws Exception {
+                return new ByteArrayInputStream(blobs.get(blobId));
+            }
+            public boolean remove(String blobId) throws Exception {
+                return blobs.remove(blobId) != null;
+            }
+        };
+        StringIndex index = binding.nsIndex;
+        binding = new BundleBinding(null, blobStore, index, index, null);
+        binding.setChildNodePageSize(10);
+
+        NodePropBundle bundle = new NodePropBundle(NodeId.randomId());
+        bundle.setParentId(new NodeId(1, 2));
+        bundle.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        bundle.setMixinTypeNames(Collections.<Name>emptySet());
+        bundle.setSharedSet(Collections.<NodeId>emptySet());
+        Name name = factory.create(Name.NS_DEFAULT_URI, "created");
+        for (int i = 0; i < 95; i++) {
+            bundle.addChildNodeEntry(name, NodeId.randomId());
+        }
+
+        NodePropBundle copy = assertBundleRoundtrip(bundle);
+        assertEquals(10, blobs.size());
+        assertEquals(10, copy.getChildNodePages().size());
+
+        // appending a child only writes a new last page
+        puts[0] = 0;
+        copy.addChildNodeEntry(name, NodeId.randomId());
+        copy = assertPagedRoundtrip(copy, blobStore);
+        assertEquals(1, puts[0]);
+        assertEquals(11, blobs.size());
+
+        // removing a child in the middle only rewrites its page
+        puts[0] = 0;
+        copy.getChildNodeEntries().remove(42);
+        copy = assertPagedRoundtrip(copy, blobStore);
+        assertEquals(1, puts[0]);
+        assertEquals(11, blobs.size());
+        int count = 0;
+        for (ChildNodePage page : copy.getChildNodePages()) {
+            assertTrue(page.getEntries().size() <= 10);
+            count += page.getEntries().size();
+        }
+        assertEquals(95, count);
+
+        // small child node lists are stored inline again
+        while (copy.getChildNodeEntries().size() > 10) {
+            copy.getChildNodeEntries().remove(0);
+        }
+        copy = assertPagedRoundtrip(copy, blobStore);
+        assertTrue(copy.getChildNodePages().isEmpty());
+        assertTrue(blobs.isEmpty());
+    }
+
+    private NodePropBundle assertPagedRoundtrip(
+            NodePropBundle bundle, BLOBStore blobStore) throws Exception {
+        NodePropBundle copy = assertBundleRoundtrip(bundle);
+        bundle.removeObsoleteChildNodePages(blobStore);
+        return copy;
+    }
+
+    private NodePropBundle assertBundleRoundtrip(NodePropBundle bundle)
             throws Exception {
         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         binding.writeBundle(buffer, bundle);
         byte[] bytes = buffer.toByteArray();
 
-        assertEquals(bundle, binding.readBundle(
-                new ByteArrayInputStream(bytes), bundle.getId()));
+        NodePropBundle copy = binding.readBundle(
+                new ByteArrayInputStream(bytes), bundle.getId());
+        assertEquals(bundle, copy);
+        return copy;
     }
 
     private void assertBundleSerialization(NodePropBundle bundle, byte[] data)
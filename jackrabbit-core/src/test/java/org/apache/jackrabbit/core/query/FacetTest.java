@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.jcr.Node;
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.core.query.lucene.QueryResultImpl;
+
+/**
+ * Tests counting facets over query results.
+ */
+public class FacetTest extends AbstractQueryTest {
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        String[] categories = {"news", "blog", "news", "news", "blog", "faq"};
+        for (int i = 0; i < categories.length; i++) {
+            Node n = testRootNode.addNode("node" + i, "nt:unstructured");
+            n.setProperty("category", categories[i]);
+            n.setProperty("rank", i % 2);
+            Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            cal.clear();
+            cal.set(2010, i % 3, 10 + i);
+            n.setProperty("created", cal);
+        }
+        testRootNode.addNode("other", "nt:folder");
+        superuser.save();
+    }
+
+    public void testFacet() throws Exception {
+        Query q = qm.createQuery(testPath + "/*", Query.XPATH);
+        q.setLimit(1);
+        QueryResultImpl result = (QueryResultImpl) q.execute();
+
+        Map<String, Long> facet = result.getFacet("category");
+        assertEquals(Arrays.asList("news", "blog", "faq"),
+                new ArrayList<String>(facet.keySet()));
+        assertEquals(Arrays.asList(3L, 2L, 1L),
+                new ArrayList<Long>(facet.values()));
+
+        facet = result.getFacet("rank");
+        assertEquals(Long.valueOf(3), facet.get("0"));
+        assertEquals(Long.valueOf(3), facet.get("1"));
+
+        facet = result.getFacet("jcr:primaryType");
+        assertEquals(Long.valueOf(6), facet.get("nt:unstructured"));
+        assertEquals(Long.valueOf(1), facet.get("nt:folder"));
+    }
+
+    public void testDateFacet() throws Exception {
+        Query q = qm.createQuery(testPath + "/*", Query.XPATH);
+        QueryResultImpl result = (QueryResultImpl) q.execute();
+
+        Map<String, Long> facet = result.getFacet("created", Calendar.MONTH);
+        assertEquals(3, facet.size());
+        assertEquals(Long.valueOf(2), facet.get("2010-01-01T00:00:00.000Z"));
+        assertEquals(Long.valueOf(2), facet.get("2010-02-01T00:00:00.000Z"));
+        assertEquals(Long.valueOf(2), facet.get("2010-03-01T00:00:00.000Z"));
+
+        facet = result.getFacet("created", Calendar.YEAR);
+        assertEquals(Long.valueOf(6), facet.get("2010-01-01T00:00:00.000Z"));
+    }
+
+    public void testSQL2Facet() throws Exception {
+        String stmt = "SELECT * FROM [nt:base] AS s"
+                + " WHERE ISCHILDNODE(s, [" + testRoot + "])"
+                + " AND s.category <> 'faq'";
+        QueryObjectModelImpl q = (QueryObjectModelImpl) qm.createQuery(
+                stmt, Query.JCR_SQL2);
+        Map<String, Long> facet = q.getFacet("s", "category");
+        assertEquals(2, facet.size());
+        assertEquals(Long.valueOf(3), facet.get("news"));
+        assertEquals(Long.valueOf(2), facet.get("blog"));
+    }
+
+}
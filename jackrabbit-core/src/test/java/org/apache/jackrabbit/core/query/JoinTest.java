@@ -21,6 +21,7 @@ import javax.jcr.PropertyType;
 import javax.jcr.nodetype.NodeType;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
+import javax.jcr.query.RowIterator;
 
 /**
  * Test case for JOIN queries with JCR_SQL2
@@ -154,6 +155,65 @@ public class JoinTest extends AbstractQueryTest {
 
     }
 
+    public void testJoinStrategies() throws Exception {
+        String equiJoin = "SELECT a.*, b.*"
+                + " FROM [nt:unstructured] AS a"
+                + " INNER JOIN [nt:unstructured] AS b ON a.[jcr:uuid] = b.testref";
+        String descendantJoin = "SELECT a.*, b.*"
+                + " FROM [nt:unstructured] AS a"
+                + " INNER JOIN [nt:unstructured] AS b ON ISDESCENDANTNODE(b, a)"
+                + " WHERE a.p = 'abc'";
+        String outerJoin = "SELECT a.*, b.*"
+                + " FROM [nt:unstructured] AS a"
+                + " LEFT OUTER JOIN [nt:unstructured] AS b ON a.[jcr:uuid] = b.testref"
+                + " WHERE a.type = 'parent'";
+        String property = "org.apache.jackrabbit.core.query.joinStrategy";
+        try {
+            for (String strategy : new String[] {
+                    "INDEX_NESTED_LOOP", "HASH", "SORT_MERGE" }) {
+                System.setProperty(property, strategy);
+                checkResult(qm.createQuery(equiJoin, Query.JCR_SQL2).execute(), 3);
+                checkResult(qm.createQuery(descendantJoin, Query.JCR_SQL2).execute(), 2);
+                checkResult(qm.createQuery(outerJoin, Query.JCR_SQL2).execute(), 3);
+            }
+        } finally {
+            System.clearProperty(property);
+        }
+    }
+
+    public void testExplain() throws Exception {
+        String join = "SELECT a.*, b.*"
+                + " FROM [nt:unstructured] AS a"
+                + " INNER JOIN [nt:unstructured] AS b ON a.[jcr:uuid] = b.testref"
+                + " WHERE b.type = 'child'";
+        String plan = ((QueryObjectModelImpl) qm.createQuery(
+                join, Query.JCR_SQL2)).explain();
+        assertTrue(plan, plan.startsWith("INNER "));
+        assertTrue(plan, plan.contains(" estimated rows: left "));
+        assertTrue(plan, plan.contains("SELECTOR [nt:unstructured] AS a estimated rows: "));
+        assertTrue(plan, plan.contains("SELECTOR [nt:unstructured] AS b WHERE "));
+    }
+
+    public void testJoinWithOrderingAndLimit() throws Exception {
+        String join = "SELECT a.*, b.*"
+                + " FROM [nt:unstructured] AS a"
+                + " INNER JOIN [nt:unstructured] AS b ON a.[jcr:uuid] = b.testref"
+                + " ORDER BY NAME(b) DESC";
+        Query q = qm.createQuery(join, Query.JCR_SQL2);
+        q.setOffset(1);
+        q.setLimit(2);
+        RowIterator rows = q.execute().getRows();
+        assertEquals("node4", rows.nextRow().getNode("b").getName());
+        assertEquals("node3", rows.nextRow().getNode("b").getName());
+        assertFalse(rows.hasNext());
+
+        q = qm.createQuery(join.substring(0, join.indexOf(" ORDER BY")),
+                Query.JCR_SQL2);
+        q.setOffset(1);
+        q.setLimit(5);
+        checkResult(q.execute(), 2);
+    }
+
     public void testJoinWithOR5() throws Exception {
 
         StringBuilder join = new StringBuilder(
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>CachingIndexReaderTest</code> checks the persisted parent cache of
+ * the {@link CachingIndexReader}.
+ */
+public class CachingIndexReaderTest extends TestCase {
+
+    private static final NodeId ROOT = NodeId.randomId();
+
+    private static final NodeId CHILD = NodeId.randomId();
+
+    private static final NodeId GRAND_CHILD = NodeId.randomId();
+
+    private static final NodeId FOREIGN_CHILD = NodeId.randomId();
+
+    private static final NodeId FOREIGN_PARENT = NodeId.randomId();
+
+    private File dir;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File("target", "caching-index-reader");
+        FileUtils.deleteDirectory(dir);
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    public void testMappedCacheFile() throws Exception {
+        Directory directory = FSDirectory.open(dir);
+        try {
+            checkPersistedParents(directory);
+        } finally {
+            directory.close();
+        }
+    }
+
+    public void testCacheFile() throws Exception {
+        checkPersistedParents(new RAMDirectory());
+    }
+
+    public void testOutdatedCacheFile() throws Exception {
+        Directory directory = new RAMDirectory();
+        createIndex(directory);
+        CachingIndexReader reader = createReader(directory, true);
+        reader.close();
+
+        // append a document, the cache file does not match anymore
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(
+                Version.LUCENE_36, new StandardAnalyzer(Version.LUCENE_36)));
+        try {
+            writer.addDocument(createDocument(NodeId.randomId(), GRAND_CHILD));
+        } finally {
+            writer.close();
+        }
+        reader = createReader(directory, false);
+        try {
+            assertFalse(directory.fileExists(
+                    CachingIndexReader.FILE_CACHE_NAME_PARENTS));
+            assertParents(reader);
+            assertEquals(DocId.create(2).toString(),
+                    reader.getParent(4, new BitSet()).toString());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void checkPersistedParents(Directory directory) throws IOException {
+        createIndex(directory);
+        CachingIndexReader reader = createReader(directory, true);
+        try {
+            assertTrue(directory.fileExists(
+                    CachingIndexReader.FILE_CACHE_NAME_PARENTS));
+            assertParents(reader);
+        } finally {
+            reader.close();
+        }
+        // must resolve parents from the cache file without initializing
+        reader = createReader(directory, false);
+        try {
+            assertParents(reader);
+            // resolved twice
+            assertParents(reader);
+            // invalid parent is replaced without writing to the cache file
+            BitSet deleted = new BitSet();
+            deleted.set(1);
+            assertEquals(DocId.create(CHILD).toString(),
+                    reader.getParent(2, deleted).toString());
+            assertEquals(DocId.create(CHILD).toString(),
+                    reader.getParent(2, new BitSet()).toString());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void assertParents(CachingIndexReader reader) throws IOException {
+        BitSet deleted = new BitSet();
+        assertSame(DocId.NULL, reader.getParent(0, deleted));
+        assertEquals(DocId.create(0).toString(),
+                reader.getParent(1, deleted).toString());
+        assertEquals(DocId.create(1).toString(),
+                reader.getParent(2, deleted).toString());
+        assertEquals(DocId.create(FOREIGN_PARENT).toString(),
+                reader.getParent(3, deleted).toString());
+    }
+
+    private CachingIndexReader createReader(Directory directory,
+                                            boolean initCache)
+            throws IOException {
+        return new CachingIndexReader(
+                IndexReader.open(directory), null, initCache);
+    }
+
+    private void createIndex(Directory directory) throws IOException {
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(
+                Version.LUCENE_36, new StandardAnalyzer(Version.LUCENE_36)));
+        try {
+            writer.addDocument(createDocument(ROOT, null));
+            writer.addDocument(createDocument(CHILD, ROOT));
+            writer.addDocument(createDocument(GRAND_CHILD, CHILD));
+            writer.addDocument(createDocument(FOREIGN_CHILD, FOREIGN_PARENT));
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static Document createDocument(NodeId id, NodeId parent) {
+        Document doc = new Document();
+        doc.add(new IDField(id));
+        doc.add(new Field(FieldNames.PARENT, false,
+                parent == null ? "" : parent.toString(), Field.Store.YES,
+                Field.Index.NOT_ANALYZED_NO_NORMS, Field.TermVector.NO));
+        return doc;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+/**
+ * <code>DocNumberCacheTest</code> checks the {@link DocNumberCache}.
+ */
+public class DocNumberCacheTest extends TestCase {
+
+    /**
+     * Accepts all cache entries and returns the document number.
+     */
+    private static final DocNumberCache.Resolver ANY =
+            new DocNumberCache.Resolver() {
+        public int resolve(long creationTick, int doc) {
+            return doc;
+        }
+    };
+
+    public void testPutGet() {
+        DocNumberCache cache = new DocNumberCache(1000);
+        String uuid = NodeId.randomId().toString();
+        assertEquals(-1, cache.get(uuid, ANY));
+        cache.put(uuid, 1, 42);
+        assertEquals(42, cache.get(uuid, ANY));
+        // upper case is the same key
+        assertEquals(42, cache.get(uuid.toUpperCase(), ANY));
+        assertEquals(1, cache.size());
+    }
+
+    public void testCreationTick() {
+        DocNumberCache cache = new DocNumberCache(1000);
+        String uuid = NodeId.randomId().toString();
+        cache.put(uuid, 5, 1);
+        // older reader is ignored
+        cache.put(uuid, 4, 2);
+        assertEquals(1, cache.get(uuid, ANY));
+        cache.put(uuid, 6, 3);
+        assertEquals(3, cache.get(uuid, new DocNumberCache.Resolver() {
+            public int resolve(long creationTick, int doc) {
+                return creationTick == 6 ? doc : -1;
+            }
+        }));
+    }
+
+    public void testInvalidKey() {
+        DocNumberCache cache = new DocNumberCache(1000);
+        cache.put("foo", 1, 1);
+        cache.put("f81d4fae-7dec-11d0-a765-00a0c91e6bgx", 1, 1);
+        assertEquals(0, cache.size());
+        assertEquals(-1, cache.get("foo", ANY));
+    }
+
+    public void testEviction() {
+        DocNumberCache cache = new DocNumberCache(1024);
+        String hot = NodeId.randomId().toString();
+        cache.put(hot, 1, -2);
+        List<String> uuids = new ArrayList<String>();
+        for (int i = 0; i < 10000; i++) {
+            String uuid = NodeId.randomId().toString();
+            uuids.add(uuid);
+            cache.put(uuid, 1, i);
+            assertEquals(-2, cache.get(hot, ANY));
+        }
+        assertTrue(cache.size() <= 1024);
+        // all remaining entries can still be found
+        int found = 0;
+        for (int i = 0; i < uuids.size(); i++) {
+            int doc = cache.get(uuids.get(i), ANY);
+            if (doc != -1) {
+                assertEquals(i, doc);
+                found++;
+            }
+        }
+        assertEquals(cache.size() - 1, found);
+    }
+
+    public void testCounters() {
+        DocNumberCache cache = new DocNumberCache(1000);
+        String uuid = NodeId.randomId().toString();
+        cache.put(uuid, 1, 1);
+        for (int i = 0; i < 0x4000; i++) {
+            cache.get(uuid, ANY);
+            cache.get(NodeId.randomId().toString(), ANY);
+        }
+        // counters are updated in batches
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        assertTrue(hits > 0x4000 / 2 && hits <= 0x4000);
+        assertTrue(misses > 0x4000 / 2 && misses <= 0x4000);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.Calendar;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * <code>IndexMergeSchedulerTest</code> checks the merge windows and the
+ * throttling of the {@link IndexMergeScheduler}.
+ */
+public class IndexMergeSchedulerTest extends TestCase {
+
+    private IndexMergeScheduler scheduler;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        scheduler = new IndexMergeScheduler(null);
+    }
+
+    public void testNoMergeWindow() {
+        assertEquals(0, scheduler.getMillisUntilMergeWindow(time(12, 0)));
+        assertEquals(0, scheduler.getMergeDelay(Long.MAX_VALUE));
+        assertTrue(scheduler.isMergeWindowOpen());
+    }
+
+    public void testMergeWindow() {
+        scheduler.setMergeWindow("02:00-04:00, 13:30-14:00");
+        assertEquals(0, scheduler.getMillisUntilMergeWindow(time(2, 0)));
+        assertEquals(0, scheduler.getMillisUntilMergeWindow(time(3, 59)));
+        assertEquals(0, scheduler.getMillisUntilMergeWindow(time(13, 45)));
+        assertEquals(minutes(90), scheduler.getMillisUntilMergeWindow(time(12, 0)));
+        assertEquals(minutes(570), scheduler.getMillisUntilMergeWindow(time(4, 0)));
+        assertEquals(minutes(12 * 60), scheduler.getMillisUntilMergeWindow(time(14, 0)));
+    }
+
+    public void testMergeWindowAcrossMidnight() {
+        scheduler.setMergeWindow("22:00-06:00");
+        assertEquals(0, scheduler.getMillisUntilMergeWindow(time(23, 0)));
+        assertEquals(0, scheduler.getMillisUntilMergeWindow(time(0, 0)));
+        assertEquals(0, scheduler.getMillisUntilMergeWindow(time(5, 59)));
+        assertEquals(minutes(16 * 60), scheduler.getMillisUntilMergeWindow(time(6, 0)));
+        assertEquals(minutes(30), scheduler.getMillisUntilMergeWindow(time(21, 30)));
+    }
+
+    public void testSmallMergesIgnoreMergeWindow() {
+        scheduler.setMergeWindowMinDocs(1000);
+        // a window that is never open
+        scheduler.setMergeWindow("00:00-00:00");
+        assertEquals(0, scheduler.getMergeDelay(999));
+        assertTrue(scheduler.getMergeDelay(1000) > 0);
+        scheduler.setMergeWindow(null);
+        assertEquals(0, scheduler.getMergeDelay(1000));
+    }
+
+    public void testInvalidMergeWindow() {
+        String[] invalid = {"", "22:00", "22:00-25:00", "a-b", "10:60-11:00",
+                "1:2:3-4:00"};
+        for (String window : invalid) {
+            try {
+                IndexMergeScheduler.parseMergeWindow(window);
+                fail("Must not accept merge window: " + window);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testIORateLimit() throws Exception {
+        scheduler.setIORateLimit(256);
+        scheduler.beginMerge(false);
+        long time = System.currentTimeMillis();
+        try {
+            // 128 KB at 256 KB/s, the first chunk is not delayed
+            for (int i = 0; i < 3; i++) {
+                scheduler.throttle(64 * 1024);
+            }
+        } finally {
+            scheduler.endMerge(false);
+        }
+        time = System.currentTimeMillis() - time;
+        assertTrue("Merge not throttled: " + time + " ms", time >= 400);
+        assertEquals(3 * 64 * 1024, scheduler.getBytesMerged());
+        assertEquals(2 * 64 * 1024, scheduler.getBytesThrottled());
+        assertTrue(scheduler.getThrottleTime() > 0);
+        assertEquals(0, scheduler.getRunningMerges());
+    }
+
+    public void testOnlyMergesThrottled() throws Exception {
+        scheduler.setIORateLimit(1);
+        Directory dir = scheduler.throttle(new RAMDirectory());
+        long time = System.currentTimeMillis();
+        IndexOutput out = dir.createOutput("test");
+        try {
+            out.writeBytes(new byte[128 * 1024], 128 * 1024);
+        } finally {
+            out.close();
+        }
+        assertTrue(System.currentTimeMillis() - time < 1000);
+        assertEquals(128 * 1024, dir.fileLength("test"));
+        assertEquals(0, scheduler.getBytesMerged());
+        assertEquals(0, scheduler.getBytesThrottled());
+    }
+
+    public void testQueryPriority() throws Exception {
+        scheduler.setQueryPriority(100);
+        scheduler.beginMerge(false);
+        try {
+            scheduler.throttle(1024);
+            assertEquals(0, scheduler.getBytesThrottled());
+
+            scheduler.queryStarted();
+            Thread finisher = new Thread() {
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                    scheduler.queryFinished();
+                }
+            };
+            finisher.start();
+            long time = System.currentTimeMillis();
+            scheduler.throttle(1024);
+            time = System.currentTimeMillis() - time;
+            finisher.join();
+            // paused until the query finished
+            assertTrue("Merge not paused: " + time + " ms", time >= 50);
+            assertTrue("Merge paused too long: " + time + " ms", time < 1000);
+            assertEquals(1024, scheduler.getBytesThrottled());
+        } finally {
+            scheduler.endMerge(false);
+        }
+    }
+
+    private static Calendar time(int hours, int minutes) {
+        Calendar cal = Calendar.getInstance();
+        cal.set(Calendar.HOUR_OF_DAY, hours);
+        cal.set(Calendar.MINUTE, minutes);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal;
+    }
+
+    private static long minutes(int minutes) {
+        return minutes * 60 * 1000L;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.TestHelper;
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IndexOutput;
+
+/**
+ * <code>ParallelReindexTest</code> checks the parallel initial index
+ * creation. See the workspace.xml file for the indexing-test-2 workspace.
+ */
+public class ParallelReindexTest extends AbstractIndexingTest {
+
+    private static final int NUM_NODES = 100;
+
+    protected String getWorkspaceName() {
+        return "indexing-test-2";
+    }
+
+    public void testInitialIndex() throws Exception {
+        createNodes();
+        File indexDir = new File(getSearchIndex().getPath());
+        shutdownWorkspace();
+
+        // delete index
+        try {
+            FileUtil.delete(indexDir);
+        } catch (IOException e) {
+            fail("Unable to delete index directory");
+        }
+
+        restartWorkspace();
+        assertEquals(NUM_NODES, getNumTestNodes());
+        assertFalse(getSearchIndex().getIndex().isInitialIndexIncomplete());
+    }
+
+    public void testResume() throws Exception {
+        createNodes();
+        flushSearchIndex();
+        File indexDir = new File(getSearchIndex().getPath());
+        int numDocs = getSearchIndex().getIndex().numDocs();
+        shutdownWorkspace();
+
+        // pretend that an initial index creation has been interrupted
+        // before any progress was recorded
+        Directory dir = FSDirectory.open(indexDir);
+        try {
+            IndexOutput out = dir.createOutput("reindex");
+            try {
+                out.writeString("");
+            } finally {
+                out.close();
+            }
+        } finally {
+            dir.close();
+        }
+
+        restartWorkspace();
+        assertFalse(getSearchIndex().getIndex().isInitialIndexIncomplete());
+        // nodes that were already indexed must not be indexed twice
+        assertEquals(numDocs, getSearchIndex().getIndex().numDocs());
+        assertEquals(NUM_NODES, getNumTestNodes());
+    }
+
+    private void createNodes() throws RepositoryException {
+        for (int i = 0; i < NUM_NODES; i++) {
+            testRootNode.addNode("node" + i).setProperty("reindex", i);
+        }
+        session.save();
+    }
+
+    private long getNumTestNodes() throws RepositoryException {
+        Query q = qm.createQuery(
+                testPath + "/*[@reindex]", Query.XPATH);
+        return getSize(q.execute().getNodes());
+    }
+
+    private void shutdownWorkspace() throws RepositoryException {
+        RepositoryImpl repo = (RepositoryImpl) session.getRepository();
+        session.logout();
+        session = null;
+        superuser.logout();
+        superuser = null;
+        TestHelper.shutdownWorkspace(getWorkspaceName(), repo);
+    }
+
+    private void restartWorkspace() throws RepositoryException {
+        // start workspace again by getting a session
+        session = getHelper().getSuperuserSession(getWorkspaceName());
+        qm = session.getWorkspace().getQueryManager();
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import javax.jcr.PropertyType;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.stats.SortCacheStat;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>SortValueCacheTest</code> checks the values and the memory limit of
+ * the {@link SortValueCache}.
+ */
+public class SortValueCacheTest extends TestCase {
+
+    private static final String TITLE = FieldNames.createNamedValue("1:title", "");
+
+    private static final String SIZE = FieldNames.createNamedValue("1:size", "");
+
+    private static final String TAGS = FieldNames.createNamedValue("1:tags", "");
+
+    private Directory directory;
+
+    private IndexReader reader;
+
+    private SortCacheStat stat;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(
+                Version.LUCENE_36, new StandardAnalyzer(Version.LUCENE_36)));
+        try {
+            Document doc = createDocument("b", 5);
+            addProperty(doc, TAGS + "x", PropertyType.STRING);
+            writer.addDocument(doc);
+            doc = createDocument("a", 3);
+            addProperty(doc, TAGS + "x", PropertyType.STRING);
+            addProperty(doc, TAGS + "y", PropertyType.STRING);
+            writer.addDocument(doc);
+            writer.addDocument(createDocument(null, -1));
+        } finally {
+            writer.close();
+        }
+        reader = IndexReader.open(directory);
+        stat = new SortCacheStat();
+    }
+
+    protected void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+        super.tearDown();
+    }
+
+    public void testValues() throws Exception {
+        SortValueCache cache = new SortValueCache(
+                SortValueCache.DEFAULT_MEMORY_LIMIT, stat);
+        SortValueCache.SortValues values = cache.getSortValues(
+                reader, FieldNames.PROPERTIES, TITLE);
+        assertTrue(values instanceof SortValueCache.OrdinalSortValues);
+        assertEquals("b", values.getValue(0));
+        assertEquals("a", values.getValue(1));
+        assertNull(values.getValue(2));
+
+        values = cache.getSortValues(reader, FieldNames.PROPERTIES, SIZE);
+        assertTrue(values instanceof SortValueCache.LongSortValues);
+        assertEquals(Long.valueOf(5), values.getValue(0));
+        assertEquals(Long.valueOf(3), values.getValue(1));
+        assertNull(values.getValue(2));
+
+        // multi-valued properties are left to the SharedFieldCache
+        assertNull(cache.getSortValues(reader, FieldNames.PROPERTIES, TAGS));
+
+        assertSame(values,
+                cache.getSortValues(reader, FieldNames.PROPERTIES, SIZE));
+        assertEquals(1, stat.getHitCount());
+        assertEquals(3, stat.getMissCount());
+        assertEquals(cache.getMemoryUsed(), stat.getMemoryUsed());
+    }
+
+    public void testMemoryLimit() throws Exception {
+        SortValueCache cache = new SortValueCache(
+                SortValueCache.DEFAULT_MEMORY_LIMIT, stat);
+        cache.getSortValues(reader, FieldNames.PROPERTIES, TITLE);
+        long titleSize = cache.getMemoryUsed();
+        cache.clear();
+        assertEquals(0, stat.getMemoryUsed());
+
+        stat.reset();
+        cache = new SortValueCache(titleSize, stat);
+        SortValueCache.SortValues title = cache.getSortValues(
+                reader, FieldNames.PROPERTIES, TITLE);
+        cache.getSortValues(reader, FieldNames.PROPERTIES, SIZE);
+        assertEquals(1, stat.getEvictionCount());
+        assertTrue(cache.getMemoryUsed() <= titleSize);
+
+        // evicted values are read again
+        assertNotSame(title,
+                cache.getSortValues(reader, FieldNames.PROPERTIES, TITLE));
+        assertEquals(3, stat.getMissCount());
+    }
+
+    private static Document createDocument(String title, long size) {
+        Document doc = new Document();
+        doc.add(new Field(FieldNames.LOCAL_NAME, "node",
+                Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+        if (title != null) {
+            addProperty(doc, TITLE + title, PropertyType.STRING);
+        }
+        if (size != -1) {
+            addProperty(doc, SIZE + LongField.longToString(size),
+                    PropertyType.LONG);
+        }
+        return doc;
+    }
+
+    private static void addProperty(Document doc, String value, int type) {
+        doc.add(new Field(FieldNames.PROPERTIES,
+                new SingletonTokenStream(value, type)));
+    }
+
+}
@@ -39,10 +39,14 @@ public class TestAll extends TestCase {
         TestSuite suite = new ConcurrentTestSuite("Search tests");
 
         suite.addTestSuite(IndexingQueueTest.class);
+        suite.addTestSuite(ParallelReindexTest.class);
         suite.addTestSuite(DecimalConvertTest.class);
         suite.addTestSuite(IndexingAggregateTest.class);
         suite.addTestSuite(IndexMigrationTest.class);
         suite.addTestSuite(ChainedTermEnumTest.class);
+        suite.addTestSuite(CachingIndexReaderTest.class);
+        suite.addTestSuite(DocNumberCacheTest.class);
+        suite.addTestSuite(IndexMergeSchedulerTest.class);
         suite.addTestSuite(IndexingConfigurationImplTest.class);
         suite.addTestSuite(SQL2IndexingAggregateTest.class);
         suite.addTestSuite(SQL2IndexingAggregateTest2.class);
@@ -53,6 +57,7 @@ public class TestAll extends TestCase {
         suite.addTestSuite(ArrayHitsTest.class);
         suite.addTestSuite(IndexFormatVersionTest.class);
         suite.addTestSuite(SynonymProviderTest.class);
+        suite.addTestSuite(SortValueCacheTest.class);
 
         return suite;
     }
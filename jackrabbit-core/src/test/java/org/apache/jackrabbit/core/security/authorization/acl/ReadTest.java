@@ -21,6 +21,10 @@ import org.apache.jackrabbit.api.JackrabbitSession;
 import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
 import org.apache.jackrabbit.api.security.user.Authorizable;
 import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.security.AccessManager;
 import org.apache.jackrabbit.core.security.authorization.AbstractEvaluationTest;
 import org.apache.jackrabbit.core.security.authorization.AccessControlConstants;
 import org.apache.jackrabbit.test.NotExecutableException;
@@ -344,6 +348,37 @@ public class ReadTest extends AbstractEvaluationTest {
         assertFalse(testSession.propertyExists(propPath));
     }
 
+    public void testCanReadBlock() throws Exception {
+        Node n = superuser.getNode(path);
+        NodeImpl a = (NodeImpl) n.addNode("a");
+        NodeImpl b = (NodeImpl) n.addNode("b");
+        NodeImpl c = (NodeImpl) n.addNode("c");
+        NodeImpl child = (NodeImpl) superuser.getNode(childNPath);
+        superuser.save();
+
+        Privilege[] read = privilegesFromName(Privilege.JCR_READ);
+        ValueFactory vf = superuser.getValueFactory();
+
+        // deny READ at 'b' with a restriction defined at the parent
+        Map<String, Value> restrictions = new HashMap<String, Value>(getRestrictions(superuser, path));
+        restrictions.put(AccessControlConstants.P_GLOB.toString(), vf.createValue("/b"));
+        withdrawPrivileges(path, read, restrictions);
+        // deny READ at 'c' with an entry defined at 'c'
+        withdrawPrivileges(c.getPath(), read, getRestrictions(superuser, c.getPath()));
+
+        AccessManager testAccessMgr = ((SessionImpl) getTestSession()).getAccessManager();
+        ItemId[] ids = new ItemId[] {a.getId(), b.getId(), c.getId(), child.getId()};
+        boolean[] canRead = testAccessMgr.canRead(ids);
+        assertEquals(ids.length, canRead.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(testAccessMgr.canRead(null, ids[i]), canRead[i]);
+        }
+        assertTrue(canRead[0]);
+        assertFalse(canRead[1]);
+        assertFalse(canRead[2]);
+        assertTrue(canRead[3]);
+    }
+
     /**
      * @see <a href="https://issues.apache.org/jira/browse/OAK-2412">OAK-2412</a>
      */
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import org.apache.jackrabbit.core.state.ISMLocking.ReadLock;
+import org.apache.jackrabbit.core.state.ISMLocking.WriteLock;
+
+/**
+ * <code>StripedISMLockingTest</code> executes the test cases implemented in
+ * {@link AbstractISMLockingTest}.
+ */
+public class StripedISMLockingTest extends AbstractISMLockingTest {
+
+    public ISMLocking createISMLocking() {
+        return new StripedISMLocking();
+    }
+
+    /**
+     * Checks that a write lock re-acquired by the writer locks the stripes
+     * of its change log that the writer does not hold yet.
+     *
+     * @throws InterruptedException on interruption; this will err the test
+     */
+    public void testReentrantWriteBlocksRead() throws InterruptedException {
+        for (ChangeLog changeLog : logs) {
+            WriteLock outer = locking.acquireWriteLock(new ChangeLog());
+            WriteLock inner = locking.acquireWriteLock(changeLog);
+            verifyBlocked(startReaderThread(locking, state.getId()));
+            inner.release();
+            verifyNotBlocked(startReaderThread(locking, state.getId()));
+            outer.release();
+        }
+    }
+
+    /**
+     * Checks that a write lock re-acquired after the writer downgraded its
+     * lock blocks readers of its change log again.
+     *
+     * @throws InterruptedException on interruption; this will err the test
+     */
+    public void testWriteAfterDowngradeBlocksRead() throws InterruptedException {
+        for (ChangeLog changeLog : logs) {
+            ReadLock rLock = locking.acquireWriteLock(changeLog).downgrade();
+            WriteLock wLock = locking.acquireWriteLock(changeLog);
+            verifyBlocked(startReaderThread(locking, state.getId()));
+            wLock.release();
+            rLock.release();
+        }
+    }
+}
@@ -39,6 +39,7 @@ public class TestAll extends TestCase {
         suite.addTestSuite(DefaultISMLockingTest.class);
         suite.addTestSuite(DefaultISMLockingDeadlockTest.class);
         suite.addTestSuite(FineGrainedISMLockingTest.class);
+        suite.addTestSuite(StripedISMLockingTest.class);
         suite.addTestSuite(NameSetTest.class);
         suite.addTestSuite(NodeStateMergerTest.class);
 
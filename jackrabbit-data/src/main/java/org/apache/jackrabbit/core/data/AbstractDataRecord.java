@@ -17,14 +17,22 @@
 
 package org.apache.jackrabbit.core.data;
 
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 
 /**
  * Abstract data record base class. This base class contains only
  * a reference to the data identifier of the record and implements
  * the standard {@link Object} equality, hash code, and string
- * representation methods based on the identifier.
+ * representation methods based on the identifier. Ranges of the record
+ * are read by skipping the start of the {@link #getStream() stream};
+ * subclasses that can do better override
+ * {@link #getStream(long, long)}.
  */
-public abstract class AbstractDataRecord implements DataRecord {
+public abstract class AbstractDataRecord implements RandomAccessDataRecord {
 
     /**
      * The data store that contains this record.
@@ -60,6 +68,63 @@ public abstract class AbstractDataRecord implements DataRecord {
         return store.getReferenceFromIdentifier(identifier);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getStream(long position, long length)
+            throws DataStoreException {
+        return skip(getStream(), position, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int read(long position, byte[] buffer, int offset, int length)
+            throws DataStoreException {
+        InputStream in = getStream(position, length);
+        try {
+            int n = IOUtils.read(in, buffer, offset, length);
+            return n == 0 && length > 0 ? -1 : n;
+        } catch (IOException e) {
+            throw new DataStoreException("Could not read " + identifier, e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Returns a stream of a range of the given stream, by skipping the
+     * bytes before the range.
+     *
+     * @param in the stream, which is closed if an error occurs
+     * @param position position of the first byte of the range
+     * @param length maximum length of the range
+     * @return stream of the range
+     * @throws DataStoreException if the stream could not be skipped
+     */
+    protected InputStream skip(InputStream in, long position, long length)
+            throws DataStoreException {
+        try {
+            long remaining = position;
+            while (remaining > 0) {
+                long n = in.skip(remaining);
+                if (n <= 0) {
+                    // skip() may return 0 before the end of the stream
+                    if (in.read() < 0) {
+                        break;
+                    }
+                    n = 1;
+                }
+                remaining -= n;
+            }
+        } catch (IOException e) {
+            IOUtils.closeQuietly(in);
+            throw new DataStoreException("Could not skip to " + position
+                    + " in " + identifier, e);
+        }
+        return new BoundedInputStream(in, length);
+    }
+
     /**
      * Returns the string representation of the data identifier.
      *
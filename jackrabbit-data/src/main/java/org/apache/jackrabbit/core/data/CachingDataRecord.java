@@ -59,4 +59,14 @@ public class CachingDataRecord extends AbstractDataRecord {
         return store.getStream(getIdentifier());
     }
 
+    @Override
+    public InputStream getStream(long position, long length)
+            throws DataStoreException {
+        InputStream in = store.getStream(getIdentifier(), position, length);
+        if (in instanceof FileRangeInputStream) {
+            return in;
+        }
+        return skip(in, position, length);
+    }
+
 }
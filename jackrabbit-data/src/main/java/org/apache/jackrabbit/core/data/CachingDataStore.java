@@ -18,6 +18,7 @@
 package org.apache.jackrabbit.core.data;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,6 +39,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -80,11 +82,15 @@ import org.slf4j.LoggerFactory;
  *     &lt;param name="{@link #setTouchAsync(boolean) touchAsync}" value="false"/&gt;
  *     &lt;param name="{@link #setProactiveCaching(boolean) proactiveCaching}" value="true"/&gt;
  *     &lt;param name="{@link #setRecLengthCacheSize(int) recLengthCacheSize}" value="200"/&gt;
+ *     &lt;param name="{@link #setMultipartThreshold(long) multipartThreshold}" value="0"/&gt;
+ *     &lt;param name="{@link #setMultipartPartSize(long) multipartPartSize}" value="16777216"/&gt;
+ *     &lt;param name="{@link #setMultipartThreads(int) multipartThreads}" value="4"/&gt;
  * &lt;/DataStore&gt;
  * </pre>
  */
 public abstract class CachingDataStore extends AbstractDataStore implements
-        MultiDataStoreAware, AsyncUploadCallback, AsyncTouchCallback {
+        MultiDataStoreAware, SelectiveDeleteDataStore, AsyncUploadCallback,
+        AsyncTouchCallback {
 
     /**
      * Logger instance.
@@ -99,6 +105,12 @@ public abstract class CachingDataStore extends AbstractDataStore implements
      */
     private static final String TMP = "tmp";
 
+    /**
+     * Name of the directory in the repository home that holds the manifests
+     * of incomplete multipart uploads.
+     */
+    private static final String MULTIPART = "multipart";
+
     /**
      * All data identifiers that are currently in use are in this set until they
      * are garbage collected.
@@ -248,6 +260,37 @@ public abstract class CachingDataStore extends AbstractDataStore implements
      */
     private int recLengthCacheSize = 200;
 
+    /**
+     * Records of at least this length are uploaded to the {@link Backend} in
+     * parts of {@link #multipartPartSize} bytes, using
+     * {@link #multipartThreads} threads. The checksums of the parts are
+     * computed while the record is added, and kept in a
+     * {@link MultipartUpload} manifest until the upload is complete, so that a
+     * failed upload only uploads the missing parts when it is retried or
+     * resumed in {@link #init(String)}. 0 disables multipart uploads, which is
+     * the default. Multipart uploads require a {@link MultipartBackend}.
+     */
+    private long multipartThreshold;
+
+    private long multipartPartSize = 16L * 1024 * 1024;
+
+    private int multipartThreads = 4;
+
+    /**
+     * Directory holding the manifests of incomplete multipart uploads.
+     */
+    private File multipartDir;
+
+    /**
+     * The {@link #backend} if multipart uploads are enabled and supported.
+     */
+    private MultipartBackend multipartBackend;
+
+    /**
+     * {@link ExecutorService} to upload the parts of multipart uploads.
+     */
+    private ExecutorService multipartExecService;
+
     /**
      * Initialized the data store. If the path is not set, &lt;repository
      * home&gt;/repository/datastore is used. This directory is automatically
@@ -282,6 +325,21 @@ public abstract class CachingDataStore extends AbstractDataStore implements
             }
             backend = createBackend();
             backend.init(this, path, config);
+            multipartDir = new File(homeDir, MULTIPART);
+            if (multipartThreshold > 0 || multipartDir.isDirectory()) {
+                // also needed to resume incomplete uploads after multipart
+                // uploads have been disabled
+                if (backend instanceof MultipartBackend) {
+                    mkdirs(multipartDir);
+                    multipartBackend = (MultipartBackend) backend;
+                    multipartExecService = Executors.newFixedThreadPool(
+                        multipartThreads, new NamedThreadFactory(
+                            "backend-multipart-upload-worker"));
+                } else {
+                    LOG.warn("Multipart uploads not supported by [{}]",
+                        backend.getClass().getName());
+                }
+            }
             String markerFileName = getMarkerFile();
             if (markerFileName != null && !"".equals(markerFileName.trim())) {
                 // create marker file in homeDir to avoid deletion in cache
@@ -408,9 +466,17 @@ public abstract class CachingDataStore extends AbstractDataStore implements
             usesIdentifier(tempId);
             // Copy the stream to the temporary file and calculate the
             // stream length and the message digest of the stream
+            // and, if multipart uploads are enabled, the checksums of the
+            // parts of the stream
             MessageDigest digest = MessageDigest.getInstance(DIGEST);
-            OutputStream output = new DigestOutputStream(new FileOutputStream(
-                temporary), digest);
+            MultipartUpload.PartDigestOutputStream parts = null;
+            OutputStream output = new FileOutputStream(temporary);
+            if (multipartBackend != null && multipartThreshold > 0) {
+                parts = new MultipartUpload.PartDigestOutputStream(output,
+                    multipartPartSize);
+                output = parts;
+            }
+            output = new DigestOutputStream(output, digest);
             try {
                 length = IOUtils.copyLarge(input, output);
             } finally {
@@ -419,6 +485,10 @@ public abstract class CachingDataStore extends AbstractDataStore implements
             long currTime = System.currentTimeMillis();
             DataIdentifier identifier = new DataIdentifier(
                 encodeHexString(digest.digest()));
+            MultipartUpload upload = null;
+            if (parts != null && length >= multipartThreshold) {
+                upload = MultipartUpload.create(identifier, parts);
+            }
             LOG.debug("Digest of [{}], length =[{}] took [{}]ms ",
                 new Object[] { identifier, length, (currTime - startTime) });
             String fileName = getFileName(identifier);
@@ -433,7 +503,14 @@ public abstract class CachingDataStore extends AbstractDataStore implements
             LOG.debug("storing  [{}] in localCache took [{}] ms", identifier,
                 (System.currentTimeMillis() - currTime));
             if (result != null) {
-                if (result.canAsyncUpload()) {
+                if (upload != null) {
+                    MultipartUploadJob job = new MultipartUploadJob(upload,
+                        result.getFile(), result.canAsyncUpload() ? this : null);
+                    job.start();
+                    if (!result.canAsyncUpload()) {
+                        job.await();
+                    }
+                } else if (result.canAsyncUpload()) {
                     backend.writeAsync(identifier, result.getFile(), this);
                 } else {
                     backend.write(identifier, result.getFile());
@@ -578,6 +655,22 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         }
     }
 
+    /**
+     * Deletes the record from {@link Backend} and {@link LocalCache} if
+     * {@link #confirmDelete(DataIdentifier)} allows it and the record in the
+     * {@link Backend} is older than the given date.
+     */
+    @Override
+    public synchronized boolean deleteRecordIfOlderThan(
+            DataIdentifier identifier, long min) throws DataStoreException {
+        if (!confirmDelete(identifier) || !backend.exists(identifier)
+                || backend.getLastModified(identifier) >= min) {
+            return false;
+        }
+        deleteRecord(identifier);
+        return true;
+    }
+
     @Override
     public synchronized int deleteAllOlderThan(long min)
             throws DataStoreException {
@@ -624,6 +717,27 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         }
     }
 
+    /**
+     * Get a stream of a range of a record. If the record is in the
+     * {@link LocalCache}, only the range is read from the cached file.
+     * Otherwise the record is read from the {@link Backend} up to the end of
+     * the range, and cached asynchronously for further range requests.
+     */
+    InputStream getStream(DataIdentifier identifier, long position,
+            long length) throws DataStoreException {
+        try {
+            String fileName = getFileName(identifier);
+            InputStream cached = cache.getIfStored(fileName, position, length);
+            if (cached != null) {
+                return cached;
+            }
+            asyncDownload(identifier);
+            return backend.read(identifier);
+        } catch (IOException e) {
+            throw new DataStoreException("IO Exception: " + identifier, e);
+        }
+    }
+
     /**
      * Return lastModified of record from {@link Backend} assuming
      * {@link Backend} as a single source of truth.
@@ -759,7 +873,14 @@ public abstract class CachingDataStore extends AbstractDataStore implements
                             "Retrying [{}] times failed upload for dataidentifer {}",
                             retry, identifier);
                         try {
-                            backend.writeAsync(identifier, file, this);
+                            if (multipartBackend != null
+                                && getManifest(identifier).exists()) {
+                                new MultipartUploadJob(
+                                    loadMultipartUpload(identifier, file),
+                                    file, this).start();
+                            } else {
+                                backend.writeAsync(identifier, file, this);
+                            }
                         } catch (DataStoreException e) {
                             LOG.warn("exception", e);
                         }
@@ -946,7 +1067,7 @@ public abstract class CachingDataStore extends AbstractDataStore implements
             String name = f.getName();
             LOG.debug("upload file [{}] ", name);
             if (!name.startsWith(TMP) && !name.endsWith(DS_STORE)
-                && f.length() > 0) {
+                && !LocalCache.isIndexFile(name) && f.length() > 0) {
                 uploadFileToBackEnd(f, false);
             }
             currentSize += f.length();
@@ -967,7 +1088,8 @@ public abstract class CachingDataStore extends AbstractDataStore implements
     }
 
     /**
-     * Traverse recursively and populate list with files.
+     * Traverse recursively and populate list with files, except for the
+     * persisted index of the {@link LocalCache}.
      */
     private static void listRecursive(List<File> list, File file) {
         File[] files = file.listFiles();
@@ -975,7 +1097,7 @@ public abstract class CachingDataStore extends AbstractDataStore implements
             for (File f : files) {
                 if (f.isDirectory()) {
                     listRecursive(list, f);
-                } else {
+                } else if (!LocalCache.isIndexFile(f.getName())) {
                     list.add(f);
                 }
             }
@@ -995,7 +1117,18 @@ public abstract class CachingDataStore extends AbstractDataStore implements
             DataIdentifier identifier = new DataIdentifier(f.getName());
             usesIdentifier(identifier);
             if (!backend.exists(identifier)) {
-                backend.write(identifier, f);
+                boolean multipart = multipartBackend != null
+                    && (getManifest(identifier).exists()
+                        || (multipartThreshold > 0
+                            && f.length() >= multipartThreshold));
+                if (multipart) {
+                    MultipartUploadJob job = new MultipartUploadJob(
+                        loadMultipartUpload(identifier, f), f, null);
+                    job.start();
+                    job.await();
+                } else {
+                    backend.write(identifier, f);
+                }
             }
             if (updateAsyncUploadCache) {
                 String fileName = getFileName(identifier);
@@ -1007,6 +1140,41 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         }
     }
 
+    /**
+     * Returns the manifest of a multipart upload of the given record.
+     */
+    private File getManifest(DataIdentifier identifier) {
+        return new File(multipartDir, identifier + ".properties");
+    }
+
+    /**
+     * Returns the multipart upload of the given file, resuming the upload of
+     * its manifest if there is one.
+     */
+    private MultipartUpload loadMultipartUpload(DataIdentifier identifier,
+            File file) throws DataStoreException {
+        File manifest = getManifest(identifier);
+        try {
+            if (manifest.exists()) {
+                try {
+                    MultipartUpload upload = MultipartUpload.load(manifest);
+                    if (upload.getIdentifier().equals(identifier)
+                        && upload.getLength() == file.length()) {
+                        return upload;
+                    }
+                    LOG.warn("Ignoring manifest [{}] of another record",
+                        manifest.getAbsolutePath());
+                } catch (IOException e) {
+                    LOG.warn("Ignoring corrupt manifest ["
+                        + manifest.getAbsolutePath() + "]", e);
+                }
+            }
+            return MultipartUpload.create(identifier, file, multipartPartSize);
+        } catch (IOException e) {
+            throw new DataStoreException("Could not read " + file, e);
+        }
+    }
+
     /**
      * Derive file name from identifier.
      */
@@ -1058,6 +1226,9 @@ public abstract class CachingDataStore extends AbstractDataStore implements
     @Override
     public void close() throws DataStoreException {
         cache.close();
+        if (multipartExecService != null) {
+            multipartExecService.shutdown();
+        }
         backend.close();
         downloadExecService.shutdown();
     }
@@ -1222,10 +1393,170 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         this.recLengthCacheSize = recLengthCacheSize;
     }
 
+    public long getMultipartThreshold() {
+        return multipartThreshold;
+    }
+
+    /**
+     * Records of at least this length are uploaded in parts. Backends may
+     * require a minimum part size, Amazon S3 for example requires parts of
+     * at least 5MB.
+     */
+    public void setMultipartThreshold(long multipartThreshold) {
+        this.multipartThreshold = multipartThreshold;
+    }
+
+    public long getMultipartPartSize() {
+        return multipartPartSize;
+    }
+
+    public void setMultipartPartSize(long multipartPartSize) {
+        this.multipartPartSize = multipartPartSize;
+    }
+
+    public int getMultipartThreads() {
+        return multipartThreads;
+    }
+
+    public void setMultipartThreads(int multipartThreads) {
+        this.multipartThreads = multipartThreads;
+    }
+
     public Backend getBackend() {
         return backend;
     }
 
+    /**
+     * This class uploads the parts of a {@link MultipartUpload} concurrently
+     * to the {@link Backend}. The upload is completed by the thread that
+     * writes the last part, and the manifest of the upload is kept if any
+     * part fails, so that the upload can be resumed.
+     */
+    private class MultipartUploadJob {
+
+        final MultipartUpload upload;
+
+        final File file;
+
+        final AsyncUploadCallback callback;
+
+        final AtomicInteger pending = new AtomicInteger();
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        volatile Exception exception;
+
+        MultipartUploadJob(MultipartUpload upload, File file,
+                AsyncUploadCallback callback) {
+            this.upload = upload;
+            this.file = file;
+            this.callback = callback;
+        }
+
+        void start() throws DataStoreException {
+            File manifest = getManifest(upload.getIdentifier());
+            if (upload.getUploadId() == null && manifest.exists()) {
+                // the same record has been added again after a failed upload
+                try {
+                    MultipartUpload previous = MultipartUpload.load(manifest);
+                    if (previous.getRootChecksum().equals(
+                        upload.getRootChecksum())) {
+                        upload.setUploadId(previous.getUploadId());
+                    }
+                } catch (IOException e) {
+                    LOG.warn("Ignoring corrupt manifest ["
+                        + manifest.getAbsolutePath() + "]", e);
+                }
+            }
+            Set<Integer> stored = multipartBackend.startMultipartUpload(upload);
+            List<MultipartUpload.Part> missing =
+                new ArrayList<MultipartUpload.Part>();
+            for (MultipartUpload.Part part : upload.getParts()) {
+                if (!stored.contains(part.getIndex())) {
+                    missing.add(part);
+                }
+            }
+            try {
+                upload.store(manifest);
+            } catch (IOException e) {
+                throw new DataStoreException("Could not write manifest "
+                    + manifest.getAbsolutePath(), e);
+            }
+            LOG.debug("Uploading [{}] of [{}] parts of [{}]", new Object[] {
+                missing.size(), upload.getParts().size(), upload });
+            if (missing.isEmpty()) {
+                finish();
+                return;
+            }
+            pending.set(missing.size());
+            for (final MultipartUpload.Part part : missing) {
+                multipartExecService.execute(new Runnable() {
+                    public void run() {
+                        // parts after a failed part are still written, as
+                        // they will not need to be written when resuming
+                        try {
+                            writePart(part);
+                        } catch (Exception e) {
+                            exception = e;
+                        }
+                        if (pending.decrementAndGet() == 0) {
+                            finish();
+                        }
+                    }
+                });
+            }
+        }
+
+        void writePart(MultipartUpload.Part part) throws IOException,
+                DataStoreException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                in.getChannel().position(part.getOffset());
+                multipartBackend.writePart(upload, part, in);
+            } finally {
+                in.close();
+            }
+        }
+
+        void finish() {
+            DataIdentifier identifier = upload.getIdentifier();
+            if (exception == null) {
+                try {
+                    multipartBackend.completeMultipartUpload(upload);
+                    getManifest(identifier).delete();
+                    LOG.debug("Multipart upload of [{}] completed", upload);
+                } catch (Exception e) {
+                    exception = e;
+                }
+            }
+            done.countDown();
+            if (callback != null) {
+                AsyncUploadResult result =
+                    new AsyncUploadResult(identifier, file);
+                if (exception == null) {
+                    callback.onSuccess(result);
+                } else {
+                    result.setException(exception);
+                    callback.onFailure(result);
+                }
+            }
+        }
+
+        void await() throws DataStoreException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DataStoreException("Interrupted while uploading "
+                    + upload, e);
+            }
+            if (exception != null) {
+                throw new DataStoreException("Could not upload " + upload,
+                    exception);
+            }
+        }
+    }
+
     /**
      * This class initiates files upload in multiple threads to backend.
      */
@@ -1369,7 +1700,7 @@ public abstract class CachingDataStore extends AbstractDataStore implements
                     String name = f.getName();
                     LOG.debug("upload file [{}] ",name);
                     if (!name.startsWith(TMP) && !name.endsWith(DS_STORE)
-                        && f.length() > 0) {
+                        && !LocalCache.isIndexFile(name) && f.length() > 0) {
                         uploadFileToBackEnd(f, updateAsyncCache);
                     }
                     uploadCount++;
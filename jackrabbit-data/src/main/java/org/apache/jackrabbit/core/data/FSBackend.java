@@ -22,8 +22,10 @@ package org.apache.jackrabbit.core.data;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.sql.Timestamp;
 import java.util.ArrayList;
@@ -38,7 +40,7 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class FSBackend extends AbstractBackend {
+public class FSBackend extends AbstractBackend implements MultipartBackend {
 
     private Properties properties;
 
@@ -48,6 +50,12 @@ public class FSBackend extends AbstractBackend {
 
     public static final String FS_BACKEND_PATH = "fsBackendPath";
 
+    /**
+     * Directory below {@link #fsPathDir} where the parts of multipart uploads
+     * are kept until the upload is complete.
+     */
+    static final String MULTIPART_DIR = "multipart";
+
     /**
      * Logger instance.
      */
@@ -198,7 +206,8 @@ public class FSBackend extends AbstractBackend {
                     throws DataStoreException {
         ArrayList<File> files = new ArrayList<File>();
         for (File file : fsPathDir.listFiles()) {
-            if (file.isDirectory()) { // skip top-level files
+            if (file.isDirectory() && !MULTIPART_DIR.equals(file.getName())) {
+                // skip top-level files and pending multipart uploads
                 listRecursive(files, file);
             }
         }
@@ -283,7 +292,8 @@ public class FSBackend extends AbstractBackend {
                     throws DataStoreException {
         Set<DataIdentifier> deleteIdSet = new HashSet<DataIdentifier>(30);
         for (File file : fsPathDir.listFiles()) {
-            if (file.isDirectory()) { // skip top-level files
+            if (file.isDirectory() && !MULTIPART_DIR.equals(file.getName())) {
+                // skip top-level files and pending multipart uploads
                 deleteOlderRecursive(file, min, deleteIdSet);
             }
         }
@@ -305,6 +315,103 @@ public class FSBackend extends AbstractBackend {
         }
     }
 
+    /**
+     * Parts are kept as files named <code>&lt;index&gt;-&lt;checksum&gt;</code>
+     * in a directory of the upload, so that the parts of a previous attempt
+     * can be found again.
+     */
+    @Override
+    public Set<Integer> startMultipartUpload(MultipartUpload upload)
+                    throws DataStoreException {
+        File dir = getMultipartDir(upload);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new DataStoreException("Could not create directory: "
+                + dir.getAbsolutePath());
+        }
+        Set<Integer> stored = new HashSet<Integer>();
+        for (MultipartUpload.Part part : upload.getParts()) {
+            File file = getPartFile(dir, part);
+            if (file.isFile() && file.length() == part.getLength()) {
+                stored.add(part.getIndex());
+            }
+        }
+        LOG.debug("Starting upload of [{}], [{}] parts already stored",
+            upload, stored.size());
+        return stored;
+    }
+
+    @Override
+    public void writePart(MultipartUpload upload, MultipartUpload.Part part,
+                    InputStream in) throws DataStoreException {
+        File file = getPartFile(getMultipartDir(upload), part);
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                MultipartUpload.copyPart(part, in, out);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw new DataStoreException("Could not write part ["
+                + part + "] of [" + upload + "]", e);
+        }
+    }
+
+    @Override
+    public void completeMultipartUpload(MultipartUpload upload)
+                    throws DataStoreException {
+        DataIdentifier identifier = upload.getIdentifier();
+        File dir = getMultipartDir(upload);
+        File dest = getFile(identifier);
+        File tmp = new File(dir, identifier + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                for (MultipartUpload.Part part : upload.getParts()) {
+                    File file = getPartFile(dir, part);
+                    if (!file.isFile()) {
+                        throw new IOException("Missing part " + part);
+                    }
+                    FileUtils.copyFile(file, out);
+                }
+            } finally {
+                out.close();
+            }
+            synchronized (this) {
+                if (dest.exists()) {
+                    long now = System.currentTimeMillis();
+                    if (getLastModified(dest) < now + ACCESS_TIME_RESOLUTION) {
+                        setLastModified(dest, now + ACCESS_TIME_RESOLUTION);
+                    }
+                } else {
+                    File parent = dest.getParentFile();
+                    if (!parent.isDirectory() && !parent.mkdirs()) {
+                        throw new IOException("Could not create directory: "
+                            + parent.getAbsolutePath());
+                    }
+                    if (!tmp.renameTo(dest)) {
+                        FileUtils.copyFile(tmp, dest);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new DataStoreException("Could not complete upload ["
+                + upload + "]", e);
+        }
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Override
+    public void abortMultipartUpload(MultipartUpload upload)
+                    throws DataStoreException {
+        FileUtils.deleteQuietly(getMultipartDir(upload));
+    }
+
     /**
      * Properties used to configure the backend. If provided explicitly before
      * init is invoked then these take precedence
@@ -331,6 +438,15 @@ public class FSBackend extends AbstractBackend {
         return new File(file, string);
     }
 
+    private File getMultipartDir(MultipartUpload upload) {
+        return new File(new File(fsPathDir, MULTIPART_DIR),
+            upload.getIdentifier().toString());
+    }
+
+    private static File getPartFile(File dir, MultipartUpload.Part part) {
+        return new File(dir, part.getIndex() + "-" + part.getChecksum());
+    }
+
     /**
      * Set the last modified date of a file, if the file is writable.
      * @param file the file
@@ -62,6 +62,32 @@ public class FileDataRecord extends AbstractDataRecord {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getStream(long position, long length)
+            throws DataStoreException {
+        try {
+            return new FileRangeInputStream(file, position, length);
+        } catch (IOException e) {
+            throw new DataStoreException("Error opening input stream of " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(long position, byte[] buffer, int offset, int length)
+            throws DataStoreException {
+        try {
+            return FileRangeInputStream.read(file, position, buffer, offset, length);
+        } catch (IOException e) {
+            throw new DataStoreException("Error reading " + file.getAbsolutePath(), e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -61,7 +61,7 @@ import org.slf4j.LoggerFactory;
  * atomic O(1) move operations with {@link File#renameTo(File)}.
  */
 public class FileDataStore extends AbstractDataStore
-        implements MultiDataStoreAware {
+        implements MultiDataStoreAware, SelectiveDeleteDataStore {
 
     /**
      * Logger instance
@@ -284,6 +284,27 @@ public class FileDataStore extends AbstractDataStore
         }
     }
 
+    public boolean deleteRecordIfOlderThan(DataIdentifier identifier, long min)
+            throws DataStoreException {
+        synchronized (this) {
+            // check before getFile, which marks the identifier as in use
+            if (inUse.containsKey(identifier)) {
+                return false;
+            }
+            File file = getFile(identifier);
+            inUse.remove(identifier);
+            if (!file.exists() || getLastModified(file) >= min) {
+                return false;
+            }
+            if (!file.delete()) {
+                log.warn("Failed to delete old file " + file.getAbsolutePath());
+                return false;
+            }
+            deleteEmptyParentDirs(file);
+            return true;
+        }
+    }
+
     private void deleteEmptyParentDirs(File file) {
         File parent = file.getParentFile();
         try {
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Input stream of a range of a file. Like {@link LazyFileInputStream}, this
+ * stream delays opening the file until the first byte is read. The file is
+ * read with positional reads of its channel, so neither starting the stream
+ * at an offset nor skipping bytes reads the skipped part of the file.
+ */
+public class FileRangeInputStream extends InputStream {
+
+    /**
+     * The file to read from.
+     */
+    private final File file;
+
+    /**
+     * End of the range, exclusive.
+     */
+    private final long end;
+
+    /**
+     * Position of the next byte to read.
+     */
+    private long position;
+
+    /**
+     * The channel, or <code>null</code> if the file was not opened yet.
+     */
+    private FileChannel channel;
+
+    private boolean closed;
+
+    /**
+     * Creates a stream of a range of the given file. The range is cut at the
+     * end of the file.
+     *
+     * @param file the file
+     * @param position position of the first byte of the range
+     * @param length maximum length of the range
+     * @throws FileNotFoundException if the file is unreadable
+     */
+    public FileRangeInputStream(File file, long position, long length)
+            throws FileNotFoundException {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid range: " + position + ", " + length);
+        }
+        if (!file.canRead()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        this.file = file;
+        this.position = position;
+        this.end = length > Long.MAX_VALUE - position
+                ? Long.MAX_VALUE : position + length;
+    }
+
+    /**
+     * Reads bytes of the given file, starting at the given position, until
+     * the buffer is full or the end of the file has been reached.
+     *
+     * @param file the file
+     * @param position position of the first byte to read
+     * @param b the buffer
+     * @param off offset in the buffer
+     * @param len number of bytes to read
+     * @return number of bytes read, or -1 if the position is at or beyond
+     *         the end of the file
+     * @throws IOException if the file could not be read
+     */
+    public static int read(File file, long position, byte[] b, int off, int len)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return read(raf.getChannel(), position, b, off, len);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int read(FileChannel channel, long position,
+            byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total == 0 && len > 0 ? -1 : total;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        } else if (position >= end || !open()) {
+            return -1;
+        }
+        int n = read(channel, position, b, off,
+                (int) Math.min(len, end - position));
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || !open()) {
+            return 0;
+        }
+        long skipped = Math.min(n, Math.min(end, channel.size()) - position);
+        if (skipped <= 0) {
+            return 0;
+        }
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (!open()) {
+            return 0;
+        }
+        long available = Math.min(end, channel.size()) - position;
+        return (int) Math.max(0, Math.min(available, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Opens the file if required.
+     *
+     * @return <code>false</code> if the stream has been closed
+     */
+    boolean open() throws IOException {
+        if (closed) {
+            return false;
+        } else if (channel == null) {
+            channel = new RandomAccessFile(file, "r").getChannel();
+        }
+        return true;
+    }
+}
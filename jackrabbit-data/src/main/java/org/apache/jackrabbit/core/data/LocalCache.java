@@ -18,30 +18,54 @@
 package org.apache.jackrabbit.core.data;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.util.NamedThreadFactory;
 import org.apache.jackrabbit.util.TransientFileFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This class implements a LRU cache used by {@link CachingDataStore}. If cache
- * size exceeds limit, this cache goes in purge mode. In purge mode any
- * operation to cache is no-op. After purge cache size would be less than
- * cachePurgeResizeFactor * maximum size.
+ * This class implements a LRU cache used by {@link CachingDataStore}. The
+ * index of cached files is split into segments, each with its own lock, so
+ * that concurrent readers don't contend on a single lock. If the cache size
+ * exceeds cachePurgeTrigFactor * maximum size, the least recently used files
+ * are evicted in the background until the size is less than
+ * cachePurgeResizeFactor * maximum size. The cache stays available while
+ * files are evicted.
+ * <p>
+ * The index is written to the cache directory when the cache is closed, and
+ * read on the next start instead of walking the cache directory. The index
+ * file is deleted once it has been read, so that the directory is walked
+ * again if the cache is not closed properly.
  */
 public class LocalCache {
 
@@ -50,15 +74,32 @@ public class LocalCache {
      */
     static final Logger LOG = LoggerFactory.getLogger(LocalCache.class);
 
+    /**
+     * Name of the file the index is persisted to, in the cache directory.
+     */
+    static final String INDEX_FILE_NAME = "localcache.index";
+
+    /**
+     * Name of the file the index is written to before it is renamed to
+     * {@link #INDEX_FILE_NAME}.
+     */
+    static final String INDEX_TEMP_FILE_NAME = INDEX_FILE_NAME + ".tmp";
+
+    /**
+     * Number of segments of the index.
+     */
+    private static final int SEGMENT_COUNT = 16;
+
     /**
      * The file names of the files that need to be deleted.
      */
-    final Set<String> toBeDeleted = new HashSet<String>();
+    final Set<String> toBeDeleted = Collections.newSetFromMap(
+        new ConcurrentHashMap<String, Boolean>());
 
     /**
      * The filename Vs file size LRU cache.
      */
-    LRUCache cache;
+    final CacheIndex cache;
 
     /**
      * The directory where the files are created.
@@ -71,29 +112,41 @@ public class LocalCache {
     private final File tmp;
 
     /**
-     * If true cache is in purgeMode and not available. All operation would be
-     * no-op.
+     * True while files are evicted in the background.
      */
-    private volatile boolean purgeMode;
-    
+    private final AtomicBoolean purgeMode = new AtomicBoolean();
+
+    /**
+     * Executor of the background eviction.
+     */
+    private final ExecutorService purgeExecutor;
+
     private AsyncUploadCache asyncUploadCache;
     
     private AtomicLong cacheMissCounter = new AtomicLong();
     
     private AtomicLong cacheMissDuration = new AtomicLong();
-    
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private final AtomicLong evictedBytes = new AtomicLong();
 
     /**
-     * Build LRU cache of files located at 'path'. It uses lastModified property
-     * of file to build LRU cache. If cache size exceeds limit size, this cache
-     * goes in purge mode. In purge mode any operation to cache is no-op.
+     * Build LRU cache of files located at 'path'. The cache is built from
+     * the persisted index if available, otherwise from the files located at
+     * 'path' using their lastModified property. If cache size exceeds limit
+     * size, files are evicted in the background.
      * 
      * @param path file system path
      * @param tmpPath temporary directory used by cache.
      * @param maxSizeInBytes maximum size of cache.
      * @param cachePurgeTrigFactor factor which triggers cache to purge mode.
      * That is if current size exceed (cachePurgeTrigFactor * maxSizeInBytes), the
-     * cache will go in auto-purge mode.
+     * cache will evict files in the background.
      * @param cachePurgeResizeFactor after cache purge size of cache will be
      * just less (cachePurgeResizeFactor * maxSizeInBytes).
      * @param asyncUploadCache {@link AsyncUploadCache}
@@ -108,14 +161,18 @@ public class LocalCache {
             new Object[] { cachePurgeTrigFactor, cachePurgeResizeFactor,
                 (cachePurgeTrigFactor * maxSizeInBytes), 
                 (cachePurgeResizeFactor * maxSizeInBytes) });
-        cache = new LRUCache(maxSizeInBytes, cachePurgeTrigFactor, cachePurgeResizeFactor);
+        cache = new CacheIndex(maxSizeInBytes, cachePurgeTrigFactor, cachePurgeResizeFactor);
         this.asyncUploadCache = asyncUploadCache;
-        new Thread(new CacheBuildJob()).start();
+        purgeExecutor = Executors.newSingleThreadExecutor(
+            new NamedThreadFactory("localcache-purge-worker"));
+        if (!loadIndex()) {
+            new Thread(new CacheBuildJob()).start();
+        }
     }
 
     /**
-     * Store an item in the cache and return the input stream. If cache is in
-     * purgeMode or file doesn't exists, inputstream from a
+     * Store an item in the cache and return the input stream. If the cache
+     * can not admit the file, inputstream from a
      * {@link TransientFileFactory#createTransientFile(String, String, File)} is
      * returned. Otherwise inputStream from cached file is returned. This method
      * doesn't close the incoming inputstream.
@@ -129,7 +186,9 @@ public class LocalCache {
         fileName = fileName.replace("\\", "/");
         File f = getFile(fileName);
         long length = 0;
-        if (!f.exists() || isInPurgeMode()) {
+        // a file that is being evicted is not used, it may be deleted
+        // before the returned stream is opened
+        if (!f.exists() || !cache.touch(fileName)) {
             OutputStream out = null;
             File transFile = null;
             try {
@@ -141,18 +200,10 @@ public class LocalCache {
                 IOUtils.closeQuietly(out);
             }
             // rename the file to local fs cache
-            if (canAdmitFile(length)
-                && (f.getParentFile().exists() || f.getParentFile().mkdirs())
-                && transFile.renameTo(f) && f.exists()) {
-                if (transFile.exists() && transFile.delete()) {
-                    LOG.info("tmp file [{}] not deleted successfully",
-                        transFile.getAbsolutePath());
-                }
-                transFile = null;
+            if (canAdmitFile(length) && cache.admit(fileName, transFile)) {
                 LOG.debug(
                     "file [{}] doesn't exists. adding to local cache using inputstream.",
                     fileName);
-                cache.put(fileName, f.length());
             } else {
                 LOG.debug(
                     "file [{}] doesn't exists. returning transient file [{}].",
@@ -164,10 +215,10 @@ public class LocalCache {
                 ((BackendResourceAbortable) in).abort();
             }
             f.setLastModified(System.currentTimeMillis());
+            toBeDeleted.remove(fileName);
             LOG.debug(
                 "file [{}]  exists. adding to local cache using inputstream.",
                 fileName);
-            cache.put(fileName, f.length());
         }
         tryPurge();
         return new LazyFileInputStream(f);
@@ -212,17 +263,18 @@ public class LocalCache {
             boolean tryForAsyncUpload) throws IOException {
         fileName = fileName.replace("\\", "/");
         File dest = getFile(fileName);
-        File parent = dest.getParentFile();
         AsyncUploadCacheResult result = new AsyncUploadCacheResult();
         result.setFile(src);
         result.setAsyncUpload(false);
-        boolean destExists = false;
-        if ((destExists = dest.exists())
+        // a file that is being evicted is neither used nor replaced
+        boolean destExists = dest.exists() && cache.touch(fileName);
+        if (destExists
             || (src.exists() && !dest.exists() && !src.equals(dest)
                 && canAdmitFile(src.length())
-                && (parent.exists() || parent.mkdirs()) && (src.renameTo(dest)))) {
+                && cache.admit(fileName, src))) {
             if (destExists) {
                 dest.setLastModified(System.currentTimeMillis());
+                toBeDeleted.remove(fileName);
             }
             LOG.debug("file [{}] moved to [{}] ", src.getAbsolutePath(), dest.getAbsolutePath());
             LOG.debug(
@@ -230,7 +282,6 @@ public class LocalCache {
                 new Object[] { dest.getAbsolutePath(), dest.exists(),
                     destExists });
             
-            cache.put(fileName, dest.length());
             result.setFile(dest);
             if (tryForAsyncUpload) {
                 result.setAsyncUpload(asyncUploadCache.add(fileName).canAsyncUpload());
@@ -250,7 +301,45 @@ public class LocalCache {
      */
     public InputStream getIfStored(String fileName) throws IOException {
         File file = getFileIfStored(fileName);
-        return file == null ? null : new LazyFileInputStream(file);
+        if (file == null) {
+            return null;
+        }
+        // open right away, the file may be evicted later on
+        LazyFileInputStream in = new LazyFileInputStream(file);
+        try {
+            in.open();
+        } catch (FileNotFoundException e) {
+            LOG.debug("file [{}] evicted before it was opened", fileName);
+            return null;
+        }
+        return in;
+    }
+
+    /**
+     * Return a stream of a range of the file from cache, or null if not in
+     * the cache. The bytes before the range are not read.
+     * 
+     * @param fileName name of file.
+     * @param position position of the first byte of the range.
+     * @param length maximum length of the range.
+     * @return stream or null.
+     */
+    public InputStream getIfStored(String fileName, long position,
+            long length) throws IOException {
+        File file = getFileIfStored(fileName);
+        if (file == null) {
+            return null;
+        }
+        // open right away, the file may be evicted later on
+        FileRangeInputStream in;
+        try {
+            in = new FileRangeInputStream(file, position, length);
+            in.open();
+        } catch (FileNotFoundException e) {
+            LOG.debug("file [{}] evicted before it was opened", fileName);
+            return null;
+        }
+        return in;
     }
 
     public File getFileIfStored(String fileName) throws IOException {
@@ -259,23 +348,28 @@ public class LocalCache {
         long diff = (System.currentTimeMillis() - cacheMissDuration.get()) / 1000;
         // logged at 5 minute interval minimum
         if (diff > 5 * 60) {
-            LOG.info("local cache misses [{}] in [{}] sec", new Object[] {
-                cacheMissCounter.getAndSet(0), diff });
+            LOG.info("local cache misses [{}] in [{}] sec, hit ratio [{}], evicted [{}] files",
+                new Object[] { cacheMissCounter.getAndSet(0), diff,
+                    getHitRatio(), evictionCount.get() });
             cacheMissDuration.set(System.currentTimeMillis());
         }
         
-        // return file in purge mode = true and file present in asyncUploadCache
-        // as asyncUploadCache's files will be not be deleted in cache purge.
-        if (!f.exists() || (isInPurgeMode() && !asyncUploadCache.hasEntry(fileName, false))) {
-            LOG.debug(
-                "getFileIfStored returned: purgeMode=[{}], file=[{}] exists=[{}]",
-                new Object[] { isInPurgeMode(), f.getAbsolutePath(), f.exists() });
+        if (!f.exists()) {
+            LOG.debug("getFileIfStored returned: file=[{}] exists=[{}]",
+                f.getAbsolutePath(), f.exists());
+            cacheMissCounter.incrementAndGet();
+            missCount.incrementAndGet();
+            cache.discard(fileName);
+            return null;
+        } else if (!cache.touch(fileName)) {
+            // the file is being evicted
+            LOG.debug("getFileIfStored returned: file=[{}] is being evicted",
+                f.getAbsolutePath());
             cacheMissCounter.incrementAndGet();
+            missCount.incrementAndGet();
             return null;
         } else {
-            // touch entry in LRU caches
-            f.setLastModified(System.currentTimeMillis());
-            cache.get(fileName);
+            hitCount.incrementAndGet();
             return f;
         }
     }
@@ -287,10 +381,6 @@ public class LocalCache {
      * @param fileName file name that need to be removed from cache.
      */
     public void delete(String fileName) {
-        if (isInPurgeMode()) {
-            LOG.debug("purgeMode true :delete returned");
-            return;
-        }
         fileName = fileName.replace("\\", "/");
         cache.remove(fileName);
     }
@@ -318,11 +408,71 @@ public class LocalCache {
     /**
      * Close the cache. Cache maintain set of files which it was not able to
      * delete successfully. This method will an attempt to delete all
-     * unsuccessful delete files.
+     * unsuccessful delete files, and persists the index of the cache.
      */
     public void close() {
         LOG.debug("close");
+        purgeExecutor.shutdown();
+        try {
+            purgeExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         deleteOldFiles();
+        storeIndex();
+    }
+
+    /**
+     * @return number of requests of files that were in the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of requests of files that were not in the cache.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return ratio of requests of files that were in the cache, or 0 if
+     *         no file has been requested yet.
+     */
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return number of files evicted from the cache because of its size.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return total length of files evicted from the cache because of its
+     *         size.
+     */
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    /**
+     * @return total length of the files in the cache.
+     */
+    public long getCurrentSizeInBytes() {
+        return cache.currentSizeInBytes.get();
+    }
+
+    /**
+     * @return number of files in the cache.
+     */
+    public int getFileCount() {
+        return cache.size();
     }
 
     /**
@@ -331,8 +481,7 @@ public class LocalCache {
      * @return true if yes else return false.
      */
     private boolean canAdmitFile(final long length) {
-      //order is important here
-        boolean value = !isInPurgeMode() && (cache.canAdmitFile(length));
+        boolean value = cache.canAdmitFile(length);
         if (!value) {
             LOG.debug("cannot admit file of length=[{}] and currentSizeInBytes=[{}] ",
                 length, cache.currentSizeInBytes);
@@ -341,20 +490,10 @@ public class LocalCache {
     }
 
     /**
-     * Return true if cache is in purge mode else return false.
-     */
-    synchronized boolean isInPurgeMode() {
-        return purgeMode;
-    }
-
-    /**
-     * Set purge mode. If set to true all cache operation will be no-op. If set
-     * to false, all operations to cache are available.
-     * 
-     * @param purgeMode purge mode
+     * Return true if files are evicted in the background.
      */
-    synchronized void setPurgeMode(final boolean purgeMode) {
-        this.purgeMode = purgeMode;
+    boolean isInPurgeMode() {
+        return purgeMode.get();
     }
 
     File getFile(final String fileName) {
@@ -415,17 +554,21 @@ public class LocalCache {
     /**
      * This method tries purging of local cache. It checks if local cache
      * has exceeded the defined limit then it triggers purge cache job in a
-     * seperate thread.
+     * background thread, unless a purge is already running.
      */
-    synchronized void tryPurge() {
-        if (!isInPurgeMode()
-            && cache.currentSizeInBytes > cache.cachePurgeTrigSize) {
-            setPurgeMode(true);
+    void tryPurge() {
+        if (cache.currentSizeInBytes.get() > cache.cachePurgeTrigSize
+                && purgeMode.compareAndSet(false, true)) {
             LOG.info(
                 "cache.entries = [{}], currentSizeInBytes=[{}]  exceeds cachePurgeTrigSize=[{}]",
                 new Object[] { cache.size(), cache.currentSizeInBytes,
                     cache.cachePurgeTrigSize });
-            new Thread(new PurgeJob()).start();
+            try {
+                purgeExecutor.execute(new PurgeJob());
+            } catch (RejectedExecutionException e) {
+                LOG.debug("cache is closed: purge skipped");
+                purgeMode.set(false);
+            }
         } else {
             LOG.debug(
                 "currentSizeInBytes=[{}],cachePurgeTrigSize=[{}], isInPurgeMode =[{}]",
@@ -435,13 +578,95 @@ public class LocalCache {
     }
 
     /**
-     * A LRU based extension {@link LinkedHashMap}. The key is file name and
-     * value is length of file.
+     * Check whether the given file name is the persisted index or its
+     * temporary file, which are not data records.
+     *
+     * @param name the file name
+     * @return true if the file belongs to the persisted index
+     */
+    static boolean isIndexFile(String name) {
+        return INDEX_FILE_NAME.equals(name)
+            || INDEX_TEMP_FILE_NAME.equals(name);
+    }
+
+    /**
+     * Read the persisted index, if any, and delete it.
+     *
+     * @return true if the index has been read.
+     */
+    private boolean loadIndex() {
+        File file = new File(directory, INDEX_FILE_NAME);
+        if (!file.exists()) {
+            return false;
+        }
+        long startTime = System.currentTimeMillis();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+            // entries are stored from least to most recently used
+            for (String line; (line = reader.readLine()) != null;) {
+                int tab = line.lastIndexOf('\t');
+                if (tab > 0) {
+                    cache.put(line.substring(0, tab),
+                        Long.valueOf(line.substring(tab + 1)));
+                }
+            }
+            LOG.info("Time to load cache index of [{}] files took [{}] ms",
+                cache.size(), System.currentTimeMillis() - startTime);
+            return true;
+        } catch (Exception e) {
+            LOG.warn("Unable to read cache index [" + file.getAbsolutePath()
+                + "], rebuilding the cache from the file system", e);
+            cache.clear();
+            return false;
+        } finally {
+            IOUtils.closeQuietly(reader);
+            if (!file.delete()) {
+                LOG.warn("Unable to delete cache index [{}]", file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Persist the index, from least to most recently used file.
+     */
+    private void storeIndex() {
+        File file = new File(directory, INDEX_FILE_NAME);
+        File temp = new File(directory, INDEX_TEMP_FILE_NAME);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(temp), "UTF-8"));
+            for (CacheIndex.Candidate entry : cache.snapshot()) {
+                writer.write(entry.fileName);
+                writer.write('\t');
+                writer.write(Long.toString(entry.length));
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+            if (!temp.renameTo(file)) {
+                LOG.warn("Unable to rename cache index [{}]", temp.getAbsolutePath());
+                temp.delete();
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to write cache index [" + file.getAbsolutePath() + "]", e);
+            IOUtils.closeQuietly(writer);
+            temp.delete();
+        }
+    }
+
+    /**
+     * The index of cached files. The key is file name and value is length of
+     * file. The index is split into segments by the hash code of the file
+     * name. Each segment is a {@link LinkedHashMap} in access order, guarded
+     * by its own lock. Entries carry a global access counter, so that the
+     * least recently used entries of all segments can be found.
      */
-    private class LRUCache extends LinkedHashMap<String, Long> {
-        private static final long serialVersionUID = 1L;
+    class CacheIndex {
 
-        volatile long currentSizeInBytes;
+        final AtomicLong currentSizeInBytes = new AtomicLong();
 
         final long maxSizeInBytes;
 
@@ -449,25 +674,37 @@ public class LocalCache {
         
         final long cachePurgeTrigSize;
 
-        LRUCache(final long maxSizeInBytes,
+        private final AtomicLong clock = new AtomicLong();
+
+        private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+        CacheIndex(final long maxSizeInBytes,
                 final double cachePurgeTrigFactor,
                 final double cachePurgeResizeFactor) {
-            super(maxSizeElements(maxSizeInBytes), (float) 0.75, true);
             this.maxSizeInBytes = maxSizeInBytes;
             this.cachePurgeTrigSize = new Double(cachePurgeTrigFactor
                 * maxSizeInBytes).longValue();
             this.cachePurgeResize = new Double(cachePurgeResizeFactor
                 * maxSizeInBytes).longValue();
+            int capacity = maxSizeElements(maxSizeInBytes) / SEGMENT_COUNT;
+            for (int i = 0; i < SEGMENT_COUNT; i++) {
+                segments[i] = new Segment(capacity);
+            }
+        }
+
+        private Segment segmentFor(String fileName) {
+            int h = fileName.hashCode();
+            h ^= (h >>> 16);
+            return segments[h & (SEGMENT_COUNT - 1)];
         }
 
         /**
-         * Overridden {@link Map#remove(Object)} to delete corresponding file
-         * from file system.
+         * Remove the entry and delete corresponding file from file system.
+         * The entry is not removed if the file is pending for async upload,
+         * or if the file can not be deleted.
          */
-        @Override
-        public synchronized Long remove(final Object key) {
-            String fileName = (String) key;
-            fileName = fileName.replace("\\", "/");
+        Long remove(final String key) {
+            String fileName = key.replace("\\", "/");
             try {
                 // not removing file from local cache, if there is in progress
                 // async upload on it.
@@ -481,119 +718,331 @@ public class LocalCache {
                 LOG.debug("error: ", e);
                 return null;
             }
-            Long flength = null;
-            if (tryDelete(fileName)) {
-                flength = super.remove(key);
-                if (flength != null) {
+            Segment segment = segmentFor(fileName);
+            Entry entry;
+            synchronized (segment) {
+                entry = segment.remove(fileName);
+                segment.evicting.add(fileName);
+            }
+            try {
+                if (tryDelete(fileName) || !getFile(fileName).exists()) {
+                    if (entry == null) {
+                        return null;
+                    }
+                    currentSizeInBytes.addAndGet(-entry.length);
                     LOG.debug("cache entry [{}], with size [{}] removed.",
-                        fileName, flength);
-                    currentSizeInBytes -= flength.longValue();
+                        fileName, entry.length);
+                    return entry.length;
                 }
-            } else if (!getFile(fileName).exists()) {
-                // second attempt. remove from cache if file doesn't exists
-                flength = super.remove(key);
-                if (flength != null) {
-                    LOG.debug(
-                        "file not exists. cache entry [{}], with size [{}] removed.",
-                        fileName, flength);
-                    currentSizeInBytes -= flength.longValue();
-                }
-            } else {
                 LOG.info("not able to remove cache entry [{}], size [{}]", key,
-                    super.get(key));
+                    entry != null ? entry.length : null);
+                if (entry != null) {
+                    restore(segment, fileName, entry);
+                }
+                return null;
+            } finally {
+                synchronized (segment) {
+                    segment.evicting.remove(fileName);
+                }
             }
-            return flength;
         }
 
-        @Override
-        public Long put(final String fileName, final Long value) {
-            if( isInPurgeMode()) {
-                LOG.debug("cache is purge mode: put is no-op");
+        /**
+         * Remove the entry without deleting the file.
+         */
+        Long discard(final String fileName) {
+            Segment segment = segmentFor(fileName);
+            Entry entry;
+            synchronized (segment) {
+                entry = segment.remove(fileName);
+            }
+            if (entry == null) {
                 return null;
             }
-            synchronized (this) {
-                Long oldValue = cache.get(fileName);
-                if (oldValue == null) {
-                    long flength = value.longValue();
-                    currentSizeInBytes += flength;
-                    return super.put(fileName.replace("\\", "/"), value);
+            currentSizeInBytes.addAndGet(-entry.length);
+            return entry.length;
+        }
+
+        /**
+         * Evict the entry if it has not been accessed since the given access
+         * counter, and delete its file.
+         *
+         * @return true if the entry has been evicted.
+         */
+        boolean evict(final Candidate candidate) {
+            try {
+                if (asyncUploadCache.hasEntry(candidate.fileName, false)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                LOG.debug("error: ", e);
+                return false;
+            }
+            Segment segment = segmentFor(candidate.fileName);
+            Entry entry;
+            synchronized (segment) {
+                entry = segment.get(candidate.fileName);
+                if (entry == null || entry.lastAccess != candidate.lastAccess) {
+                    return false;
+                }
+                segment.remove(candidate.fileName);
+                segment.evicting.add(candidate.fileName);
+            }
+            // delete outside of the lock, readers of the segment don't wait,
+            // but neither use nor replace the file while it is evicted
+            try {
+                if (tryDelete(candidate.fileName)
+                        || !getFile(candidate.fileName).exists()) {
+                    currentSizeInBytes.addAndGet(-entry.length);
+                    return true;
+                }
+                restore(segment, candidate.fileName, entry);
+                return false;
+            } finally {
+                synchronized (segment) {
+                    segment.evicting.remove(candidate.fileName);
                 }
-                toBeDeleted.remove(fileName);
-                return oldValue;
             }
         }
-        
-        @Override
-        public Long get(Object key) {
-            if( isInPurgeMode()) {
-                LOG.debug("cache is purge mode: get is no-op");
-                return null;
+
+        /**
+         * Puts back the entry of a file that could not be deleted. If the
+         * file has been stored again meanwhile, the new entry is kept.
+         */
+        private void restore(Segment segment, String fileName, Entry entry) {
+            synchronized (segment) {
+                if (!segment.containsKey(fileName)) {
+                    segment.put(fileName, entry);
+                    return;
+                }
             }
-            synchronized (this) {
-                return super.get(key);
+            currentSizeInBytes.addAndGet(-entry.length);
+        }
+
+        /**
+         * Touches the entry of an existing file under the lock of its
+         * segment. A file without an entry, e.g. while the index is still
+         * being built, is added to the index.
+         *
+         * @return false if the file is being evicted or does not exist.
+         */
+        boolean touch(final String fileName) {
+            Segment segment = segmentFor(fileName);
+            long length;
+            synchronized (segment) {
+                Entry entry = segment.get(fileName);
+                if (entry != null) {
+                    entry.lastAccess = clock.incrementAndGet();
+                    return true;
+                }
+                File f = getFile(fileName);
+                if (segment.evicting.contains(fileName) || !f.exists()) {
+                    return false;
+                }
+                length = f.length();
+                segment.put(fileName, new Entry(length, clock.incrementAndGet()));
             }
+            currentSizeInBytes.addAndGet(length);
+            return true;
         }
-        
+
+        /**
+         * Moves a file into the cache and adds its entry under the lock of
+         * the segment, so that an eviction of the same file in progress
+         * can not delete it.
+         *
+         * @return false if the file has not been moved.
+         */
+        boolean admit(final String fileName, final File src) {
+            File dest = getFile(fileName);
+            File parent = dest.getParentFile();
+            Segment segment = segmentFor(fileName);
+            long length = src.length();
+            synchronized (segment) {
+                if (segment.evicting.contains(fileName)
+                        || !(parent.exists() || parent.mkdirs())
+                        || !src.renameTo(dest)) {
+                    return false;
+                }
+                Entry entry = segment.put(fileName,
+                    new Entry(length, clock.incrementAndGet()));
+                if (entry != null) {
+                    length -= entry.length;
+                }
+            }
+            currentSizeInBytes.addAndGet(length);
+            return true;
+        }
+
+        Long put(final String fileName, final Long value) {
+            String key = fileName.replace("\\", "/");
+            Segment segment = segmentFor(key);
+            synchronized (segment) {
+                Entry entry = segment.get(key);
+                if (entry != null) {
+                    entry.lastAccess = clock.incrementAndGet();
+                    toBeDeleted.remove(fileName);
+                    return entry.length;
+                }
+                segment.put(key, new Entry(value.longValue(), clock.incrementAndGet()));
+            }
+            currentSizeInBytes.addAndGet(value.longValue());
+            return null;
+        }
+
+        Long get(final String fileName) {
+            Segment segment = segmentFor(fileName);
+            synchronized (segment) {
+                Entry entry = segment.get(fileName);
+                if (entry == null) {
+                    return null;
+                }
+                entry.lastAccess = clock.incrementAndGet();
+                return entry.length;
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    size += segment.size();
+                }
+            }
+            return size;
+        }
+
+        void clear() {
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    segment.clear();
+                }
+            }
+            currentSizeInBytes.set(0);
+        }
+
         /**
          * This method check if cache can admit file of given length. 
          * @param length length of file.
          * @return true if cache size + length is less than maxSize.
          */
-        synchronized boolean canAdmitFile(final long length) {
-            return cache.currentSizeInBytes + length < cache.maxSizeInBytes;
+        boolean canAdmitFile(final long length) {
+            return currentSizeInBytes.get() + length < maxSizeInBytes;
+        }
+
+        /**
+         * Return the entries of all segments from least to most recently
+         * used. Each segment is locked only while its entries are copied.
+         */
+        List<Candidate> snapshot() {
+            List<Candidate> list = new ArrayList<Candidate>();
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    for (Map.Entry<String, Entry> e : segment.entrySet()) {
+                        list.add(new Candidate(e.getKey(),
+                            e.getValue().length, e.getValue().lastAccess));
+                    }
+                }
+            }
+            Collections.sort(list);
+            return list;
+        }
+
+        /**
+         * A segment of the index, in access order.
+         */
+        private final class Segment extends LinkedHashMap<String, Entry> {
+
+            private static final long serialVersionUID = 1L;
+
+            /**
+             * Names of the files of this segment that are being deleted.
+             */
+            final Set<String> evicting = new HashSet<String>();
+
+            Segment(int capacity) {
+                super(capacity, 0.75f, true);
+            }
+        }
+
+        /**
+         * An entry of the index.
+         */
+        private final class Entry {
+
+            final long length;
+
+            volatile long lastAccess;
+
+            Entry(long length, long lastAccess) {
+                this.length = length;
+                this.lastAccess = lastAccess;
+            }
+        }
+
+        /**
+         * A copy of an entry, candidate for eviction.
+         */
+        final class Candidate implements Comparable<Candidate> {
+
+            final String fileName;
+
+            final long length;
+
+            final long lastAccess;
+
+            Candidate(String fileName, long length, long lastAccess) {
+                this.fileName = fileName;
+                this.length = length;
+                this.lastAccess = lastAccess;
+            }
+
+            public int compareTo(Candidate o) {
+                return lastAccess < o.lastAccess ? -1
+                    : (lastAccess == o.lastAccess ? 0 : 1);
+            }
         }
     }
 
     /**
      * This class performs purging of local cache. It implements
-     * {@link Runnable} and should be invoked in a separate thread.
+     * {@link Runnable} and runs in the background while the cache stays
+     * available.
      */
     private class PurgeJob implements Runnable {
-        public PurgeJob() {
-            // TODO Auto-generated constructor stub
-        }
 
         /**
          * This method purges local cache till its size is less than
-         * cacheResizefactor * maxSize
+         * cacheResizefactor * maxSize. The least recently used files are
+         * evicted first. Files accessed after the job started are skipped.
          */
         @Override
         public void run() {
             try {
-                synchronized (cache) {
-                    // first try to delete toBeDeleted files
-                    int initialSize = cache.size();
-                    LOG.info(" cache purge job started. initial cache entries = [{}]", initialSize);
-                    for (String fileName : new ArrayList<String>(toBeDeleted)) {
-                        cache.remove(fileName);
+                // first try to delete toBeDeleted files
+                int initialSize = cache.size();
+                LOG.info(" cache purge job started. initial cache entries = [{}]", initialSize);
+                for (String fileName : new ArrayList<String>(toBeDeleted)) {
+                    cache.remove(fileName);
+                }
+                int count = 0;
+                for (CacheIndex.Candidate candidate : cache.snapshot()) {
+                    if (cache.currentSizeInBytes.get() <= cache.cachePurgeResize) {
+                        break;
                     }
-                    int skipCount = 0;
-                    Iterator<Map.Entry<String, Long>> itr = cache.entrySet().iterator();
-                    while (itr.hasNext()) {
-                        Map.Entry<String, Long> entry = itr.next();
-                        if (entry.getKey() != null) {
-                            if (cache.currentSizeInBytes > cache.cachePurgeResize) {
-                                if (cache.remove(entry.getKey()) != null) {
-                                    itr = cache.entrySet().iterator();
-                                    for (int i = 0; i < skipCount && itr.hasNext(); i++) {
-                                        itr.next();
-                                    }
-                                } else {
-                                    skipCount++;
-                                }
-                            } else {
-                                break;
-                            }
-                        }
+                    if (cache.evict(candidate)) {
+                        count++;
+                        evictionCount.incrementAndGet();
+                        evictedBytes.addAndGet(candidate.length);
                     }
-                    LOG.info(
-                        " cache purge job completed: cleaned [{}] files and currentSizeInBytes = [{}]",
-                        (initialSize - cache.size()), cache.currentSizeInBytes);
                 }
+                LOG.info(
+                    " cache purge job completed: cleaned [{}] files and currentSizeInBytes = [{}]",
+                    count, cache.currentSizeInBytes);
             } catch (Exception e) {
                 LOG.error("error in purge jobs:", e);
             } finally {
-                setPurgeMode(false);
+                purgeMode.set(false);
             }
         }
     }
@@ -646,6 +1095,9 @@ public class LocalCache {
                     if (name.startsWith("/") || name.startsWith("\\")) {
                         name = name.substring(1);
                     }
+                    if (isIndexFile(name)) {
+                        continue;
+                    }
                     store(name, f);
                     long now = System.currentTimeMillis();
                     if (now > time + 10000) {
@@ -665,4 +1117,3 @@ public class LocalCache {
         }
     }
 }
-
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ * A {@link Backend} that can store a record in parts that are written
+ * concurrently. {@link CachingDataStore} uploads records of at least
+ * {@link CachingDataStore#setMultipartThreshold(long) multipartThreshold}
+ * bytes through this interface if the backend implements it.
+ */
+public interface MultipartBackend extends Backend {
+
+    /**
+     * Starts or resumes the multipart upload of a record. If the backend
+     * still has parts of a previous attempt of the same upload, it returns
+     * the indexes of the parts it has, and the caller only writes the
+     * missing parts. Backends may set the {@link MultipartUpload#setUploadId
+     * upload identifier}, which is kept by the caller to resume the upload.
+     * 
+     * @param upload
+     *            the upload
+     * @return indexes of the parts that are already stored.
+     * @throws DataStoreException
+     */
+    Set<Integer> startMultipartUpload(MultipartUpload upload)
+            throws DataStoreException;
+
+    /**
+     * Write a part of a multipart upload. This method may be called
+     * concurrently for different parts of the same upload. The backend
+     * verifies the checksum of the part.
+     * 
+     * @param upload
+     *            the upload
+     * @param part
+     *            the part
+     * @param in
+     *            stream positioned at the start of the part.
+     * @throws DataStoreException
+     *             if the part could not be written or is corrupt.
+     */
+    void writePart(MultipartUpload upload, MultipartUpload.Part part,
+            InputStream in) throws DataStoreException;
+
+    /**
+     * Complete a multipart upload after all parts have been written, which
+     * makes the record available.
+     * 
+     * @param upload
+     *            the upload
+     * @throws DataStoreException
+     */
+    void completeMultipartUpload(MultipartUpload upload)
+            throws DataStoreException;
+
+    /**
+     * Abort a multipart upload and delete all parts written so far. No-op if
+     * the upload is not known.
+     * 
+     * @param upload
+     *            the upload
+     * @throws DataStoreException
+     */
+    void abortMultipartUpload(MultipartUpload upload)
+            throws DataStoreException;
+}
+
@@ -0,0 +1,482 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * A record that is uploaded to a {@link Backend} in parts. The record is
+ * split into parts of a fixed size, and the {@link #CHECKSUM_ALGORITHM}
+ * checksum of each part is computed while the record is streamed into the
+ * data store. The checksums form a two level checksum tree: the root
+ * checksum is the checksum of the concatenated part checksums, the same
+ * scheme Amazon S3 uses for the ETag of multipart objects.
+ * <p>
+ * The upload is described by a manifest that the {@link CachingDataStore}
+ * keeps until the upload is complete. If an upload fails or the repository
+ * is stopped in the middle of it, the manifest is used to resume the upload:
+ * the backend reports the parts it already has, and only parts that are
+ * missing or whose checksum does not match are uploaded again.
+ */
+public class MultipartUpload {
+
+    /**
+     * Algorithm of the part checksums.
+     */
+    public static final String CHECKSUM_ALGORITHM = "MD5";
+
+    private static final String IDENTIFIER = "identifier";
+
+    private static final String LENGTH = "length";
+
+    private static final String PART_SIZE = "partSize";
+
+    private static final String PARTS = "parts";
+
+    private static final String PART = "part.";
+
+    private static final String ROOT_CHECKSUM = "rootChecksum";
+
+    private static final String UPLOAD_ID = "uploadId";
+
+    private final DataIdentifier identifier;
+
+    private final long length;
+
+    private final long partSize;
+
+    private final List<Part> parts;
+
+    private final String rootChecksum;
+
+    /**
+     * Backend specific identifier of the upload, if any.
+     */
+    private volatile String uploadId;
+
+    private MultipartUpload(DataIdentifier identifier, long length,
+            long partSize, List<Part> parts) {
+        this.identifier = identifier;
+        this.length = length;
+        this.partSize = partSize;
+        this.parts = Collections.unmodifiableList(parts);
+        this.rootChecksum = computeRootChecksum(parts);
+    }
+
+    /**
+     * Creates an upload from the part checksums computed by a
+     * {@link PartDigestOutputStream}.
+     *
+     * @param identifier identifier of the record
+     * @param out the stream the record has been written to
+     * @return the upload
+     */
+    public static MultipartUpload create(DataIdentifier identifier,
+            PartDigestOutputStream out) {
+        List<byte[]> digests = out.getPartDigests();
+        List<Part> parts = new ArrayList<Part>(digests.size());
+        long offset = 0;
+        for (int i = 0; i < digests.size(); i++) {
+            long len = Math.min(out.getPartSize(), out.getLength() - offset);
+            parts.add(new Part(i, offset, len, toHex(digests.get(i))));
+            offset += len;
+        }
+        return new MultipartUpload(
+                identifier, out.getLength(), out.getPartSize(), parts);
+    }
+
+    /**
+     * Creates an upload for an existing file by reading it once.
+     *
+     * @param identifier identifier of the record
+     * @param file the file containing the record
+     * @param partSize size of the parts
+     * @return the upload
+     * @throws IOException if the file can not be read
+     */
+    public static MultipartUpload create(DataIdentifier identifier,
+            File file, long partSize) throws IOException {
+        PartDigestOutputStream out = new PartDigestOutputStream(
+                NullOutputStream.NULL_OUTPUT_STREAM, partSize);
+        InputStream in = new FileInputStream(file);
+        try {
+            IOUtils.copyLarge(in, out);
+        } finally {
+            in.close();
+        }
+        out.close();
+        return create(identifier, out);
+    }
+
+    /**
+     * Loads an upload from a manifest written by {@link #store(File)}.
+     *
+     * @param manifest the manifest file
+     * @return the upload
+     * @throws IOException if the manifest can not be read or is corrupt
+     */
+    public static MultipartUpload load(File manifest) throws IOException {
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(manifest);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        try {
+            DataIdentifier identifier =
+                    new DataIdentifier(props.getProperty(IDENTIFIER));
+            long length = Long.parseLong(props.getProperty(LENGTH));
+            long partSize = Long.parseLong(props.getProperty(PART_SIZE));
+            int count = Integer.parseInt(props.getProperty(PARTS));
+            List<Part> parts = new ArrayList<Part>(count);
+            long offset = 0;
+            for (int i = 0; i < count; i++) {
+                long len = Math.min(partSize, length - offset);
+                String checksum = props.getProperty(PART + i);
+                if (checksum == null) {
+                    throw new IOException("Missing checksum of part " + i);
+                }
+                parts.add(new Part(i, offset, len, checksum));
+                offset += len;
+            }
+            MultipartUpload upload =
+                    new MultipartUpload(identifier, length, partSize, parts);
+            if (!upload.getRootChecksum().equals(
+                    props.getProperty(ROOT_CHECKSUM))) {
+                throw new IOException("Checksum mismatch in " + manifest);
+            }
+            upload.setUploadId(props.getProperty(UPLOAD_ID));
+            return upload;
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid manifest " + manifest, e);
+        }
+    }
+
+    /**
+     * Writes the manifest of this upload.
+     *
+     * @param manifest the manifest file
+     * @throws IOException if the manifest can not be written
+     */
+    public void store(File manifest) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(IDENTIFIER, identifier.toString());
+        props.setProperty(LENGTH, String.valueOf(length));
+        props.setProperty(PART_SIZE, String.valueOf(partSize));
+        props.setProperty(PARTS, String.valueOf(parts.size()));
+        for (Part part : parts) {
+            props.setProperty(PART + part.getIndex(), part.getChecksum());
+        }
+        props.setProperty(ROOT_CHECKSUM, rootChecksum);
+        if (uploadId != null) {
+            props.setProperty(UPLOAD_ID, uploadId);
+        }
+        File tmp = new File(manifest.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            props.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (manifest.exists() && !manifest.delete()) {
+            throw new IOException("Could not replace " + manifest);
+        }
+        if (!tmp.renameTo(manifest)) {
+            throw new IOException("Could not rename " + tmp + " to " + manifest);
+        }
+    }
+
+    public DataIdentifier getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * @return length of the record
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return size of all parts except the last one
+     */
+    public long getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * @return the parts, ordered by index
+     */
+    public List<Part> getParts() {
+        return parts;
+    }
+
+    /**
+     * @return hex encoded checksum of the part checksums
+     */
+    public String getRootChecksum() {
+        return rootChecksum;
+    }
+
+    /**
+     * @return backend specific identifier of the upload, or <code>null</code>
+     */
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    /**
+     * Sets the backend specific identifier of the upload, which is kept in
+     * the manifest so that the backend can resume the same upload.
+     *
+     * @param uploadId identifier of the upload
+     */
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    /**
+     * Copies a part from the given stream, and verifies its checksum.
+     *
+     * @param part the part
+     * @param in stream positioned at the start of the part
+     * @param out stream to copy the part to
+     * @throws IOException if the part can not be copied or is corrupt
+     */
+    public static void copyPart(Part part, InputStream in, OutputStream out)
+            throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
+        long remaining = part.getLength();
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                throw new EOFException("Part " + part.getIndex()
+                        + " is truncated");
+            }
+            digest.update(buffer, 0, n);
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+        if (!part.getChecksum().equals(toHex(digest.digest()))) {
+            throw new IOException("Checksum mismatch of part "
+                    + part.getIndex());
+        }
+    }
+
+    /**
+     * Returns the hex encoded form of the given bytes.
+     *
+     * @param bytes bytes
+     * @return hex string
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(
+                    hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String computeRootChecksum(List<Part> parts) {
+        MessageDigest digest = newDigest();
+        for (Part part : parts) {
+            digest.update(fromHex(part.getChecksum()));
+        }
+        return toHex(digest.digest()) + "-" + parts.size();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String toString() {
+        return identifier + " (" + parts.size() + " parts, " + rootChecksum + ")";
+    }
+
+    /**
+     * A part of a multipart upload.
+     */
+    public static class Part {
+
+        private final int index;
+
+        private final long offset;
+
+        private final long length;
+
+        private final String checksum;
+
+        Part(int index, long offset, long length, String checksum) {
+            this.index = index;
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return index of the part, starting at 0
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return offset of the part in the record
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return hex encoded {@link MultipartUpload#CHECKSUM_ALGORITHM}
+         *         checksum of the part
+         */
+        public String getChecksum() {
+            return checksum;
+        }
+
+        public String toString() {
+            return index + ":" + checksum;
+        }
+    }
+
+    /**
+     * Output stream that computes the checksum of each part of the data
+     * written through it.
+     */
+    public static class PartDigestOutputStream extends FilterOutputStream {
+
+        private final long partSize;
+
+        private final List<byte[]> digests = new ArrayList<byte[]>();
+
+        private final MessageDigest digest = newDigest();
+
+        private long length;
+
+        private long remaining;
+
+        private boolean closed;
+
+        public PartDigestOutputStream(OutputStream out, long partSize) {
+            super(out);
+            if (partSize <= 0) {
+                throw new IllegalArgumentException("partSize: " + partSize);
+            }
+            this.partSize = partSize;
+            this.remaining = partSize;
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            update(new byte[] { (byte) b }, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            update(b, off, len);
+        }
+
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                if (remaining < partSize || digests.isEmpty()) {
+                    digests.add(digest.digest());
+                }
+                super.close();
+            }
+        }
+
+        /**
+         * @return size of the parts
+         */
+        public long getPartSize() {
+            return partSize;
+        }
+
+        /**
+         * @return number of bytes written
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the checksums of the parts. Must only be called after the
+         * stream has been closed.
+         *
+         * @return checksums of the parts
+         */
+        public List<byte[]> getPartDigests() {
+            if (!closed) {
+                throw new IllegalStateException("Stream not closed");
+            }
+            return digests;
+        }
+
+        private void update(byte[] b, int off, int len) {
+            length += len;
+            while (len > 0) {
+                int n = (int) Math.min(len, remaining);
+                digest.update(b, off, n);
+                off += n;
+                len -= n;
+                remaining -= n;
+                if (remaining == 0) {
+                    digests.add(digest.digest());
+                    remaining = partSize;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.InputStream;
+
+/**
+ * Data record that supports reading a part of its binary stream without
+ * reading the bytes before it, for example to serve HTTP range requests.
+ * All records of the data stores in this package implement this interface.
+ */
+public interface RandomAccessDataRecord extends DataRecord {
+
+    /**
+     * Returns a stream of a range of the binary stream in this record. The
+     * stream ends early if the range extends beyond the end of the record,
+     * and is empty if the range starts after the end of the record.
+     *
+     * @param position position of the first byte of the range
+     * @param length maximum length of the range
+     * @return binary stream of the range
+     * @throws DataStoreException if the record could not be accessed
+     */
+    InputStream getStream(long position, long length)
+            throws DataStoreException;
+
+    /**
+     * Reads bytes of the binary stream in this record, starting at the given
+     * position. Unlike {@link InputStream#read(byte[], int, int)}, this method
+     * only returns less than the requested number of bytes at the end of the
+     * record.
+     *
+     * @param position position of the first byte to read
+     * @param buffer buffer to read the bytes into
+     * @param offset offset in the buffer
+     * @param length number of bytes to read
+     * @return number of bytes read, or -1 if the position is at or beyond
+     *         the end of the record
+     * @throws DataStoreException if the record could not be accessed
+     */
+    int read(long position, byte[] buffer, int offset, int length)
+            throws DataStoreException;
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+/**
+ * A data store that can delete single records that are known to be no longer
+ * referenced, without deleting all records older than a given date. This is
+ * used by the incremental data store garbage collection, which does not
+ * update the modified date of the records that are still in use.
+ */
+public interface SelectiveDeleteDataStore extends DataStore {
+
+    /**
+     * Deletes the record with the given identifier if it was last modified
+     * before the given date and is not in use. Like
+     * {@link DataStore#deleteAllOlderThan(long)}, a record that was added or
+     * accessed in the meantime is kept.
+     *
+     * @param identifier data identifier
+     * @param min the minimum last modified date of the records to keep
+     * @return true if the record was deleted
+     * @throws DataStoreException if the data store could not be accessed
+     */
+    boolean deleteRecordIfOlderThan(DataIdentifier identifier, long min)
+            throws DataStoreException;
+
+}
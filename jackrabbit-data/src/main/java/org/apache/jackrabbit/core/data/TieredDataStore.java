@@ -0,0 +1,1108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.jcr.RepositoryException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A TieredDataStore handles any number of independent DataStores, ordered
+ * from the fastest to the slowest storage system, for example a
+ * <code>FileDataStore</code> on a local SSD, a <code>FileDataStore</code> on
+ * NFS and a <code>VFSDataStore</code>.
+ * <p>
+ * <b>Attention:</b> like with the {@link MultiDataStore}, you lose the global
+ * single instance mechanism: a record may exist in more than one tier while
+ * it is moved.
+ * </p>
+ * New records are added to the first tier. On read operations the tiers are
+ * searched in order, starting with the tier the record was last found in.
+ * The data store counts how often each record is read. A background task
+ * periodically moves frequently read records one tier up and records that
+ * were not read recently one tier down, and then halves all counters, so
+ * that old accesses count less than recent ones.
+ * <p>
+ * A record is moved by copying it to the target tier first. The copy in the
+ * source tier is only deleted after <code>deleteDelay</code> seconds, so
+ * that readers which already hold the record can finish reading it. Reads
+ * are therefore served by either copy while the record is moved. Old copies
+ * that are still pending are deleted when the data store is closed. If the
+ * repository is not shut down properly, a later migration run removes the
+ * old copies of the records it has found in a faster tier since.
+ * <p>
+ * The Configuration:
+ *
+ * <pre>
+ * &lt;DataStore class="org.apache.jackrabbit.core.data.TieredDataStore"&gt;
+ *     &lt;param name="{@link #setMigrationInterval(int) migrationInterval}" value="3600"/&gt;
+ *     &lt;param name="{@link #setMigrationRateLimit(int) migrationRateLimit}" value="1024"/&gt;
+ *     &lt;param name="{@link #setPromoteThreshold(int) promoteThreshold}" value="8"/&gt;
+ *     &lt;param name="{@link #setDemoteThreshold(int) demoteThreshold}" value="1"/&gt;
+ *     &lt;param name="{@link #setDemoteMinAge(int) demoteMinAge}" value="86400"/&gt;
+ *     &lt;param name="{@link #setDeleteDelay(int) deleteDelay}" value="60"/&gt;
+ *     &lt;param name="{@link #setMaxTrackedRecords(int) maxTrackedRecords}" value="100000"/&gt;
+ *     &lt;param name="tier" value="org.apache.jackrabbit.core.data.FileDataStore"&gt;
+ *        &lt;param .../&gt;
+ *     &lt;/param&gt;
+ *     &lt;param name="tier" value="org.apache.jackrabbit.core.data.FileDataStore"&gt;
+ *        &lt;param .../&gt;
+ *     &lt;/param&gt;
+ *     &lt;param name="tier" value="org.apache.jackrabbit.vfs.ext.ds.VFSDataStore"&gt;
+ *        &lt;param .../&gt;
+ *     &lt;/param&gt;
+ * &lt;/DataStore&gt;
+ * </pre>
+ *
+ * <ul>
+ * <li><code>tier</code>: a data store of a tier, the fastest first. At least
+ * two tiers are needed, and each data store must be
+ * {@link MultiDataStoreAware}.</li>
+ * <li><code>migrationInterval</code>: the time in seconds between two
+ * migration runs (default = <code>3600</code>)</li>
+ * <li><code>migrationRateLimit</code>: the maximum number of kilobytes that
+ * are copied per second while records are moved, 0 means unlimited
+ * (default = <code>1024</code>)</li>
+ * <li><code>promoteThreshold</code>: the number of recent reads after which
+ * a record is moved one tier up (default = <code>8</code>)</li>
+ * <li><code>demoteThreshold</code>: the number of recent reads below which a
+ * record is moved one tier down (default = <code>1</code>)</li>
+ * <li><code>demoteMinAge</code>: the time in seconds a record stays in a tier
+ * before it may be moved down (default = <code>86400</code>)</li>
+ * <li><code>deleteDelay</code>: the time in seconds after which the old copy
+ * of a moved record is deleted (default = <code>60</code>)</li>
+ * <li><code>maxTrackedRecords</code>: the maximum number of records whose
+ * reads are counted; records that are not tracked count as not read, but
+ * are not moved down while this maximum is reached
+ * (default = <code>100000</code>)</li>
+ * </ul>
+ * <p>
+ * Reads done by the garbage collector while it marks the records in use
+ * are not counted. The hit rates of the tiers and the number of records
+ * and bytes moved are exposed through the {@link TieredDataStoreMBean}.
+ */
+public class TieredDataStore implements DataStore, MultiDataStoreAware, TieredDataStoreMBean {
+
+    /**
+     * Logger instance
+     */
+    private static Logger log = LoggerFactory.getLogger(TieredDataStore.class);
+
+    /**
+     * Number of locks records are striped over.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * The data stores of the tiers, fastest first.
+     */
+    private DataStore[] tiers = new DataStore[0];
+
+    /**
+     * The time in seconds between two migration runs, 1 hour default.
+     */
+    private int migrationInterval = 60 * 60;
+
+    /**
+     * The maximum number of kilobytes copied per second, 0 means unlimited.
+     */
+    private volatile int migrationRateLimit = 1024;
+
+    private volatile int promoteThreshold = 8;
+
+    private volatile int demoteThreshold = 1;
+
+    /**
+     * The time in seconds a record stays in a tier before it may be moved
+     * down, 1 day default.
+     */
+    private int demoteMinAge = 60 * 60 * 24;
+
+    /**
+     * The time in seconds after which the old copy of a moved record is
+     * deleted.
+     */
+    private int deleteDelay = 60;
+
+    private int maxTrackedRecords = 100000;
+
+    /**
+     * The read statistics of the tracked records.
+     */
+    private final ConcurrentHashMap<DataIdentifier, AccessStatistics> statistics =
+        new ConcurrentHashMap<DataIdentifier, AccessStatistics>();
+
+    /**
+     * False while the garbage collector marks the records in use.
+     */
+    private volatile boolean countAccesses = true;
+
+    /**
+     * The old copies of moved records, in the order they are deleted.
+     */
+    private final Queue<PendingDelete> deleteQueue =
+        new ConcurrentLinkedQueue<PendingDelete>();
+
+    /**
+     * The old copies that are still to be deleted, by tier and identifier.
+     * A copy is removed from this map when a record is moved back to its
+     * tier before it was deleted.
+     */
+    private final Map<String, PendingDelete> pendingDeletes =
+        new ConcurrentHashMap<String, PendingDelete>();
+
+    /**
+     * Incremented before an old copy is deleted.
+     */
+    private final AtomicLong deleteCount = new AtomicLong();
+
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    private AtomicLongArray tierHits = new AtomicLongArray(0);
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong recordsPromoted = new AtomicLong();
+
+    private final AtomicLong recordsDemoted = new AtomicLong();
+
+    private final AtomicLong bytesPromoted = new AtomicLong();
+
+    private final AtomicLong bytesDemoted = new AtomicLong();
+
+    private volatile String migrationState = "idle";
+
+    /**
+     * Monitor used to wake up the migration thread.
+     */
+    private final Object migrationMonitor = new Object();
+
+    private boolean migrationRequested;
+
+    private volatile boolean closed;
+
+    private Thread migrationThread;
+
+    private ObjectName mbeanName;
+
+    {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Setter for the data stores of the tiers.
+     *
+     * @param dataStores the data stores, fastest first
+     */
+    public void setTierDataStores(List<DataStore> dataStores) {
+        this.tiers = dataStores.toArray(new DataStore[dataStores.size()]);
+        this.tierHits = new AtomicLongArray(tiers.length);
+    }
+
+    /**
+     * Returns the data store of the given tier.
+     *
+     * @param tier the tier, 0 is the fastest
+     * @return the data store
+     */
+    public DataStore getTierDataStore(int tier) {
+        return tiers[tier];
+    }
+
+    /**
+     * Check if a record for the given identifier exists in any tier. The
+     * tiers are searched in order, starting with the tier the record was
+     * last found in. Old copies of moved records that are still to be
+     * deleted are only used if no other copy exists, so that the garbage
+     * collector marks the copy that is kept. If no record exists, this
+     * method returns null.
+     *
+     * @param identifier
+     *            data identifier
+     * @return the record if found, and null if not
+     */
+    public DataRecord getRecordIfStored(DataIdentifier identifier)
+            throws DataStoreException {
+        AccessStatistics stats = recordAccess(identifier);
+        int hint = stats != null ? stats.tier : -1;
+        if (hint >= 0 && !isPendingDelete(hint, identifier)) {
+            DataRecord record = tiers[hint].getRecordIfStored(identifier);
+            if (record != null) {
+                tierHits.incrementAndGet(hint);
+                return record;
+            }
+        }
+        for (int i = 0; i < tiers.length; i++) {
+            if (i != hint && !isPendingDelete(i, identifier)) {
+                DataRecord record = tiers[i].getRecordIfStored(identifier);
+                if (record != null) {
+                    tierHits.incrementAndGet(i);
+                    if (stats != null) {
+                        stats.tier = i;
+                    }
+                    return record;
+                }
+            }
+        }
+        for (int i = 0; i < tiers.length; i++) {
+            if (isPendingDelete(i, identifier)) {
+                DataRecord record = tiers[i].getRecordIfStored(identifier);
+                if (record != null) {
+                    tierHits.incrementAndGet(i);
+                    return record;
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns the identified data record from the first tier that contains
+     * it.
+     *
+     * @param identifier
+     *            data identifier
+     * @return identified data record
+     * @throws DataStoreException
+     *             if the data store could not be accessed, or if the given
+     *             identifier is invalid
+     */
+    public DataRecord getRecord(DataIdentifier identifier)
+            throws DataStoreException {
+        DataRecord record = getRecordIfStored(identifier);
+        if (record == null) {
+            throw new DataStoreException("Record not found: " + identifier);
+        }
+        return record;
+    }
+
+    public DataRecord getRecordFromReference(String reference)
+            throws DataStoreException {
+        DataRecord pending = null;
+        int pendingTier = -1;
+        for (int i = 0; i < tiers.length; i++) {
+            DataRecord record = tiers[i].getRecordFromReference(reference);
+            if (record != null) {
+                if (isPendingDelete(i, record.getIdentifier())) {
+                    // prefer the copy that is kept
+                    if (pending == null) {
+                        pending = record;
+                        pendingTier = i;
+                    }
+                    continue;
+                }
+                tierHits.incrementAndGet(i);
+                AccessStatistics stats = recordAccess(record.getIdentifier());
+                if (stats != null) {
+                    stats.tier = i;
+                }
+                return record;
+            }
+        }
+        if (pending != null) {
+            tierHits.incrementAndGet(pendingTier);
+            recordAccess(pending.getIdentifier());
+            return pending;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Creates a new data record in the first tier. If the same stream
+     * already exists in another record, then that record is returned
+     * instead of creating a new one.
+     *
+     * @param stream
+     *            binary stream
+     * @return data record that contains the given stream
+     * @throws DataStoreException
+     *             if the data store could not be accessed
+     */
+    public DataRecord addRecord(InputStream stream) throws DataStoreException {
+        long deletes = deleteCount.get();
+        DataRecord record = tiers[0].addRecord(stream);
+        DataIdentifier identifier = record.getIdentifier();
+        if (!pendingDeletes.isEmpty() || deleteCount.get() != deletes) {
+            // the record may have been moved out of the first tier
+            ReentrantLock lock = getLock(identifier);
+            lock.lock();
+            try {
+                pendingDeletes.remove(getKey(0, identifier));
+                if (deleteCount.get() != deletes
+                        && tiers[0].getRecordIfStored(identifier) == null) {
+                    // deleted while it was added, copy it back
+                    for (int i = 1; i < tiers.length; i++) {
+                        DataRecord moved = tiers[i].getRecordIfStored(identifier);
+                        if (moved != null) {
+                            copy(moved, tiers[0], null);
+                            break;
+                        }
+                    }
+                    record = tiers[0].getRecord(identifier);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        AccessStatistics stats = statistics.get(identifier);
+        if (stats != null) {
+            stats.tier = 0;
+        }
+        return record;
+    }
+
+    /**
+     * Deletes the record from all tiers.
+     *
+     * @param identifier
+     *            data identifier
+     * @throws DataStoreException
+     *             if a data store could not be accessed
+     */
+    public void deleteRecord(DataIdentifier identifier) throws DataStoreException {
+        ReentrantLock lock = getLock(identifier);
+        lock.lock();
+        try {
+            for (int i = 0; i < tiers.length; i++) {
+                pendingDeletes.remove(getKey(i, identifier));
+                ((MultiDataStoreAware) tiers[i]).deleteRecord(identifier);
+            }
+            statistics.remove(identifier);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the modified date on access in all tiers. While the garbage
+     * collector marks the records in use, reads are not counted.
+     *
+     * @param before
+     *            - update the modified date to the current time if it is older
+     *            than this value
+     */
+    public void updateModifiedDateOnAccess(long before) {
+        countAccesses = before == 0;
+        for (DataStore tier : tiers) {
+            tier.updateModifiedDateOnAccess(before);
+        }
+    }
+
+    /**
+     * Delete objects that have a modified date older than the specified date
+     * from all tiers.
+     *
+     * @param min
+     *            the minimum time
+     * @return the number of data records deleted
+     * @throws DataStoreException
+     */
+    public int deleteAllOlderThan(long min) throws DataStoreException {
+        countAccesses = true;
+        int count = 0;
+        for (DataStore tier : tiers) {
+            count += tier.deleteAllOlderThan(min);
+        }
+        return count;
+    }
+
+    /**
+     * Get all identifiers from all tiers. The identifier of a record that is
+     * being moved may be returned twice.
+     *
+     * @return an iterator over all DataIdentifier objects
+     * @throws DataStoreException
+     *             if the list could not be read
+     */
+    public Iterator<DataIdentifier> getAllIdentifiers() throws DataStoreException {
+        final List<Iterator<DataIdentifier>> iterators =
+            new ArrayList<Iterator<DataIdentifier>>(tiers.length);
+        for (DataStore tier : tiers) {
+            iterators.add(tier.getAllIdentifiers());
+        }
+        return new Iterator<DataIdentifier>() {
+            private int current = 0;
+
+            public boolean hasNext() {
+                while (current < iterators.size()) {
+                    if (iterators.get(current).hasNext()) {
+                        return true;
+                    }
+                    current++;
+                }
+                return false;
+            }
+
+            public DataIdentifier next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return iterators.get(current).next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init(String homeDir) throws RepositoryException {
+        if (tiers.length < 2) {
+            throw new RepositoryException(
+                    "A TieredDataStore must have at least two tiers configured");
+        }
+        for (DataStore tier : tiers) {
+            if (!(tier instanceof MultiDataStoreAware)) {
+                throw new RepositoryException(
+                        "Only MultiDataStoreAware data stores can be used as a tier: "
+                        + tier.getClass().getName());
+            }
+        }
+        migrationThread = new Thread(new MigrationTask(),
+                "Jackrabbit-TieredDataStore-MigrationThread");
+        migrationThread.setDaemon(true);
+        migrationThread.start();
+        log.info("TieredDataStore with {} tiers started; migration runs every {} seconds",
+                tiers.length, migrationInterval);
+        try {
+            ObjectName name = new ObjectName(
+                    "org.apache.jackrabbit:type=TieredDataStore,path="
+                    + ObjectName.quote(String.valueOf(homeDir)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(this, TieredDataStoreMBean.class), name);
+            mbeanName = name;
+        } catch (Exception e) {
+            log.warn("Unable to register tiered data store MBean: " + e);
+        }
+    }
+
+    /**
+     * Get the minimum size of an object that should be stored in the first
+     * tier.
+     *
+     * @return the minimum size in bytes
+     */
+    public int getMinRecordLength() {
+        return tiers[0].getMinRecordLength();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws DataStoreException {
+        closed = true;
+        if (migrationThread != null) {
+            migrationThread.interrupt();
+            try {
+                migrationThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            migrationThread = null;
+        }
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (Exception e) {
+                log.warn("Unable to unregister tiered data store MBean: " + e);
+            }
+            mbeanName = null;
+        }
+        // nobody reads the old copies any longer
+        deletePending(true);
+        DataStoreException lastException = null;
+        for (DataStore tier : tiers) {
+            try {
+                tier.close();
+            } catch (DataStoreException e) {
+                if (lastException != null) {
+                    log.warn("Failed to close tier data store", lastException);
+                }
+                lastException = e;
+            }
+        }
+        if (lastException != null) {
+            throw lastException;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clearInUse() {
+        for (DataStore tier : tiers) {
+            tier.clearInUse();
+        }
+    }
+
+    public int getMigrationInterval() {
+        return migrationInterval;
+    }
+
+    public void setMigrationInterval(int seconds) {
+        this.migrationInterval = seconds;
+    }
+
+    public int getMigrationRateLimit() {
+        return migrationRateLimit;
+    }
+
+    public void setMigrationRateLimit(int kbPerSecond) {
+        this.migrationRateLimit = kbPerSecond;
+    }
+
+    public int getPromoteThreshold() {
+        return promoteThreshold;
+    }
+
+    public void setPromoteThreshold(int threshold) {
+        this.promoteThreshold = threshold;
+    }
+
+    public int getDemoteThreshold() {
+        return demoteThreshold;
+    }
+
+    public void setDemoteThreshold(int threshold) {
+        this.demoteThreshold = threshold;
+    }
+
+    public int getDemoteMinAge() {
+        return demoteMinAge;
+    }
+
+    public void setDemoteMinAge(int seconds) {
+        this.demoteMinAge = seconds;
+    }
+
+    public int getDeleteDelay() {
+        return deleteDelay;
+    }
+
+    public void setDeleteDelay(int seconds) {
+        this.deleteDelay = seconds;
+    }
+
+    public int getMaxTrackedRecords() {
+        return maxTrackedRecords;
+    }
+
+    public void setMaxTrackedRecords(int maxTrackedRecords) {
+        this.maxTrackedRecords = maxTrackedRecords;
+    }
+
+    //---------------------------------------------< TieredDataStoreMBean >
+
+    public int getTierCount() {
+        return tiers.length;
+    }
+
+    public String[] getTierDataStores() {
+        String[] names = new String[tiers.length];
+        for (int i = 0; i < tiers.length; i++) {
+            names[i] = tiers[i].getClass().getName();
+        }
+        return names;
+    }
+
+    public long[] getTierHits() {
+        long[] hits = new long[tiers.length];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = tierHits.get(i);
+        }
+        return hits;
+    }
+
+    public double[] getTierHitRates() {
+        long[] hits = getTierHits();
+        long lookups = misses.get();
+        for (long h : hits) {
+            lookups += h;
+        }
+        double[] rates = new double[hits.length];
+        for (int i = 0; i < hits.length && lookups > 0; i++) {
+            rates[i] = (double) hits[i] / lookups;
+        }
+        return rates;
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRecordsPromoted() {
+        return recordsPromoted.get();
+    }
+
+    public long getRecordsDemoted() {
+        return recordsDemoted.get();
+    }
+
+    public long getBytesPromoted() {
+        return bytesPromoted.get();
+    }
+
+    public long getBytesDemoted() {
+        return bytesDemoted.get();
+    }
+
+    public int getTrackedRecords() {
+        return statistics.size();
+    }
+
+    public int getPendingDeletes() {
+        return pendingDeletes.size();
+    }
+
+    public String getMigrationState() {
+        return migrationState;
+    }
+
+    public void migrate() {
+        synchronized (migrationMonitor) {
+            migrationRequested = true;
+            migrationMonitor.notifyAll();
+        }
+    }
+
+    //-------------------------------------------------------------< internal >
+
+    /**
+     * Counts a read of the given record.
+     *
+     * @param identifier data identifier
+     * @return the statistics of the record, or null if it is not tracked
+     */
+    private AccessStatistics recordAccess(DataIdentifier identifier) {
+        AccessStatistics stats = statistics.get(identifier);
+        if (stats == null) {
+            if (!countAccesses || statistics.size() >= maxTrackedRecords) {
+                return null;
+            }
+            stats = new AccessStatistics();
+            AccessStatistics existing = statistics.putIfAbsent(identifier, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        if (countAccesses) {
+            stats.count.incrementAndGet();
+        }
+        return stats;
+    }
+
+    /**
+     * Checks whether the copy of a record in the given tier is the old copy
+     * of a moved record that is still to be deleted.
+     */
+    private boolean isPendingDelete(int tier, DataIdentifier identifier) {
+        return !pendingDeletes.isEmpty()
+                && pendingDeletes.containsKey(getKey(tier, identifier));
+    }
+
+    private ReentrantLock getLock(DataIdentifier identifier) {
+        return locks[(identifier.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    private static String getKey(int tier, DataIdentifier identifier) {
+        return tier + ":" + identifier;
+    }
+
+    /**
+     * Runs a migration: moves frequently read records up, records that were
+     * not read recently down, and then halves the read counters.
+     *
+     * @throws InterruptedException if the data store is closed
+     */
+    void runMigration() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(migrationRateLimit);
+        try {
+            migrationState = "promoting";
+            promote(limiter);
+            migrationState = "demoting";
+            demote(limiter);
+            decay();
+        } finally {
+            migrationState = "idle";
+        }
+    }
+
+    /**
+     * Moves the records read at least <code>promoteThreshold</code> times one
+     * tier up.
+     */
+    private void promote(RateLimiter limiter) throws InterruptedException {
+        int promoted = 0;
+        for (Map.Entry<DataIdentifier, AccessStatistics> entry : statistics.entrySet()) {
+            checkInterrupted();
+            AccessStatistics stats = entry.getValue();
+            int tier = stats.tier;
+            if (stats.count.get() < promoteThreshold || tier <= 0) {
+                continue;
+            }
+            DataIdentifier identifier = entry.getKey();
+            try {
+                long length = move(identifier, tier, tier - 1, limiter);
+                if (length >= 0) {
+                    recordsPromoted.incrementAndGet();
+                    bytesPromoted.addAndGet(length);
+                    promoted++;
+                }
+            } catch (DataStoreException e) {
+                checkInterrupted();
+                log.warn("Failed to promote DataRecord. DataIdentifier: " + identifier, e);
+            }
+        }
+        log.debug("Promoted {} DataRecords", promoted);
+    }
+
+    /**
+     * Moves the records read less than <code>demoteThreshold</code> times one
+     * tier down, if they have been in their tier for at least
+     * <code>demoteMinAge</code> seconds.
+     */
+    private void demote(RateLimiter limiter) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        long minAgeMillis = 1000L * demoteMinAge;
+        for (int i = 0; i < tiers.length - 1; i++) {
+            int demoted = 0;
+            Iterator<DataIdentifier> it;
+            try {
+                it = tiers[i].getAllIdentifiers();
+            } catch (DataStoreException e) {
+                log.warn("Failed to list the DataRecords of tier " + i, e);
+                continue;
+            }
+            while (it.hasNext()) {
+                checkInterrupted();
+                DataIdentifier identifier = it.next();
+                if (pendingDeletes.containsKey(getKey(i, identifier))) {
+                    continue;
+                }
+                AccessStatistics stats = statistics.get(identifier);
+                if (stats == null && statistics.size() >= maxTrackedRecords) {
+                    // reads of untracked records are not counted while the
+                    // statistics are full, the record may well be in use
+                    continue;
+                }
+                try {
+                    if (stats != null && stats.tier >= 0 && stats.tier < i
+                            && tiers[stats.tier].getRecordIfStored(identifier) != null) {
+                        // left over from a move that was not completed
+                        scheduleDelete(i, identifier);
+                        continue;
+                    }
+                    // a tracked record has been read since the last run,
+                    // otherwise the record counts as not read
+                    int count = stats != null ? stats.count.get() : 0;
+                    if (count >= demoteThreshold) {
+                        continue;
+                    }
+                    DataRecord record = tiers[i].getRecordIfStored(identifier);
+                    if (record == null || record.getLastModified() + minAgeMillis > now) {
+                        continue;
+                    }
+                    long length = move(identifier, i, i + 1, limiter);
+                    if (length >= 0) {
+                        recordsDemoted.incrementAndGet();
+                        bytesDemoted.addAndGet(length);
+                        demoted++;
+                    }
+                } catch (DataStoreException e) {
+                    checkInterrupted();
+                    log.warn("Failed to demote DataRecord. DataIdentifier: " + identifier, e);
+                }
+            }
+            log.debug("Demoted {} DataRecords from tier {}", demoted, i);
+        }
+    }
+
+    /**
+     * Halves the read counters and stops tracking records that were not
+     * read recently.
+     */
+    private void decay() {
+        Iterator<Map.Entry<DataIdentifier, AccessStatistics>> it =
+            statistics.entrySet().iterator();
+        while (it.hasNext()) {
+            AtomicInteger count = it.next().getValue().count;
+            int c;
+            do {
+                c = count.get();
+            } while (!count.compareAndSet(c, c / 2));
+            if (c / 2 == 0) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Copies a record to another tier and schedules the deletion of the old
+     * copy.
+     *
+     * @return the length of the record, or -1 if it no longer exists
+     */
+    private long move(DataIdentifier identifier, int from, int to, RateLimiter limiter)
+            throws DataStoreException {
+        DataRecord record = tiers[from].getRecordIfStored(identifier);
+        if (record == null) {
+            return -1;
+        }
+        long length = copy(record, tiers[to], limiter);
+        ReentrantLock lock = getLock(identifier);
+        lock.lock();
+        try {
+            // the record may be moved back before the old copy was deleted
+            pendingDeletes.remove(getKey(to, identifier));
+            AccessStatistics stats = statistics.get(identifier);
+            if (stats != null) {
+                stats.tier = to;
+            }
+        } finally {
+            lock.unlock();
+        }
+        scheduleDelete(from, identifier);
+        return length;
+    }
+
+    private long copy(DataRecord record, DataStore target, RateLimiter limiter)
+            throws DataStoreException {
+        InputStream in = record.getStream();
+        if (limiter != null) {
+            in = limiter.limit(in);
+        }
+        try {
+            return target.addRecord(in).getLength();
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void scheduleDelete(int tier, DataIdentifier identifier) {
+        PendingDelete delete = new PendingDelete(tier, identifier,
+                System.currentTimeMillis() + 1000L * deleteDelay);
+        pendingDeletes.put(delete.key, delete);
+        deleteQueue.add(delete);
+    }
+
+    /**
+     * Deletes the old copies of moved records.
+     *
+     * @param all whether to delete all copies, or only the ones that are due
+     */
+    void deletePending(boolean all) {
+        long now = System.currentTimeMillis();
+        PendingDelete delete;
+        while ((delete = deleteQueue.peek()) != null && (all || delete.due <= now)) {
+            deleteQueue.poll();
+            ReentrantLock lock = getLock(delete.identifier);
+            lock.lock();
+            try {
+                // concurrent addRecord calls check this counter
+                deleteCount.incrementAndGet();
+                if (pendingDeletes.remove(delete.key, delete)) {
+                    ((MultiDataStoreAware) tiers[delete.tier]).deleteRecord(delete.identifier);
+                }
+            } catch (DataStoreException e) {
+                log.warn("Failed to delete moved DataRecord. DataIdentifier: "
+                        + delete.identifier, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Read statistics of a record.
+     */
+    private static class AccessStatistics {
+
+        /**
+         * The number of recent reads, halved after every migration run.
+         */
+        final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * The tier the record was last found in, or -1 if not known.
+         */
+        volatile int tier = -1;
+
+    }
+
+    /**
+     * The old copy of a moved record.
+     */
+    private static class PendingDelete {
+
+        final int tier;
+
+        final DataIdentifier identifier;
+
+        final long due;
+
+        final String key;
+
+        PendingDelete(int tier, DataIdentifier identifier, long due) {
+            this.tier = tier;
+            this.identifier = identifier;
+            this.due = due;
+            this.key = getKey(tier, identifier);
+        }
+
+    }
+
+    /**
+     * Limits the number of bytes read per second by the streams it wraps.
+     */
+    private static class RateLimiter {
+
+        private final long bytesPerSecond;
+
+        private final long start = System.currentTimeMillis();
+
+        private long bytes;
+
+        RateLimiter(int kbPerSecond) {
+            this.bytesPerSecond = 1024L * kbPerSecond;
+        }
+
+        InputStream limit(InputStream in) {
+            if (bytesPerSecond <= 0) {
+                return in;
+            }
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        acquire(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        acquire(n);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        private void acquire(int n) throws InterruptedIOException {
+            bytes += n;
+            long wait = bytes * 1000 / bytesPerSecond
+                    - (System.currentTimeMillis() - start);
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Runs the migration every <code>migrationInterval</code> seconds, or
+     * when requested, and deletes the old copies of moved records when they
+     * are due.
+     */
+    private class MigrationTask implements Runnable {
+
+        public void run() {
+            long nextRun = System.currentTimeMillis() + 1000L * migrationInterval;
+            try {
+                while (!closed) {
+                    synchronized (migrationMonitor) {
+                        long now = System.currentTimeMillis();
+                        long wait = nextRun - now;
+                        PendingDelete delete = deleteQueue.peek();
+                        if (delete != null) {
+                            wait = Math.min(wait, delete.due - now);
+                        }
+                        if (wait > 0 && !migrationRequested) {
+                            migrationMonitor.wait(wait);
+                        }
+                    }
+                    deletePending(false);
+                    boolean requested;
+                    synchronized (migrationMonitor) {
+                        requested = migrationRequested;
+                        migrationRequested = false;
+                    }
+                    if (requested || System.currentTimeMillis() >= nextRun) {
+                        long start = System.currentTimeMillis();
+                        try {
+                            runMigration();
+                            log.info("Migration finished in {} ms: {} records promoted, {} demoted so far",
+                                    new Object[] { System.currentTimeMillis() - start,
+                                            recordsPromoted.get(), recordsDemoted.get() });
+                        } catch (RuntimeException e) {
+                            log.warn("Failed to run migration task.", e);
+                        }
+                        nextRun = System.currentTimeMillis() + 1000L * migrationInterval;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            log.info("Stopping migration task.");
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+/**
+ * Management interface of a {@link TieredDataStore}. It is registered with
+ * the platform MBean server under the name
+ * <code>org.apache.jackrabbit:type=TieredDataStore,path=&lt;home dir&gt;</code>.
+ */
+public interface TieredDataStoreMBean {
+
+    /**
+     * @return the number of tiers.
+     */
+    int getTierCount();
+
+    /**
+     * @return the class names of the data stores of the tiers, fastest tier
+     *         first.
+     */
+    String[] getTierDataStores();
+
+    /**
+     * @return the number of records found in each tier, fastest tier first.
+     */
+    long[] getTierHits();
+
+    /**
+     * @return the fraction of all lookups that were answered by each tier,
+     *         fastest tier first.
+     */
+    double[] getTierHitRates();
+
+    /**
+     * @return the number of lookups of records that were not found in any
+     *         tier.
+     */
+    long getMisses();
+
+    /**
+     * @return the number of records moved to a faster tier.
+     */
+    long getRecordsPromoted();
+
+    /**
+     * @return the number of records moved to a slower tier.
+     */
+    long getRecordsDemoted();
+
+    /**
+     * @return the number of bytes moved to a faster tier.
+     */
+    long getBytesPromoted();
+
+    /**
+     * @return the number of bytes moved to a slower tier.
+     */
+    long getBytesDemoted();
+
+    /**
+     * @return the number of records whose access frequency is tracked.
+     */
+    int getTrackedRecords();
+
+    /**
+     * @return the number of moved records whose old copy has not been
+     *         deleted yet.
+     */
+    int getPendingDeletes();
+
+    /**
+     * Returns the current migration state: <code>idle</code>,
+     * <code>promoting</code> or <code>demoting</code>.
+     *
+     * @return the current migration state.
+     */
+    String getMigrationState();
+
+    /**
+     * @return the maximum number of kilobytes migrations may copy per
+     *         second, 0 means unlimited.
+     */
+    int getMigrationRateLimit();
+
+    /**
+     * @param kbPerSecond the maximum number of kilobytes migrations may copy
+     *                    per second, 0 means unlimited.
+     */
+    void setMigrationRateLimit(int kbPerSecond);
+
+    /**
+     * @return the number of recent accesses after which a record is moved
+     *         to the next faster tier.
+     */
+    int getPromoteThreshold();
+
+    /**
+     * @param threshold the number of recent accesses after which a record
+     *                  is moved to the next faster tier.
+     */
+    void setPromoteThreshold(int threshold);
+
+    /**
+     * @return the number of recent accesses below which a record is moved
+     *         to the next slower tier.
+     */
+    int getDemoteThreshold();
+
+    /**
+     * @param threshold the number of recent accesses below which a record
+     *                  is moved to the next slower tier.
+     */
+    void setDemoteThreshold(int threshold);
+
+    /**
+     * Starts a migration run in the background. The call returns
+     * immediately.
+     */
+    void migrate();
+}
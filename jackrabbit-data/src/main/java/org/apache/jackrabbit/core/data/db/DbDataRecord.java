@@ -62,6 +62,16 @@ public class DbDataRecord extends AbstractDataRecord {
         return new BufferedInputStream(new DbInputStream(store, getIdentifier()));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getStream(long position, long length)
+            throws DataStoreException {
+        lastModified = store.touch(getIdentifier(), lastModified);
+        return new BufferedInputStream(new DbInputStream(store, getIdentifier(), position, length));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -17,12 +17,14 @@
 package org.apache.jackrabbit.core.data.db;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.io.input.CountingInputStream;
 import org.apache.jackrabbit.core.data.AbstractDataStore;
 import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.data.DataRecord;
 import org.apache.jackrabbit.core.data.DataStoreException;
 import org.apache.jackrabbit.core.data.MultiDataStoreAware;
+import org.apache.jackrabbit.core.data.SelectiveDeleteDataStore;
 import org.apache.jackrabbit.core.util.db.CheckSchemaOperation;
 import org.apache.jackrabbit.core.util.db.ConnectionFactory;
 import org.apache.jackrabbit.core.util.db.ConnectionHelper;
@@ -44,6 +46,7 @@ import java.lang.ref.WeakReference;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.sql.Blob;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -102,7 +105,7 @@ import javax.sql.DataSource;
  * &lt;param name="tablePrefix" value="ds."&gt;
  */
 public class DbDataStore extends AbstractDataStore
-        implements DatabaseAware, MultiDataStoreAware {
+        implements DatabaseAware, MultiDataStoreAware, SelectiveDeleteDataStore {
 
     /**
      * The default value for the minimum object size.
@@ -252,6 +255,13 @@ public class DbDataStore extends AbstractDataStore
     protected String deleteOlderSQL =
         "DELETE FROM ${tablePrefix}${table} WHERE LAST_MODIFIED<?";
 
+    /**
+     * This is the property 'deleteIfOlder'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String deleteIfOlderSQL =
+        "DELETE FROM ${tablePrefix}${table} WHERE ID=? AND LAST_MODIFIED<?";
+
     /**
      * This is the property 'selectMeta'
      * in the [databaseType].properties file, initialized with the default value.
@@ -284,6 +294,12 @@ public class DbDataStore extends AbstractDataStore
      */
     protected boolean copyWhenReading = true;
 
+    /**
+     * Whether the driver supports reading a range of a blob. Reset on the
+     * first failed attempt.
+     */
+    private volatile boolean blobRangeSupported = true;
+
     /**
      * All data identifiers that are currently in use are in this set until they are garbage collected.
      */
@@ -496,6 +512,20 @@ public class DbDataStore extends AbstractDataStore
         }
     }
 
+    public synchronized boolean deleteRecordIfOlderThan(
+            DataIdentifier identifier, long min) throws DataStoreException {
+        if (inUse.containsKey(identifier)) {
+            return false;
+        }
+        try {
+            // DELETE FROM DATASTORE WHERE ID=? AND LAST_MODIFIED<?
+            return conHelper.update(
+                    deleteIfOlderSQL, identifier.toString(), min) == 1;
+        } catch (Exception e) {
+            throw convert("Can not delete record", e);
+        }
+    }
+
     public synchronized int deleteAllOlderThan(long min) throws DataStoreException {
         try {
             ArrayList<String> touch = new ArrayList<String>();
@@ -586,6 +616,26 @@ public class DbDataStore extends AbstractDataStore
      *          or if the given identifier is invalid
      */
     InputStream openStream(DbInputStream inputStream, DataIdentifier identifier) throws DataStoreException {
+        return openStream(inputStream, identifier, 0, -1);
+    }
+
+    /**
+     * Open the input stream for a range of a record. This method sets those
+     * fields of the caller that need to be closed once the input stream is
+     * read. If the driver supports it, only the range is fetched from the
+     * blob; otherwise the bytes before the range are skipped. If
+     * copyWhenReading is enabled, only the range is copied to the
+     * temporary file.
+     *
+     * @param inputStream the database input stream object
+     * @param identifier data identifier
+     * @param position the position of the first byte
+     * @param length the maximum number of bytes, or -1 to read to the end
+     * @throws DataStoreException if the data store could not be accessed,
+     *          or if the given identifier is invalid
+     */
+    InputStream openStream(DbInputStream inputStream, DataIdentifier identifier,
+            long position, long length) throws DataStoreException {
         ResultSet rs = null;
         try {
             // SELECT ID, DATA FROM DATASTORE WHERE ID = ?
@@ -593,7 +643,12 @@ public class DbDataStore extends AbstractDataStore
             if (!rs.next()) {
                 throw new DataStoreException("Record not found: " + identifier);
             }
-            InputStream stream = rs.getBinaryStream(2);
+            InputStream stream;
+            if (position > 0 || length >= 0) {
+                stream = getBinaryStream(rs, position, length);
+            } else {
+                stream = rs.getBinaryStream(2);
+            }
             if (stream == null) {
                 stream = new ByteArrayInputStream(new byte[0]);
                 DbUtility.close(rs);
@@ -613,6 +668,57 @@ public class DbDataStore extends AbstractDataStore
         }
     }
 
+    /**
+     * Get a stream of a range of the data column of the current row.
+     * Uses {@link Blob#getBinaryStream(long, long)} if the driver supports
+     * it, and otherwise skips the bytes before the range.
+     * Range reads are disabled for this data store once the driver failed
+     * to read a blob range.
+     */
+    private InputStream getBinaryStream(ResultSet rs, long position, long length)
+            throws SQLException, IOException {
+        if (blobRangeSupported) {
+            try {
+                Blob blob = rs.getBlob(2);
+                if (blob == null) {
+                    return null;
+                }
+                long size = blob.length();
+                if (length < 0 || length > size - position) {
+                    length = size - position;
+                }
+                if (length <= 0) {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+                return blob.getBinaryStream(position + 1, length);
+            } catch (SQLException e) {
+                // for example SQLFeatureNotSupportedException, or a column
+                // type that can not be read as a blob
+                log.debug("Blob range reads are not supported by the driver", e);
+                blobRangeSupported = false;
+            } catch (AbstractMethodError e) {
+                log.debug("Blob range reads are not supported by the driver", e);
+                blobRangeSupported = false;
+            }
+        }
+        InputStream stream = rs.getBinaryStream(2);
+        if (stream == null) {
+            return null;
+        }
+        long skipped = 0;
+        while (skipped < position) {
+            long n = stream.skip(position - skipped);
+            if (n <= 0) {
+                if (stream.read() < 0) {
+                    break;
+                }
+                n = 1;
+            }
+            skipped += n;
+        }
+        return length < 0 ? stream : new BoundedInputStream(stream, length);
+    }
+
     public synchronized void init(String homeDir) throws DataStoreException {
         try {
             initDatabaseType();
@@ -718,6 +824,7 @@ public class DbDataStore extends AbstractDataStore
         updateSQL = getProperty(prop, "update", updateSQL);
         deleteSQL = getProperty(prop, "delete", deleteSQL);
         deleteOlderSQL = getProperty(prop, "deleteOlder", deleteOlderSQL);
+        deleteIfOlderSQL = getProperty(prop, "deleteIfOlder", deleteIfOlderSQL);
         selectMetaSQL = getProperty(prop, "selectMeta", selectMetaSQL);
         selectAllSQL = getProperty(prop, "selectAll", selectAllSQL);
         selectDataSQL = getProperty(prop, "selectData", selectDataSQL);
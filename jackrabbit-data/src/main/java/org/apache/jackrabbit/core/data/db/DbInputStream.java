@@ -39,6 +39,16 @@ public class DbInputStream extends AutoCloseInputStream {
     protected DataIdentifier identifier;
     protected boolean endOfStream;
 
+    /**
+     * Position of the first byte of the record to read.
+     */
+    protected long position;
+
+    /**
+     * Maximum number of bytes to read, or -1 to read to the end of the record.
+     */
+    protected long length = -1;
+
     protected ResultSet rs;
 
     /**
@@ -54,6 +64,22 @@ public class DbInputStream extends AutoCloseInputStream {
         this.identifier = identifier;
     }
 
+    /**
+     * Create a database input stream for a range of the given identifier.
+     * Database access is delayed until the first byte is read from the stream.
+     *
+     * @param store the database data store
+     * @param identifier the data identifier
+     * @param position the position of the first byte to read
+     * @param length the maximum number of bytes to read
+     */
+    protected DbInputStream(DbDataStore store, DataIdentifier identifier,
+            long position, long length) {
+        this(store, identifier);
+        this.position = position;
+        this.length = length;
+    }
+
     /**
      * Open the stream if required.
      *
@@ -65,7 +91,7 @@ public class DbInputStream extends AutoCloseInputStream {
         }
         if (in == null) {
             try {
-                in = store.openStream(this, identifier);
+                in = store.openStream(this, identifier, position, length);
             } catch (DataStoreException e) {
                 IOException e2 = new IOException(e.getMessage());
                 e2.initCause(e);
@@ -22,8 +22,11 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.sql.DataSource;
@@ -49,6 +52,7 @@ import org.slf4j.LoggerFactory;
  * <li>{@link #exec(String, Object...)}</li>
  * <li>{@link #update(String, Object[])}</li>
  * <li>{@link #exec(String, Object[], boolean, int)}</li>
+ * <li>{@link #updateBatch(String, List)}</li>
  * </ul>
  *
  * <p>
@@ -353,6 +357,62 @@ public class ConnectionHelper {
         }
     }
 
+    /**
+     * Executes an update or delete statement once for each of the given parameter arrays, using a single
+     * {@code PreparedStatement} and JDBC statement batching, and returns the update counts. This saves a
+     * database round trip per row compared to calling {@link #update(String, Object[])} repeatedly. Some
+     * drivers return {@link Statement#SUCCESS_NO_INFO} instead of the actual update counts.
+     *
+     * @param sql an SQL statement string
+     * @param paramsList the parameters for each execution of the SQL statement
+     * @return the update counts
+     * @throws SQLException on error
+     */
+    public final int[] updateBatch(final String sql, final List<Object[]> paramsList) throws SQLException {
+        return new RetryManager<int[]>(flatten(paramsList)) {
+
+            @Override
+            protected int[] call() throws SQLException {
+                return reallyUpdateBatch(sql, paramsList);
+            }
+
+        }.doTry();
+    }
+
+    /**
+     * Returns the parameters of all executions of a batch in a single array, so that the
+     * {@link RetryManager} can reset and clean up their resources.
+     *
+     * @param paramsList the parameters for each execution of a statement
+     * @return all parameters
+     */
+    private static Object[] flatten(List<Object[]> paramsList) {
+        List<Object> all = new ArrayList<Object>();
+        for (Object[] params : paramsList) {
+            all.addAll(Arrays.asList(params));
+        }
+        return all.toArray();
+    }
+
+    int[] reallyUpdateBatch(String sql, List<Object[]> paramsList) throws SQLException {
+        Connection con = null;
+        PreparedStatement stmt = null;
+        boolean inBatchMode = inBatchMode();
+        long start = System.currentTimeMillis();
+        try {
+            con = getConnection(inBatchMode);
+            stmt = con.prepareStatement(sql);
+            for (Object[] params : paramsList) {
+                addBatch(stmt, params);
+            }
+            return stmt.executeBatch();
+        } finally {
+            closeResources(con, stmt, null, inBatchMode);
+            log.debug("SQL-Execution [{}] of {} rows took [{}] ms.",
+                    sql, paramsList.size(), (System.currentTimeMillis() - start));
+        }
+    }
+
     /**
      * Executes a SQL query and returns the {@link ResultSet}. The
      * returned {@link ResultSet} should be closed by clients.
@@ -502,9 +562,8 @@ public class ConnectionHelper {
 
     /**
      * This method is used by all methods of this class that execute SQL statements. This default
-     * implementation sets all parameters and unwraps {@link StreamWrapper} instances. Subclasses may override
-     * this method to do something special with the parameters. E.g., the {@link Oracle10R1ConnectionHelper}
-     * overrides it in order to add special blob handling.
+     * implementation sets all parameters through {@link #setParameters(PreparedStatement, Object[])} and
+     * executes the statement.
      *
      * @param stmt the {@link PreparedStatement} to execute
      * @param params the parameters
@@ -512,6 +571,36 @@ public class ConnectionHelper {
      * @throws SQLException on error
      */
     protected PreparedStatement execute(PreparedStatement stmt, Object[] params) throws SQLException {
+        setParameters(stmt, params);
+        stmt.execute();
+        return stmt;
+    }
+
+    /**
+     * This method is used by {@link #updateBatch(String, List)} to add one set of parameters to a batch.
+     * This default implementation sets all parameters through {@link #setParameters(PreparedStatement, Object[])}
+     * and calls {@link PreparedStatement#addBatch()}.
+     *
+     * @param stmt the {@link PreparedStatement} to add the parameters to
+     * @param params the parameters
+     * @throws SQLException on error
+     */
+    protected void addBatch(PreparedStatement stmt, Object[] params) throws SQLException {
+        setParameters(stmt, params);
+        stmt.addBatch();
+    }
+
+    /**
+     * Binds the parameters of a statement, both for single executions and for batches. This default
+     * implementation sets all parameters and unwraps {@link StreamWrapper} instances. Subclasses may override
+     * this method to do something special with the parameters. E.g., the {@link Oracle10R1ConnectionHelper}
+     * overrides it in order to add special blob handling.
+     *
+     * @param stmt the {@link PreparedStatement} to set the parameters on
+     * @param params the parameters
+     * @throws SQLException on error
+     */
+    protected void setParameters(PreparedStatement stmt, Object[] params) throws SQLException {
         for (int i = 0; params != null && i < params.length; i++) {
             Object p = params[i];
             if (p instanceof StreamWrapper) {
@@ -521,8 +610,6 @@ public class ConnectionHelper {
                 stmt.setObject(i + 1, p);
             }
         }
-        stmt.execute();
-        return stmt;
     }
 
     /**
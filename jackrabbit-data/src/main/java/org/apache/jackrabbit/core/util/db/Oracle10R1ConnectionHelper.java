@@ -49,6 +49,16 @@ public final class Oracle10R1ConnectionHelper extends OracleConnectionHelper {
 
     private Integer modeReadWriteConstant;
 
+    /**
+     * The temporary blobs created for the statement the current thread is executing
+     */
+    private final ThreadLocal<List<Blob>> tmpBlobs = new ThreadLocal<List<Blob>>() {
+        @Override
+        protected List<Blob> initialValue() {
+            return new ArrayList<Blob>();
+        }
+    };
+
     /**
      * @param dataSrc the {@code DataSource} on which this helper acts
      * @param block whether to block on connection loss until the db is up again
@@ -82,43 +92,72 @@ public final class Oracle10R1ConnectionHelper extends OracleConnectionHelper {
     }
 
     /**
-     * Wraps any input-stream parameters in temporary blobs and frees these again after the statement
-     * has been executed.
+     * Frees the temporary blobs created by {@link #setParameters(PreparedStatement, Object[])} after the
+     * statement has been executed.
      * 
      * {@inheritDoc}
      */
     @Override
     protected PreparedStatement execute(PreparedStatement stmt, Object[] params) throws SQLException {
-        List<Blob> tmpBlobs = new ArrayList<Blob>();
+        try {
+            return super.execute(stmt, params);
+        } finally {
+            freeTemporaryBlobs();
+        }
+    }
+
+    /**
+     * Frees the temporary blobs created for all rows of the batch after the batch has been executed.
+     */
+    @Override
+    int[] reallyUpdateBatch(String sql, List<Object[]> paramsList) throws SQLException {
+        try {
+            return super.reallyUpdateBatch(sql, paramsList);
+        } finally {
+            freeTemporaryBlobs();
+        }
+    }
+
+    /**
+     * Wraps any input-stream parameters in temporary blobs. The blobs are freed again once the statement
+     * or the batch it was added to has been executed.
+     * 
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setParameters(PreparedStatement stmt, Object[] params) throws SQLException {
         try {
             for (int i = 0; params != null && i < params.length; i++) {
                 Object p = params[i];
                 if (p instanceof StreamWrapper) {
                     StreamWrapper wrapper = (StreamWrapper) p;
-                    Blob tmp = createTemporaryBlob(stmt.getConnection(), wrapper.getStream());
-                    tmpBlobs.add(tmp);
-                    stmt.setBlob(i + 1, tmp);
+                    stmt.setBlob(i + 1, createTemporaryBlob(stmt.getConnection(), wrapper.getStream()));
                 } else if (p instanceof InputStream) {
-                    Blob tmp = createTemporaryBlob(stmt.getConnection(), (InputStream) p);
-                    tmpBlobs.add(tmp);
-                    stmt.setBlob(i + 1, tmp);
+                    stmt.setBlob(i + 1, createTemporaryBlob(stmt.getConnection(), (InputStream) p));
                 } else {
                     stmt.setObject(i + 1, p);
                 }
             }
-            stmt.execute();
-            return stmt;
+        } catch (SQLException e) {
+            throw e;
         } catch (Exception e) {
             throw new SQLException(e.getMessage());
-        } finally {
-            for (Blob blob : tmpBlobs) {
-                try {
-                    freeTemporaryBlob(blob);
-                } catch (Exception e) {
-                    log.warn("Could not close temporary blob", e);
-                }
+        }
+    }
+
+    /**
+     * Frees the temporary blobs that the current thread created for its statement.
+     */
+    private void freeTemporaryBlobs() {
+        List<Blob> blobs = tmpBlobs.get();
+        for (Blob blob : blobs) {
+            try {
+                freeTemporaryBlob(blob);
+            } catch (Exception e) {
+                log.warn("Could not close temporary blob", e);
             }
         }
+        blobs.clear();
     }
 
     /**
@@ -151,6 +190,7 @@ public final class Oracle10R1ConnectionHelper extends OracleConnectionHelper {
         }
         Method close = blobClass.getMethod("close", new Class[0]);
         close.invoke(blob);
+        tmpBlobs.get().add((Blob) blob);
         return (Blob) blob;
     }
 
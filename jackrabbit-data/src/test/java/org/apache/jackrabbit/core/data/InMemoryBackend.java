@@ -18,26 +18,39 @@
 package org.apache.jackrabbit.core.data;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An in-memory backend implementation used to speed up testing.
  */
-public class InMemoryBackend implements Backend {
+public class InMemoryBackend implements MultipartBackend {
 
-    private HashMap<DataIdentifier, byte[]> data = new HashMap<DataIdentifier, byte[]>();
+    private Map<DataIdentifier, byte[]> data = new ConcurrentHashMap<DataIdentifier, byte[]>();
 
-    private HashMap<DataIdentifier, Long> timeMap = new HashMap<DataIdentifier, Long>();
+    private Map<DataIdentifier, Long> timeMap = new ConcurrentHashMap<DataIdentifier, Long>();
+
+    /**
+     * Parts of incomplete multipart uploads, by upload identifier.
+     */
+    private Map<String, Map<Integer, byte[]>> parts = new ConcurrentHashMap<String, Map<Integer, byte[]>>();
+
+    private AtomicInteger uploadCount = new AtomicInteger();
+
+    private AtomicInteger partWrites = new AtomicInteger();
+
+    private volatile int failingPart = -1;
     
     private CachingDataStore store;
     
@@ -181,6 +194,76 @@ public class InMemoryBackend implements Backend {
         }
     }
     
+    @Override
+    public Set<Integer> startMultipartUpload(MultipartUpload upload) {
+        log("startMultipartUpload " + upload);
+        String uploadId = upload.getUploadId();
+        if (uploadId == null || !parts.containsKey(uploadId)) {
+            uploadId = String.valueOf(uploadCount.incrementAndGet());
+            upload.setUploadId(uploadId);
+            parts.put(uploadId, new ConcurrentHashMap<Integer, byte[]>());
+        }
+        return new HashSet<Integer>(parts.get(uploadId).keySet());
+    }
+
+    @Override
+    public void writePart(MultipartUpload upload, MultipartUpload.Part part,
+            InputStream in) throws DataStoreException {
+        log("writePart " + upload + " " + part);
+        partWrites.incrementAndGet();
+        if (part.getIndex() == failingPart) {
+            throw new DataStoreException("Failed to write part " + part);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            MultipartUpload.copyPart(part, in, out);
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        }
+        parts.get(upload.getUploadId()).put(part.getIndex(), out.toByteArray());
+    }
+
+    @Override
+    public void completeMultipartUpload(MultipartUpload upload)
+            throws DataStoreException {
+        log("completeMultipartUpload " + upload);
+        Map<Integer, byte[]> stored = parts.remove(upload.getUploadId());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (MultipartUpload.Part part : upload.getParts()) {
+            byte[] bytes = stored.get(part.getIndex());
+            if (bytes == null) {
+                throw new DataStoreException("Missing part " + part);
+            }
+            out.write(bytes, 0, bytes.length);
+        }
+        data.put(upload.getIdentifier(), out.toByteArray());
+        timeMap.put(upload.getIdentifier(), System.currentTimeMillis());
+    }
+
+    @Override
+    public void abortMultipartUpload(MultipartUpload upload) {
+        log("abortMultipartUpload " + upload);
+        if (upload.getUploadId() != null) {
+            parts.remove(upload.getUploadId());
+        }
+    }
+
+    /**
+     * Makes writing the part with the given index fail.
+     *
+     * @param index index of the part, or -1 to not fail any part
+     */
+    public void setFailingPart(int index) {
+        this.failingPart = index;
+    }
+
+    /**
+     * @return number of parts written, including failed attempts
+     */
+    public int getPartWrites() {
+        return partWrites.get();
+    }
+
     /**
      * Properties used to configure the backend. If provided explicitly before
      * init is invoked then these take precedence
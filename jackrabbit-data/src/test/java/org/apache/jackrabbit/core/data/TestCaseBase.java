@@ -144,6 +144,24 @@ public abstract class TestCaseBase extends TestCase {
         }
     }
     
+    /**
+     * Testcase to validate {@link RandomAccessDataRecord} API.
+     */
+    public void testRangeRead() {
+        try {
+            long start = System.currentTimeMillis();
+            LOG.info("Testcase: " + this.getClass().getName()
+                + "#testRangeRead, testDir=" + dataStoreDir);
+            doRangeReadTest();
+            LOG.info("Testcase: " + this.getClass().getName()
+                + "#testRangeRead finished, time taken = ["
+                + (System.currentTimeMillis() - start) + "]ms");
+        } catch (Exception e) {
+            LOG.error("error:", e);
+            fail(e.getMessage());
+        }
+    }
+
     /**
      * Testcase to validate {@link DataStore#getAllIdentifiers()} API.
      */
@@ -217,6 +235,26 @@ public abstract class TestCaseBase extends TestCase {
         }
     }
 
+    /**
+     * Testcase to validate
+     * {@link SelectiveDeleteDataStore#deleteRecordIfOlderThan(DataIdentifier, long)}
+     * API.
+     */
+    public void testDeleteRecordIfOlderThan() {
+        try {
+            long start = System.currentTimeMillis();
+            LOG.info("Testcase: " + this.getClass().getName()
+                + "#testDeleteRecordIfOlderThan, testDir=" + dataStoreDir);
+            doDeleteRecordIfOlderThan();
+            LOG.info("Testcase: " + this.getClass().getName()
+                + "#testDeleteRecordIfOlderThan finished, time taken = ["
+                + (System.currentTimeMillis() - start) + "]ms");
+        } catch (Exception e) {
+            LOG.error("error:", e);
+            fail(e.getMessage());
+        }
+    }
+
     /**
      * Testcase to validate {@link DataStore#getRecordFromReference(String)}
      */
@@ -304,6 +342,37 @@ public abstract class TestCaseBase extends TestCase {
         ds.close();
     }
 
+    /**
+     * Test {@link RandomAccessDataRecord#getStream(long, long)} and
+     * {@link RandomAccessDataRecord#read(long, byte[], int, int)} inside,
+     * across and beyond the end of a record.
+     */
+    protected void doRangeReadTest() throws Exception {
+        ds = createDataStore();
+        byte[] data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        DataRecord rec = ds.addRecord(new ByteArrayInputStream(data));
+        rec = ds.getRecord(rec.getIdentifier());
+        assertTrue(rec instanceof RandomAccessDataRecord);
+        RandomAccessDataRecord record = (RandomAccessDataRecord) rec;
+
+        int position = dataLength / 3;
+        assertRange(data, position, 1000, record.getStream(position, 1000));
+        assertRange(data, 0, 1, record.getStream(0, 1));
+        assertRange(data, dataLength - 10, 10,
+            record.getStream(dataLength - 10, 1000));
+        assertRange(data, 0, 0, record.getStream(dataLength + 1, 1000));
+
+        byte[] buffer = new byte[100];
+        assertEquals(100, record.read(position, buffer, 0, 100));
+        assertRange(data, position, 100, new ByteArrayInputStream(buffer));
+        assertEquals(10, record.read(dataLength - 10, buffer, 0, 100));
+        assertRange(data, dataLength - 10, 10,
+            new ByteArrayInputStream(buffer, 0, 10));
+        assertEquals(-1, record.read(dataLength, buffer, 0, 100));
+        ds.close();
+    }
+
     /**
      * Test {@link MultiDataStoreAware#deleteRecord(DataIdentifier)}.
      */
@@ -461,6 +530,48 @@ public abstract class TestCaseBase extends TestCase {
         ds.close();
     }
 
+    /**
+     * Asserts that
+     * {@link SelectiveDeleteDataStore#deleteRecordIfOlderThan(DataIdentifier, long)}
+     * keeps records that are in use or were accessed after the given date.
+     */
+    protected void doDeleteRecordIfOlderThan() throws Exception {
+        ds = createDataStore();
+        Random random = randomGen;
+        byte[] data = new byte[dataLength];
+        random.nextBytes(data);
+        DataRecord rec1 = ds.addRecord(new ByteArrayInputStream(data));
+
+        data = new byte[dataLength];
+        random.nextBytes(data);
+        DataRecord rec2 = ds.addRecord(new ByteArrayInputStream(data));
+
+        // sleep for some time to ensure that async upload completes in backend.
+        sleep(6000);
+        long updateTime = System.currentTimeMillis();
+        ds.updateModifiedDateOnAccess(updateTime);
+
+        // sleep to workaround System.currentTimeMillis granularity.
+        sleep(3000);
+        rec1 = ds.getRecord(rec1.getIdentifier());
+        SelectiveDeleteDataStore sds = (SelectiveDeleteDataStore) ds;
+        assertFalse("rec2 is in use",
+            sds.deleteRecordIfOlderThan(rec2.getIdentifier(), updateTime));
+
+        ds.clearInUse();
+        assertFalse("rec1 was touched",
+            sds.deleteRecordIfOlderThan(rec1.getIdentifier(), updateTime));
+        assertTrue("rec2 should be deleted",
+            sds.deleteRecordIfOlderThan(rec2.getIdentifier(), updateTime));
+        assertFalse("rec2 is already deleted",
+            sds.deleteRecordIfOlderThan(rec2.getIdentifier(), updateTime));
+        assertNull("rec2 should be null",
+            ds.getRecordIfStored(rec2.getIdentifier()));
+        assertNotNull("rec1 should be kept",
+            ds.getRecordIfStored(rec1.getIdentifier()));
+        ds.close();
+    }
+
     /**
      * Test if record can be accessed via
      * {@link DataStore#getRecordFromReference(String)}
@@ -610,6 +721,28 @@ public abstract class TestCaseBase extends TestCase {
         return new ByteArrayInputStream(out.toByteArray());
     }
 
+    /**
+     * Assert that the stream contains the given range of the data.
+     */
+    protected void assertRange(byte[] expected, int position, int length,
+            InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int n; (n = in.read(buffer)) >= 0;) {
+                out.write(buffer, 0, n);
+            }
+            byte[] actual = out.toByteArray();
+            assertEquals("range length", length, actual.length);
+            for (int i = 0; i < length; i++) {
+                assertEquals("range byte " + i, expected[position + i],
+                    actual[i]);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
     /**
      * Assert two inputstream
      */
@@ -357,6 +357,67 @@ public class TestLocalCache extends TestCase {
         }
     }
 
+    /**
+     * Test that the index is persisted on close and read on the next start,
+     * and that hits and misses are counted.
+     */
+    public void testPersistedIndex() {
+        try {
+            AsyncUploadCache pendingFiles = new AsyncUploadCache();
+            pendingFiles.init(tempDirPath, cacheDirPath, 100);
+            pendingFiles.reset();
+            LocalCache cache = new LocalCache(cacheDirPath, tempDirPath, 400,
+                0.95, 0.70, pendingFiles);
+            Random random = new Random(12345);
+            Map<String, byte[]> byteMap = new HashMap<String, byte[]>();
+            for (int i = 1; i <= 3; i++) {
+                byte[] data = new byte[100];
+                random.nextBytes(data);
+                byteMap.put("a" + i, data);
+                cache.store("a" + i, new ByteArrayInputStream(data));
+            }
+            // a1 becomes the most recently used file
+            IOUtils.closeQuietly(cache.getIfStored("a1"));
+            assertNull(cache.getIfStored("b1"));
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+            assertEquals(0.5, cache.getHitRatio());
+            cache.close();
+
+            File index = new File(cacheDirPath, LocalCache.INDEX_FILE_NAME);
+            assertTrue("index should be persisted", index.exists());
+            assertTrue("index should not be uploaded",
+                LocalCache.isIndexFile(index.getName()));
+            assertFalse(LocalCache.isIndexFile("a1"));
+
+            cache = new LocalCache(cacheDirPath, tempDirPath, 400, 0.95, 0.70,
+                pendingFiles);
+            assertFalse("index should be deleted once read", index.exists());
+            assertEquals(3, cache.getFileCount());
+            assertEquals(300, cache.getCurrentSizeInBytes());
+
+            // storing a4 evicts the least recently used files a2 and a3
+            byte[] data = new byte[90];
+            random.nextBytes(data);
+            byteMap.put("a4", data);
+            cache.store("a4", new ByteArrayInputStream(data));
+            do {
+                Thread.sleep(100);
+            } while (cache.isInPurgeMode());
+            assertNull(cache.getIfStored("a2"));
+            assertNull(cache.getIfStored("a3"));
+            InputStream result = cache.getIfStored("a1");
+            assertEquals(new ByteArrayInputStream(byteMap.get("a1")), result);
+            IOUtils.closeQuietly(result);
+            assertEquals(2, cache.getEvictionCount());
+            assertEquals(200, cache.getEvictedBytes());
+            cache.close();
+        } catch (Exception e) {
+            LOG.error("error:", e);
+            fail();
+        }
+    }
+
     private class StoreWorker implements Runnable {
         Map<String, byte[]> byteMap;
 
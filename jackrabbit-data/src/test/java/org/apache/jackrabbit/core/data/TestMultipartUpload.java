@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Properties;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Test multipart uploads of {@link CachingDataStore} to the
+ * {@link InMemoryBackend} and the {@link FSBackend}.
+ */
+public class TestMultipartUpload extends TestCase {
+
+    private static final int PART_SIZE = 4 * 1024;
+
+    private File dir;
+
+    private CachingDataStore ds;
+
+    private InMemoryBackend memBackend;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = new File("target/temp-multipart-" + new Random().nextInt(9999));
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (ds != null) {
+            ds.close();
+        }
+        FileUtils.deleteQuietly(dir);
+    }
+
+    /**
+     * Test that a record is uploaded in parts and can be read back.
+     */
+    public void testUpload() throws Exception {
+        ds = createInMemoryDataStore();
+        byte[] data = createData(10 * PART_SIZE + 123);
+        DataRecord record = ds.addRecord(new ByteArrayInputStream(data));
+
+        assertEquals(11, memBackend.getPartWrites());
+        assertTrue(memBackend.exists(record.getIdentifier()));
+        assertTrue(IOUtils.contentEquals(new ByteArrayInputStream(data),
+            memBackend.read(record.getIdentifier())));
+        assertEquals(0, new File(dir, "multipart").list().length);
+    }
+
+    /**
+     * Test that records below the threshold are not uploaded in parts.
+     */
+    public void testSmallRecord() throws Exception {
+        ds = createInMemoryDataStore();
+        byte[] data = createData(PART_SIZE);
+        DataRecord record = ds.addRecord(new ByteArrayInputStream(data));
+
+        assertEquals(0, memBackend.getPartWrites());
+        assertTrue(memBackend.exists(record.getIdentifier()));
+    }
+
+    /**
+     * Test that a failed upload only uploads the missing part when the
+     * record is added again.
+     */
+    public void testResume() throws Exception {
+        ds = createInMemoryDataStore();
+        byte[] data = createData(10 * PART_SIZE);
+        memBackend.setFailingPart(3);
+        try {
+            ds.addRecord(new ByteArrayInputStream(data));
+            fail("upload must fail");
+        } catch (DataStoreException e) {
+            // expected
+        }
+        assertEquals(1, new File(dir, "multipart").list().length);
+        int writes = memBackend.getPartWrites();
+
+        memBackend.setFailingPart(-1);
+        DataRecord record = ds.addRecord(new ByteArrayInputStream(data));
+        assertEquals(writes + 1, memBackend.getPartWrites());
+        assertTrue(IOUtils.contentEquals(new ByteArrayInputStream(data),
+            memBackend.read(record.getIdentifier())));
+        assertEquals(0, new File(dir, "multipart").list().length);
+    }
+
+    /**
+     * Test that a manifest survives a restart and that the parts kept by the
+     * {@link FSBackend} are not reported as records.
+     */
+    public void testFSBackend() throws Exception {
+        byte[] data = createData(5 * PART_SIZE + 1);
+        DataIdentifier identifier = new DataIdentifier("0123456789abcdef");
+        File file = new File(dir, "record");
+        FileUtils.writeByteArrayToFile(file, data);
+
+        FSBackend fs = new FSBackend();
+        Properties props = new Properties();
+        props.setProperty(FSBackend.FS_BACKEND_PATH,
+            new File(dir, "backend").getPath());
+        fs.init(null, dir.getPath(), props);
+
+        MultipartUpload upload =
+            MultipartUpload.create(identifier, file, PART_SIZE);
+        assertEquals(6, upload.getParts().size());
+        assertTrue(fs.startMultipartUpload(upload).isEmpty());
+        for (MultipartUpload.Part part : upload.getParts().subList(0, 4)) {
+            fs.writePart(upload, part, new ByteArrayInputStream(data,
+                (int) part.getOffset(), (int) part.getLength()));
+        }
+        File manifest = new File(dir, "upload.properties");
+        upload.store(manifest);
+        assertFalse(fs.getAllIdentifiers().hasNext());
+
+        upload = MultipartUpload.load(manifest);
+        assertEquals(4, fs.startMultipartUpload(upload).size());
+        for (MultipartUpload.Part part : upload.getParts().subList(4, 6)) {
+            fs.writePart(upload, part, new ByteArrayInputStream(data,
+                (int) part.getOffset(), (int) part.getLength()));
+        }
+        fs.completeMultipartUpload(upload);
+        assertTrue(fs.exists(identifier));
+        assertTrue(IOUtils.contentEquals(new ByteArrayInputStream(data),
+            fs.read(identifier)));
+        assertEquals(identifier, fs.getAllIdentifiers().next());
+    }
+
+    private CachingDataStore createInMemoryDataStore() throws Exception {
+        memBackend = new InMemoryBackend();
+        InMemoryDataStore store = new InMemoryDataStore() {
+            @Override
+            protected Backend createBackend() {
+                return memBackend;
+            }
+        };
+        store.setPath(new File(dir, "cache").getPath());
+        store.setAsyncUploadLimit(0);
+        store.setMultipartThreshold(2 * PART_SIZE);
+        store.setMultipartPartSize(PART_SIZE);
+        store.init(dir.getPath());
+        return store;
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
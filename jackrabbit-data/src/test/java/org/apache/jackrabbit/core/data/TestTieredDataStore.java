@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Test cases to test {@link TieredDataStore}
+ */
+public class TestTieredDataStore extends TestCase {
+
+    private static final String TEST_DIR = "target/tiered";
+
+    private String testDirPath;
+
+    private TieredDataStore ds;
+
+    /**
+     * Random number generator to populate data
+     */
+    private Random randomGen = new Random();
+
+    @Override
+    protected void setUp() throws Exception {
+        testDirPath = TEST_DIR + "-"
+            + String.valueOf(randomGen.nextInt(9999)) + "-"
+            + String.valueOf(randomGen.nextInt(9999));
+        FileDataStore tier0 = new FileDataStore();
+        tier0.setPath(testDirPath + "/tier0");
+        tier0.init(testDirPath);
+        FileDataStore tier1 = new FileDataStore();
+        tier1.setPath(testDirPath + "/tier1");
+        tier1.init(testDirPath);
+
+        ds = new TieredDataStore();
+        ds.setTierDataStores(Arrays.<DataStore> asList(tier0, tier1));
+        ds.setMigrationRateLimit(0);
+        ds.setDemoteMinAge(0);
+        ds.init(testDirPath);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ds.close();
+        FileUtils.deleteQuietly(new File(testDirPath));
+    }
+
+    /**
+     * Test that records that are not read move down, and frequently read
+     * records move up again.
+     */
+    public void testDemoteAndPromote() throws Exception {
+        byte[] hot = randomData();
+        byte[] cold = randomData();
+        DataIdentifier hotId = ds.addRecord(new ByteArrayInputStream(hot)).getIdentifier();
+        DataIdentifier coldId = ds.addRecord(new ByteArrayInputStream(cold)).getIdentifier();
+        for (int i = 0; i < 4; i++) {
+            assertContent(hot, ds.getRecord(hotId));
+        }
+
+        ds.runMigration();
+        assertEquals(1, ds.getRecordsDemoted());
+        assertEquals(cold.length, ds.getBytesDemoted());
+        // the old copy is kept until it is due
+        assertEquals(1, ds.getPendingDeletes());
+        assertNotNull(ds.getTierDataStore(0).getRecordIfStored(coldId));
+        assertNotNull(ds.getTierDataStore(1).getRecordIfStored(coldId));
+
+        ds.deletePending(true);
+        assertNull(ds.getTierDataStore(0).getRecordIfStored(coldId));
+        assertNotNull(ds.getTierDataStore(0).getRecordIfStored(hotId));
+        assertContent(cold, ds.getRecord(coldId));
+
+        for (int i = 0; i < ds.getPromoteThreshold(); i++) {
+            assertContent(cold, ds.getRecord(coldId));
+        }
+        ds.runMigration();
+        ds.deletePending(true);
+        assertEquals(1, ds.getRecordsPromoted());
+        assertEquals(cold.length, ds.getBytesPromoted());
+        assertNotNull(ds.getTierDataStore(0).getRecordIfStored(coldId));
+        assertNull(ds.getTierDataStore(1).getRecordIfStored(coldId));
+
+        long[] hits = ds.getTierHits();
+        assertEquals(2, hits.length);
+        assertTrue(hits[0] > 0);
+        assertTrue(hits[1] > 0);
+        assertEquals(0, ds.getMisses());
+    }
+
+    /**
+     * Test that adding a record again while its old copy in the first tier
+     * waits to be deleted keeps the record in the first tier.
+     */
+    public void testAddWhileMoving() throws Exception {
+        byte[] data = randomData();
+        DataIdentifier id = ds.addRecord(new ByteArrayInputStream(data)).getIdentifier();
+        ds.runMigration();
+        assertEquals(1, ds.getPendingDeletes());
+
+        DataRecord record = ds.addRecord(new ByteArrayInputStream(data));
+        assertEquals(id, record.getIdentifier());
+        assertEquals(0, ds.getPendingDeletes());
+        ds.deletePending(true);
+        assertNotNull(ds.getTierDataStore(0).getRecordIfStored(id));
+        assertContent(data, ds.getRecord(id));
+    }
+
+    /**
+     * Test that reads use the new copy of a moved record while the old copy
+     * waits to be deleted, so that the garbage collector marks the copy that
+     * is kept.
+     */
+    public void testReadWhileMoving() throws Exception {
+        byte[] data = randomData();
+        DataIdentifier id = ds.addRecord(new ByteArrayInputStream(data)).getIdentifier();
+        ds.runMigration();
+        assertEquals(1, ds.getPendingDeletes());
+
+        long[] before = ds.getTierHits();
+        ds.updateModifiedDateOnAccess(System.currentTimeMillis());
+        assertContent(data, ds.getRecord(id));
+        ds.updateModifiedDateOnAccess(0);
+        long[] after = ds.getTierHits();
+        assertEquals(before[0], after[0]);
+        assertEquals(before[1] + 1, after[1]);
+    }
+
+    /**
+     * Test that reads of the garbage collector mark phase are not counted.
+     */
+    public void testGarbageCollectionReadsNotCounted() throws Exception {
+        byte[] data = randomData();
+        DataIdentifier id = ds.addRecord(new ByteArrayInputStream(data)).getIdentifier();
+        ds.updateModifiedDateOnAccess(System.currentTimeMillis());
+        ds.getRecord(id);
+        ds.updateModifiedDateOnAccess(0);
+        assertEquals(0, ds.getTrackedRecords());
+        ds.getRecord(id);
+        assertEquals(1, ds.getTrackedRecords());
+    }
+
+    private byte[] randomData() {
+        byte[] data = new byte[4096];
+        randomGen.nextBytes(data);
+        return data;
+    }
+
+    private static void assertContent(byte[] expected, DataRecord record)
+            throws Exception {
+        InputStream in = record.getStream();
+        try {
+            assertTrue(Arrays.equals(expected, IOUtils.toByteArray(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+}
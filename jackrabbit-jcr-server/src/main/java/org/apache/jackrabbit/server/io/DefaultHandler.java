@@ -23,6 +23,7 @@ import org.apache.jackrabbit.util.Text;
 import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.DavResource;
 import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.io.ByteRange;
 import org.apache.jackrabbit.webdav.jcr.JcrDavException;
 import org.apache.jackrabbit.webdav.xml.Namespace;
 import org.apache.jackrabbit.webdav.property.DavPropertyName;
@@ -32,6 +33,7 @@ import org.apache.tika.metadata.Metadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.jcr.Binary;
 import javax.jcr.Item;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -43,6 +45,7 @@ import javax.jcr.Session;
 import javax.jcr.nodetype.PropertyDefinition;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Map;
@@ -420,10 +423,55 @@ public class DefaultHandler implements IOHandler, PropertyHandler, CopyMoveHandl
     protected void exportData(ExportContext context, boolean isCollection, Node contentNode) throws IOException, RepositoryException {
         if (contentNode.hasProperty(JcrConstants.JCR_DATA)) {
             Property p = contentNode.getProperty(JcrConstants.JCR_DATA);
-            IOUtil.spool(p.getStream(), context.getOutputStream());
+            ByteRange range = null;
+            if (context instanceof RangeExportContext) {
+                range = ((RangeExportContext) context).getRange();
+            }
+            long length = p.getLength();
+            if (range != null && range.isSatisfiable(length)) {
+                exportRange((RangeExportContext) context, p.getBinary(),
+                        range.getOffset(length), range.getLength(length), length);
+            } else {
+                IOUtil.spool(p.getStream(), context.getOutputStream());
+            }
         } // else: stream undefined -> content length was not set
     }
 
+    /**
+     * Writes the given range of the binary to the output stream of the export
+     * context. The binary is read at the position of the range, so that data
+     * stores supporting random access don't need to read the bytes before
+     * the range.
+     *
+     * @param context export context
+     * @param binary the binary to export
+     * @param offset the position of the first byte of the range
+     * @param length the length of the range
+     * @param totalLength the length of the binary
+     * @throws IOException if an I/O error occurs
+     */
+    private void exportRange(RangeExportContext context, Binary binary, long offset,
+                             long length, long totalLength) throws IOException, RepositoryException {
+        try {
+            OutputStream out = context.getOutputStream();
+            byte[] buffer = new byte[8192];
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                int len = binary.read(buffer, position);
+                if (len < 0) {
+                    break;
+                }
+                len = (int) Math.min(len, end - position);
+                out.write(buffer, 0, len);
+                position += len;
+            }
+            context.setContentRange(offset, position - offset, totalLength);
+        } finally {
+            binary.dispose();
+        }
+    }
+
     /**
      * Retrieves mimetype, encoding and modification time from the content node.
      * The content length is determined by the length of the jcr:data property
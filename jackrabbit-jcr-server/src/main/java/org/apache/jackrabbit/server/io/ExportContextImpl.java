@@ -18,7 +18,9 @@ package org.apache.jackrabbit.server.io;
 
 import org.apache.jackrabbit.webdav.DavConstants;
 import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.io.ByteRange;
 import org.apache.jackrabbit.webdav.io.OutputContext;
+import org.apache.jackrabbit.webdav.io.RangeOutputContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,7 +44,7 @@ import java.util.Map;
  *
  * @see #informCompleted(boolean)
  */
-public class ExportContextImpl extends AbstractExportContext {
+public class ExportContextImpl extends AbstractExportContext implements RangeExportContext {
 
     private static Logger log = LoggerFactory.getLogger(ExportContextImpl.class);
 
@@ -52,6 +54,12 @@ public class ExportContextImpl extends AbstractExportContext {
     private File outFile;
     private OutputStream outStream;
 
+    /**
+     * Offset, length and total length of the exported range, or
+     * <code>null</code> if the complete content has been exported.
+     */
+    private long[] contentRange;
+
     public ExportContextImpl(Item exportRoot, OutputContext outputCtx)
             throws IOException {
         super(exportRoot, outputCtx != null && outputCtx.hasStream(), null);
@@ -146,6 +154,28 @@ public class ExportContextImpl extends AbstractExportContext {
         }
     }
 
+    /**
+     * Returns the range requested from the wrapped output context, if it is a
+     * {@link RangeOutputContext}.
+     *
+     * @see RangeExportContext#getRange()
+     */
+    public ByteRange getRange() {
+        if (outputCtx instanceof RangeOutputContext) {
+            return ((RangeOutputContext) outputCtx).getRange();
+        }
+        return null;
+    }
+
+    /**
+     * @see RangeExportContext#setContentRange(long, long, long)
+     */
+    public void setContentRange(long offset, long length, long totalLength) {
+        if (getRange() != null) {
+            contentRange = new long[] {offset, length, totalLength};
+        }
+    }
+
     /**
      * If success is true, the properties set before an the output stream are
      * written to the wrapped <code>OutputContext</code>.
@@ -169,6 +199,13 @@ public class ExportContextImpl extends AbstractExportContext {
             // write properties and data to the output-context
             if (outputCtx != null) {
                 boolean seenContentLength = false;
+                if (contentRange != null) {
+                    // the length of the range replaces the content length
+                    properties.remove(DavConstants.HEADER_CONTENT_LENGTH);
+                    ((RangeOutputContext) outputCtx).setContentRange(
+                            contentRange[0], contentRange[1], contentRange[2]);
+                    seenContentLength = true;
+                }
                 for (Map.Entry<String, String> entry : properties.entrySet()) {
                     String name = entry.getKey();
                     String value = entry.getValue();
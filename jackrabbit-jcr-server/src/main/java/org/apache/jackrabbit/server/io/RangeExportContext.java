@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.server.io;
+
+import org.apache.jackrabbit.webdav.io.ByteRange;
+
+/**
+ * <code>RangeExportContext</code> is an {@link ExportContext} for a request
+ * of a single byte range of the content. Handlers that are able to export
+ * a part of the content only write the bytes of the range to the output
+ * stream and call {@link #setContentRange(long, long, long)}. All other
+ * handlers export the complete content as usual.
+ */
+public interface RangeExportContext extends ExportContext {
+
+    /**
+     * Returns the requested byte range.
+     *
+     * @return the byte range or <code>null</code> if the complete content
+     * is to be exported.
+     */
+    public ByteRange getRange();
+
+    /**
+     * Indicates that only the given range of the content has been written
+     * to the output stream.
+     *
+     * @param offset the position of the first byte written
+     * @param length the number of bytes written
+     * @param totalLength the length of the complete content
+     */
+    public void setContentRange(long offset, long length, long totalLength);
+}
@@ -34,6 +34,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.Selectors;
 import org.apache.jackrabbit.core.data.AbstractBackend;
 import org.apache.jackrabbit.core.data.AsyncTouchCallback;
 import org.apache.jackrabbit.core.data.AsyncTouchResult;
@@ -42,13 +43,15 @@ import org.apache.jackrabbit.core.data.AsyncUploadResult;
 import org.apache.jackrabbit.core.data.CachingDataStore;
 import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.data.DataStoreException;
+import org.apache.jackrabbit.core.data.MultipartBackend;
+import org.apache.jackrabbit.core.data.MultipartUpload;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A data store backend that stores data on VFS file system.
  */
-public class VFSBackend extends AbstractBackend {
+public class VFSBackend extends AbstractBackend implements MultipartBackend {
 
     /**
      * Logger instance.
@@ -75,6 +78,12 @@ public class VFSBackend extends AbstractBackend {
      */
     private static final String TOUCH_FILE_NAME_SUFFIX = ".touch";
 
+    /**
+     * Name of the folder below the base folder where the parts of multipart uploads are kept
+     * until the upload is complete.
+     */
+    static final String MULTIPART_FOLDER_NAME = "multipart";
+
     /**
      * VFS base folder object.
      */
@@ -183,7 +192,9 @@ public class VFSBackend extends AbstractBackend {
 
         try {
             for (FileObject fileObject : VFSUtils.getChildFolders(getBaseFolderObject())) { // skip top-level files
-                pushIdentifiersRecursively(identifiers, fileObject);
+                if (!isMultipartFolderObject(fileObject)) {
+                    pushIdentifiersRecursively(identifiers, fileObject);
+                }
             }
         } catch (FileSystemException e) {
             throw new DataStoreException("Object identifiers not resolved.", e);
@@ -250,7 +261,9 @@ public class VFSBackend extends AbstractBackend {
 
         try {
             for (FileObject folderObject : VFSUtils.getChildFolders(getBaseFolderObject())) {
-                deleteOlderRecursive(deleteIdSet, folderObject, timestamp);
+                if (!isMultipartFolderObject(folderObject)) {
+                    deleteOlderRecursive(deleteIdSet, folderObject, timestamp);
+                }
             }
         } catch (FileSystemException e) {
             throw new DataStoreException("Object deletion aborted.", e);
@@ -363,6 +376,176 @@ public class VFSBackend extends AbstractBackend {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Parts are kept as files named by the part index and checksum in a folder of the upload,
+     * so that the parts of a previous attempt can be found again.
+     */
+    @Override
+    public Set<Integer> startMultipartUpload(MultipartUpload upload) throws DataStoreException {
+        FileObject uploadFolderObject = getMultipartFolderObject(upload, true);
+        Set<Integer> stored = new HashSet<Integer>();
+
+        try {
+            for (MultipartUpload.Part part : upload.getParts()) {
+                FileObject partFileObject = uploadFolderObject.getChild(getPartFileName(part));
+
+                if (partFileObject != null && partFileObject.getContent().getSize() == part.getLength()) {
+                    stored.add(part.getIndex());
+                }
+            }
+        } catch (FileSystemException e) {
+            throw new DataStoreException("Could not list parts of " + upload, e);
+        }
+
+        return stored;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writePart(MultipartUpload upload, MultipartUpload.Part part, InputStream in)
+            throws DataStoreException {
+        FileObject uploadFolderObject = getMultipartFolderObject(upload, true);
+        String partFileName = getPartFileName(part);
+        FileObject tempFileObject = VFSUtils.createChildFile(uploadFolderObject, partFileName + ".tmp");
+        OutputStream output = null;
+
+        try {
+            output = tempFileObject.getContent().getOutputStream();
+            MultipartUpload.copyPart(part, in, output);
+            output.close();
+            output = null;
+            tempFileObject.moveTo(uploadFolderObject.resolveFile(partFileName));
+        } catch (IOException e) {
+            IOUtils.closeQuietly(output);
+
+            try {
+                tempFileObject.delete();
+            } catch (FileSystemException e2) {
+                LOG.warn("Could not delete " + tempFileObject.getName().getFriendlyURI(), e2);
+            }
+
+            throw new DataStoreException("Could not write part " + part + " of " + upload, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void completeMultipartUpload(MultipartUpload upload) throws DataStoreException {
+        DataIdentifier identifier = upload.getIdentifier();
+        FileObject uploadFolderObject = getMultipartFolderObject(upload, false);
+
+        if (uploadFolderObject == null) {
+            throw new DataStoreException("Upload not found: " + upload);
+        }
+
+        synchronized (this) {
+            if (getExistingFileObject(identifier) != null) {
+                updateLastModifiedTime(resolveFileObject(identifier));
+            } else {
+                String relPath = resolveFileObjectRelPath(identifier);
+                String [] segments = relPath.split("/");
+                OutputStream output = null;
+
+                try {
+                    FileObject folderObject = getBaseFolderObject();
+
+                    for (int i = 0; i < segments.length - 1; i++) {
+                        folderObject = VFSUtils.createChildFolder(folderObject, segments[i]);
+                    }
+
+                    FileObject destFileObject = VFSUtils.createChildFile(folderObject, segments[segments.length - 1]);
+                    output = destFileObject.getContent().getOutputStream();
+
+                    for (MultipartUpload.Part part : upload.getParts()) {
+                        FileObject partFileObject = uploadFolderObject.getChild(getPartFileName(part));
+
+                        if (partFileObject == null) {
+                            throw new IOException("Missing part " + part + " of " + upload);
+                        }
+
+                        InputStream input = partFileObject.getContent().getInputStream();
+
+                        try {
+                            IOUtils.copy(input, output);
+                        } finally {
+                            IOUtils.closeQuietly(input);
+                        }
+                    }
+
+                    output.close();
+                    output = null;
+                } catch (IOException e) {
+                    IOUtils.closeQuietly(output);
+                    deleteRecord(identifier);
+                    throw new DataStoreException("Could not complete upload of " + upload, e);
+                }
+            }
+        }
+
+        abortMultipartUpload(upload);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abortMultipartUpload(MultipartUpload upload) throws DataStoreException {
+        FileObject uploadFolderObject = getMultipartFolderObject(upload, false);
+
+        if (uploadFolderObject != null) {
+            try {
+                uploadFolderObject.delete(Selectors.SELECT_ALL);
+            } catch (FileSystemException e) {
+                throw new DataStoreException("Could not delete parts of " + upload, e);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the folderObject holds the parts of multipart uploads.
+     *
+     * @param folderObject folder object
+     * @return true if the folderObject holds the parts of multipart uploads
+     */
+    protected boolean isMultipartFolderObject(FileObject folderObject) {
+        return MULTIPART_FOLDER_NAME.equals(folderObject.getName().getBaseName());
+    }
+
+    /**
+     * Returns the folder holding the parts of the {@code upload}.
+     * If the folder doesn't exist, then returns null when {@code create} is false.
+     *
+     * @param upload multipart upload
+     * @param create create the folder if not existing
+     * @return the folder holding the parts of the upload
+     * @throws DataStoreException if any file system exception occurs
+     */
+    private FileObject getMultipartFolderObject(MultipartUpload upload, boolean create) throws DataStoreException {
+        String uploadFolderName = upload.getIdentifier().toString();
+
+        if (create) {
+            FileObject multipartFolderObject = VFSUtils.createChildFolder(getBaseFolderObject(), MULTIPART_FOLDER_NAME);
+            return VFSUtils.createChildFolder(multipartFolderObject, uploadFolderName);
+        }
+
+        try {
+            FileObject multipartFolderObject = getBaseFolderObject().getChild(MULTIPART_FOLDER_NAME);
+            return multipartFolderObject != null ? multipartFolderObject.getChild(uploadFolderName) : null;
+        } catch (FileSystemException e) {
+            throw new DataStoreException("Upload folder not resolved: " + upload, e);
+        }
+    }
+
+    private static String getPartFileName(MultipartUpload.Part part) {
+        return part.getIndex() + "-" + part.getChecksum();
+    }
+
     /**
      * Returns true if the fileObject is used for touching purpose.
      *
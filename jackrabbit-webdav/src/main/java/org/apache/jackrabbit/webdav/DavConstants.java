@@ -42,6 +42,7 @@ public interface DavConstants {
     public static final String HEADER_CONTENT_TYPE = "Content-Type";
     public static final String HEADER_CONTENT_LENGTH = "Content-Length";
     public static final String HEADER_CONTENT_LANGUAGE = "Content-Language";
+    public static final String HEADER_CONTENT_RANGE = "Content-Range";
     public static final String HEADER_ETAG = "ETag";
     public static final String HEADER_LAST_MODIFIED = "Last-Modified";
 
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.webdav.io;
+
+/**
+ * <code>ByteRange</code> represents a single byte range as present in the
+ * <code>Range</code> header of a GET request (RFC 7233), i.e. one of
+ * <code>bytes=first-last</code>, <code>bytes=first-</code> or
+ * <code>bytes=-suffixLength</code>. Requests for multiple ranges are not
+ * supported and are answered with the complete representation.
+ */
+public class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    /**
+     * Position of the first byte, or -1 for a suffix range.
+     */
+    private final long first;
+
+    /**
+     * Position of the last byte, -1 if open ended, or the number of bytes
+     * of a suffix range.
+     */
+    private final long last;
+
+    private ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parses the value of a <code>Range</code> header.
+     *
+     * @param value the header value, may be <code>null</code>
+     * @return the byte range, or <code>null</code> if the value is missing,
+     * malformed or contains more than one range.
+     */
+    public static ByteRange parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        value = value.trim();
+        if (!value.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+        String spec = value.substring(BYTES_UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        try {
+            String start = spec.substring(0, dash).trim();
+            String end = spec.substring(dash + 1).trim();
+            if (start.length() == 0) {
+                long suffix = Long.parseLong(end);
+                return suffix > 0 ? new ByteRange(-1, suffix) : null;
+            }
+            long first = Long.parseLong(start);
+            long last = (end.length() == 0) ? -1 : Long.parseLong(end);
+            if (first < 0 || (last >= 0 && last < first)) {
+                return null;
+            }
+            return new ByteRange(first, last);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the range contains at least one byte of a
+     * representation of the given length.
+     *
+     * @param totalLength the length of the complete representation
+     * @return true if the range is satisfiable
+     */
+    public boolean isSatisfiable(long totalLength) {
+        return totalLength > 0 && first < totalLength;
+    }
+
+    /**
+     * Returns the position of the first byte of the range within a
+     * representation of the given length.
+     *
+     * @param totalLength the length of the complete representation
+     * @return the offset of the range
+     */
+    public long getOffset(long totalLength) {
+        if (first < 0) {
+            return Math.max(0, totalLength - last);
+        }
+        return first;
+    }
+
+    /**
+     * Returns the number of bytes of the range within a representation of
+     * the given length.
+     *
+     * @param totalLength the length of the complete representation
+     * @return the length of the range
+     */
+    public long getLength(long totalLength) {
+        long offset = getOffset(totalLength);
+        long end = (first < 0 || last < 0) ? totalLength - 1 : Math.min(last, totalLength - 1);
+        return Math.max(0, end - offset + 1);
+    }
+
+    @Override
+    public String toString() {
+        if (first < 0) {
+            return BYTES_UNIT + "-" + last;
+        }
+        return BYTES_UNIT + first + "-" + (last < 0 ? "" : String.valueOf(last));
+    }
+}
@@ -26,20 +26,26 @@ import java.io.OutputStream;
 /**
  * <code>OutputContextImpl</code>...
  */
-public class OutputContextImpl implements OutputContext {
+public class OutputContextImpl implements OutputContext, RangeOutputContext {
 
     private static Logger log = LoggerFactory.getLogger(OutputContextImpl.class);
 
     private final HttpServletResponse response;
     private final OutputStream out;
+    private final ByteRange range;
 
     public OutputContextImpl(HttpServletResponse response, OutputStream out) {
+        this(response, out, null);
+    }
+
+    public OutputContextImpl(HttpServletResponse response, OutputStream out, ByteRange range) {
         if (response == null) {
             throw new IllegalArgumentException("Response must not be null.");
         }
 
         this.response = response;
         this.out = out;
+        this.range = range;
     }
 
     public boolean hasStream() {
@@ -85,4 +91,15 @@ public class OutputContextImpl implements OutputContext {
             response.setHeader(propertyName, propertyValue);
         }
     }
-}
\ No newline at end of file
+
+    public ByteRange getRange() {
+        return range;
+    }
+
+    public void setContentRange(long offset, long length, long totalLength) {
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setHeader(DavConstants.HEADER_CONTENT_RANGE,
+                "bytes " + offset + "-" + (offset + length - 1) + "/" + totalLength);
+        setContentLength(length);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.webdav.io;
+
+/**
+ * <code>RangeOutputContext</code> is an {@link OutputContext} for a GET
+ * request with a single byte range. An exporter that is able to write only
+ * a part of the content calls {@link #setContentRange(long, long, long)}
+ * instead of {@link #setContentLength(long)} and writes the bytes of the
+ * range only. Exporters not aware of ranges write the complete content,
+ * which is a valid response to a range request.
+ */
+public interface RangeOutputContext extends OutputContext {
+
+    /**
+     * Returns the byte range requested by the client.
+     *
+     * @return the byte range or <code>null</code> if the complete content
+     * is to be written.
+     */
+    public ByteRange getRange();
+
+    /**
+     * Marks the response as partial content containing the given range
+     * and sets its length.
+     *
+     * @param offset the position of the first byte written
+     * @param length the number of bytes written
+     * @param totalLength the length of the complete content
+     */
+    public void setContentRange(long offset, long length, long totalLength);
+}
@@ -38,10 +38,12 @@ import org.apache.jackrabbit.webdav.bind.UnbindInfo;
 import org.apache.jackrabbit.webdav.bind.BindableResource;
 import org.apache.jackrabbit.webdav.bind.BindInfo;
 import org.apache.jackrabbit.webdav.header.CodedUrlHeader;
+import org.apache.jackrabbit.webdav.io.ByteRange;
 import org.apache.jackrabbit.webdav.io.InputContext;
 import org.apache.jackrabbit.webdav.io.InputContextImpl;
 import org.apache.jackrabbit.webdav.io.OutputContext;
 import org.apache.jackrabbit.webdav.io.OutputContextImpl;
+import org.apache.jackrabbit.webdav.io.RangeOutputContext;
 import org.apache.jackrabbit.webdav.lock.ActiveLock;
 import org.apache.jackrabbit.webdav.lock.LockDiscovery;
 import org.apache.jackrabbit.webdav.lock.LockInfo;
@@ -604,10 +606,60 @@ abstract public class AbstractWebdavServlet extends HttpServlet implements DavCo
 
         // spool resource properties and eventually resource content.
         OutputStream out = (sendContent) ? response.getOutputStream() : null;
-        resource.spool(getOutputContext(response, out));
+        ByteRange range = (sendContent) ? getByteRange(request, resource) : null;
+        resource.spool(getOutputContext(response, out, range));
         response.flushBuffer();
     }
 
+    /**
+     * Returns the single byte range requested by the <code>Range</code>
+     * header of a GET request, or <code>null</code> if the complete
+     * resource is to be sent. The range is ignored if it is malformed, if
+     * multiple ranges are requested, or if the <code>If-Range</code> header
+     * does not match the current entity tag or modification time of the
+     * resource.
+     *
+     * @param request
+     * @param resource
+     * @return the byte range or <code>null</code>
+     */
+    private ByteRange getByteRange(WebdavRequest request, DavResource resource) {
+        ByteRange range;
+        String ifRange;
+        try {
+            // will throw if multiple field lines present
+            range = ByteRange.parse(getSingletonField(request, "Range"));
+            ifRange = getSingletonField(request, "If-Range");
+        } catch (IllegalArgumentException ex) {
+            log.debug("illegal range request ignored: " + ex.getMessage());
+            return null;
+        }
+        if (range == null || ifRange == null) {
+            return range;
+        }
+
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // weak entity tags never match
+            DavProperty<?> etagProp = resource.getProperty(DavPropertyName.GETETAG);
+            if (!ifRange.startsWith("W/") && etagProp != null
+                    && ifRange.equals(String.valueOf(etagProp.getValue()))) {
+                return range;
+            }
+        } else {
+            try {
+                long modTime = resource.getModificationTime();
+                if (modTime != UNDEFINED_TIME
+                        && (modTime / 1000 * 1000) == HttpDateTimeFormatter.parse(ifRange)) {
+                    return range;
+                }
+            } catch (IllegalArgumentException | DateTimeParseException ex) {
+                log.debug("illegal value for if-range ignored: " + ex.getMessage());
+            }
+        }
+        return null;
+    }
+
     /**
      * The PROPFIND method
      *
@@ -1482,6 +1534,25 @@ abstract public class AbstractWebdavServlet extends HttpServlet implements DavCo
         return new OutputContextImpl(response, out);
     }
 
+    /**
+     * Return a new <code>OutputContext</code> used for spooling resource properties and
+     * the requested byte range of the resource content. If no range has been
+     * requested, {@link #getOutputContext(DavServletResponse, OutputStream)}
+     * is used.
+     *
+     * @param response
+     * @param out
+     * @param range the requested byte range or <code>null</code>
+     * @return
+     * @see RangeOutputContext
+     */
+    protected OutputContext getOutputContext(DavServletResponse response, OutputStream out, ByteRange range) {
+        if (range == null) {
+            return getOutputContext(response, out);
+        }
+        return new OutputContextImpl(response, out, range);
+    }
+
     /**
      * Obtain the (ordered!) list of content codings that have been used in the
      * request
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.webdav.io;
+
+import junit.framework.TestCase;
+
+/**
+ * <code>ByteRangeTest</code>...
+ */
+public class ByteRangeTest extends TestCase {
+
+    public void testParse() {
+        ByteRange range = ByteRange.parse("bytes=100-199");
+        assertNotNull(range);
+        assertEquals(100, range.getOffset(1000));
+        assertEquals(100, range.getLength(1000));
+        assertEquals("bytes=100-199", range.toString());
+
+        range = ByteRange.parse("bytes=100-");
+        assertEquals(100, range.getOffset(1000));
+        assertEquals(900, range.getLength(1000));
+
+        range = ByteRange.parse("bytes=-100");
+        assertEquals(900, range.getOffset(1000));
+        assertEquals(100, range.getLength(1000));
+    }
+
+    public void testParseInvalid() {
+        assertNull(ByteRange.parse(null));
+        assertNull(ByteRange.parse("items=0-1"));
+        assertNull(ByteRange.parse("bytes=0-1,5-6"));
+        assertNull(ByteRange.parse("bytes=5-1"));
+        assertNull(ByteRange.parse("bytes=-0"));
+        assertNull(ByteRange.parse("bytes=a-b"));
+        assertNull(ByteRange.parse("bytes=100"));
+    }
+
+    public void testResolve() {
+        ByteRange range = ByteRange.parse("bytes=900-2000");
+        assertTrue(range.isSatisfiable(1000));
+        assertEquals(900, range.getOffset(1000));
+        assertEquals(100, range.getLength(1000));
+
+        range = ByteRange.parse("bytes=-2000");
+        assertTrue(range.isSatisfiable(1000));
+        assertEquals(0, range.getOffset(1000));
+        assertEquals(1000, range.getLength(1000));
+
+        range = ByteRange.parse("bytes=1000-");
+        assertFalse(range.isSatisfiable(1000));
+        assertFalse(range.isSatisfiable(0));
+    }
+}
@@ -25,6 +25,7 @@ public class TestAll extends TestCase {
     public static Test suite() {
         TestSuite suite = new TestSuite("WebDAV IO tests");
 
+        suite.addTestSuite(ByteRangeTest.class);
         suite.addTestSuite(OutputContextImplTest.class);
 
         return suite;
@@ -98,6 +98,7 @@ public abstract class AbstractPerformanceTest {
         runTest(new SQL2SearchTest(), name, conf);
         runTest(new DescendantSearchTest(), name, conf);
         runTest(new SQL2DescendantSearchTest(), name, conf);
+        runTest(new DeepDescendantSearchTest(), name, conf);
         runTest(new TwoWayJoinTest(), name, conf);
         runTest(new ThreeWayJoinTest(), name, conf);
         runTest(new CreateManyChildNodesTest(), name, conf);
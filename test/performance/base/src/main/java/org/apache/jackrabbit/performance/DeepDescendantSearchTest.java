@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+
+/**
+ * Performance test of queries with a descendant axis on a deep tree. Each
+ * query is restricted to one of several sub-trees, so that the parents of
+ * many matching nodes are resolved to check the path constraint.
+ */
+public class DeepDescendantSearchTest extends AbstractTest {
+
+    private static final int TREE_COUNT = 4;
+
+    private static final int DEPTH = 4;
+
+    private static final int FAN_OUT = 6;
+
+    private Session session;
+
+    private Node root;
+
+    public void beforeSuite() throws RepositoryException {
+        session = getRepository().login(getCredentials());
+
+        root = session.getRootNode().addNode("testroot", "nt:unstructured");
+        for (int i = 0; i < TREE_COUNT; i++) {
+            createTree(root.addNode("tree" + i, "nt:unstructured"), 0);
+            session.save();
+        }
+    }
+
+    private void createTree(Node node, int level) throws RepositoryException {
+        for (int i = 0; i < FAN_OUT; i++) {
+            Node child = node.addNode("node" + i, "nt:unstructured");
+            child.setProperty("testcount", i);
+            if (level + 1 < DEPTH) {
+                createTree(child, level + 1);
+            }
+        }
+    }
+
+    public void runTest() throws Exception {
+        QueryManager manager = session.getWorkspace().getQueryManager();
+        for (int t = 0; t < TREE_COUNT; t++) {
+            for (int i = 0; i < FAN_OUT; i++) {
+                Query query = manager.createQuery("/jcr:root/testroot/tree"
+                        + t + "//element(*,nt:unstructured)[@testcount=" + i
+                        + "]", Query.XPATH);
+                NodeIterator iterator = query.execute().getNodes();
+                while (iterator.hasNext()) {
+                    Node node = iterator.nextNode();
+                    if (node.getProperty("testcount").getLong() != i
+                            || !node.getPath().startsWith(
+                                    "/testroot/tree" + t + "/")) {
+                        throw new Exception(
+                                "Invalid test result: " + node.getPath());
+                    }
+                }
+            }
+        }
+    }
+
+    public void afterSuite() throws RepositoryException {
+        for (int i = 0; i < TREE_COUNT; i++) {
+            root.getNode("tree" + i).remove();
+            session.save();
+        }
+
+        root.remove();
+        session.save();
+        session.logout();
+    }
+
+}
@@ -0,0 +1,404 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance.cluster;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.jcr.Credentials;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
+import org.apache.jackrabbit.api.observation.JackrabbitEvent;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.cluster.ClusterNode;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.apache.jackrabbit.core.config.RepositoryConfigurationParser;
+import org.apache.jackrabbit.core.journal.MemoryRecordLog;
+import org.xml.sax.InputSource;
+
+/**
+ * Benchmark of a cluster running inside a single JVM. Starts a number of
+ * repositories that share their persistence managers, file system and data
+ * store through an embedded database and a data store directory, and their
+ * journal through a shared {@link org.apache.jackrabbit.core.journal.MemoryJournal}.
+ * Each cluster node runs a number of threads that either add a node or read
+ * a recently added one, and listens for the nodes added on the other cluster
+ * nodes to measure how long it takes for a change to become visible.
+ */
+public class ClusterBenchmark {
+
+    private static final Credentials CREDENTIALS =
+        new SimpleCredentials("admin", "admin".toCharArray());
+
+    /**
+     * Number of nodes added below a bucket node.
+     */
+    private static final int BUCKET_SIZE = 100;
+
+    /**
+     * Number of recently added nodes that are candidates for reading.
+     */
+    private static final int RECENT_SIZE = 1024;
+
+    private final int nodeCount;
+
+    private final int threadCount;
+
+    private final double writeRatio;
+
+    private final long duration;
+
+    private final File home;
+
+    private final String name;
+
+    private final List<RepositoryImpl> repositories =
+        new ArrayList<RepositoryImpl>();
+
+    private final List<Session> sessions = new ArrayList<Session>();
+
+    /**
+     * Time when each added node has been saved, by path.
+     */
+    private final Map<String, Long> saved = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Paths of external node added events, with the time they were received.
+     */
+    private final Queue<Object[]> arrivals = new ConcurrentLinkedQueue<Object[]>();
+
+    /**
+     * Recently added nodes.
+     */
+    private final AtomicReferenceArray<String> recent =
+        new AtomicReferenceArray<String>(RECENT_SIZE);
+
+    private final AtomicLong writes = new AtomicLong();
+
+    private final AtomicLong reads = new AtomicLong();
+
+    private volatile boolean running;
+
+    /**
+     * Creates a new benchmark.
+     *
+     * @param nodeCount number of cluster nodes
+     * @param threadCount number of threads per cluster node
+     * @param writeRatio fraction of operations that add a node
+     * @param duration duration of the workload in milliseconds
+     * @param home directory of the cluster, deleted before and after the run
+     */
+    public ClusterBenchmark(
+            int nodeCount, int threadCount, double writeRatio,
+            long duration, File home) {
+        this.nodeCount = nodeCount;
+        this.threadCount = threadCount;
+        this.writeRatio = writeRatio;
+        this.duration = duration;
+        this.home = home;
+        this.name = "ClusterBenchmark-" + home.getName();
+    }
+
+    /**
+     * Starts the cluster, runs the workload and shuts the cluster down.
+     *
+     * @return the results
+     * @throws Exception if the benchmark fails
+     */
+    public Result run() throws Exception {
+        FileUtils.deleteQuietly(home);
+        try {
+            startCluster();
+            return runWorkload();
+        } finally {
+            stopCluster();
+            MemoryRecordLog.removeLog(name);
+            FileUtils.deleteQuietly(home);
+        }
+    }
+
+    private void startCluster() throws Exception {
+        String nodeId = System.getProperty(ClusterNode.SYSTEM_PROPERTY_NODE_ID);
+        try {
+            for (int i = 0; i < nodeCount; i++) {
+                System.setProperty(
+                        ClusterNode.SYSTEM_PROPERTY_NODE_ID, "node" + i);
+                repositories.add(RepositoryImpl.create(createConfig(i)));
+            }
+        } finally {
+            if (nodeId != null) {
+                System.setProperty(ClusterNode.SYSTEM_PROPERTY_NODE_ID, nodeId);
+            } else {
+                System.clearProperty(ClusterNode.SYSTEM_PROPERTY_NODE_ID);
+            }
+        }
+
+        Session session = login(0);
+        Node root = session.getRootNode().addNode("cluster", "nt:unstructured");
+        for (int i = 0; i < nodeCount; i++) {
+            Node node = root.addNode("node" + i, "nt:unstructured");
+            for (int j = 0; j < threadCount; j++) {
+                node.addNode("thread" + j, "nt:unstructured");
+            }
+        }
+        session.save();
+
+        for (int i = 0; i < nodeCount; i++) {
+            Session nodeSession = login(i);
+            waitFor(nodeSession, "/cluster/node" + (nodeCount - 1)
+                    + "/thread" + (threadCount - 1));
+            ObservationManager manager =
+                nodeSession.getWorkspace().getObservationManager();
+            manager.addEventListener(new EventListener() {
+                public void onEvent(EventIterator events) {
+                    long now = System.nanoTime();
+                    while (events.hasNext()) {
+                        Event event = events.nextEvent();
+                        if (event instanceof JackrabbitEvent
+                                && ((JackrabbitEvent) event).isExternal()) {
+                            try {
+                                arrivals.add(new Object[] {
+                                        event.getPath(), now });
+                            } catch (RepositoryException e) {
+                                // ignore
+                            }
+                        }
+                    }
+                }
+            }, Event.NODE_ADDED, "/cluster", true, null, null, false);
+        }
+    }
+
+    /**
+     * Waits until the given node is visible in the session, i.e. until the
+     * cluster node of the session has been synchronized.
+     */
+    private static void waitFor(Session session, String path)
+            throws Exception {
+        long end = System.currentTimeMillis() + 10000;
+        while (!session.nodeExists(path)) {
+            if (System.currentTimeMillis() > end) {
+                throw new Exception("Node not visible: " + path);
+            }
+            Thread.sleep(10);
+            session.refresh(false);
+        }
+    }
+
+    private RepositoryConfig createConfig(int index) throws Exception {
+        File dir = new File(home, "node" + index);
+        Properties variables = new Properties(System.getProperties());
+        variables.setProperty(
+                RepositoryConfigurationParser.REPOSITORY_HOME_VARIABLE,
+                dir.getPath());
+        variables.setProperty("cluster.home", home.getAbsolutePath());
+        variables.setProperty("cluster.name", name);
+
+        InputStream xml = ClusterBenchmark.class.getResourceAsStream(
+                "repository.xml");
+        try {
+            return RepositoryConfig.create(new InputSource(xml), variables);
+        } finally {
+            xml.close();
+        }
+    }
+
+    private Result runWorkload() throws Exception {
+        List<Thread> threads = new ArrayList<Thread>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        for (int i = 0; i < nodeCount; i++) {
+            for (int j = 0; j < threadCount; j++) {
+                final Session session = login(i);
+                final Node parent = session.getNode(
+                        "/cluster/node" + i + "/thread" + j);
+                final Random random = new Random(i * threadCount + j);
+                threads.add(new Thread() {
+                    public void run() {
+                        try {
+                            runWorker(session, parent, random);
+                        } catch (Throwable t) {
+                            synchronized (errors) {
+                                errors.add(t);
+                            }
+                        }
+                    }
+                });
+            }
+        }
+
+        running = true;
+        long start = System.currentTimeMillis();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(duration);
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        if (!errors.isEmpty()) {
+            throw new Exception("Workload failed", errors.get(0));
+        }
+
+        // Give the cluster nodes some time to receive the last changes
+        long expected = writes.get() * (nodeCount - 1);
+        long end = System.currentTimeMillis() + 10000;
+        while (arrivals.size() < expected && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+
+        DescriptiveStatistics latency = new DescriptiveStatistics();
+        for (Object[] arrival : arrivals) {
+            Long time = saved.get(arrival[0]);
+            if (time != null) {
+                long nanos = ((Long) arrival[1]).longValue() - time.longValue();
+                latency.addValue(Math.max(0, nanos) / 1000000.0);
+            }
+        }
+        return new Result(nodeCount, threadCount, elapsed,
+                writes.get(), reads.get(), latency);
+    }
+
+    private void runWorker(Session session, Node parent, Random random)
+            throws RepositoryException {
+        Node bucket = null;
+        int count = 0;
+        while (running) {
+            if (random.nextDouble() < writeRatio) {
+                if (count % BUCKET_SIZE == 0) {
+                    bucket = parent.addNode(
+                            "bucket" + (count / BUCKET_SIZE), "nt:unstructured");
+                }
+                Node node = bucket.addNode("node" + count, "nt:unstructured");
+                node.setProperty("count", count);
+                session.save();
+                long now = System.nanoTime();
+                count++;
+
+                String path = node.getPath();
+                saved.put(path, now);
+                recent.set(random.nextInt(RECENT_SIZE), path);
+                writes.incrementAndGet();
+            } else {
+                String path = recent.get(random.nextInt(RECENT_SIZE));
+                session.refresh(false);
+                if (path != null && session.nodeExists(path)) {
+                    session.getNode(path).getProperty("count").getLong();
+                }
+                reads.incrementAndGet();
+            }
+        }
+    }
+
+    private Session login(int index) throws RepositoryException {
+        Session session = repositories.get(index).login(CREDENTIALS);
+        sessions.add(session);
+        return session;
+    }
+
+    private void stopCluster() {
+        for (Session session : sessions) {
+            if (session.isLive()) {
+                session.logout();
+            }
+        }
+        sessions.clear();
+        for (int i = repositories.size() - 1; i >= 0; i--) {
+            repositories.get(i).shutdown();
+        }
+        repositories.clear();
+    }
+
+    /**
+     * Results of a benchmark run.
+     */
+    public static class Result {
+
+        private final int nodeCount;
+
+        private final int threadCount;
+
+        private final long elapsed;
+
+        private final long writes;
+
+        private final long reads;
+
+        private final DescriptiveStatistics latency;
+
+        Result(int nodeCount, int threadCount, long elapsed,
+               long writes, long reads, DescriptiveStatistics latency) {
+            this.nodeCount = nodeCount;
+            this.threadCount = threadCount;
+            this.elapsed = elapsed;
+            this.writes = writes;
+            this.reads = reads;
+            this.latency = latency;
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        public int getThreadCount() {
+            return threadCount;
+        }
+
+        /**
+         * @return number of nodes added per second by the whole cluster
+         */
+        public double getWriteThroughput() {
+            return writes * 1000.0 / elapsed;
+        }
+
+        /**
+         * @return number of reads per second by the whole cluster
+         */
+        public double getReadThroughput() {
+            return reads * 1000.0 / elapsed;
+        }
+
+        /**
+         * @return time in milliseconds between saving a node on one cluster
+         *         node and receiving the event on another cluster node
+         */
+        public DescriptiveStatistics getVisibilityLatency() {
+            return latency;
+        }
+    }
+}
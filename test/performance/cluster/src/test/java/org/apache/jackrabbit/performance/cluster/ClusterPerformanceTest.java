@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance.cluster;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.output.FileWriterWithEncoding;
+import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
+import org.testng.annotations.Test;
+
+/**
+ * Runs the {@link ClusterBenchmark} for each of the configured cluster sizes
+ * and appends the results to <code>target/ClusterBenchmark.txt</code>.
+ * The benchmark is configured with the following system properties:
+ * <ul>
+ *   <li><code>nodes</code>: comma separated cluster sizes</li>
+ *   <li><code>threads</code>: number of threads per cluster node</li>
+ *   <li><code>writeRatio</code>: fraction of operations that add a node</li>
+ *   <li><code>duration</code>: duration of each run in seconds</li>
+ * </ul>
+ */
+public class ClusterPerformanceTest {
+
+    private static final String NAME = "ClusterBenchmark";
+
+    @Test
+    public void testPerformance() throws Exception {
+        Pattern testPattern = Pattern.compile(System.getProperty("only", ".*"));
+        if (!testPattern.matcher(NAME).matches()) {
+            return;
+        }
+
+        String[] nodes = System.getProperty("nodes", "1,2,4").split(",");
+        int threads = Integer.getInteger("threads", 2);
+        double writeRatio =
+            Double.parseDouble(System.getProperty("writeRatio", "0.2"));
+        long duration = Long.getLong("duration", 30) * 1000;
+
+        for (String n : nodes) {
+            int nodeCount = Integer.parseInt(n.trim());
+            ClusterBenchmark benchmark = new ClusterBenchmark(
+                    nodeCount, threads, writeRatio, duration,
+                    new File(new File("target", "cluster"), "nodes" + nodeCount));
+            writeReport(benchmark.run());
+        }
+    }
+
+    private void writeReport(ClusterBenchmark.Result result) throws Exception {
+        File report = new File("target", NAME + ".txt");
+
+        boolean needsPrefix = !report.exists();
+        PrintWriter writer = new PrintWriter(
+                new FileWriterWithEncoding(report, "UTF-8", true));
+        try {
+            if (needsPrefix) {
+                writer.format(
+                        "# %5s %7s  %8s  %8s   visibility latency (ms):"
+                        + "     min     10%%     50%%     90%%     max%n",
+                        "nodes", "threads", "writes/s", "reads/s");
+            }
+
+            DescriptiveStatistics latency = result.getVisibilityLatency();
+            writer.format(
+                    "  %5d %7d  %8.1f  %8.1f                            "
+                    + "%6.1f  %6.1f  %6.1f  %6.1f  %6.1f%n",
+                    result.getNodeCount(),
+                    result.getThreadCount(),
+                    result.getWriteThroughput(),
+                    result.getReadThroughput(),
+                    latency.getMin(),
+                    latency.getPercentile(10.0),
+                    latency.getPercentile(50.0),
+                    latency.getPercentile(90.0),
+                    latency.getMax());
+        } finally {
+            writer.close();
+        }
+    }
+}